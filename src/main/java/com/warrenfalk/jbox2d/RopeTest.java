@@ -2,19 +2,18 @@ package com.warrenfalk.jbox2d;
 
 import java.util.LinkedList;
 
-import org.jbox2d.callbacks.RayCastCallback;
 import org.jbox2d.collision.shapes.PolygonShape;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
 import org.jbox2d.dynamics.BodyType;
-import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.FixtureDef;
 import org.jbox2d.dynamics.World;
 import org.jbox2d.dynamics.joints.Joint;
 import org.jbox2d.dynamics.joints.RevoluteJointDef;
 import org.jbox2d.dynamics.joints.RopeJointDef;
 import org.jbox2d.testbed.framework.TestbedTest;
+import org.jbox2d.testbed.query.RayCastBuffer;
 
 public class RopeTest extends TestbedTest {
 	
@@ -30,6 +29,10 @@ public class RopeTest extends TestbedTest {
 	Body weight;
 	
 	final static int ROPE = 0x2; // ropes collide with the world, but ropes don't collide with ropes
+	final static float RANGE = 17f; // how far the rope reaches when shot
+	
+	RayCastBuffer ropeRaycast = new RayCastBuffer(RayCastBuffer.Mode.CLOSEST, 1);
+	Vec2 from = new Vec2();
 
 	@Override
 	public void initTest(boolean deserialized) {
@@ -98,41 +101,15 @@ public class RopeTest extends TestbedTest {
 		}
 	}
 	
-	static class RopeRaycast implements RayCastCallback {
-		Fixture fixture;
-		Vec2 strikePoint;
-		Vec2 normal;
-		float fraction;
-		Body fromBody;
-		
-		public RopeRaycast(World world, Body fromBody, Vec2 from, float angle, float maxLength) {
-			this.fromBody = fromBody;
-			Vec2 to = from.add(new Vec2((float)Math.cos(angle), (float)Math.sin(angle)).mul(17f));
-			world.raycast(this, from, to);
-			if (strikePoint == null)
-				strikePoint = to;
-		}
-
-		@Override
-		public float reportFixture(Fixture fixture, Vec2 point, Vec2 normal, float fraction) {
-			if (fixture != null && fixture.getBody() == fromBody)
-				return -1;
-			this.fixture = fixture;
-			this.strikePoint = point;
-			this.normal = normal;
-			this.fraction = fraction;
-			return fraction;
-		}
-	}
-	
 	private Rope shootRope(World world, Rope rope, float thickness, float resolution, Body fromBody, Vec2 localFrom, float angle) {
 		// for now this is instant, find a place for the rope to strike, then strike there.
-		// find a strike point for the rope
-		Vec2 from = fromBody.getWorldPoint(localFrom);
-		RopeRaycast rrc = new RopeRaycast(world, fromBody, from, angle, 60f);
+		// find a strike point for the rope, the rope can't hit the body it's shot from
+		fromBody.getWorldPointToOut(localFrom, from);
+		ropeRaycast.setIgnoredBody(fromBody);
+		ropeRaycast.cast(world, from.x, from.y, from.x + RANGE * (float)Math.cos(angle), from.y + RANGE * (float)Math.sin(angle));
 		
-		if (rrc.fixture != null)
-			return createRope(world, thickness, resolution, fromBody, rrc.fixture.getBody(), from, rrc.strikePoint);
+		if (ropeRaycast.hasHit())
+			return createRope(world, thickness, resolution, fromBody, ropeRaycast.getFixture(0).getBody(), from, ropeRaycast.getPoint(0, new Vec2()));
 		return null;
 	}
 	
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.broadphase;
+
+import org.jbox2d.callbacks.DebugDraw;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.RayCastInput;
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import org.jbox2d.common.Color3f;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Vec2;
+
+/**
+ * Proxy storage for the broadphase strategies that aren't trees. The fat AABBs are kept in flat
+ * arrays, fattened the same way {@link org.jbox2d.collision.broadphase.DynamicTree} does it, and
+ * proxy ids are recycled through a free list. The tree statistics are all 0.
+ */
+public abstract class AbstractBroadPhaseStrategy implements BroadPhaseStrategy {
+  private static final int ACTIVE = -2;
+  private static final int NULL = -1;
+
+  protected float[] lowerX = new float[0], lowerY = new float[0];
+  protected float[] upperX = new float[0], upperY = new float[0];
+  protected int capacity = 0;
+  /**
+   * One more than the highest proxy id in use
+   */
+  protected int proxyLimit = 0;
+  protected int proxyCount = 0;
+
+  private Object[] userData = new Object[0];
+  private AABB[] aabbs = new AABB[0];
+  private int[] next = new int[0];
+  private int freeList = NULL;
+  private int insertionCount = 0;
+
+  private final Color3f color = new Color3f(.9f, .3f, .9f);
+  private final Vec2[] vertices = {new Vec2(), new Vec2(), new Vec2(), new Vec2()};
+
+  /**
+   * Takes a proxy id from the free list and sets its fat AABB
+   * 
+   * @param argAABB
+   * @param argUserData
+   * @return
+   */
+  protected int allocateProxy(AABB argAABB, Object argUserData) {
+    if (freeList == NULL) {
+      grow(Math.max(16, capacity * 2));
+    }
+    int id = freeList;
+    freeList = next[id];
+    next[id] = ACTIVE;
+    userData[id] = argUserData;
+    final float r = Settings.aabbExtension;
+    lowerX[id] = argAABB.lowerBound.x - r;
+    lowerY[id] = argAABB.lowerBound.y - r;
+    upperX[id] = argAABB.upperBound.x + r;
+    upperY[id] = argAABB.upperBound.y + r;
+    proxyLimit = Math.max(proxyLimit, id + 1);
+    proxyCount++;
+    insertionCount++;
+    return id;
+  }
+
+  protected void freeProxy(int argId) {
+    assert (isActive(argId));
+    userData[argId] = null;
+    next[argId] = freeList;
+    freeList = argId;
+    proxyCount--;
+  }
+
+  /**
+   * Sets the proxy's fat AABB for its new AABB, unless the old one still contains it
+   * 
+   * @param argId
+   * @param argAABB
+   * @param argDisplacement
+   * @return true if the fat AABB changed
+   */
+  protected boolean fatten(int argId, AABB argAABB, Vec2 argDisplacement) {
+    if (lowerX[argId] <= argAABB.lowerBound.x && lowerY[argId] <= argAABB.lowerBound.y
+        && argAABB.upperBound.x <= upperX[argId] && argAABB.upperBound.y <= upperY[argId]) {
+      return false;
+    }
+    final float r = Settings.aabbExtension;
+    float lx = argAABB.lowerBound.x - r, ly = argAABB.lowerBound.y - r;
+    float ux = argAABB.upperBound.x + r, uy = argAABB.upperBound.y + r;
+    // predict the movement
+    float dx = Settings.aabbMultiplier * argDisplacement.x;
+    float dy = Settings.aabbMultiplier * argDisplacement.y;
+    if (dx < 0) {
+      lx += dx;
+    } else {
+      ux += dx;
+    }
+    if (dy < 0) {
+      ly += dy;
+    } else {
+      uy += dy;
+    }
+    lowerX[argId] = lx;
+    lowerY[argId] = ly;
+    upperX[argId] = ux;
+    upperY[argId] = uy;
+    return true;
+  }
+
+  protected boolean isActive(int argId) {
+    return argId >= 0 && argId < capacity && next[argId] == ACTIVE;
+  }
+
+  protected void grow(int argCapacity) {
+    lowerX = copy(lowerX, argCapacity);
+    lowerY = copy(lowerY, argCapacity);
+    upperX = copy(upperX, argCapacity);
+    upperY = copy(upperY, argCapacity);
+    Object[] oldUserData = userData;
+    userData = new Object[argCapacity];
+    System.arraycopy(oldUserData, 0, userData, 0, capacity);
+    AABB[] oldAABBs = aabbs;
+    aabbs = new AABB[argCapacity];
+    System.arraycopy(oldAABBs, 0, aabbs, 0, capacity);
+    int[] oldNext = next;
+    next = new int[argCapacity];
+    System.arraycopy(oldNext, 0, next, 0, capacity);
+    // the new ids go on the free list lowest first
+    for (int i = argCapacity - 1; i >= capacity; i--) {
+      next[i] = freeList;
+      freeList = i;
+    }
+    capacity = argCapacity;
+  }
+
+  protected static float[] copy(float[] argOld, int argCapacity) {
+    float[] array = new float[argCapacity];
+    System.arraycopy(argOld, 0, array, 0, Math.min(argOld.length, argCapacity));
+    return array;
+  }
+
+  protected static int[] copy(int[] argOld, int argCapacity) {
+    int[] array = new int[argCapacity];
+    System.arraycopy(argOld, 0, array, 0, Math.min(argOld.length, argCapacity));
+    return array;
+  }
+
+  protected final boolean overlaps(int argId, AABB argAABB) {
+    return lowerX[argId] <= argAABB.upperBound.x && lowerY[argId] <= argAABB.upperBound.y
+        && argAABB.lowerBound.x <= upperX[argId] && argAABB.lowerBound.y <= upperY[argId];
+  }
+
+  /**
+   * Tests the segment from p1 to p1 + maxFraction * (p2 - p1) against the proxy's fat AABB
+   * 
+   * @param argId
+   * @param argP1X
+   * @param argP1Y
+   * @param argDX p2.x - p1.x
+   * @param argDY p2.y - p1.y
+   * @param argMaxFraction
+   * @return true if they overlap
+   */
+  protected final boolean segmentOverlaps(int argId, float argP1X, float argP1Y, float argDX, float argDY,
+      float argMaxFraction) {
+    float tmin = 0, tmax = argMaxFraction;
+    if (argDX == 0) {
+      if (argP1X < lowerX[argId] || argP1X > upperX[argId]) {
+        return false;
+      }
+    } else {
+      float inverse = 1 / argDX;
+      float t1 = (lowerX[argId] - argP1X) * inverse;
+      float t2 = (upperX[argId] - argP1X) * inverse;
+      tmin = Math.max(tmin, Math.min(t1, t2));
+      tmax = Math.min(tmax, Math.max(t1, t2));
+      if (tmin > tmax) {
+        return false;
+      }
+    }
+    if (argDY == 0) {
+      return argP1Y >= lowerY[argId] && argP1Y <= upperY[argId];
+    }
+    float inverse = 1 / argDY;
+    float t1 = (lowerY[argId] - argP1Y) * inverse;
+    float t2 = (upperY[argId] - argP1Y) * inverse;
+    tmin = Math.max(tmin, Math.min(t1, t2));
+    tmax = Math.min(tmax, Math.max(t1, t2));
+    return tmin <= tmax;
+  }
+
+  /**
+   * Sets up the input handed to the raycast callbacks
+   */
+  protected static void setSubInput(RayCastInput argSubInput, RayCastInput argInput, float argMaxFraction) {
+    argSubInput.p1.set(argInput.p1);
+    argSubInput.p2.set(argInput.p2);
+    argSubInput.maxFraction = argMaxFraction;
+  }
+
+  public final Object getUserData(int argProxyId) {
+    return userData[argProxyId];
+  }
+
+  public final AABB getFatAABB(int argProxyId) {
+    AABB aabb = aabbs[argProxyId];
+    if (aabb == null) {
+      aabb = aabbs[argProxyId] = new AABB();
+    }
+    aabb.lowerBound.set(lowerX[argProxyId], lowerY[argProxyId]);
+    aabb.upperBound.set(upperX[argProxyId], upperY[argProxyId]);
+    return aabb;
+  }
+
+  public int getProxyCount() {
+    return proxyCount;
+  }
+
+  public int computeHeight() {
+    return 0;
+  }
+
+  public int getHeight() {
+    return 0;
+  }
+
+  public int getMaxBalance() {
+    return 0;
+  }
+
+  public float getAreaRatio() {
+    return 0;
+  }
+
+  public int getInsertionCount() {
+    return insertionCount;
+  }
+
+  /**
+   * Draws the fat AABBs
+   */
+  public void drawTree(DebugDraw argDraw) {
+    for (int i = 0; i < proxyLimit; i++) {
+      if (!isActive(i)) {
+        continue;
+      }
+      vertices[0].set(lowerX[i], lowerY[i]);
+      vertices[1].set(upperX[i], lowerY[i]);
+      vertices[2].set(upperX[i], upperY[i]);
+      vertices[3].set(lowerX[i], upperY[i]);
+      argDraw.drawPolygon(vertices, 4, color);
+    }
+  }
+}
@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.broadphase;
+
+import java.util.Random;
+
+import org.jbox2d.callbacks.TreeCallback;
+import org.jbox2d.callbacks.TreeRayCastCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.RayCastInput;
+import org.jbox2d.collision.RayCastOutput;
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.pooling.IWorldPool;
+import org.jbox2d.pooling.normal.DefaultWorldPool;
+
+/**
+ * The Dynamic Tree test's workload: a field of unit boxes that are randomly created, destroyed and
+ * moved, with a box query and a ray cast every step. The field grows with the actor count so the
+ * density stays the same as the test's 128 actors, which makes it usable for benchmarking a
+ * {@link BroadPhaseStrategy} at any scale. With verification on, every query and ray cast is
+ * checked against brute force.
+ */
+public class ActorWorkload implements TreeCallback, TreeRayCastCallback {
+
+  public static class Actor {
+    public final AABB aabb = new AABB();
+    public float fraction;
+    public boolean overlap;
+    public int proxyId = -1;
+  }
+
+  private final BroadPhaseStrategy strategy;
+  private final Random rand;
+  private final Actor[] actors;
+  private final float worldExtent;
+  private final float proxyExtent = .5f;
+  private boolean verify = false;
+
+  private final AABB queryAABB = new AABB();
+  private final RayCastInput rayCastInput = new RayCastInput();
+  private final RayCastInput input = new RayCastInput();
+  private final RayCastOutput output = new RayCastOutput();
+  private final IWorldPool pool = new DefaultWorldPool(10, 10);
+  private Actor rayActor;
+  private float rayFraction;
+  private int queryCount;
+
+  private int queryErrors = 0;
+  private int rayCastErrors = 0;
+
+  private final AABB aabb0 = new AABB();
+  private final Vec2 displacement = new Vec2();
+
+  /**
+   * @param argStrategy
+   * @param argActorCount
+   * @param argRandom
+   */
+  public ActorWorkload(BroadPhaseStrategy argStrategy, int argActorCount, Random argRandom) {
+    strategy = argStrategy;
+    rand = argRandom;
+    worldExtent = 15.0f * MathUtils.sqrt(argActorCount / 128f);
+
+    actors = new Actor[argActorCount];
+    for (int i = 0; i < argActorCount; ++i) {
+      Actor actor = actors[i] = new Actor();
+      getRandomAABB(actor.aabb);
+      actor.proxyId = strategy.createProxy(actor.aabb, actor);
+    }
+
+    float h = worldExtent;
+    queryAABB.lowerBound.set(-3.0f, -4.0f + h);
+    queryAABB.upperBound.set(5.0f, 6.0f + h);
+
+    rayCastInput.p1.set(-5.0f, 5.0f + h);
+    rayCastInput.p2.set(7.0f, -4.0f + h);
+    rayCastInput.maxFraction = 1.0f;
+  }
+
+  public BroadPhaseStrategy getStrategy() {
+    return strategy;
+  }
+
+  public Actor[] getActors() {
+    return actors;
+  }
+
+  public float getWorldExtent() {
+    return worldExtent;
+  }
+
+  public AABB getQueryAABB() {
+    return queryAABB;
+  }
+
+  public RayCastInput getRayCastInput() {
+    return rayCastInput;
+  }
+
+  /**
+   * @return the closest actor hit by the last ray cast, or null
+   */
+  public Actor getRayActor() {
+    return rayActor;
+  }
+
+  /**
+   * @return the number of actors reported by the last query
+   */
+  public int getQueryCount() {
+    return queryCount;
+  }
+
+  /**
+   * Checks every query and ray cast against brute force
+   * 
+   * @param argVerify
+   */
+  public void setVerify(boolean argVerify) {
+    verify = argVerify;
+  }
+
+  public int getQueryErrors() {
+    return queryErrors;
+  }
+
+  public int getRayCastErrors() {
+    return rayCastErrors;
+  }
+
+  /**
+   * Does a quarter of the actor count in random actions if automated, then the query and ray cast.
+   * 
+   * @param argAutomated
+   */
+  public void step(boolean argAutomated) {
+    for (int i = 0; i < actors.length; ++i) {
+      actors[i].fraction = 1.0f;
+      actors[i].overlap = false;
+    }
+
+    if (argAutomated) {
+      int actionCount = MathUtils.max(1, actors.length >> 2);
+      for (int i = 0; i < actionCount; ++i) {
+        action();
+      }
+    }
+
+    query();
+    rayCast();
+  }
+
+  private void getRandomAABB(AABB argAABB) {
+    argAABB.lowerBound.x = MathUtils.randomFloat(rand, -worldExtent, worldExtent);
+    argAABB.lowerBound.y = MathUtils.randomFloat(rand, 0.0f, 2.0f * worldExtent);
+    argAABB.upperBound.x = argAABB.lowerBound.x + 2.0f * proxyExtent;
+    argAABB.upperBound.y = argAABB.lowerBound.y + 2.0f * proxyExtent;
+  }
+
+  private void moveAABB(AABB argAABB) {
+    float dx = MathUtils.randomFloat(rand, -0.5f, 0.5f);
+    float dy = MathUtils.randomFloat(rand, -0.5f, 0.5f);
+    argAABB.lowerBound.x += dx;
+    argAABB.lowerBound.y += dy;
+    argAABB.upperBound.x += dx;
+    argAABB.upperBound.y += dy;
+
+    // keep the center in the field
+    float cx = (argAABB.lowerBound.x + argAABB.upperBound.x) * .5f;
+    float cy = (argAABB.lowerBound.y + argAABB.upperBound.y) * .5f;
+    float ox = MathUtils.clamp(cx, -worldExtent, worldExtent) - cx;
+    float oy = MathUtils.clamp(cy, 0.0f, 2.0f * worldExtent) - cy;
+    argAABB.lowerBound.x += ox;
+    argAABB.lowerBound.y += oy;
+    argAABB.upperBound.x += ox;
+    argAABB.upperBound.y += oy;
+  }
+
+  public void createProxy() {
+    for (int i = 0; i < actors.length; ++i) {
+      int j = MathUtils.abs(rand.nextInt() % actors.length);
+      Actor actor = actors[j];
+      if (actor.proxyId == -1) {
+        getRandomAABB(actor.aabb);
+        actor.proxyId = strategy.createProxy(actor.aabb, actor);
+        return;
+      }
+    }
+  }
+
+  public void destroyProxy() {
+    for (int i = 0; i < actors.length; ++i) {
+      int j = MathUtils.abs(rand.nextInt() % actors.length);
+      Actor actor = actors[j];
+      if (actor.proxyId != -1) {
+        strategy.destroyProxy(actor.proxyId);
+        actor.proxyId = -1;
+        return;
+      }
+    }
+  }
+
+  public void moveProxy() {
+    for (int i = 0; i < actors.length; ++i) {
+      int j = MathUtils.abs(rand.nextInt() % actors.length);
+      Actor actor = actors[j];
+      if (actor.proxyId == -1) {
+        continue;
+      }
+
+      aabb0.set(actor.aabb);
+      moveAABB(actor.aabb);
+      displacement.x = actor.aabb.lowerBound.x - aabb0.lowerBound.x;
+      displacement.y = actor.aabb.lowerBound.y - aabb0.lowerBound.y;
+      strategy.moveProxy(actor.proxyId, actor.aabb, displacement);
+      return;
+    }
+  }
+
+  public void action() {
+    int choice = MathUtils.abs(rand.nextInt() % 20);
+
+    switch (choice) {
+      case 0:
+        createProxy();
+        break;
+
+      case 1:
+        destroyProxy();
+        break;
+
+      default:
+        moveProxy();
+    }
+  }
+
+  public void query() {
+    queryCount = 0;
+    strategy.query(this, queryAABB);
+
+    if (!verify) {
+      return;
+    }
+    for (int i = 0; i < actors.length; ++i) {
+      if (actors[i].proxyId == -1) {
+        continue;
+      }
+      if (AABB.testOverlap(queryAABB, actors[i].aabb) != actors[i].overlap) {
+        queryErrors++;
+      }
+    }
+  }
+
+  public void rayCast() {
+    rayActor = null;
+    input.set(rayCastInput);
+    strategy.raycast(this, input);
+
+    if (!verify) {
+      return;
+    }
+    Actor bruteActor = null;
+    float bruteFraction = 0;
+    for (int i = 0; i < actors.length; ++i) {
+      if (actors[i].proxyId == -1) {
+        continue;
+      }
+      if (actors[i].aabb.raycast(output, input, pool)) {
+        bruteActor = actors[i];
+        bruteFraction = output.fraction;
+        input.maxFraction = output.fraction;
+      }
+    }
+    if (bruteActor == null ? rayActor != null : rayActor == null
+        || MathUtils.abs(bruteFraction - rayFraction) > Settings.EPSILON) {
+      rayCastErrors++;
+    }
+  }
+
+  public boolean treeCallback(int argProxyId) {
+    Actor actor = (Actor) strategy.getUserData(argProxyId);
+    actor.overlap = AABB.testOverlap(queryAABB, actor.aabb);
+    if (actor.overlap) {
+      queryCount++;
+    }
+    return true;
+  }
+
+  public float raycastCallback(RayCastInput argInput, int argProxyId) {
+    Actor actor = (Actor) strategy.getUserData(argProxyId);
+    if (actor.aabb.raycast(output, argInput, pool)) {
+      rayActor = actor;
+      rayFraction = actor.fraction = output.fraction;
+      return output.fraction;
+    }
+    return argInput.maxFraction;
+  }
+}
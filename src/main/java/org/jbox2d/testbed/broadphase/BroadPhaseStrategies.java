@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.broadphase;
+
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import org.jbox2d.collision.broadphase.DynamicTree;
+
+/**
+ * Creates broadphase strategies by name, so tests and benchmarks can be run on any of them. The
+ * default comes from the <code>jbox2d.broadphase</code> system property.
+ */
+public class BroadPhaseStrategies {
+  public static final String PROPERTY = "jbox2d.broadphase";
+
+  /**
+   * The library's {@link DynamicTree}
+   */
+  public static final String TREE = "tree";
+  /**
+   * {@link FlatDynamicTree}
+   */
+  public static final String FLAT_TREE = "flat";
+  /**
+   * {@link HashedGridBroadPhase}, optionally with the cell size after a colon, like "grid:1.5"
+   */
+  public static final String GRID = "grid";
+  /**
+   * {@link SweepAndPruneBroadPhase}
+   */
+  public static final String SWEEP_AND_PRUNE = "sap";
+
+  private static final String[] NAMES = {TREE, FLAT_TREE, GRID, SWEEP_AND_PRUNE};
+
+  private BroadPhaseStrategies() {}
+
+  public static String[] getNames() {
+    return NAMES.clone();
+  }
+
+  /**
+   * @return the strategy named by the system property, or {@link #TREE}
+   */
+  public static String getDefault() {
+    return System.getProperty(PROPERTY, TREE);
+  }
+
+  /**
+   * Creates a new strategy
+   * 
+   * @param argName one of {@link #getNames()}, or null for the default
+   * @return
+   * @throws IllegalArgumentException if there is no strategy with that name
+   */
+  public static BroadPhaseStrategy create(String argName) {
+    String name = argName == null ? getDefault() : argName.trim();
+    if (TREE.equals(name)) {
+      return new DynamicTree();
+    }
+    if (FLAT_TREE.equals(name)) {
+      return new FlatDynamicTree();
+    }
+    if (SWEEP_AND_PRUNE.equals(name)) {
+      return new SweepAndPruneBroadPhase();
+    }
+    if (GRID.equals(name)) {
+      return new HashedGridBroadPhase();
+    }
+    if (name.startsWith(GRID + ":")) {
+      float cellSize;
+      try {
+        cellSize = Float.parseFloat(name.substring(GRID.length() + 1));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid grid cell size: " + name);
+      }
+      if (!(cellSize > 0)) {
+        throw new IllegalArgumentException("Invalid grid cell size: " + name);
+      }
+      return new HashedGridBroadPhase(cellSize);
+    }
+    throw new IllegalArgumentException("Unknown broadphase '" + name
+        + "', expected one of tree, flat, grid[:cellSize], sap");
+  }
+}
@@ -0,0 +1,790 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.broadphase;
+
+import org.jbox2d.callbacks.DebugDraw;
+import org.jbox2d.callbacks.TreeCallback;
+import org.jbox2d.callbacks.TreeRayCastCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.RayCastInput;
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import org.jbox2d.common.Color3f;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Vec2;
+
+/**
+ * The same balanced AABB tree as {@link org.jbox2d.collision.broadphase.DynamicTree}, with the
+ * nodes stored as parallel arrays indexed by node id instead of as objects. Walking the tree reads
+ * contiguous floats and ints rather than chasing node references, and nothing but the arrays is
+ * allocated as it grows.<br/>
+ * <br/>
+ * Proxies created between {@link #beginBulkLoad()} and {@link #endBulkLoad()} aren't inserted one
+ * by one, the tree is built from all of them at once at the end, see {@link #rebuild()}.
+ */
+public class FlatDynamicTree implements BroadPhaseStrategy, BulkLoadable {
+  public static final int NULL_NODE = -1;
+  /**
+   * Bins along the split axis when building top down
+   */
+  public static final int BINS = 16;
+
+  private float[] lowerX = new float[0], lowerY = new float[0];
+  private float[] upperX = new float[0], upperY = new float[0];
+  private int[] parent = new int[0];
+  private int[] child1 = new int[0];
+  private int[] child2 = new int[0];
+  /**
+   * leaf = 0, free node = -1
+   */
+  private int[] height = new int[0];
+  private Object[] userData = new Object[0];
+  private AABB[] aabbs = new AABB[0];
+
+  private int root = NULL_NODE;
+  private int nodeCount = 0;
+  private int nodeCapacity = 0;
+  /**
+   * Free nodes are linked through {@link #parent}
+   */
+  private int freeList = NULL_NODE;
+  private int insertionCount = 0;
+
+  private int[] stack = new int[64];
+  private final RayCastInput subInput = new RayCastInput();
+
+  /**
+   * How many {@link #beginBulkLoad()} calls haven't been ended yet
+   */
+  private int loadDepth;
+  /**
+   * Leaves created or moved while bulk loading that aren't in the tree yet
+   */
+  private int pendingCount;
+
+  private int[] leaves = new int[0];
+  private final int[] binCount = new int[BINS];
+  private final float[] binLowerX = new float[BINS], binLowerY = new float[BINS];
+  private final float[] binUpperX = new float[BINS], binUpperY = new float[BINS];
+  private final float[] binCost = new float[BINS];
+
+  private final Color3f color = new Color3f(1, 1, 1);
+  private final Vec2[] vertices = {new Vec2(), new Vec2(), new Vec2(), new Vec2()};
+
+  public FlatDynamicTree() {
+    grow(16);
+  }
+
+  private void grow(int argCapacity) {
+    lowerX = AbstractBroadPhaseStrategy.copy(lowerX, argCapacity);
+    lowerY = AbstractBroadPhaseStrategy.copy(lowerY, argCapacity);
+    upperX = AbstractBroadPhaseStrategy.copy(upperX, argCapacity);
+    upperY = AbstractBroadPhaseStrategy.copy(upperY, argCapacity);
+    parent = AbstractBroadPhaseStrategy.copy(parent, argCapacity);
+    child1 = AbstractBroadPhaseStrategy.copy(child1, argCapacity);
+    child2 = AbstractBroadPhaseStrategy.copy(child2, argCapacity);
+    height = AbstractBroadPhaseStrategy.copy(height, argCapacity);
+    Object[] oldUserData = userData;
+    userData = new Object[argCapacity];
+    System.arraycopy(oldUserData, 0, userData, 0, nodeCapacity);
+    AABB[] oldAABBs = aabbs;
+    aabbs = new AABB[argCapacity];
+    System.arraycopy(oldAABBs, 0, aabbs, 0, nodeCapacity);
+    for (int i = argCapacity - 1; i >= nodeCapacity; i--) {
+      parent[i] = freeList;
+      height[i] = -1;
+      freeList = i;
+    }
+    nodeCapacity = argCapacity;
+  }
+
+  private int allocateNode() {
+    if (freeList == NULL_NODE) {
+      grow(nodeCapacity * 2);
+    }
+    int node = freeList;
+    freeList = parent[node];
+    parent[node] = NULL_NODE;
+    child1[node] = NULL_NODE;
+    child2[node] = NULL_NODE;
+    height[node] = 0;
+    userData[node] = null;
+    nodeCount++;
+    return node;
+  }
+
+  private void freeNode(int argNode) {
+    assert (0 <= argNode && argNode < nodeCapacity);
+    assert (0 < nodeCount);
+    parent[argNode] = freeList;
+    height[argNode] = -1;
+    userData[argNode] = null;
+    freeList = argNode;
+    nodeCount--;
+  }
+
+  private boolean isLeaf(int argNode) {
+    return child1[argNode] == NULL_NODE;
+  }
+
+  private float perimeter(int argNode) {
+    return 2 * (upperX[argNode] - lowerX[argNode] + upperY[argNode] - lowerY[argNode]);
+  }
+
+  private float combinedPerimeter(int argA, int argB) {
+    float width = Math.max(upperX[argA], upperX[argB]) - Math.min(lowerX[argA], lowerX[argB]);
+    float height = Math.max(upperY[argA], upperY[argB]) - Math.min(lowerY[argA], lowerY[argB]);
+    return 2 * (width + height);
+  }
+
+  private void combine(int argNode, int argA, int argB) {
+    lowerX[argNode] = Math.min(lowerX[argA], lowerX[argB]);
+    lowerY[argNode] = Math.min(lowerY[argA], lowerY[argB]);
+    upperX[argNode] = Math.max(upperX[argA], upperX[argB]);
+    upperY[argNode] = Math.max(upperY[argA], upperY[argB]);
+  }
+
+  private boolean overlaps(int argNode, float argLowerX, float argLowerY, float argUpperX, float argUpperY) {
+    return lowerX[argNode] <= argUpperX && lowerY[argNode] <= argUpperY && argLowerX <= upperX[argNode]
+        && argLowerY <= upperY[argNode];
+  }
+
+  private void push(int argIndex, int argNode) {
+    if (argIndex == stack.length) {
+      stack = AbstractBroadPhaseStrategy.copy(stack, argIndex * 2);
+    }
+    stack[argIndex] = argNode;
+  }
+
+  public int createProxy(AABB argAABB, Object argUserData) {
+    int proxyId = allocateNode();
+    final float r = Settings.aabbExtension;
+    lowerX[proxyId] = argAABB.lowerBound.x - r;
+    lowerY[proxyId] = argAABB.lowerBound.y - r;
+    upperX[proxyId] = argAABB.upperBound.x + r;
+    upperY[proxyId] = argAABB.upperBound.y + r;
+    userData[proxyId] = argUserData;
+    if (loadDepth > 0) {
+      pendingCount++;
+    } else {
+      insertLeaf(proxyId);
+    }
+    return proxyId;
+  }
+
+  public void destroyProxy(int argProxyId) {
+    assert (0 <= argProxyId && argProxyId < nodeCapacity);
+    assert (isLeaf(argProxyId));
+    if (isPending(argProxyId)) {
+      pendingCount--;
+    } else {
+      removeLeaf(argProxyId);
+    }
+    freeNode(argProxyId);
+  }
+
+  public boolean moveProxy(int argProxyId, AABB argAABB, Vec2 argDisplacement) {
+    assert (0 <= argProxyId && argProxyId < nodeCapacity);
+    assert (isLeaf(argProxyId));
+    if (lowerX[argProxyId] <= argAABB.lowerBound.x && lowerY[argProxyId] <= argAABB.lowerBound.y
+        && argAABB.upperBound.x <= upperX[argProxyId] && argAABB.upperBound.y <= upperY[argProxyId]) {
+      return false;
+    }
+    boolean pendingLeaf = isPending(argProxyId);
+    if (pendingLeaf) {
+      // stays pending
+    } else if (loadDepth > 0) {
+      removeLeaf(argProxyId);
+      pendingCount++;
+      pendingLeaf = true;
+    } else {
+      removeLeaf(argProxyId);
+    }
+
+    final float r = Settings.aabbExtension;
+    float lx = argAABB.lowerBound.x - r, ly = argAABB.lowerBound.y - r;
+    float ux = argAABB.upperBound.x + r, uy = argAABB.upperBound.y + r;
+    // predict the movement
+    float dx = Settings.aabbMultiplier * argDisplacement.x;
+    float dy = Settings.aabbMultiplier * argDisplacement.y;
+    if (dx < 0) {
+      lx += dx;
+    } else {
+      ux += dx;
+    }
+    if (dy < 0) {
+      ly += dy;
+    } else {
+      uy += dy;
+    }
+    lowerX[argProxyId] = lx;
+    lowerY[argProxyId] = ly;
+    upperX[argProxyId] = ux;
+    upperY[argProxyId] = uy;
+
+    if (!pendingLeaf) {
+      insertLeaf(argProxyId);
+    }
+    return true;
+  }
+
+  public Object getUserData(int argProxyId) {
+    assert (0 <= argProxyId && argProxyId < nodeCapacity);
+    return userData[argProxyId];
+  }
+
+  public AABB getFatAABB(int argProxyId) {
+    assert (0 <= argProxyId && argProxyId < nodeCapacity);
+    AABB aabb = aabbs[argProxyId];
+    if (aabb == null) {
+      aabb = aabbs[argProxyId] = new AABB();
+    }
+    aabb.lowerBound.set(lowerX[argProxyId], lowerY[argProxyId]);
+    aabb.upperBound.set(upperX[argProxyId], upperY[argProxyId]);
+    return aabb;
+  }
+
+  public void query(TreeCallback argCallback, AABB argAABB) {
+    if (pendingCount > 0) {
+      rebuild();
+    }
+    if (root == NULL_NODE) {
+      return;
+    }
+    final float qlx = argAABB.lowerBound.x, qly = argAABB.lowerBound.y;
+    final float qux = argAABB.upperBound.x, quy = argAABB.upperBound.y;
+    int count = 0;
+    push(count++, root);
+    while (count > 0) {
+      int node = stack[--count];
+      if (!overlaps(node, qlx, qly, qux, quy)) {
+        continue;
+      }
+      if (isLeaf(node)) {
+        if (!argCallback.treeCallback(node)) {
+          return;
+        }
+      } else {
+        push(count++, child1[node]);
+        push(count++, child2[node]);
+      }
+    }
+  }
+
+  public void raycast(TreeRayCastCallback argCallback, RayCastInput argInput) {
+    if (pendingCount > 0) {
+      rebuild();
+    }
+    if (root == NULL_NODE) {
+      return;
+    }
+    final float p1x = argInput.p1.x, p1y = argInput.p1.y;
+    final float dx = argInput.p2.x - p1x, dy = argInput.p2.y - p1y;
+    float length = MathUtils.sqrt(dx * dx + dy * dy);
+    assert (length > 0);
+    // v is perpendicular to the segment
+    final float vx = -dy / length, vy = dx / length;
+    final float absVx = Math.abs(vx), absVy = Math.abs(vy);
+
+    float maxFraction = argInput.maxFraction;
+    float tx = p1x + maxFraction * dx, ty = p1y + maxFraction * dy;
+    float slx = Math.min(p1x, tx), sly = Math.min(p1y, ty);
+    float sux = Math.max(p1x, tx), suy = Math.max(p1y, ty);
+
+    int count = 0;
+    push(count++, root);
+    while (count > 0) {
+      int node = stack[--count];
+      if (!overlaps(node, slx, sly, sux, suy)) {
+        continue;
+      }
+      // separating axis for segment (Gino, p80)
+      // |dot(v, p1 - c)| > dot(|v|, h)
+      float cx = (lowerX[node] + upperX[node]) * .5f, cy = (lowerY[node] + upperY[node]) * .5f;
+      float hx = (upperX[node] - lowerX[node]) * .5f, hy = (upperY[node] - lowerY[node]) * .5f;
+      float separation = Math.abs(vx * (p1x - cx) + vy * (p1y - cy)) - (absVx * hx + absVy * hy);
+      if (separation > 0) {
+        continue;
+      }
+      if (isLeaf(node)) {
+        AbstractBroadPhaseStrategy.setSubInput(subInput, argInput, maxFraction);
+        float value = argCallback.raycastCallback(subInput, node);
+        if (value == 0) {
+          // the client has terminated the ray cast
+          return;
+        }
+        if (value > 0) {
+          // update the segment bounding box
+          maxFraction = value;
+          tx = p1x + maxFraction * dx;
+          ty = p1y + maxFraction * dy;
+          slx = Math.min(p1x, tx);
+          sly = Math.min(p1y, ty);
+          sux = Math.max(p1x, tx);
+          suy = Math.max(p1y, ty);
+        }
+      } else {
+        push(count++, child1[node]);
+        push(count++, child2[node]);
+      }
+    }
+  }
+
+  /**
+   * Proxies created or moved from now on are kept out of the tree until {@link #endBulkLoad()}
+   * builds it from all of them at once. A query or ray cast in between builds it from what's
+   * there so far. Bulk loads nest, the tree is only built when the outermost one ends.
+   */
+  public void beginBulkLoad() {
+    loadDepth++;
+  }
+
+  /**
+   * Ends a bulk load. When it's the outermost one, stops bulk loading and
+   * {@link #rebuild() rebuilds} the tree with the proxies created since {@link #beginBulkLoad()}.
+   */
+  public void endBulkLoad() {
+    assert loadDepth > 0 : "endBulkLoad without beginBulkLoad";
+    if (--loadDepth == 0) {
+      rebuild();
+    }
+  }
+
+  public boolean isBulkLoading() {
+    return loadDepth > 0;
+  }
+
+  /**
+   * Rebuilds the tree top down from all of its proxies, splitting each node where the surface area
+   * heuristic over {@link #BINS} bins of the leaf centers says is cheapest. The tree this gives is
+   * usually shallower and much tighter than one built by inserting the proxies one at a time,
+   * which is what geometry that's all created at once and never moves, like a level's static
+   * bodies, would otherwise be stuck with. Proxy ids don't change.
+   */
+  public void rebuild() {
+    if (leaves.length < nodeCapacity) {
+      leaves = new int[nodeCapacity];
+    }
+    int leafCount = 0;
+    for (int i = 0; i < nodeCapacity; i++) {
+      if (height[i] < 0) {
+        continue;
+      }
+      if (isLeaf(i)) {
+        leaves[leafCount++] = i;
+      } else {
+        freeNode(i);
+      }
+    }
+    pendingCount = 0;
+    root = NULL_NODE;
+    if (leafCount > 0) {
+      root = build(0, leafCount);
+      parent[root] = NULL_NODE;
+    }
+  }
+
+  private int build(int argStart, int argEnd) {
+    if (argEnd - argStart == 1) {
+      return leaves[argStart];
+    }
+
+    // bounds of the leaf centers, doubled
+    float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+    float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+    for (int i = argStart; i < argEnd; i++) {
+      int leaf = leaves[i];
+      float cx = lowerX[leaf] + upperX[leaf], cy = lowerY[leaf] + upperY[leaf];
+      minX = Math.min(minX, cx);
+      minY = Math.min(minY, cy);
+      maxX = Math.max(maxX, cx);
+      maxY = Math.max(maxY, cy);
+    }
+    final boolean xAxis = maxX - minX >= maxY - minY;
+    final float min = xAxis ? minX : minY;
+    final float extent = xAxis ? maxX - minX : maxY - minY;
+
+    int mid;
+    if (extent > 0) {
+      final float scale = BINS * (1 - 1e-5f) / extent;
+      for (int b = 0; b < BINS; b++) {
+        binCount[b] = 0;
+        binLowerX[b] = binLowerY[b] = Float.MAX_VALUE;
+        binUpperX[b] = binUpperY[b] = -Float.MAX_VALUE;
+      }
+      for (int i = argStart; i < argEnd; i++) {
+        int leaf = leaves[i];
+        int b = bin(leaf, xAxis, min, scale);
+        binCount[b]++;
+        binLowerX[b] = Math.min(binLowerX[b], lowerX[leaf]);
+        binLowerY[b] = Math.min(binLowerY[b], lowerY[leaf]);
+        binUpperX[b] = Math.max(binUpperX[b], upperX[leaf]);
+        binUpperY[b] = Math.max(binUpperY[b], upperY[leaf]);
+      }
+
+      // cost of splitting after each bin, left side swept forward, right side backward
+      float lx = Float.MAX_VALUE, ly = Float.MAX_VALUE, ux = -Float.MAX_VALUE, uy = -Float.MAX_VALUE;
+      int count = 0;
+      for (int b = 0; b < BINS - 1; b++) {
+        count += binCount[b];
+        if (binCount[b] > 0) {
+          lx = Math.min(lx, binLowerX[b]);
+          ly = Math.min(ly, binLowerY[b]);
+          ux = Math.max(ux, binUpperX[b]);
+          uy = Math.max(uy, binUpperY[b]);
+        }
+        binCost[b] = count == 0 ? Float.MAX_VALUE : count * (ux - lx + uy - ly);
+      }
+      lx = ly = Float.MAX_VALUE;
+      ux = uy = -Float.MAX_VALUE;
+      count = 0;
+      int best = 0;
+      float bestCost = Float.MAX_VALUE;
+      for (int b = BINS - 1; b > 0; b--) {
+        count += binCount[b];
+        if (binCount[b] > 0) {
+          lx = Math.min(lx, binLowerX[b]);
+          ly = Math.min(ly, binLowerY[b]);
+          ux = Math.max(ux, binUpperX[b]);
+          uy = Math.max(uy, binUpperY[b]);
+        }
+        if (count > 0 && binCost[b - 1] < Float.MAX_VALUE) {
+          float cost = binCost[b - 1] + count * (ux - lx + uy - ly);
+          if (cost < bestCost) {
+            bestCost = cost;
+            best = b - 1;
+          }
+        }
+      }
+
+      // partition, the leaves in bins up to the best go left
+      mid = argStart;
+      for (int i = argStart; i < argEnd; i++) {
+        int leaf = leaves[i];
+        if (bin(leaf, xAxis, min, scale) <= best) {
+          leaves[i] = leaves[mid];
+          leaves[mid++] = leaf;
+        }
+      }
+    } else {
+      // all on the same spot
+      mid = (argStart + argEnd) >>> 1;
+    }
+
+    int c1 = build(argStart, mid);
+    int c2 = build(mid, argEnd);
+    int node = allocateNode();
+    child1[node] = c1;
+    child2[node] = c2;
+    parent[c1] = node;
+    parent[c2] = node;
+    height[node] = 1 + Math.max(height[c1], height[c2]);
+    combine(node, c1, c2);
+    return node;
+  }
+
+  private int bin(int argLeaf, boolean argXAxis, float argMin, float argScale) {
+    float center = argXAxis ? lowerX[argLeaf] + upperX[argLeaf] : lowerY[argLeaf] + upperY[argLeaf];
+    return Math.min(BINS - 1, (int) ((center - argMin) * argScale));
+  }
+
+  private boolean isPending(int argLeaf) {
+    return parent[argLeaf] == NULL_NODE && root != argLeaf;
+  }
+
+  private void insertLeaf(int argLeaf) {
+    insertionCount++;
+
+    if (root == NULL_NODE) {
+      root = argLeaf;
+      parent[root] = NULL_NODE;
+      return;
+    }
+
+    // find the best sibling
+    int index = root;
+    while (!isLeaf(index)) {
+      final int c1 = child1[index];
+      final int c2 = child2[index];
+
+      float area = perimeter(index);
+      float combinedArea = combinedPerimeter(index, argLeaf);
+
+      // cost of creating a new parent for this node and the new leaf
+      float cost = 2 * combinedArea;
+      // minimum cost of pushing the leaf further down the tree
+      float inheritanceCost = 2 * (combinedArea - area);
+
+      float cost1 = combinedPerimeter(argLeaf, c1) + inheritanceCost;
+      if (!isLeaf(c1)) {
+        cost1 -= perimeter(c1);
+      }
+      float cost2 = combinedPerimeter(argLeaf, c2) + inheritanceCost;
+      if (!isLeaf(c2)) {
+        cost2 -= perimeter(c2);
+      }
+
+      // descend according to the minimum cost
+      if (cost < cost1 && cost < cost2) {
+        break;
+      }
+      index = cost1 < cost2 ? c1 : c2;
+    }
+
+    int sibling = index;
+    int oldParent = parent[sibling];
+    int newParent = allocateNode();
+    parent[newParent] = oldParent;
+    combine(newParent, argLeaf, sibling);
+    height[newParent] = height[sibling] + 1;
+
+    if (oldParent != NULL_NODE) {
+      // the sibling was not the root
+      if (child1[oldParent] == sibling) {
+        child1[oldParent] = newParent;
+      } else {
+        child2[oldParent] = newParent;
+      }
+    } else {
+      // the sibling was the root
+      root = newParent;
+    }
+    child1[newParent] = sibling;
+    child2[newParent] = argLeaf;
+    parent[sibling] = newParent;
+    parent[argLeaf] = newParent;
+
+    // walk back up the tree fixing heights and AABBs
+    fixUpwards(parent[argLeaf]);
+  }
+
+  private void removeLeaf(int argLeaf) {
+    if (argLeaf == root) {
+      root = NULL_NODE;
+      return;
+    }
+
+    int leafParent = parent[argLeaf];
+    int grandParent = parent[leafParent];
+    int sibling = child1[leafParent] == argLeaf ? child2[leafParent] : child1[leafParent];
+
+    if (grandParent != NULL_NODE) {
+      // destroy the parent and connect the sibling to the grand parent
+      if (child1[grandParent] == leafParent) {
+        child1[grandParent] = sibling;
+      } else {
+        child2[grandParent] = sibling;
+      }
+      parent[sibling] = grandParent;
+      freeNode(leafParent);
+      fixUpwards(grandParent);
+    } else {
+      root = sibling;
+      parent[sibling] = NULL_NODE;
+      freeNode(leafParent);
+    }
+  }
+
+  private void fixUpwards(int argIndex) {
+    int index = argIndex;
+    while (index != NULL_NODE) {
+      index = balance(index);
+      final int c1 = child1[index];
+      final int c2 = child2[index];
+      height[index] = 1 + Math.max(height[c1], height[c2]);
+      combine(index, c1, c2);
+      index = parent[index];
+    }
+  }
+
+  /**
+   * Performs a left or right rotation if node A is imbalanced.
+   * 
+   * @param argA
+   * @return the new root index
+   */
+  private int balance(int argA) {
+    if (isLeaf(argA) || height[argA] < 2) {
+      return argA;
+    }
+
+    final int iB = child1[argA];
+    final int iC = child2[argA];
+    int balance = height[iC] - height[iB];
+
+    // rotate C up
+    if (balance > 1) {
+      final int iF = child1[iC];
+      final int iG = child2[iC];
+
+      // swap A and C
+      child1[iC] = argA;
+      parent[iC] = parent[argA];
+      parent[argA] = iC;
+
+      // A's old parent should point to C
+      if (parent[iC] != NULL_NODE) {
+        if (child1[parent[iC]] == argA) {
+          child1[parent[iC]] = iC;
+        } else {
+          child2[parent[iC]] = iC;
+        }
+      } else {
+        root = iC;
+      }
+
+      // rotate
+      if (height[iF] > height[iG]) {
+        child2[iC] = iF;
+        child2[argA] = iG;
+        parent[iG] = argA;
+        combine(argA, iB, iG);
+        combine(iC, argA, iF);
+        height[argA] = 1 + Math.max(height[iB], height[iG]);
+        height[iC] = 1 + Math.max(height[argA], height[iF]);
+      } else {
+        child2[iC] = iG;
+        child2[argA] = iF;
+        parent[iF] = argA;
+        combine(argA, iB, iF);
+        combine(iC, argA, iG);
+        height[argA] = 1 + Math.max(height[iB], height[iF]);
+        height[iC] = 1 + Math.max(height[argA], height[iG]);
+      }
+      return iC;
+    }
+
+    // rotate B up
+    if (balance < -1) {
+      final int iD = child1[iB];
+      final int iE = child2[iB];
+
+      // swap A and B
+      child1[iB] = argA;
+      parent[iB] = parent[argA];
+      parent[argA] = iB;
+
+      // A's old parent should point to B
+      if (parent[iB] != NULL_NODE) {
+        if (child1[parent[iB]] == argA) {
+          child1[parent[iB]] = iB;
+        } else {
+          child2[parent[iB]] = iB;
+        }
+      } else {
+        root = iB;
+      }
+
+      // rotate
+      if (height[iD] > height[iE]) {
+        child2[iB] = iD;
+        child1[argA] = iE;
+        parent[iE] = argA;
+        combine(argA, iC, iE);
+        combine(iB, argA, iD);
+        height[argA] = 1 + Math.max(height[iC], height[iE]);
+        height[iB] = 1 + Math.max(height[argA], height[iD]);
+      } else {
+        child2[iB] = iE;
+        child1[argA] = iD;
+        parent[iD] = argA;
+        combine(argA, iC, iD);
+        combine(iB, argA, iE);
+        height[argA] = 1 + Math.max(height[iC], height[iD]);
+        height[iB] = 1 + Math.max(height[argA], height[iE]);
+      }
+      return iB;
+    }
+
+    return argA;
+  }
+
+  public int computeHeight() {
+    return computeHeight(root);
+  }
+
+  private int computeHeight(int argNode) {
+    if (argNode == NULL_NODE || isLeaf(argNode)) {
+      return 0;
+    }
+    return 1 + Math.max(computeHeight(child1[argNode]), computeHeight(child2[argNode]));
+  }
+
+  public int getHeight() {
+    return root == NULL_NODE ? 0 : height[root];
+  }
+
+  public int getMaxBalance() {
+    int maxBalance = 0;
+    for (int i = 0; i < nodeCapacity; i++) {
+      if (height[i] <= 1) {
+        continue;
+      }
+      maxBalance = Math.max(maxBalance, Math.abs(height[child2[i]] - height[child1[i]]));
+    }
+    return maxBalance;
+  }
+
+  public float getAreaRatio() {
+    if (root == NULL_NODE) {
+      return 0;
+    }
+    float totalArea = 0;
+    for (int i = 0; i < nodeCapacity; i++) {
+      if (height[i] < 0) {
+        // free node in pool
+        continue;
+      }
+      totalArea += perimeter(i);
+    }
+    return totalArea / perimeter(root);
+  }
+
+  public int getInsertionCount() {
+    return insertionCount;
+  }
+
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  public void drawTree(DebugDraw argDraw) {
+    if (root == NULL_NODE) {
+      return;
+    }
+    int treeHeight = height[root];
+    for (int i = 0; i < nodeCapacity; i++) {
+      if (height[i] < 0) {
+        continue;
+      }
+      vertices[0].set(lowerX[i], lowerY[i]);
+      vertices[1].set(upperX[i], lowerY[i]);
+      vertices[2].set(upperX[i], upperY[i]);
+      vertices[3].set(lowerX[i], upperY[i]);
+      float shade = (treeHeight - height[i]) * 1f / (treeHeight + 1);
+      color.set(1, shade, shade);
+      argDraw.drawPolygon(vertices, 4, color);
+    }
+  }
+}
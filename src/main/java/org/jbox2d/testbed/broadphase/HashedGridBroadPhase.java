@@ -0,0 +1,324 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.broadphase;
+
+import org.jbox2d.callbacks.TreeCallback;
+import org.jbox2d.callbacks.TreeRayCastCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.RayCastInput;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Vec2;
+
+/**
+ * A broadphase that puts each proxy in every cell of a uniform grid its fat AABB touches. The cells
+ * are hashed into a table of buckets, so the grid is unbounded and only costs memory where there
+ * are proxies. Queries look at the buckets of the cells the query covers, and ray casts walk the
+ * cells along the ray. Proxies that would cover too many cells, like the ground, are kept in a list
+ * of their own that every query checks.<br/>
+ * <br/>
+ * It's fastest when the proxies are about the same size and the cells are about twice as wide as
+ * them, like a field of particles.
+ */
+public class HashedGridBroadPhase extends AbstractBroadPhaseStrategy {
+  /**
+   * Proxies that would be in more cells than this go in the large list
+   */
+  public static int maxCellsPerProxy = 64;
+
+  private final float cellSize;
+  private final float inverseCellSize;
+
+  private int tableMask;
+  private int[][] buckets;
+  private int[] bucketCounts;
+
+  private int[] large = new int[4];
+  private int largeCount = 0;
+  private int[] largeIndex = new int[0];
+
+  private int[] stamps = new int[0];
+  private int stamp = 0;
+
+  private final RayCastInput subInput = new RayCastInput();
+
+  public HashedGridBroadPhase() {
+    this(2);
+  }
+
+  public HashedGridBroadPhase(float argCellSize) {
+    cellSize = argCellSize;
+    inverseCellSize = 1 / argCellSize;
+    resizeTable(1024);
+  }
+
+  public float getCellSize() {
+    return cellSize;
+  }
+
+  private void resizeTable(int argSize) {
+    tableMask = argSize - 1;
+    buckets = new int[argSize][];
+    bucketCounts = new int[argSize];
+  }
+
+  @Override
+  protected void grow(int argCapacity) {
+    super.grow(argCapacity);
+    largeIndex = copy(largeIndex, argCapacity);
+    stamps = copy(stamps, argCapacity);
+  }
+
+  private int cell(float argCoordinate) {
+    return MathUtils.floor(argCoordinate * inverseCellSize);
+  }
+
+  private int bucket(int argX, int argY) {
+    return ((argX * 73856093) ^ (argY * 19349663)) & tableMask;
+  }
+
+  public int createProxy(AABB argAABB, Object argUserData) {
+    int id = allocateProxy(argAABB, argUserData);
+    insert(id);
+    if (proxyCount > buckets.length) {
+      rehash(buckets.length * 4);
+    }
+    return id;
+  }
+
+  public void destroyProxy(int argProxyId) {
+    remove(argProxyId);
+    freeProxy(argProxyId);
+  }
+
+  public boolean moveProxy(int argProxyId, AABB argAABB, Vec2 argDisplacement) {
+    if (lowerX[argProxyId] <= argAABB.lowerBound.x && lowerY[argProxyId] <= argAABB.lowerBound.y
+        && argAABB.upperBound.x <= upperX[argProxyId] && argAABB.upperBound.y <= upperY[argProxyId]) {
+      return false;
+    }
+    int x0 = cell(lowerX[argProxyId]), y0 = cell(lowerY[argProxyId]);
+    int x1 = cell(upperX[argProxyId]), y1 = cell(upperY[argProxyId]);
+    fatten(argProxyId, argAABB, argDisplacement);
+    if (largeIndex[argProxyId] < 0 && x0 == cell(lowerX[argProxyId]) && y0 == cell(lowerY[argProxyId])
+        && x1 == cell(upperX[argProxyId]) && y1 == cell(upperY[argProxyId])) {
+      // still in the same cells
+      return true;
+    }
+    removeFromCells(argProxyId, x0, y0, x1, y1);
+    insert(argProxyId);
+    return true;
+  }
+
+  private void insert(int argId) {
+    int x0 = cell(lowerX[argId]), y0 = cell(lowerY[argId]);
+    int x1 = cell(upperX[argId]), y1 = cell(upperY[argId]);
+    if (((long) x1 - x0 + 1) * ((long) y1 - y0 + 1) > maxCellsPerProxy) {
+      if (largeCount == large.length) {
+        large = copy(large, largeCount * 2);
+      }
+      largeIndex[argId] = largeCount;
+      large[largeCount++] = argId;
+      return;
+    }
+    largeIndex[argId] = -1;
+    for (int y = y0; y <= y1; y++) {
+      for (int x = x0; x <= x1; x++) {
+        add(bucket(x, y), argId);
+      }
+    }
+  }
+
+  private void add(int argBucket, int argId) {
+    int[] bucket = buckets[argBucket];
+    int count = bucketCounts[argBucket];
+    if (bucket == null) {
+      bucket = buckets[argBucket] = new int[4];
+    } else if (count == bucket.length) {
+      bucket = buckets[argBucket] = copy(bucket, count * 2);
+    }
+    bucket[count] = argId;
+    bucketCounts[argBucket] = count + 1;
+  }
+
+  private void remove(int argId) {
+    removeFromCells(argId, cell(lowerX[argId]), cell(lowerY[argId]), cell(upperX[argId]), cell(upperY[argId]));
+  }
+
+  private void removeFromCells(int argId, int argX0, int argY0, int argX1, int argY1) {
+    int index = largeIndex[argId];
+    if (index >= 0) {
+      int last = large[--largeCount];
+      large[index] = last;
+      largeIndex[last] = index;
+      largeIndex[argId] = -1;
+      return;
+    }
+    for (int y = argY0; y <= argY1; y++) {
+      for (int x = argX0; x <= argX1; x++) {
+        int b = bucket(x, y);
+        int[] bucket = buckets[b];
+        int count = bucketCounts[b];
+        for (int i = 0; i < count; i++) {
+          if (bucket[i] == argId) {
+            bucket[i] = bucket[--count];
+            bucketCounts[b] = count;
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  private void rehash(int argSize) {
+    resizeTable(argSize);
+    largeCount = 0;
+    for (int i = 0; i < proxyLimit; i++) {
+      if (isActive(i)) {
+        insert(i);
+      }
+    }
+  }
+
+  private int nextStamp() {
+    if (++stamp == Integer.MAX_VALUE) {
+      for (int i = 0; i < stamps.length; i++) {
+        stamps[i] = 0;
+      }
+      stamp = 1;
+    }
+    return stamp;
+  }
+
+  public void query(TreeCallback argCallback, AABB argAABB) {
+    final int stamp = nextStamp();
+    int x0 = cell(argAABB.lowerBound.x), y0 = cell(argAABB.lowerBound.y);
+    int x1 = cell(argAABB.upperBound.x), y1 = cell(argAABB.upperBound.y);
+    if (((long) x1 - x0 + 1) * ((long) y1 - y0 + 1) > proxyCount) {
+      // cheaper to look at every proxy than every cell
+      for (int i = 0; i < proxyLimit; i++) {
+        if (isActive(i) && overlaps(i, argAABB) && !argCallback.treeCallback(i)) {
+          return;
+        }
+      }
+      return;
+    }
+    for (int y = y0; y <= y1; y++) {
+      for (int x = x0; x <= x1; x++) {
+        int b = bucket(x, y);
+        int[] bucket = buckets[b];
+        for (int i = 0, count = bucketCounts[b]; i < count; i++) {
+          int id = bucket[i];
+          if (stamps[id] != stamp) {
+            stamps[id] = stamp;
+            if (overlaps(id, argAABB) && !argCallback.treeCallback(id)) {
+              return;
+            }
+          }
+        }
+      }
+    }
+    for (int i = 0; i < largeCount; i++) {
+      int id = large[i];
+      if (overlaps(id, argAABB) && !argCallback.treeCallback(id)) {
+        return;
+      }
+    }
+  }
+
+  public void raycast(TreeRayCastCallback argCallback, RayCastInput argInput) {
+    final float p1x = argInput.p1.x, p1y = argInput.p1.y;
+    final float dx = argInput.p2.x - p1x, dy = argInput.p2.y - p1y;
+    float maxFraction = argInput.maxFraction;
+
+    for (int i = 0; i < largeCount; i++) {
+      int id = large[i];
+      if (segmentOverlaps(id, p1x, p1y, dx, dy, maxFraction)) {
+        setSubInput(subInput, argInput, maxFraction);
+        float value = argCallback.raycastCallback(subInput, id);
+        if (value == 0) {
+          return;
+        }
+        if (value > 0) {
+          maxFraction = value;
+        }
+      }
+    }
+
+    final int stamp = nextStamp();
+    int x = cell(p1x), y = cell(p1y);
+    int endX = cell(p1x + dx * maxFraction), endY = cell(p1y + dy * maxFraction);
+    if (Math.abs((long) endX - x) + Math.abs((long) endY - y) + 1 > proxyCount) {
+      for (int id = 0; id < proxyLimit; id++) {
+        if (isActive(id) && largeIndex[id] < 0 && segmentOverlaps(id, p1x, p1y, dx, dy, maxFraction)) {
+          setSubInput(subInput, argInput, maxFraction);
+          float value = argCallback.raycastCallback(subInput, id);
+          if (value == 0) {
+            return;
+          }
+          if (value > 0) {
+            maxFraction = value;
+          }
+        }
+      }
+      return;
+    }
+
+    // walk the cells along the ray, in order, until past the closest hit so far
+    int stepX = dx > 0 ? 1 : -1, stepY = dy > 0 ? 1 : -1;
+    float deltaX = dx == 0 ? Float.MAX_VALUE : Math.abs(cellSize / dx);
+    float deltaY = dy == 0 ? Float.MAX_VALUE : Math.abs(cellSize / dy);
+    float nextX = dx == 0 ? Float.MAX_VALUE : ((dx > 0 ? x + 1 : x) * cellSize - p1x) / dx;
+    float nextY = dy == 0 ? Float.MAX_VALUE : ((dy > 0 ? y + 1 : y) * cellSize - p1y) / dy;
+    float t = 0;
+    while (t <= maxFraction) {
+      int b = bucket(x, y);
+      int[] bucket = buckets[b];
+      for (int i = 0, count = bucketCounts[b]; i < count; i++) {
+        int id = bucket[i];
+        if (stamps[id] == stamp) {
+          continue;
+        }
+        stamps[id] = stamp;
+        if (segmentOverlaps(id, p1x, p1y, dx, dy, maxFraction)) {
+          setSubInput(subInput, argInput, maxFraction);
+          float value = argCallback.raycastCallback(subInput, id);
+          if (value == 0) {
+            return;
+          }
+          if (value > 0) {
+            maxFraction = value;
+          }
+        }
+      }
+      if (nextX < nextY) {
+        t = nextX;
+        nextX += deltaX;
+        x += stepX;
+      } else {
+        t = nextY;
+        nextY += deltaY;
+        y += stepY;
+      }
+    }
+  }
+}
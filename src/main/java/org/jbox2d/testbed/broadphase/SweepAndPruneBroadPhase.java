@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.broadphase;
+
+import java.util.Arrays;
+
+import org.jbox2d.callbacks.TreeCallback;
+import org.jbox2d.callbacks.TreeRayCastCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.RayCastInput;
+import org.jbox2d.common.Vec2;
+
+/**
+ * A broadphase that keeps the proxies sorted by the lower x of their fat AABBs. A query binary
+ * searches for the first proxy that could reach it and scans along the x axis until the proxies
+ * start past it. Moving a proxy shuffles it to its new place, which is only a few swaps because
+ * proxies don't move far in one step. Proxies wider than {@link #largeWidth} are kept in a list of
+ * their own so they don't widen every scan.<br/>
+ * <br/>
+ * Created proxies are appended after the sorted ones and destroyed ones leave a hole, and both
+ * are merged in with a single pass the next time the order is needed, so creating or destroying
+ * many proxies between steps doesn't shift the whole order each time.<br/>
+ * <br/>
+ * It's fastest when the proxies are spread out along x, and slowest when they're stacked in a
+ * column.
+ */
+public class SweepAndPruneBroadPhase extends AbstractBroadPhaseStrategy {
+  /**
+   * Proxies wider than this go in the large list
+   */
+  public static float largeWidth = 8;
+
+  private int[] order = new int[0];
+  private int[] rank = new int[0];
+  private int sortedCount = 0;
+  // proxies appended after the sorted ones, not placed yet
+  private int pendingCount = 0;
+  // holes left in the sorted ones by destroyed proxies
+  private int removedCount = 0;
+  private int firstHole = 0;
+  private long[] keys = new long[0];
+
+  private int[] large = new int[4];
+  private int largeCount = 0;
+
+  private float maxWidth = 0;
+  private boolean maxWidthDirty = false;
+
+  private final RayCastInput subInput = new RayCastInput();
+
+  @Override
+  protected void grow(int argCapacity) {
+    super.grow(argCapacity);
+    order = copy(order, argCapacity);
+    rank = copy(rank, argCapacity);
+  }
+
+  private boolean isLarge(int argId) {
+    return upperX[argId] - lowerX[argId] > largeWidth;
+  }
+
+  public int createProxy(AABB argAABB, Object argUserData) {
+    int id = allocateProxy(argAABB, argUserData);
+    insert(id);
+    return id;
+  }
+
+  public void destroyProxy(int argProxyId) {
+    remove(argProxyId);
+    freeProxy(argProxyId);
+  }
+
+  public boolean moveProxy(int argProxyId, AABB argAABB, Vec2 argDisplacement) {
+    boolean wasLarge = rank[argProxyId] < 0;
+    float oldWidth = upperX[argProxyId] - lowerX[argProxyId];
+    if (!fatten(argProxyId, argAABB, argDisplacement)) {
+      return false;
+    }
+    if (wasLarge || isLarge(argProxyId)) {
+      if (wasLarge != isLarge(argProxyId)) {
+        removeFrom(argProxyId, wasLarge, oldWidth);
+        insert(argProxyId);
+      }
+      return true;
+    }
+    float width = upperX[argProxyId] - lowerX[argProxyId];
+    if (width > maxWidth) {
+      maxWidth = width;
+    } else if (oldWidth == maxWidth && width < oldWidth) {
+      maxWidthDirty = true;
+    }
+    if (rank[argProxyId] >= sortedCount) {
+      // not placed yet, it gets sorted by its new position
+      return true;
+    }
+    // shuffle it into place, stepping over any holes
+    int index = rank[argProxyId];
+    final float x = lowerX[argProxyId];
+    int other;
+    while (index > 0 && ((other = order[index - 1]) == -1 || lowerX[other] > x)) {
+      order[index] = other;
+      if (other != -1) {
+        rank[other] = index;
+      }
+      index--;
+    }
+    while (index < sortedCount - 1 && ((other = order[index + 1]) == -1 || lowerX[other] < x)) {
+      order[index] = other;
+      if (other != -1) {
+        rank[other] = index;
+      } else if (index < firstHole) {
+        firstHole = index;
+      }
+      index++;
+    }
+    order[index] = argProxyId;
+    rank[argProxyId] = index;
+    return true;
+  }
+
+  private void insert(int argId) {
+    if (isLarge(argId)) {
+      if (largeCount == large.length) {
+        large = copy(large, largeCount * 2);
+      }
+      rank[argId] = -1 - largeCount;
+      large[largeCount++] = argId;
+      return;
+    }
+    int index = sortedCount + pendingCount++;
+    order[index] = argId;
+    rank[argId] = index;
+    maxWidth = Math.max(maxWidth, upperX[argId] - lowerX[argId]);
+  }
+
+  private void remove(int argId) {
+    removeFrom(argId, rank[argId] < 0, upperX[argId] - lowerX[argId]);
+  }
+
+  private void removeFrom(int argId, boolean argLarge, float argWidth) {
+    if (argLarge) {
+      int index = -1 - rank[argId];
+      int last = large[--largeCount];
+      large[index] = last;
+      rank[last] = -1 - index;
+      return;
+    }
+    int index = rank[argId];
+    if (index >= sortedCount) {
+      int last = order[sortedCount + --pendingCount];
+      order[index] = last;
+      rank[last] = index;
+    } else {
+      order[index] = -1;
+      if (removedCount++ == 0 || index < firstHole) {
+        firstHole = index;
+      }
+    }
+    if (argWidth == maxWidth) {
+      maxWidthDirty = true;
+    }
+  }
+
+  /**
+   * Closes the holes left by destroyed proxies and merges the pending proxies into the sorted
+   * ones, then ranks everything from the first place that changed. This is linear in the proxy
+   * count plus sorting the pending ones, however many there are.
+   */
+  private void placePending() {
+    if (pendingCount == 0 && removedCount == 0) {
+      return;
+    }
+    // pending proxies by lower x; the id rides in the low bits
+    if (keys.length < pendingCount) {
+      keys = new long[Math.max(pendingCount, keys.length * 2)];
+    }
+    for (int i = 0; i < pendingCount; i++) {
+      int id = order[sortedCount + i];
+      keys[i] = ((long) sortableBits(lowerX[id]) << 32) | id;
+    }
+    Arrays.sort(keys, 0, pendingCount);
+
+    int kept = sortedCount;
+    if (removedCount > 0) {
+      kept = firstHole;
+      for (int k = firstHole; k < sortedCount; k++) {
+        if (order[k] != -1) {
+          order[kept++] = order[k];
+        }
+      }
+    }
+
+    // merge from the back so nothing is overwritten before it's read
+    int i = kept - 1, j = pendingCount - 1;
+    int out = kept + pendingCount - 1;
+    while (j >= 0) {
+      int pending = (int) keys[j];
+      if (i >= 0 && lowerX[order[i]] > lowerX[pending]) {
+        order[out--] = order[i--];
+      } else {
+        order[out--] = pending;
+        j--;
+      }
+    }
+    int changed = removedCount > 0 ? Math.min(firstHole, out + 1) : out + 1;
+    sortedCount = kept + pendingCount;
+    for (int k = changed; k < sortedCount; k++) {
+      rank[order[k]] = k;
+    }
+    pendingCount = 0;
+    removedCount = 0;
+  }
+
+  /**
+   * @param argX
+   * @return the bits of argX, ordered the same as the floats when compared as signed ints
+   */
+  private static int sortableBits(float argX) {
+    int bits = Float.floatToIntBits(argX);
+    return bits ^ ((bits >> 31) & 0x7fffffff);
+  }
+
+  /**
+   * @param argX
+   * @return the index of the first sorted proxy with a lower x of at least argX
+   */
+  private int lowerBound(float argX) {
+    int low = 0, high = sortedCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (lowerX[order[middle]] < argX) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private float getMaxWidth() {
+    if (maxWidthDirty) {
+      maxWidth = 0;
+      for (int i = 0; i < sortedCount; i++) {
+        int id = order[i];
+        maxWidth = Math.max(maxWidth, upperX[id] - lowerX[id]);
+      }
+      maxWidthDirty = false;
+    }
+    return maxWidth;
+  }
+
+  public void query(TreeCallback argCallback, AABB argAABB) {
+    placePending();
+    final float limit = argAABB.upperBound.x;
+    for (int i = lowerBound(argAABB.lowerBound.x - getMaxWidth()); i < sortedCount; i++) {
+      int id = order[i];
+      if (lowerX[id] > limit) {
+        break;
+      }
+      if (overlaps(id, argAABB) && !argCallback.treeCallback(id)) {
+        return;
+      }
+    }
+    for (int i = 0; i < largeCount; i++) {
+      int id = large[i];
+      if (overlaps(id, argAABB) && !argCallback.treeCallback(id)) {
+        return;
+      }
+    }
+  }
+
+  public void raycast(TreeRayCastCallback argCallback, RayCastInput argInput) {
+    final float p1x = argInput.p1.x, p1y = argInput.p1.y;
+    final float dx = argInput.p2.x - p1x, dy = argInput.p2.y - p1y;
+    float maxFraction = argInput.maxFraction;
+    placePending();
+
+    for (int i = 0; i < largeCount; i++) {
+      int id = large[i];
+      if (segmentOverlaps(id, p1x, p1y, dx, dy, maxFraction)) {
+        setSubInput(subInput, argInput, maxFraction);
+        float value = argCallback.raycastCallback(subInput, id);
+        if (value == 0) {
+          return;
+        }
+        if (value > 0) {
+          maxFraction = value;
+        }
+      }
+    }
+
+    float endX = p1x + dx * maxFraction;
+    float limit = Math.max(p1x, endX);
+    for (int i = lowerBound(Math.min(p1x, endX) - getMaxWidth()); i < sortedCount; i++) {
+      int id = order[i];
+      if (lowerX[id] > limit) {
+        break;
+      }
+      if (segmentOverlaps(id, p1x, p1y, dx, dy, maxFraction)) {
+        setSubInput(subInput, argInput, maxFraction);
+        float value = argCallback.raycastCallback(subInput, id);
+        if (value == 0) {
+          return;
+        }
+        if (value > 0) {
+          maxFraction = value;
+          limit = Math.max(p1x, p1x + dx * maxFraction);
+        }
+      }
+    }
+  }
+}
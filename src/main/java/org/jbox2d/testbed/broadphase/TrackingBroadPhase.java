@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.broadphase;
+
+import org.jbox2d.callbacks.DebugDraw;
+import org.jbox2d.callbacks.TreeCallback;
+import org.jbox2d.callbacks.TreeRayCastCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.RayCastInput;
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import org.jbox2d.common.Vec2;
+
+/**
+ * Wraps a broadphase strategy and records where proxies were created, where their fat AABBs moved
+ * to, and where they were destroyed, until the record is cleared. Anything that caches what it
+ * found in a region of the world between steps can look through the record for changes in that
+ * region instead of querying it again.
+ */
+public class TrackingBroadPhase implements BroadPhaseStrategy, BulkLoadable {
+  public static final int CREATED = 0;
+  public static final int MOVED = 1;
+  public static final int DESTROYED = 2;
+
+  private final BroadPhaseStrategy strategy;
+
+  private float[] lowerX = new float[16], lowerY = new float[16];
+  private float[] upperX = new float[16], upperY = new float[16];
+  private int[] types = new int[16];
+  private int changeCount = 0;
+
+  public TrackingBroadPhase(BroadPhaseStrategy argStrategy) {
+    strategy = argStrategy;
+  }
+
+  public BroadPhaseStrategy getStrategy() {
+    return strategy;
+  }
+
+  /**
+   * Passed on if the wrapped strategy is {@link BulkLoadable}, the changes are still recorded
+   */
+  public void beginBulkLoad() {
+    if (strategy instanceof BulkLoadable) {
+      ((BulkLoadable) strategy).beginBulkLoad();
+    }
+  }
+
+  public void endBulkLoad() {
+    if (strategy instanceof BulkLoadable) {
+      ((BulkLoadable) strategy).endBulkLoad();
+    }
+  }
+
+  /**
+   * @return the number of changes recorded since the record was cleared
+   */
+  public int getChangeCount() {
+    return changeCount;
+  }
+
+  /**
+   * @param argIndex
+   * @return {@link #CREATED}, {@link #MOVED} or {@link #DESTROYED}
+   */
+  public int getChangeType(int argIndex) {
+    return types[argIndex];
+  }
+
+  public float getChangeLowerX(int argIndex) {
+    return lowerX[argIndex];
+  }
+
+  public float getChangeLowerY(int argIndex) {
+    return lowerY[argIndex];
+  }
+
+  public float getChangeUpperX(int argIndex) {
+    return upperX[argIndex];
+  }
+
+  public float getChangeUpperY(int argIndex) {
+    return upperY[argIndex];
+  }
+
+  public void clearChanges() {
+    changeCount = 0;
+  }
+
+  private void record(int argProxyId, int argType) {
+    if (changeCount == lowerX.length) {
+      int capacity = changeCount * 2;
+      lowerX = AbstractBroadPhaseStrategy.copy(lowerX, capacity);
+      lowerY = AbstractBroadPhaseStrategy.copy(lowerY, capacity);
+      upperX = AbstractBroadPhaseStrategy.copy(upperX, capacity);
+      upperY = AbstractBroadPhaseStrategy.copy(upperY, capacity);
+      types = AbstractBroadPhaseStrategy.copy(types, capacity);
+    }
+    AABB aabb = strategy.getFatAABB(argProxyId);
+    lowerX[changeCount] = aabb.lowerBound.x;
+    lowerY[changeCount] = aabb.lowerBound.y;
+    upperX[changeCount] = aabb.upperBound.x;
+    upperY[changeCount] = aabb.upperBound.y;
+    types[changeCount] = argType;
+    changeCount++;
+  }
+
+  public int createProxy(AABB argAABB, Object argUserData) {
+    int proxyId = strategy.createProxy(argAABB, argUserData);
+    record(proxyId, CREATED);
+    return proxyId;
+  }
+
+  public void destroyProxy(int argProxyId) {
+    record(argProxyId, DESTROYED);
+    strategy.destroyProxy(argProxyId);
+  }
+
+  public boolean moveProxy(int argProxyId, AABB argAABB, Vec2 argDisplacement) {
+    if (strategy.moveProxy(argProxyId, argAABB, argDisplacement)) {
+      record(argProxyId, MOVED);
+      return true;
+    }
+    return false;
+  }
+
+  public Object getUserData(int argProxyId) {
+    return strategy.getUserData(argProxyId);
+  }
+
+  public AABB getFatAABB(int argProxyId) {
+    return strategy.getFatAABB(argProxyId);
+  }
+
+  public void query(TreeCallback argCallback, AABB argAABB) {
+    strategy.query(argCallback, argAABB);
+  }
+
+  public void raycast(TreeRayCastCallback argCallback, RayCastInput argInput) {
+    strategy.raycast(argCallback, argInput);
+  }
+
+  public int computeHeight() {
+    return strategy.computeHeight();
+  }
+
+  public int getHeight() {
+    return strategy.getHeight();
+  }
+
+  public int getMaxBalance() {
+    return strategy.getMaxBalance();
+  }
+
+  public float getAreaRatio() {
+    return strategy.getAreaRatio();
+  }
+
+  public int getInsertionCount() {
+    return strategy.getInsertionCount();
+  }
+
+  public void drawTree(DebugDraw argDraw) {
+    strategy.drawTree(argDraw);
+  }
+}
@@ -0,0 +1,430 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.fluid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.jbox2d.common.Settings;
+
+/**
+ * The double density relaxation fluid constraint from {@link org.jbox2d.testbed.tests.LiquidTest},
+ * on flat float arrays. Every step the particles are counting sorted into a {@link ParticleGrid}
+ * with cells at least as wide as the interaction radius, so each particle's neighbors are in three
+ * runs of consecutive cells, and the particle state is copied into cell order so those runs are
+ * contiguous in memory.<br/>
+ * <br/>
+ * Each particle only gathers from its neighbors and writes its own result, so the two passes
+ * (density, then displacement) split over the worker threads by ranges of cells without any
+ * locking. A pair's contribution is the sum of what the original applied from each side.<br/>
+ * <br/>
+ * Usage: set the particles' positions and velocities, call {@link #solve(float)}, and apply
+ * {@link #getDeltaX(int)} and {@link #getDeltaY(int)} to the positions, and divided by the time
+ * step, to the velocities.
+ */
+public class FluidSolver {
+  /**
+   * The method isn't scale invariant, it breaks down for small radii, so everything is scaled to
+   * this radius while solving
+   */
+  public static final float IDEAL_RADIUS = 50f;
+
+  /**
+   * Below this many particles the work isn't worth handing to other threads
+   */
+  public static int parallelThreshold = 2048;
+
+  private float radius = .6f;
+  private float viscosity = .004f;
+  private float restDensity = 5f;
+  private float stiffness = .5f;
+  private float nearStiffness = .5f;
+
+  private int count = 0;
+  private int capacity = 0;
+
+  // per particle, in the caller's order and units
+  private float[] px, py, pvx, pvy;
+  private float[] dx, dy;
+
+  // per particle, in cell order and scaled units
+  private final ParticleGrid grid = new ParticleGrid();
+  private int[] order;
+  private int[] cell;
+  private float[] x, y, vx, vy;
+  private float[] pressure, nearPressure;
+  private float[] changeX, changeY;
+
+  // from the grid, for the passes
+  private int[] cellStart;
+  private int gridWidth, gridHeight;
+
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private ExecutorService executor;
+  private final List<Pass> densityPasses = new ArrayList<Pass>();
+  private final List<Pass> displacementPasses = new ArrayList<Pass>();
+  private float scale;
+  private float timeStep;
+
+  public FluidSolver(int argCapacity) {
+    ensureCapacity(argCapacity);
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Sets the number of particles, growing the arrays if needed
+   * 
+   * @param argCount
+   */
+  public void setCount(int argCount) {
+    ensureCapacity(argCount);
+    count = argCount;
+  }
+
+  public void setParticle(int argIndex, float argX, float argY, float argVX, float argVY) {
+    px[argIndex] = argX;
+    py[argIndex] = argY;
+    pvx[argIndex] = argVX;
+    pvy[argIndex] = argVY;
+  }
+
+  /**
+   * The position change of the particle from the last solve
+   * 
+   * @param argIndex
+   * @return
+   */
+  public float getDeltaX(int argIndex) {
+    return dx[argIndex];
+  }
+
+  public float getDeltaY(int argIndex) {
+    return dy[argIndex];
+  }
+
+  public float getRadius() {
+    return radius;
+  }
+
+  public void setRadius(float argRadius) {
+    radius = argRadius;
+  }
+
+  public float getViscosity() {
+    return viscosity;
+  }
+
+  public void setViscosity(float argViscosity) {
+    viscosity = argViscosity;
+  }
+
+  /**
+   * The density at which there's no pressure, in neighbors at zero distance
+   * 
+   * @param argRestDensity
+   */
+  public void setRestDensity(float argRestDensity) {
+    restDensity = argRestDensity;
+  }
+
+  public void setStiffness(float argStiffness, float argNearStiffness) {
+    stiffness = argStiffness;
+    nearStiffness = argNearStiffness;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Sets the number of threads the solve is split over, including the calling thread
+   * 
+   * @param argThreads
+   */
+  public void setThreads(int argThreads) {
+    if (argThreads != threads) {
+      shutdown();
+      threads = Math.max(1, argThreads);
+    }
+  }
+
+  /**
+   * Stops the worker threads. They're started again by the next solve that needs them.
+   */
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  public int getGridWidth() {
+    return gridWidth;
+  }
+
+  public int getGridHeight() {
+    return gridHeight;
+  }
+
+  /**
+   * Computes the position change of every particle
+   * 
+   * @param argTimeStep
+   */
+  public void solve(float argTimeStep) {
+    timeStep = argTimeStep;
+    scale = IDEAL_RADIUS / radius;
+    if (count == 0) {
+      return;
+    }
+    sort();
+    if (threads == 1 || count < parallelThreshold) {
+      density(0, count);
+      displacement(0, count);
+    } else {
+      runParallel(densityPasses);
+      runParallel(displacementPasses);
+    }
+    final float inverseScale = 1 / scale;
+    for (int a = 0; a < count; a++) {
+      int i = order[a];
+      dx[i] = changeX[a] * inverseScale;
+      dy[i] = changeY[a] * inverseScale;
+    }
+  }
+
+  private void ensureCapacity(int argCapacity) {
+    if (argCapacity <= capacity) {
+      return;
+    }
+    int newCapacity = Math.max(argCapacity, capacity * 2);
+    px = grow(px, newCapacity);
+    py = grow(py, newCapacity);
+    pvx = grow(pvx, newCapacity);
+    pvy = grow(pvy, newCapacity);
+    dx = new float[newCapacity];
+    dy = new float[newCapacity];
+    x = new float[newCapacity];
+    y = new float[newCapacity];
+    vx = new float[newCapacity];
+    vy = new float[newCapacity];
+    pressure = new float[newCapacity];
+    nearPressure = new float[newCapacity];
+    changeX = new float[newCapacity];
+    changeY = new float[newCapacity];
+    capacity = newCapacity;
+  }
+
+  private static float[] grow(float[] argOld, int argCapacity) {
+    float[] array = new float[argCapacity];
+    if (argOld != null) {
+      System.arraycopy(argOld, 0, array, 0, argOld.length);
+    }
+    return array;
+  }
+
+  /**
+   * Sorts the particles into the grid and copies them into cell order
+   */
+  private void sort() {
+    grid.sort(px, py, count, scale, IDEAL_RADIUS);
+    order = grid.getOrder();
+    cell = grid.getCells();
+    cellStart = grid.getCellStarts();
+    gridWidth = grid.getWidth();
+    gridHeight = grid.getHeight();
+    for (int a = 0; a < count; a++) {
+      int i = order[a];
+      x[a] = px[i] * scale;
+      y[a] = py[i] * scale;
+      vx[a] = pvx[i] * scale;
+      vy[a] = pvy[i] * scale;
+    }
+    splitPasses();
+  }
+
+  /**
+   * Splits the cells into a range per thread, with about the same number of particles each
+   */
+  private void splitPasses() {
+    if (threads == 1 || count < parallelThreshold) {
+      return;
+    }
+    while (densityPasses.size() < threads) {
+      densityPasses.add(new Pass(true));
+      displacementPasses.add(new Pass(false));
+    }
+    int from = 0;
+    for (int t = 0; t < threads; t++) {
+      // round up to the end of a cell, so a cell belongs to one thread
+      int to = t == threads - 1 ? count : (int) ((long) count * (t + 1) / threads);
+      if (to > from && to < count) {
+        to = cellStart[cell[to - 1] + 1];
+      }
+      to = Math.max(from, to);
+      densityPasses.get(t).set(from, to);
+      displacementPasses.get(t).set(from, to);
+      from = to;
+    }
+  }
+
+  private void runParallel(List<Pass> argPasses) {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+        public Thread newThread(Runnable argRunnable) {
+          Thread thread = new Thread(argRunnable, "FluidSolver");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(threads - 1);
+    for (int t = 1; t < threads; t++) {
+      futures.add(executor.submit(argPasses.get(t)));
+    }
+    argPasses.get(0).call();
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Computes the pressure of the particles in the range from their neighbors' proximity. The
+   * pressure is 0 when the neighbors within range add up to the rest density.
+   */
+  private void density(int argFrom, int argTo) {
+    final float r = IDEAL_RADIUS;
+    final float inverseR = 1 / r;
+    for (int a = argFrom; a < argTo; a++) {
+      final float ax = x[a], ay = y[a];
+      float p = 0, pnear = 0;
+      int cx = cell[a] % gridWidth, cy = cell[a] / gridWidth;
+      for (int ny = Math.max(cy - 1, 0), maxY = Math.min(cy + 1, gridHeight - 1); ny <= maxY; ny++) {
+        int row = ny * gridWidth;
+        int end = cellStart[row + Math.min(cx + 1, gridWidth - 1) + 1];
+        for (int b = cellStart[row + Math.max(cx - 1, 0)]; b < end; b++) {
+          float vx = x[b] - ax;
+          float vy = y[b] - ay;
+          if (b == a || vx <= -r || vx >= r || vy <= -r || vy >= r) {
+            continue;
+          }
+          float lengthSquared = vx * vx + vy * vy;
+          if (lengthSquared < r * r) {
+            float length = (float) Math.sqrt(lengthSquared);
+            if (length < Settings.EPSILON) {
+              length = r - .01f;
+            }
+            float oneMinusQ = 1 - length * inverseR;
+            p += oneMinusQ * oneMinusQ;
+            pnear += oneMinusQ * oneMinusQ * oneMinusQ;
+          }
+        }
+      }
+      pressure[a] = (p - restDensity) * stiffness;
+      nearPressure[a] = pnear * nearStiffness;
+    }
+  }
+
+  /**
+   * Computes the position change of the particles in the range. The original pushed each pair
+   * apart by its own pressure from both sides, so a particle gathers the push from its own pressure
+   * and from its neighbor's, plus the viscous pull toward the neighbor's velocity from both.
+   */
+  private void displacement(int argFrom, int argTo) {
+    final float r = IDEAL_RADIUS;
+    final float inverseR = 1 / r;
+    final float viscosityStep = 2 * viscosity * timeStep;
+    for (int a = argFrom; a < argTo; a++) {
+      final float ax = x[a], ay = y[a];
+      final float avx = vx[a], avy = vy[a];
+      final float pa = pressure[a], pnearA = nearPressure[a];
+      float changeX = 0, changeY = 0;
+      int cx = cell[a] % gridWidth, cy = cell[a] / gridWidth;
+      for (int ny = Math.max(cy - 1, 0), maxY = Math.min(cy + 1, gridHeight - 1); ny <= maxY; ny++) {
+        int row = ny * gridWidth;
+        int end = cellStart[row + Math.min(cx + 1, gridWidth - 1) + 1];
+        for (int b = cellStart[row + Math.max(cx - 1, 0)]; b < end; b++) {
+          float dx = x[b] - ax;
+          float dy = y[b] - ay;
+          if (b == a || dx <= -r || dx >= r || dy <= -r || dy >= r) {
+            continue;
+          }
+          float lengthSquared = dx * dx + dy * dy;
+          if (lengthSquared < r * r) {
+            float length = (float) Math.sqrt(lengthSquared);
+            if (length < Settings.EPSILON) {
+              length = r - .01f;
+            }
+            float oneMinusQ = 1 - length * inverseR;
+            float push =
+                oneMinusQ * (pa + pressure[b] + (pnearA + nearPressure[b]) * oneMinusQ) / (2 * length);
+            float drag = viscosityStep * oneMinusQ;
+            changeX += (vx[b] - avx) * drag - dx * push;
+            changeY += (vy[b] - avy) * drag - dy * push;
+          }
+        }
+      }
+      this.changeX[a] = changeX;
+      this.changeY[a] = changeY;
+    }
+  }
+
+  private class Pass implements Callable<Void> {
+    private final boolean density;
+    private int from, to;
+
+    Pass(boolean argDensity) {
+      density = argDensity;
+    }
+
+    void set(int argFrom, int argTo) {
+      from = argFrom;
+      to = argTo;
+    }
+
+    public Void call() {
+      if (density) {
+        density(from, to);
+      } else {
+        displacement(from, to);
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.fluid;
+
+/**
+ * A uniform grid that particles are counting sorted into. After {@link #sort}, the particles of a
+ * cell are a contiguous run of the sorted order, from {@link #getCellStarts()}<code>[cell]</code>
+ * up to <code>[cell + 1]</code>, and the cells of a row are consecutive, so a block of neighboring
+ * cells in a row is one run too. The grid is fitted around the particles every sort.
+ */
+public class ParticleGrid {
+
+  private int count = 0;
+  private int[] order = new int[0];
+  private int[] cell = new int[0];
+  private int[] cellStart = new int[1];
+  private int width, height;
+  private float minX, minY, cellSize;
+
+  /**
+   * Sorts the particles into the grid
+   * 
+   * @param argX
+   * @param argY
+   * @param argCount
+   * @param argScale the positions are multiplied by this first
+   * @param argCellSize the smallest cell size, in scaled units. The cells are widened if the
+   *          particles are spread so thin that most cells would be empty.
+   */
+  public void sort(float[] argX, float[] argY, int argCount, float argScale, float argCellSize) {
+    count = argCount;
+    if (order.length < argCount) {
+      order = new int[Math.max(argCount, order.length * 2)];
+      cell = new int[order.length];
+    }
+    float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+    float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+    for (int i = 0; i < argCount; i++) {
+      float x = argX[i] * argScale, y = argY[i] * argScale;
+      minX = x < minX ? x : minX;
+      minY = y < minY ? y : minY;
+      maxX = x > maxX ? x : maxX;
+      maxY = y > maxY ? y : maxY;
+    }
+    if (minX > maxX) {
+      // no particles, or nothing but NaNs
+      minX = maxX = minY = maxY = 0;
+    }
+    int maxCells = Math.max(1024, 4 * argCount);
+    cellSize = argCellSize;
+    float area = (maxX - minX + cellSize) * (maxY - minY + cellSize);
+    if (area / (cellSize * cellSize) > maxCells) {
+      cellSize = (float) Math.sqrt(area / maxCells);
+    }
+    this.minX = minX;
+    this.minY = minY;
+    width = (int) ((maxX - minX) / cellSize) + 1;
+    height = (int) ((maxY - minY) / cellSize) + 1;
+    int cells = width * height;
+    if (cellStart.length < cells + 1) {
+      cellStart = new int[Math.max(cells + 1, cellStart.length * 2)];
+    }
+
+    final int[] cellStart = this.cellStart;
+    for (int c = 0; c <= cells; c++) {
+      cellStart[c] = 0;
+    }
+    final float inverseCellSize = 1 / cellSize;
+    for (int i = 0; i < argCount; i++) {
+      int cx = clamp((int) ((argX[i] * argScale - minX) * inverseCellSize), width);
+      int cy = clamp((int) ((argY[i] * argScale - minY) * inverseCellSize), height);
+      int c = cy * width + cx;
+      // borrow the cell array to remember each particle's cell until it's sorted
+      cell[i] = c;
+      cellStart[c + 1]++;
+    }
+    for (int c = 0; c < cells; c++) {
+      cellStart[c + 1] += cellStart[c];
+    }
+    // scatter with the starts, which leaves each one at the next cell's start, then shift back
+    for (int i = 0; i < argCount; i++) {
+      order[cellStart[cell[i]]++] = i;
+    }
+    for (int c = cells; c > 0; c--) {
+      cellStart[c] = cellStart[c - 1];
+    }
+    cellStart[0] = 0;
+    // now the cells in sorted order, by walking the cell ranges
+    for (int c = 0; c < cells; c++) {
+      for (int a = cellStart[c], end = cellStart[c + 1]; a < end; a++) {
+        cell[a] = c;
+      }
+    }
+  }
+
+  private static int clamp(int argCell, int argSize) {
+    return argCell < 0 ? 0 : (argCell >= argSize ? argSize - 1 : argCell);
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * The particle at each sorted position
+   * 
+   * @return
+   */
+  public int[] getOrder() {
+    return order;
+  }
+
+  /**
+   * The cell of each sorted position
+   * 
+   * @return
+   */
+  public int[] getCells() {
+    return cell;
+  }
+
+  /**
+   * The first sorted position of each cell, with one more entry for the end of the last cell
+   * 
+   * @return
+   */
+  public int[] getCellStarts() {
+    return cellStart;
+  }
+
+  public int getCellCount() {
+    return width * height;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public float getMinX() {
+    return minX;
+  }
+
+  public float getMinY() {
+    return minY;
+  }
+
+  public float getCellSize() {
+    return cellSize;
+  }
+}
@@ -0,0 +1,402 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.fluid;
+
+import org.jbox2d.callbacks.DebugDraw;
+import org.jbox2d.callbacks.QueryCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.RayCastInput;
+import org.jbox2d.collision.RayCastOutput;
+import org.jbox2d.common.Color3f;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+
+/**
+ * Particles that live beside a {@link World} instead of in it, as flat arrays of positions and
+ * velocities rather than a {@link Body} and fixture each, so they cost no broadphase proxies and
+ * no contacts. Call {@link #step(float)} after every world step. A step applies gravity, the
+ * {@link FluidSolver} constraint if it's on, and damping, then moves the particles and collides
+ * them with the world's fixtures.<br/>
+ * <br/>
+ * For the collisions the particles are sorted into a coarse {@link ParticleGrid}, and the world's
+ * broadphase is queried once per occupied cell for the fixtures that might be hit. Each particle's
+ * move is ray cast against those fixtures from where its start would be if it had moved with the
+ * fixture's body, so moving bodies push particles rather than swallow them. A particle that hits a
+ * fixture is put back on its surface and loses its velocity into it, and the opposite impulse goes
+ * to the body, so the particles push bodies around too.
+ */
+public class ParticleSystem {
+
+  private final World world;
+
+  private float particleRadius = .05f;
+  private float particleMass = .01f;
+  private float damping = .995f;
+  private float restitution = .4f;
+  private float friction = 0;
+  private boolean fluid = true;
+  private float collisionCellSize = 1;
+
+  private int count = 0;
+  private int capacity = 0;
+  private float[] x, y, vx, vy;
+  private float[] startX, startY;
+
+  private final FluidSolver solver = new FluidSolver(0);
+  private final ParticleGrid grid = new ParticleGrid();
+
+  private Fixture[] candidates = new Fixture[16];
+  private int candidateCount;
+  private final QueryCallback collector = new QueryCallback() {
+    public boolean reportFixture(Fixture argFixture) {
+      if (!argFixture.isSensor()) {
+        if (candidateCount == candidates.length) {
+          Fixture[] old = candidates;
+          candidates = new Fixture[old.length * 2];
+          System.arraycopy(old, 0, candidates, 0, old.length);
+        }
+        candidates[candidateCount++] = argFixture;
+      }
+      return true;
+    }
+  };
+
+  // collision temporaries
+  private final AABB aabb = new AABB();
+  private final Transform previous = new Transform();
+  private final RayCastInput input = new RayCastInput();
+  private final RayCastOutput output = new RayCastOutput();
+  private final RayCastOutput closest = new RayCastOutput();
+  private final Vec2 start = new Vec2();
+  private final Vec2 local = new Vec2();
+  private final Vec2 point = new Vec2();
+  private final Vec2 bodyVelocity = new Vec2();
+  private final Vec2 impulse = new Vec2();
+
+  public ParticleSystem(World argWorld, int argCapacity) {
+    world = argWorld;
+    ensureCapacity(argCapacity);
+  }
+
+  public World getWorld() {
+    return world;
+  }
+
+  /**
+   * Adds a particle
+   * 
+   * @return the particle's index
+   */
+  public int createParticle(float argX, float argY, float argVX, float argVY) {
+    ensureCapacity(count + 1);
+    x[count] = argX;
+    y[count] = argY;
+    vx[count] = argVX;
+    vy[count] = argVY;
+    return count++;
+  }
+
+  /**
+   * Removes a particle. The last particle takes its index.
+   * 
+   * @param argIndex
+   */
+  public void destroyParticle(int argIndex) {
+    int last = --count;
+    x[argIndex] = x[last];
+    y[argIndex] = y[last];
+    vx[argIndex] = vx[last];
+    vy[argIndex] = vy[last];
+  }
+
+  public void clear() {
+    count = 0;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * The particles' x positions. Only the first {@link #getCount()} are particles.
+   * 
+   * @return
+   */
+  public float[] getPositionX() {
+    return x;
+  }
+
+  public float[] getPositionY() {
+    return y;
+  }
+
+  public float[] getVelocityX() {
+    return vx;
+  }
+
+  public float[] getVelocityY() {
+    return vy;
+  }
+
+  public void setParticleRadius(float argRadius) {
+    particleRadius = argRadius;
+  }
+
+  public float getParticleRadius() {
+    return particleRadius;
+  }
+
+  public void setParticleMass(float argMass) {
+    particleMass = argMass;
+  }
+
+  public float getParticleMass() {
+    return particleMass;
+  }
+
+  /**
+   * The fraction of velocity the particles keep each step
+   * 
+   * @param argDamping
+   */
+  public void setDamping(float argDamping) {
+    damping = argDamping;
+  }
+
+  public void setRestitution(float argRestitution) {
+    restitution = argRestitution;
+  }
+
+  public void setFriction(float argFriction) {
+    friction = argFriction;
+  }
+
+  public boolean isFluid() {
+    return fluid;
+  }
+
+  /**
+   * Turns the fluid constraint on or off. Without it the particles are independent.
+   * 
+   * @param argFluid
+   */
+  public void setFluid(boolean argFluid) {
+    fluid = argFluid;
+  }
+
+  public FluidSolver getFluidSolver() {
+    return solver;
+  }
+
+  /**
+   * The size of the cells the broadphase is queried for. Smaller cells query more often for
+   * fewer fixtures each.
+   * 
+   * @param argCellSize
+   */
+  public void setCollisionCellSize(float argCellSize) {
+    collisionCellSize = argCellSize;
+  }
+
+  /**
+   * Stops the fluid solver's worker threads
+   */
+  public void shutdown() {
+    solver.shutdown();
+  }
+
+  private void ensureCapacity(int argCapacity) {
+    if (argCapacity <= capacity) {
+      return;
+    }
+    int newCapacity = Math.max(argCapacity, capacity * 2);
+    x = grow(x, newCapacity);
+    y = grow(y, newCapacity);
+    vx = grow(vx, newCapacity);
+    vy = grow(vy, newCapacity);
+    startX = new float[newCapacity];
+    startY = new float[newCapacity];
+    capacity = newCapacity;
+  }
+
+  private static float[] grow(float[] argOld, int argCapacity) {
+    float[] array = new float[argCapacity];
+    if (argOld != null) {
+      System.arraycopy(argOld, 0, array, 0, argOld.length);
+    }
+    return array;
+  }
+
+  /**
+   * Steps the particles
+   * 
+   * @param argTimeStep
+   */
+  public void step(float argTimeStep) {
+    if (count == 0 || argTimeStep <= 0) {
+      return;
+    }
+    final float[] x = this.x, y = this.y, vx = this.vx, vy = this.vy;
+    final Vec2 gravity = world.getGravity();
+    final float gx = gravity.x * argTimeStep, gy = gravity.y * argTimeStep;
+    for (int i = 0; i < count; i++) {
+      startX[i] = x[i];
+      startY[i] = y[i];
+      vx[i] += gx;
+      vy[i] += gy;
+    }
+
+    if (fluid) {
+      solver.setCount(count);
+      for (int i = 0; i < count; i++) {
+        solver.setParticle(i, x[i], y[i], vx[i], vy[i]);
+      }
+      solver.solve(argTimeStep);
+      final float inverseTimeStep = 1 / argTimeStep;
+      for (int i = 0; i < count; i++) {
+        float dx = solver.getDeltaX(i), dy = solver.getDeltaY(i);
+        x[i] += dx;
+        y[i] += dy;
+        vx[i] += dx * inverseTimeStep;
+        vy[i] += dy * inverseTimeStep;
+      }
+    }
+
+    for (int i = 0; i < count; i++) {
+      vx[i] *= damping;
+      vy[i] *= damping;
+      x[i] += vx[i] * argTimeStep;
+      y[i] += vy[i] * argTimeStep;
+    }
+
+    collide();
+  }
+
+  /**
+   * Collides each cell's particles with the fixtures the broadphase finds around the cell
+   */
+  private void collide() {
+    grid.sort(x, y, count, 1, collisionCellSize);
+    final int[] order = grid.getOrder();
+    final int[] cellStart = grid.getCellStarts();
+    final int cells = grid.getCellCount();
+    final float margin = particleRadius + Settings.linearSlop;
+    for (int c = 0; c < cells; c++) {
+      int from = cellStart[c], to = cellStart[c + 1];
+      if (from == to) {
+        continue;
+      }
+      float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+      float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+      for (int a = from; a < to; a++) {
+        int i = order[a];
+        minX = Math.min(minX, Math.min(x[i], startX[i]));
+        minY = Math.min(minY, Math.min(y[i], startY[i]));
+        maxX = Math.max(maxX, Math.max(x[i], startX[i]));
+        maxY = Math.max(maxY, Math.max(y[i], startY[i]));
+      }
+      aabb.lowerBound.set(minX - margin, minY - margin);
+      aabb.upperBound.set(maxX + margin, maxY + margin);
+      candidateCount = 0;
+      world.queryAABB(collector, aabb);
+
+      for (int f = 0; f < candidateCount; f++) {
+        Fixture fixture = candidates[f];
+        Body body = fixture.getBody();
+        body.m_sweep.getTransform(previous, 0);
+        for (int a = from; a < to; a++) {
+          collide(order[a], fixture, body);
+        }
+      }
+    }
+  }
+
+  private void collide(int argIndex, Fixture argFixture, Body argBody) {
+    // where the particle would have started if it had moved with the body
+    start.set(startX[argIndex], startY[argIndex]);
+    Transform.mulTransToOutUnsafe(previous, start, local);
+    Transform.mulToOutUnsafe(argBody.getTransform(), local, start);
+
+    input.p1.set(start);
+    input.p2.set(x[argIndex], y[argIndex]);
+    input.maxFraction = 1;
+    if (input.p1.x == input.p2.x && input.p1.y == input.p2.y) {
+      return;
+    }
+    boolean hit = false;
+    for (int child = 0, children = argFixture.getShape().getChildCount(); child < children; child++) {
+      if (argFixture.raycast(output, input, child) && output.fraction < input.maxFraction) {
+        closest.set(output);
+        input.maxFraction = output.fraction;
+        hit = true;
+      }
+    }
+    if (!hit) {
+      return;
+    }
+
+    final Vec2 normal = closest.normal;
+    float fraction = closest.fraction;
+    point.x = input.p1.x + fraction * (input.p2.x - input.p1.x);
+    point.y = input.p1.y + fraction * (input.p2.y - input.p1.y);
+    x[argIndex] = point.x + normal.x * Settings.linearSlop;
+    y[argIndex] = point.y + normal.y * Settings.linearSlop;
+
+    argBody.getLinearVelocityFromWorldPointToOut(point, bodyVelocity);
+    float relativeX = vx[argIndex] - bodyVelocity.x;
+    float relativeY = vy[argIndex] - bodyVelocity.y;
+    float normalSpeed = relativeX * normal.x + relativeY * normal.y;
+    if (normalSpeed >= 0) {
+      return;
+    }
+    float tangentX = relativeX - normalSpeed * normal.x;
+    float tangentY = relativeY - normalSpeed * normal.y;
+    float dvx = -(1 + restitution) * normalSpeed * normal.x - friction * tangentX;
+    float dvy = -(1 + restitution) * normalSpeed * normal.y - friction * tangentY;
+    vx[argIndex] += dvx;
+    vy[argIndex] += dvy;
+    if (argBody.getType() == BodyType.DYNAMIC) {
+      impulse.set(-dvx * particleMass, -dvy * particleMass);
+      argBody.applyLinearImpulse(impulse, point);
+    }
+  }
+
+  /**
+   * Draws the particles as points
+   * 
+   * @param argDraw
+   * @param argColor
+   */
+  public void draw(DebugDraw argDraw, Color3f argColor) {
+    for (int i = 0; i < count; i++) {
+      point.set(x[i], y[i]);
+      argDraw.drawPoint(point, 3f, argColor);
+    }
+  }
+}
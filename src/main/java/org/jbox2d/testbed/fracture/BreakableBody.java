@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.fracture;
+
+import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.World;
+
+/**
+ * A body that breaks into the pieces of a {@link FracturePattern} when it's hit hard enough. The
+ * intact body has one fixture for each piece, each with this as its user data, which is how
+ * {@link FractureManager} knows which contacts to check. The pieces' bodies are all created up
+ * front, inactive and out of the way, so breaking only moves them into place and activates them.
+ * Make these with {@link FractureManager#create}.
+ */
+public class BreakableBody {
+  /**
+   * Where the inactive pieces wait, away from anything that's drawn
+   */
+  public static final float PARKED = -1e5f;
+
+  final Body intact;
+  final Body[] pieces;
+  final float threshold;
+
+  boolean pending = false;
+  boolean broken = false;
+  int index = -1;
+  float vx, vy, w;
+
+  BreakableBody(World argWorld, FracturePattern argPattern, BodyDef argBodyDef,
+      FixtureDef argFixtureDef, float argThreshold) {
+    assert (argBodyDef.type == BodyType.DYNAMIC);
+    threshold = argThreshold;
+    int count = argPattern.getPieceCount();
+    pieces = new Body[count];
+
+    final Shape shape = argFixtureDef.shape;
+    final Object userData = argFixtureDef.userData;
+    final float x = argBodyDef.position.x, y = argBodyDef.position.y;
+    final boolean active = argBodyDef.active;
+
+    argFixtureDef.userData = this;
+    intact = argWorld.createBody(argBodyDef);
+    for (int i = 0; i < count; i++) {
+      argFixtureDef.shape = argPattern.getPiece(i);
+      intact.createFixture(argFixtureDef);
+    }
+
+    argFixtureDef.userData = userData;
+    argBodyDef.active = false;
+    argBodyDef.position.set(PARKED, PARKED);
+    for (int i = 0; i < count; i++) {
+      argFixtureDef.shape = argPattern.getPiece(i);
+      pieces[i] = argWorld.createBody(argBodyDef);
+      pieces[i].createFixture(argFixtureDef);
+    }
+
+    argFixtureDef.shape = shape;
+    argBodyDef.active = active;
+    argBodyDef.position.set(x, y);
+  }
+
+  /**
+   * @return the body before it breaks
+   */
+  public Body getIntact() {
+    return intact;
+  }
+
+  public int getPieceCount() {
+    return pieces.length;
+  }
+
+  /**
+   * @param argIndex
+   * @return a piece's body, inactive until it breaks
+   */
+  public Body getPiece(int argIndex) {
+    return pieces[argIndex];
+  }
+
+  /**
+   * @return the impulse that breaks it
+   */
+  public float getThreshold() {
+    return threshold;
+  }
+
+  public boolean isBroken() {
+    return broken;
+  }
+
+  /**
+   * @param argFixture
+   * @return the breakable body the fixture belongs to, or null if it isn't breakable
+   */
+  public static BreakableBody of(Fixture argFixture) {
+    Object userData = argFixture.getUserData();
+    return userData instanceof BreakableBody ? (BreakableBody) userData : null;
+  }
+
+  /**
+   * Activates the pieces where the intact body is, moving like it was, and deactivates it
+   * 
+   * @param argPosition scratch
+   */
+  void shatter(Vec2 argPosition) {
+    Vec2 position = intact.getPosition();
+    float angle = intact.getAngle();
+    Vec2 center = intact.getWorldCenter();
+    float cx = center.x, cy = center.y;
+    intact.setActive(false);
+    for (int i = 0; i < pieces.length; i++) {
+      Body piece = pieces[i];
+      piece.setTransform(position, angle);
+      // the velocity of the intact body at the piece's center
+      Vec2 c = piece.getWorldCenter();
+      argPosition.set(vx - w * (c.y - cy), vy + w * (c.x - cx));
+      piece.setLinearVelocity(argPosition);
+      piece.setAngularVelocity(w);
+      piece.setAwake(true);
+      piece.setActive(true);
+    }
+    broken = true;
+  }
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.fracture;
+
+import org.jbox2d.callbacks.ContactImpulse;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.dynamics.contacts.Contact;
+
+/**
+ * Breaks {@link BreakableBody}s. The test forwards its {@link #postSolve} to the manager, which
+ * only looks at the impulse of contacts with a breakable fixture, and flags the body if the
+ * impulse is over its threshold. {@link #update()}, after the step, breaks the flagged bodies,
+ * which is a few calls per piece, and keeps the velocity of the intact ones from before the
+ * impact they break on, so the pieces fly off the way the body was moving.
+ */
+public class FractureManager {
+  private final World world;
+  private BreakableBody[] intact = new BreakableBody[16];
+  private int intactCount = 0;
+  private BreakableBody[] pending = new BreakableBody[16];
+  private int pendingCount = 0;
+  private int brokenCount = 0;
+  private final Vec2 velocity = new Vec2();
+
+  public FractureManager(World argWorld) {
+    world = argWorld;
+  }
+
+  /**
+   * Creates a breakable body
+   * 
+   * @param argPattern
+   * @param argBodyDef for the intact body and the pieces, dynamic
+   * @param argFixtureDef for every piece, the shape and user data are ignored
+   * @param argThreshold the normal impulse that breaks it
+   * @return
+   */
+  public BreakableBody create(FracturePattern argPattern, BodyDef argBodyDef,
+      FixtureDef argFixtureDef, float argThreshold) {
+    BreakableBody body =
+        new BreakableBody(world, argPattern, argBodyDef, argFixtureDef, argThreshold);
+    if (intactCount == intact.length) {
+      BreakableBody[] old = intact;
+      intact = new BreakableBody[old.length * 2];
+      System.arraycopy(old, 0, intact, 0, old.length);
+      BreakableBody[] oldPending = pending;
+      pending = new BreakableBody[intact.length];
+      System.arraycopy(oldPending, 0, pending, 0, pendingCount);
+    }
+    body.index = intactCount;
+    intact[intactCount++] = body;
+    cacheVelocity(body);
+    return body;
+  }
+
+  /**
+   * @return the number of bodies that haven't broken
+   */
+  public int getIntactCount() {
+    return intactCount;
+  }
+
+  /**
+   * @return the number of bodies that broke
+   */
+  public int getBrokenCount() {
+    return brokenCount;
+  }
+
+  /**
+   * Call from the contact listener's post solve
+   */
+  public void postSolve(Contact argContact, ContactImpulse argImpulse) {
+    BreakableBody a = BreakableBody.of(argContact.getFixtureA());
+    BreakableBody b = BreakableBody.of(argContact.getFixtureB());
+    if (a == null && b == null) {
+      return;
+    }
+    int count = argContact.getManifold().pointCount;
+    float maxImpulse = 0.0f;
+    for (int i = 0; i < count; ++i) {
+      maxImpulse = Math.max(maxImpulse, argImpulse.normalImpulses[i]);
+    }
+    if (a != null) {
+      flag(a, maxImpulse);
+    }
+    if (b != null) {
+      flag(b, maxImpulse);
+    }
+  }
+
+  private void flag(BreakableBody argBody, float argImpulse) {
+    if (argBody.pending || argImpulse <= argBody.threshold) {
+      return;
+    }
+    // an intact body can only be pending once, so there's always room
+    argBody.pending = true;
+    pending[pendingCount++] = argBody;
+  }
+
+  /**
+   * Breaks the bodies that were hit hard enough in the last step. Call after each step.
+   */
+  public void update() {
+    for (int i = 0; i < pendingCount; i++) {
+      BreakableBody body = pending[i];
+      pending[i] = null;
+      body.shatter(velocity);
+      // swap it out of the intact bodies
+      BreakableBody last = intact[--intactCount];
+      intact[body.index] = last;
+      last.index = body.index;
+      intact[intactCount] = null;
+      body.index = -1;
+      brokenCount++;
+    }
+    pendingCount = 0;
+
+    for (int i = 0; i < intactCount; i++) {
+      cacheVelocity(intact[i]);
+    }
+  }
+
+  private void cacheVelocity(BreakableBody argBody) {
+    Body body = argBody.intact;
+    Vec2 v = body.getLinearVelocity();
+    argBody.vx = v.x;
+    argBody.vy = v.y;
+    argBody.w = body.getAngularVelocity();
+  }
+}
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.fracture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.testbed.geometry.ConvexHullBuilder;
+
+/**
+ * The pieces a {@link BreakableBody} breaks into, as polygons in the body's frame. Together they
+ * make up the intact body. They're either authored with {@link #addPiece(PolygonShape)}, or cut
+ * from a convex outline with {@link #voronoi(Vec2[], int, int, long)}. All the work is done when
+ * the pattern is made, and it can be shared by any number of bodies.
+ */
+public class FracturePattern {
+  /**
+   * How many random points are tried for each site before giving up on it
+   */
+  public static int maxSiteTries = 100;
+
+  private final List<PolygonShape> pieces = new ArrayList<PolygonShape>();
+
+  /**
+   * @param argPiece copied
+   * @return this
+   */
+  public FracturePattern addPiece(PolygonShape argPiece) {
+    pieces.add((PolygonShape) argPiece.clone());
+    return this;
+  }
+
+  public int getPieceCount() {
+    return pieces.size();
+  }
+
+  public PolygonShape getPiece(int argIndex) {
+    return pieces.get(argIndex);
+  }
+
+  /**
+   * Cuts a convex outline into the Voronoi cells of random sites inside it. A cell with more
+   * vertices than a polygon can have is simplified with {@link ConvexHullBuilder#simplify}, and
+   * cells that are too small for a polygon are dropped, so there may be fewer pieces than sites.
+   * A clockwise outline is reversed first. A site that isn't inside the outline after
+   * {@link #maxSiteTries} tries is dropped too, which only happens for very thin outlines.
+   * 
+   * @param argOutline the vertices of a convex polygon, preferably counter clockwise
+   * @param argCount the number of vertices
+   * @param argSites the number of sites, and so of pieces
+   * @param argSeed
+   * @return
+   */
+  public static FracturePattern voronoi(Vec2[] argOutline, int argCount, int argSites,
+      long argSeed) {
+    assert (argCount >= 3 && argSites >= 1);
+    float area = 0;
+    for (int i = 0; i < argCount; i++) {
+      Vec2 a = argOutline[i], b = argOutline[(i + 1) % argCount];
+      area += a.x * b.y - a.y * b.x;
+    }
+    assert (area != 0) : "degenerate outline";
+    if (area < 0) {
+      // contains() and the cell clipping both expect the interior on the left
+      Vec2[] reversed = new Vec2[argCount];
+      for (int i = 0; i < argCount; i++) {
+        reversed[i] = argOutline[argCount - 1 - i];
+      }
+      argOutline = reversed;
+    }
+    Random random = new Random(argSeed);
+    float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+    float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+    for (int i = 0; i < argCount; i++) {
+      minX = Math.min(minX, argOutline[i].x);
+      minY = Math.min(minY, argOutline[i].y);
+      maxX = Math.max(maxX, argOutline[i].x);
+      maxY = Math.max(maxY, argOutline[i].y);
+    }
+
+    float[] sites = new float[2 * argSites];
+    int siteCount = 0;
+    for (int i = 0; i < argSites; i++) {
+      for (int tries = 0; tries < maxSiteTries; tries++) {
+        float x = minX + random.nextFloat() * (maxX - minX);
+        float y = minY + random.nextFloat() * (maxY - minY);
+        if (contains(argOutline, argCount, x, y)) {
+          sites[2 * siteCount] = x;
+          sites[2 * siteCount + 1] = y;
+          siteCount++;
+          break;
+        }
+      }
+    }
+    argSites = siteCount;
+
+    FracturePattern pattern = new FracturePattern();
+    int capacity = argCount + argSites;
+    float[] cell = new float[2 * capacity];
+    float[] clipped = new float[2 * capacity];
+    ConvexHullBuilder hull = new ConvexHullBuilder();
+    for (int i = 0; i < argSites; i++) {
+      int count = argCount;
+      for (int k = 0; k < argCount; k++) {
+        cell[2 * k] = argOutline[k].x;
+        cell[2 * k + 1] = argOutline[k].y;
+      }
+      float sx = sites[2 * i], sy = sites[2 * i + 1];
+      for (int j = 0; j < argSites && count >= 3; j++) {
+        if (j == i) {
+          continue;
+        }
+        // keep the half closer to site i than to site j
+        float nx = sites[2 * j] - sx, ny = sites[2 * j + 1] - sy;
+        float d = nx * (sx + sites[2 * j]) * .5f + ny * (sy + sites[2 * j + 1]) * .5f;
+        count = clip(cell, count, nx, ny, d, clipped);
+        float[] swap = cell;
+        cell = clipped;
+        clipped = swap;
+      }
+      if (hull.build(cell, count) < 3) {
+        continue;
+      }
+      hull.simplify(Settings.maxPolygonVertices);
+      if (hull.getArea() < 100 * Settings.linearSlop * Settings.linearSlop) {
+        continue;
+      }
+      PolygonShape piece = new PolygonShape();
+      hull.toPolygon(piece);
+      pattern.pieces.add(piece);
+    }
+    return pattern;
+  }
+
+  private static boolean contains(Vec2[] argPolygon, int argCount, float argX, float argY) {
+    for (int i = 0; i < argCount; i++) {
+      Vec2 a = argPolygon[i], b = argPolygon[(i + 1) % argCount];
+      if ((b.x - a.x) * (argY - a.y) - (b.y - a.y) * (argX - a.x) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Sutherland-Hodgman against the half plane n.p <= d
+   */
+  private static int clip(float[] argIn, int argCount, float argNX, float argNY, float argD,
+      float[] argOut) {
+    int count = 0;
+    for (int i = 0; i < argCount; i++) {
+      int j = (i + 1) % argCount;
+      float ax = argIn[2 * i], ay = argIn[2 * i + 1];
+      float bx = argIn[2 * j], by = argIn[2 * j + 1];
+      float da = argNX * ax + argNY * ay - argD;
+      float db = argNX * bx + argNY * by - argD;
+      if (da <= 0) {
+        argOut[2 * count] = ax;
+        argOut[2 * count + 1] = ay;
+        count++;
+      }
+      if ((da < 0 && db > 0) || (da > 0 && db < 0)) {
+        float t = da / (da - db);
+        argOut[2 * count] = ax + t * (bx - ax);
+        argOut[2 * count + 1] = ay + t * (by - ay);
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.framework;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the bytes allocated by the stepping thread in each step, split into the physics step,
+ * the debug draw, and everything else, which is the test's own code and the testbed overlays.
+ * Uses the per-thread allocation counter of the HotSpot {@link ThreadMXBean}; on other VMs
+ * {@link #isSupported()} is false and everything reads zero.
+ */
+public class AllocationProfiler {
+
+  public static final int PHYSICS = 0;
+  public static final int DEBUG_DRAW = 1;
+  public static final int TEST = 2;
+  public static final int CATEGORIES = 3;
+  public static final String[] CATEGORY_NAMES = {"physics", "debug draw", "test"};
+
+  private final com.sun.management.ThreadMXBean threads;
+  // what a call to the counter allocates itself, subtracted from every reading
+  private final long overhead;
+
+  private boolean inStep = false;
+  private long stepStart;
+  private final long[] categoryStart = new long[CATEGORIES];
+  private final long[] current = new long[CATEGORIES];
+
+  private final long[] last = new long[CATEGORIES];
+  private final long[] total = new long[CATEGORIES];
+  private final long[] max = new long[CATEGORIES];
+  private long lastStep, totalStep, maxStep;
+  private int steps = 0;
+
+  public AllocationProfiler() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    com.sun.management.ThreadMXBean hotspot = null;
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      hotspot = (com.sun.management.ThreadMXBean) bean;
+      try {
+        if (!hotspot.isThreadAllocatedMemorySupported()) {
+          hotspot = null;
+        } else if (!hotspot.isThreadAllocatedMemoryEnabled()) {
+          hotspot.setThreadAllocatedMemoryEnabled(true);
+        }
+      } catch (UnsupportedOperationException e) {
+        hotspot = null;
+      }
+    }
+    threads = hotspot;
+
+    long calls = 0;
+    if (threads != null) {
+      long id = Thread.currentThread().getId();
+      long start = threads.getThreadAllocatedBytes(id);
+      for (int i = 0; i < 16; i++) {
+        threads.getThreadAllocatedBytes(id);
+      }
+      calls = (threads.getThreadAllocatedBytes(id) - start) / 17;
+    }
+    overhead = calls;
+  }
+
+  public boolean isSupported() {
+    return threads != null;
+  }
+
+  /**
+   * Starts measuring a step on the current thread
+   */
+  public void beginStep() {
+    for (int i = 0; i < CATEGORIES; i++) {
+      current[i] = 0;
+    }
+    inStep = true;
+    stepStart = read();
+  }
+
+  /**
+   * Starts measuring a category within the step. Does nothing outside of a step.
+   * 
+   * @param argCategory
+   */
+  public void begin(int argCategory) {
+    if (inStep) {
+      categoryStart[argCategory] = read();
+    }
+  }
+
+  /**
+   * Stops measuring a category within the step
+   * 
+   * @param argCategory
+   */
+  public void end(int argCategory) {
+    if (inStep) {
+      current[argCategory] += Math.max(0, read() - categoryStart[argCategory] - overhead);
+    }
+  }
+
+  /**
+   * Finishes the step. Whatever wasn't measured in a category is counted as {@link #TEST}.
+   */
+  public void endStep() {
+    if (!inStep) {
+      return;
+    }
+    inStep = false;
+    // two reads per measured category happened inside the step
+    long stepBytes = Math.max(0, read() - stepStart - overhead * 5);
+    current[TEST] = Math.max(0, stepBytes - current[PHYSICS] - current[DEBUG_DRAW]);
+    for (int i = 0; i < CATEGORIES; i++) {
+      last[i] = current[i];
+      total[i] += current[i];
+      max[i] = Math.max(max[i], current[i]);
+    }
+    lastStep = stepBytes;
+    totalStep += stepBytes;
+    maxStep = Math.max(maxStep, stepBytes);
+    steps++;
+  }
+
+  /**
+   * Clears the accumulated statistics
+   */
+  public void reset() {
+    for (int i = 0; i < CATEGORIES; i++) {
+      last[i] = total[i] = max[i] = 0;
+    }
+    lastStep = totalStep = maxStep = 0;
+    steps = 0;
+  }
+
+  public int getStepCount() {
+    return steps;
+  }
+
+  /**
+   * Bytes allocated in the category in the last step, or in the whole step if the category is -1
+   * 
+   * @param argCategory
+   * @return
+   */
+  public long getLast(int argCategory) {
+    return argCategory < 0 ? lastStep : last[argCategory];
+  }
+
+  /**
+   * Mean bytes allocated per step in the category, or in the whole step if the category is -1
+   * 
+   * @param argCategory
+   * @return
+   */
+  public double getMean(int argCategory) {
+    if (steps == 0) {
+      return 0;
+    }
+    return (double) (argCategory < 0 ? totalStep : total[argCategory]) / steps;
+  }
+
+  /**
+   * Most bytes allocated in one step in the category, or in the whole step if the category is -1
+   * 
+   * @param argCategory
+   * @return
+   */
+  public long getMax(int argCategory) {
+    return argCategory < 0 ? maxStep : max[argCategory];
+  }
+
+  private long read() {
+    return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
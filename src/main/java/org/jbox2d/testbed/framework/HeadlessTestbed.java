@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.framework;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs tests without a panel or animation thread, for benchmarks and automated checks. Drawing
+ * goes to a {@link NullDebugDraw}, help text and rewind captures are turned off, and the tests are
+ * stepped on the calling thread through {@link TestbedTest#update()}.
+ */
+public class HeadlessTestbed {
+
+  private final TestbedModel model;
+  private List<TestbedTest> tests = null;
+
+  public HeadlessTestbed() {
+    model = new TestbedModel();
+    model.setDebugDraw(new NullDebugDraw());
+    model.setPanelWidth(800);
+    TestbedSettings settings = model.getSettings();
+    settings.getSetting(TestbedSettings.DrawHelp).enabled = false;
+    settings.getSetting(TestbedSettings.RewindMemory).value = 0;
+  }
+
+  public TestbedModel getModel() {
+    return model;
+  }
+
+  public TestbedSettings getSettings() {
+    return model.getSettings();
+  }
+
+  /**
+   * Gets the tests from {@link TestList}, populating the model the first time.
+   * 
+   * @return
+   */
+  public List<TestbedTest> getTests() {
+    if (tests == null) {
+      TestList.populateModel(model);
+      tests = new ArrayList<TestbedTest>();
+      for (int i = 0; i < model.getTestsSize(); i++) {
+        if (model.isTestAt(i)) {
+          tests.add(model.getTestAt(i));
+        }
+      }
+    }
+    return tests;
+  }
+
+  /**
+   * Adds a test after the ones from {@link TestList}
+   * 
+   * @param argTest
+   */
+  public void addTest(TestbedTest argTest) {
+    getTests();
+    model.addTest(argTest);
+    tests.add(argTest);
+  }
+
+  /**
+   * Gets a test from {@link TestList} by its test name
+   * 
+   * @param argName
+   * @return the test, or null if there is none with that name
+   */
+  public TestbedTest getTest(String argName) {
+    for (TestbedTest test : getTests()) {
+      if (test.getTestName().equals(argName)) {
+        return test;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Initializes the test with a new world
+   * 
+   * @param argTest
+   */
+  public void init(TestbedTest argTest) {
+    argTest.init(model);
+    model.setRunningTest(argTest);
+  }
+
+  /**
+   * Steps the test
+   * 
+   * @param argTest
+   * @param argSteps
+   */
+  public void step(TestbedTest argTest, int argSteps) {
+    for (int i = 0; i < argSteps; i++) {
+      argTest.update();
+    }
+  }
+}
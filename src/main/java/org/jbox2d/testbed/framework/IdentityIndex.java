@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.framework;
+
+/**
+ * An open addressed map from objects, by identity, to ints. The arrays only grow, and
+ * {@link #clear()} only visits the slots that were used, so a table that's filled and cleared every
+ * step doesn't allocate once it's big enough.
+ */
+class IdentityIndex {
+  public static final int NONE = -1;
+
+  private Object[] keys;
+  private int[] values;
+  private int[] used;
+  private int size = 0;
+  private int mask;
+
+  public IdentityIndex(int argCapacity) {
+    int capacity = 16;
+    while (capacity < argCapacity * 2) {
+      capacity <<= 1;
+    }
+    keys = new Object[capacity];
+    values = new int[capacity];
+    used = new int[capacity / 2];
+    mask = capacity - 1;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param argKey
+   * @return the value, or {@link #NONE} if the key isn't in the table
+   */
+  public int get(Object argKey) {
+    int slot = hash(argKey);
+    while (keys[slot] != null) {
+      if (keys[slot] == argKey) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return NONE;
+  }
+
+  /**
+   * Adds the key if it isn't in the table yet
+   * 
+   * @param argKey
+   * @param argValue
+   * @return the value that was already there, or {@link #NONE} if the key was added
+   */
+  public int putIfAbsent(Object argKey, int argValue) {
+    if (size == used.length) {
+      grow();
+    }
+    int slot = hash(argKey);
+    while (keys[slot] != null) {
+      if (keys[slot] == argKey) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = argKey;
+    values[slot] = argValue;
+    used[size++] = slot;
+    return NONE;
+  }
+
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      keys[used[i]] = null;
+    }
+    size = 0;
+  }
+
+  private int hash(Object argKey) {
+    int h = System.identityHashCode(argKey);
+    // spread the bits, identity hashes aren't always random in the low ones
+    h ^= (h >>> 16);
+    h *= 0x85ebca6b;
+    h ^= (h >>> 13);
+    return h & mask;
+  }
+
+  private void grow() {
+    Object[] oldKeys = keys;
+    int[] oldValues = values;
+    int[] oldUsed = used;
+    int oldSize = size;
+    keys = new Object[oldKeys.length * 2];
+    values = new int[keys.length];
+    used = new int[keys.length / 2];
+    mask = keys.length - 1;
+    size = 0;
+    for (int i = 0; i < oldSize; i++) {
+      int slot = oldUsed[i];
+      putIfAbsent(oldKeys[slot], oldValues[slot]);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.framework;
+
+import org.jbox2d.callbacks.DebugDraw;
+import org.jbox2d.common.Color3f;
+import org.jbox2d.common.OBBViewportTransform;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+
+/**
+ * A {@link DebugDraw} that draws nothing, for running tests without a panel.
+ */
+public class NullDebugDraw extends DebugDraw {
+
+  public NullDebugDraw() {
+    super(new OBBViewportTransform());
+    viewportTransform.setYFlip(true);
+  }
+
+  @Override
+  public void drawPoint(Vec2 argPoint, float argRadiusOnScreen, Color3f argColor) {}
+
+  @Override
+  public void drawSolidPolygon(Vec2[] vertices, int vertexCount, Color3f color) {}
+
+  @Override
+  public void drawCircle(Vec2 center, float radius, Color3f color) {}
+
+  @Override
+  public void drawSolidCircle(Vec2 center, float radius, Vec2 axis, Color3f color) {}
+
+  @Override
+  public void drawSegment(Vec2 p1, Vec2 p2, Color3f color) {}
+
+  @Override
+  public void drawTransform(Transform xf) {}
+
+  @Override
+  public void drawString(float x, float y, String s, Color3f color) {}
+}
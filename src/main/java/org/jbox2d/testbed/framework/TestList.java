@@ -26,6 +26,7 @@
  */
 package org.jbox2d.testbed.framework;
 
+import org.jbox2d.testbed.scenario.ScenarioGenerator;
 import org.jbox2d.testbed.tests.ApplyForce;
 import org.jbox2d.testbed.tests.BlobTest4;
 import org.jbox2d.testbed.tests.BodyTypes;
@@ -48,10 +49,12 @@ import org.jbox2d.testbed.tests.DominoTower;
 import org.jbox2d.testbed.tests.DynamicTreeTest;
 import org.jbox2d.testbed.tests.EdgeShapes;
 import org.jbox2d.testbed.tests.FixedPendulumTest;
+import org.jbox2d.testbed.tests.FractureTest;
 import org.jbox2d.testbed.tests.FreePendulumTest;
 import org.jbox2d.testbed.tests.Gears;
 import org.jbox2d.testbed.tests.LiquidTest;
 import org.jbox2d.testbed.tests.OneSidedTest;
+import org.jbox2d.testbed.tests.ParticleTest;
 import org.jbox2d.testbed.tests.PistonTest;
 import org.jbox2d.testbed.tests.PolyShapes;
 import org.jbox2d.testbed.tests.PrismaticTest;
@@ -101,6 +104,7 @@ public class TestList {
     model.addCategory("Interactive");
     model.addTest(new VerticalStack());
     model.addTest(new Breakable());
+    model.addTest(new FractureTest());
     model.addTest(new ShapeEditing());
     model.addTest(new OneSidedTest());
     model.addTest(new PolyShapes());
@@ -144,5 +148,9 @@ public class TestList {
     model.addTest(new DynamicTreeTest());
     model.addTest(new DistanceTest());
     model.addTest(new LiquidTest());
+    model.addTest(new ParticleTest());
+
+    // generated from parameters
+    ScenarioGenerator.populateModel(model);
   }
 }
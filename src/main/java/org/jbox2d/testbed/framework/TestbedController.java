@@ -116,6 +116,12 @@ public class TestbedController implements Runnable {
           nextTest();
         } else if (key == 'r') {
           resetTest();
+        } else if (key == 'z' && model.getCurrTest() != null) {
+          model.getCurrTest().rewind();
+        } else if (key == 't' && model.getCurrTest() != null) {
+          model.getCurrTest().toggleRecording();
+        } else if (key == 'p' && model.getCurrTest() != null) {
+          model.getCurrTest().togglePlayback();
         }
         else if (model.getCurrTest() != null) {
           model.getCurrTest().queueKeyPressed(key, code);
@@ -29,6 +29,7 @@ import javax.swing.DefaultComboBoxModel;
 
 import org.jbox2d.callbacks.DebugDraw;
 import org.jbox2d.common.Vec2;
+import org.jbox2d.testbed.broadphase.BroadPhaseStrategies;
 
 /**
  * Model for the testbed
@@ -49,6 +50,7 @@ public class TestbedModel {
   private float panelWidth;
   private int currTestIndex = -1;
   private TestbedTest runningTest;
+  private String broadPhase = BroadPhaseStrategies.getDefault();
   
   public TestbedModel() {
   }
@@ -138,6 +140,21 @@ public class TestbedModel {
     return runningTest;
   }
 
+  /**
+   * Sets the broadphase strategy the tests' worlds are created with. Takes effect when the test
+   * is next reset.
+   * 
+   * @param argName one of {@link BroadPhaseStrategies#getNames()}
+   */
+  public void setBroadPhase(String argName) {
+    BroadPhaseStrategies.create(argName);
+    broadPhase = argName;
+  }
+
+  public String getBroadPhase() {
+    return broadPhase;
+  }
+
   public void addTestChangeListener(TestChangedListener argListener) {
     listeners.add(argListener);
   }
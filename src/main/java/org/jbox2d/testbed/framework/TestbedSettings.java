@@ -45,6 +45,7 @@ public class TestbedSettings {
   public static final String AllowSleep = "Sleep";
   public static final String WarmStarting = "Warm Starting";
   public static final String SubStepping = "SubStepping";
+  public static final String BulkLoad = "Bulk Load";
   public static final String ContinuousCollision = "Continuous Collision";
   public static final String DrawShapes = "Shapes";
   public static final String DrawJoints = "Joints";
@@ -55,8 +56,12 @@ public class TestbedSettings {
   public static final String DrawFrictionImpulses = "Friction Impulses";
   public static final String DrawCOMs = "Center of Mass";
   public static final String DrawStats = "Stats";
+  public static final String ProfileAllocations = "Allocations";
   public static final String DrawHelp = "Help";
   public static final String DrawTree = "Dynamic Tree";
+  public static final String RewindInterval = "Rewind Interval";
+  public static final String RewindMemory = "Rewind MB";
+  public static final String TraceKeyframes = "Trace Keyframes";
 
   public boolean pause = false;
   public boolean singleStep = false;
@@ -78,6 +83,10 @@ public class TestbedSettings {
     addSetting(new TestbedSetting(WarmStarting, SettingType.ENGINE, true));
     addSetting(new TestbedSetting(ContinuousCollision, SettingType.ENGINE, false));
     addSetting(new TestbedSetting(SubStepping, SettingType.ENGINE, false));
+    addSetting(new TestbedSetting(BulkLoad, SettingType.ENGINE, true));
+    addSetting(new TestbedSetting(RewindInterval, SettingType.ENGINE, 10, 1, 120));
+    addSetting(new TestbedSetting(RewindMemory, SettingType.ENGINE, 32, 0, 512));
+    addSetting(new TestbedSetting(TraceKeyframes, SettingType.ENGINE, 60, 1, 600));
     addSetting(new TestbedSetting(DrawShapes, SettingType.DRAWING, true));
     addSetting(new TestbedSetting(DrawJoints, SettingType.DRAWING, false));
     addSetting(new TestbedSetting(DrawAABBs, SettingType.DRAWING, false));
@@ -87,6 +96,7 @@ public class TestbedSettings {
     addSetting(new TestbedSetting(DrawFrictionImpulses, SettingType.DRAWING, false));
     addSetting(new TestbedSetting(DrawCOMs, SettingType.DRAWING, false));
     addSetting(new TestbedSetting(DrawStats, SettingType.DRAWING, false));
+    addSetting(new TestbedSetting(ProfileAllocations, SettingType.DRAWING, false));
     addSetting(new TestbedSetting(DrawHelp, SettingType.DRAWING, true));
     addSetting(new TestbedSetting(DrawTree, SettingType.DRAWING, false));
   }
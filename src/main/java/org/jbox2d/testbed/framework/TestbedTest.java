@@ -26,6 +26,7 @@
  */
 package org.jbox2d.testbed.framework;
 
+import java.awt.event.KeyEvent;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -46,6 +47,7 @@ import org.jbox2d.collision.Collision;
 import org.jbox2d.collision.Collision.PointState;
 import org.jbox2d.collision.Manifold;
 import org.jbox2d.collision.WorldManifold;
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
 import org.jbox2d.collision.shapes.CircleShape;
 import org.jbox2d.collision.shapes.Shape;
 import org.jbox2d.common.Color3f;
@@ -62,6 +64,7 @@ import org.jbox2d.dynamics.contacts.Contact;
 import org.jbox2d.dynamics.joints.Joint;
 import org.jbox2d.dynamics.joints.MouseJoint;
 import org.jbox2d.dynamics.joints.MouseJointDef;
+import org.jbox2d.pooling.normal.DefaultWorldPool;
 import org.jbox2d.serialization.JbDeserializer;
 import org.jbox2d.serialization.JbDeserializer.ObjectListener;
 import org.jbox2d.serialization.JbSerializer;
@@ -71,6 +74,8 @@ import org.jbox2d.serialization.UnsupportedListener;
 import org.jbox2d.serialization.UnsupportedObjectException;
 import org.jbox2d.serialization.pb.PbDeserializer;
 import org.jbox2d.serialization.pb.PbSerializer;
+import org.jbox2d.testbed.broadphase.BroadPhaseStrategies;
+import org.jbox2d.testbed.broadphase.BulkLoadable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -103,6 +108,8 @@ public abstract class TestbedTest
    * Only visible for compatibility. Should use {@link #getWorld()} instead.
    */
   protected World m_world;
+  private BroadPhaseStrategy broadPhase;
+  private final WorldCommandBuffer commands = new WorldCommandBuffer();
   protected Body groundBody;
   private MouseJoint mouseJoint;
 
@@ -134,6 +141,23 @@ public abstract class TestbedTest
 
   private boolean savePending, loadPending, resetPending = false;
 
+  private WorldStateRing rewindRing;
+  private boolean rewindPending = false;
+  private int rewindStep;
+
+  private TransformTraceRecorder traceRecorder;
+  private TransformTracePlayer tracePlayer;
+  private boolean recordTogglePending, playbackTogglePending = false;
+  private boolean playbackSeekPending = false;
+  private int playbackSeekStep;
+
+  private WorldSnapshot prototype;
+  // how the prototype's world was built; a different choice needs a fresh world
+  private String prototypeBroadPhase;
+  private boolean prototypeBulkLoad;
+
+  private AllocationProfiler allocationProfiler;
+
   public TestbedTest() {
     inputQueue = new LinkedList<QueueItem>();
     serializer = new PbSerializer(this, new SignerAdapter(this) {
@@ -189,6 +213,23 @@ public abstract class TestbedTest
 
   public void init(TestbedModel argModel) {
     model = argModel;
+    boolean bulkLoadEnabled = model.getSettings().getSetting(TestbedSettings.BulkLoad).enabled;
+    if (prototype != null && isPrototypeResetEnabled() && prototype.getWorld() == m_world
+        && bulkLoadEnabled == prototypeBulkLoad
+        && equal(model.getBroadPhase(), prototypeBroadPhase)) {
+      if (mouseJoint != null) {
+        m_world.destroyJoint(mouseJoint);
+        mouseJoint = null;
+      }
+      bomb = null;
+      if (prototype.restoreStructure(m_world)) {
+        initFramework(m_world);
+        prototypeRestored();
+        return;
+      }
+    }
+    prototype = null;
+
     destructionListener = new DestructionListener() {
 
       public void sayGoodbye(Fixture fixture) {}
@@ -203,21 +244,56 @@ public abstract class TestbedTest
     };
 
     Vec2 gravity = new Vec2(0, -10f);
-    m_world = new World(gravity);
+    broadPhase = createBroadPhase(model.getBroadPhase());
+    m_world = new World(gravity, new DefaultWorldPool(100, 10), broadPhase);
     bomb = null;
     mouseJoint = null;
 
     BodyDef bodyDef = new BodyDef();
     groundBody = m_world.createBody(bodyDef);
 
+    // the test's bodies all go in at once, so the tree can be built from all of them
+    BulkLoadable bulkLoad = null;
+    if (broadPhase instanceof BulkLoadable && bulkLoadEnabled) {
+      bulkLoad = (BulkLoadable) broadPhase;
+      bulkLoad.beginBulkLoad();
+    }
     init(m_world, false);
+    if (bulkLoad != null) {
+      bulkLoad.endBulkLoad();
+    }
+
+    if (isPrototypeResetEnabled()) {
+      prototype = new WorldSnapshot();
+      prototype.write(m_world, 0);
+      prototypeBroadPhase = model.getBroadPhase();
+      prototypeBulkLoad = bulkLoadEnabled;
+    }
+  }
+
+  private static boolean equal(String argA, String argB) {
+    return argA == null ? argB == null : argA.equals(argB);
   }
 
   public void init(World argWorld, boolean argDeserialized) {
+    initFramework(argWorld);
+    initTest(argDeserialized);
+  }
+
+  private void initFramework(World argWorld) {
     pointCount = 0;
     stepCount = 0;
     bombSpawning = false;
+    rewindPending = false;
+    if (rewindRing != null) {
+      rewindRing.clear();
+    }
+    if (allocationProfiler != null) {
+      allocationProfiler.reset();
+    }
+    stopTrace();
 
+    commands.reset(argWorld, broadPhase);
     argWorld.setDestructionListener(destructionListener);
     argWorld.setContactListener(this);
     argWorld.setDebugDraw(model.getDebugDraw());
@@ -228,8 +304,6 @@ public abstract class TestbedTest
       setCamera(getDefaultCameraPos(), getDefaultCameraScale());
     }
     setTitle(getTestName());
-
-    initTest(argDeserialized);
   }
 
   /**
@@ -241,6 +315,25 @@ public abstract class TestbedTest
     return m_world;
   }
 
+  /**
+   * Gets the broadphase strategy the world was created with
+   * 
+   * @return the strategy, or null if the world was deserialized
+   */
+  public BroadPhaseStrategy getBroadPhase() {
+    return broadPhase;
+  }
+
+  /**
+   * Gets the buffer for changes to the world asked for from the contact callbacks. They're applied
+   * right after the world steps, and ones queued outside the step right before it.
+   * 
+   * @return
+   */
+  public WorldCommandBuffer getCommands() {
+    return commands;
+  }
+
   /**
    * Gets the testbed model
    * 
@@ -299,6 +392,24 @@ public abstract class TestbedTest
     return pointCount;
   }
 
+  /**
+   * Gets the ring of in-memory captures used for rewinding, or null if rewinding is disabled
+   * 
+   * @return
+   */
+  public WorldStateRing getRewindRing() {
+    return rewindRing;
+  }
+
+  /**
+   * Gets the allocation profiler, or null if allocation profiling was never turned on
+   * 
+   * @return
+   */
+  public AllocationProfiler getAllocationProfiler() {
+    return allocationProfiler;
+  }
+
   /**
    * Gets the 'bomb' body if it's present
    * 
@@ -368,6 +479,16 @@ public abstract class TestbedTest
     return getTestName().toLowerCase().replaceAll(" ", "_") + ".box2d";
   }
 
+  /**
+   * Gets the filename of the transform trace of the current test. Default implementation uses the
+   * test name with no spaces.
+   * 
+   * @return
+   */
+  public String getTraceFilename() {
+    return getTestName().toLowerCase().replaceAll(" ", "_") + ".trace";
+  }
+
   /**
    * Resets the test
    */
@@ -389,10 +510,160 @@ public abstract class TestbedTest
     loadPending = true;
   }
 
+  /**
+   * Rewinds the test to the newest in-memory capture before the current step
+   */
+  public void rewind() {
+    rewindStep = stepCount - 1;
+    rewindPending = true;
+  }
+
+  /**
+   * Rewinds the test to the newest in-memory capture at or before the given step. The test runs on
+   * from the restored state, but the broadphase and the test's own state aren't captured, so it
+   * isn't guaranteed to repeat the original run step for step.
+   * 
+   * @param argStep
+   */
+  public void rewindTo(int argStep) {
+    rewindStep = argStep;
+    rewindPending = true;
+  }
+
+  /**
+   * Starts or stops recording the transform trace
+   */
+  public void toggleRecording() {
+    recordTogglePending = true;
+  }
+
+  /**
+   * Starts or stops playing back the transform trace. The world isn't stepped during playback.
+   */
+  public void togglePlayback() {
+    playbackTogglePending = true;
+  }
+
+  /**
+   * Seeks the transform trace playback to the given step
+   * 
+   * @param argStep
+   */
+  public void seekPlayback(int argStep) {
+    playbackSeekStep = argStep;
+    playbackSeekPending = true;
+  }
+
+  public boolean isRecording() {
+    return traceRecorder != null;
+  }
+
+  public boolean isPlayingBack() {
+    return tracePlayer != null;
+  }
+
   protected void _reset() {
     init(model);
   }
 
+  protected void _toggleRecording() {
+    if (traceRecorder != null) {
+      closeRecorder();
+      return;
+    }
+    if (tracePlayer != null) {
+      return;
+    }
+    try {
+      traceRecorder =
+          new TransformTraceRecorder(getTraceFilename(), model.getSettings().getSetting(
+              TestbedSettings.TraceKeyframes).value, 0.001f);
+      traceRecorder.record(m_world, stepCount);
+    } catch (IOException e) {
+      log.error("Could not start transform trace", e);
+      traceRecorder = null;
+    }
+  }
+
+  protected void _togglePlayback() {
+    if (tracePlayer != null) {
+      closePlayer();
+      return;
+    }
+    closeRecorder();
+    try {
+      tracePlayer = new TransformTracePlayer(getTraceFilename());
+      if (!tracePlayer.seek(tracePlayer.getFirstStep())) {
+        log.warn("Transform trace is empty: " + getTraceFilename());
+        closePlayer();
+      }
+    } catch (IOException e) {
+      log.error("Could not open transform trace", e);
+      tracePlayer = null;
+    }
+  }
+
+  private void stopTrace() {
+    recordTogglePending = playbackTogglePending = playbackSeekPending = false;
+    closeRecorder();
+    closePlayer();
+  }
+
+  private void closeRecorder() {
+    if (traceRecorder == null) {
+      return;
+    }
+    try {
+      traceRecorder.close();
+    } catch (IOException e) {
+      log.error("Error while finishing transform trace", e);
+    }
+    traceRecorder = null;
+  }
+
+  private void closePlayer() {
+    if (tracePlayer == null) {
+      return;
+    }
+    try {
+      tracePlayer.close();
+    } catch (IOException e) {
+      log.error("Error while closing transform trace", e);
+    }
+    tracePlayer = null;
+  }
+
+  protected void _rewind() {
+    if (rewindRing == null) {
+      log.warn("Rewinding is disabled");
+      return;
+    }
+    int restored = rewindRing.restore(m_world, rewindStep);
+    if (restored < 0) {
+      log.warn("No capture retained at or before step " + rewindStep);
+      return;
+    }
+    stepCount = restored;
+    pointCount = 0;
+    commands.clear();
+  }
+
+  private void updateRewindRing(TestbedSettings settings) {
+    int interval = settings.getSetting(TestbedSettings.RewindInterval).value;
+    long budget = settings.getSetting(TestbedSettings.RewindMemory).value * 1024L * 1024L;
+    if (budget == 0) {
+      rewindRing = null;
+      return;
+    }
+    if (rewindRing == null || rewindRing.getInterval() != interval
+        || rewindRing.getMemoryBudget() != budget) {
+      rewindRing = new WorldStateRing(interval, budget);
+      rewindRing.capture(m_world, stepCount);
+    } else if (stepCount == 0 && rewindRing.size() == 0) {
+      rewindRing.capture(m_world, 0);
+    }
+  }
+
   protected void _save() {
 
     SerializationResult result;
@@ -457,6 +728,8 @@ public abstract class TestbedTest
       return;
     }
     m_world = w;
+    // the deserializer makes its own
+    broadPhase = null;
 
     init(m_world, true);
     return;
@@ -494,10 +767,31 @@ public abstract class TestbedTest
    */
   public abstract String getTestName();
 
+  /**
+   * Override to keep a snapshot of the world as it was right after {@link #initTest(boolean)}, so
+   * resetting or re-entering the test restores the bodies and joints in place instead of
+   * rebuilding them. Bodies and joints created after init are destroyed on reset. Tests that
+   * destroy their initial bodies or change their fixtures fall back to a full init, and tests with
+   * other state should reset it in {@link #prototypeRestored()}.
+   * 
+   * @return
+   */
+  public boolean isPrototypeResetEnabled() {
+    return false;
+  }
+
+  /**
+   * Called after the world was restored from the prototype snapshot, instead of
+   * {@link #initTest(boolean)}
+   */
+  protected void prototypeRestored() {}
+
   /**
    * called when the tests exits
    */
-  public void exit() {}
+  public void exit() {
+    stopTrace();
+  }
 
   public void update() {
     if (resetPending) {
@@ -512,6 +806,29 @@ public abstract class TestbedTest
       _load();
       loadPending = false;
     }
+    if (rewindPending) {
+      _rewind();
+      rewindPending = false;
+    }
+    if (recordTogglePending) {
+      _toggleRecording();
+      recordTogglePending = false;
+    }
+    if (playbackTogglePending) {
+      _togglePlayback();
+      playbackTogglePending = false;
+    }
+    if (playbackSeekPending) {
+      if (tracePlayer != null) {
+        try {
+          tracePlayer.seek(playbackSeekStep);
+        } catch (IOException e) {
+          log.error("Error while seeking transform trace", e);
+          closePlayer();
+        }
+      }
+      playbackSeekPending = false;
+    }
 
     m_textLine = 20;
 
@@ -527,7 +844,15 @@ public abstract class TestbedTest
           QueueItem i = inputQueue.pop();
           switch (i.type) {
             case KeyPressed:
-              keyPressed(i.c, i.code);
+              if (tracePlayer != null && i.code == KeyEvent.VK_LEFT) {
+                seekPlayback(tracePlayer.getStep() - model.getSettings().getSetting(
+                    TestbedSettings.Hz).value);
+              } else if (tracePlayer != null && i.code == KeyEvent.VK_RIGHT) {
+                seekPlayback(tracePlayer.getStep() + model.getSettings().getSetting(
+                    TestbedSettings.Hz).value);
+              } else {
+                keyPressed(i.c, i.code);
+              }
               break;
             case KeyReleased:
               keyReleased(i.c, i.code);
@@ -549,7 +874,29 @@ public abstract class TestbedTest
       }
     }
 
-    step(model.getSettings());
+    if (model.getSettings().getSetting(TestbedSettings.ProfileAllocations).enabled) {
+      if (allocationProfiler == null) {
+        allocationProfiler = new AllocationProfiler();
+      }
+      allocationProfiler.beginStep();
+      stepOrPlayback(model.getSettings());
+      allocationProfiler.endStep();
+    } else {
+      stepOrPlayback(model.getSettings());
+    }
+  }
+
+  /**
+   * While a trace is playing back the world is not simulated, so the test's own
+   * {@link #step(TestbedSettings)} logic (spawning, destroying, applying forces) is bypassed
+   * and only the framework step runs.
+   */
+  private void stepOrPlayback(TestbedSettings settings) {
+    if (tracePlayer != null) {
+      stepFramework(settings);
+    } else {
+      step(settings);
+    }
   }
 
   private final Color3f color1 = new Color3f(.3f, .95f, .3f);
@@ -564,6 +911,10 @@ public abstract class TestbedTest
   private final List<String> statsList = new ArrayList<String>();
 
   public synchronized void step(TestbedSettings settings) {
+    stepFramework(settings);
+  }
+
+  private synchronized void stepFramework(TestbedSettings settings) {
     float hz = settings.getSetting(TestbedSettings.Hz).value;
     float timeStep = hz > 0f ? 1f / hz : 0;
     if (settings.singleStep && !settings.pause) {
@@ -598,13 +949,42 @@ public abstract class TestbedTest
 
     pointCount = 0;
 
-    m_world.step(timeStep, settings.getSetting(TestbedSettings.VelocityIterations).value,
-        settings.getSetting(TestbedSettings.PositionIterations).value);
+    if (tracePlayer != null) {
+      stepPlayback(timeStep > 0f);
+    } else {
+      updateRewindRing(settings);
 
-    m_world.drawDebugData();
+      if (allocationProfiler != null) {
+        allocationProfiler.begin(AllocationProfiler.PHYSICS);
+      }
+      // commands queued from input or the test since the last step, paused or not
+      commands.apply();
+      m_world.step(timeStep, settings.getSetting(TestbedSettings.VelocityIterations).value,
+          settings.getSetting(TestbedSettings.PositionIterations).value);
+      commands.apply();
+      if (allocationProfiler != null) {
+        allocationProfiler.end(AllocationProfiler.PHYSICS);
+        allocationProfiler.begin(AllocationProfiler.DEBUG_DRAW);
+      }
+
+      m_world.drawDebugData();
+      if (allocationProfiler != null) {
+        allocationProfiler.end(AllocationProfiler.DEBUG_DRAW);
+      }
 
-    if (timeStep > 0f) {
-      ++stepCount;
+      if (timeStep > 0f) {
+        ++stepCount;
+        if (rewindRing != null) {
+          rewindRing.onStep(m_world, stepCount);
+        }
+        if (traceRecorder != null) {
+          traceRecorder.record(m_world, stepCount);
+        }
+      }
+    }
+    if (traceRecorder != null) {
+      debugDraw.drawString(5, m_textLine, "****RECORDING****", Color3f.WHITE);
+      m_textLine += 15;
     }
 
     if (settings.getSetting(TestbedSettings.DrawStats).enabled) {
@@ -620,9 +1000,19 @@ public abstract class TestbedTest
               + m_world.getContactCount() + "/" + m_world.getJointCount() + "/"
               + m_world.getProxyCount(), Color3f.WHITE);
       m_textLine += 15;
+      debugDraw.drawString(5, m_textLine, "tree height/balance/quality = " + m_world.getTreeHeight()
+          + "/" + m_world.getTreeBalance() + "/" + m_world.getTreeQuality(), Color3f.WHITE);
+      m_textLine += 15;
       debugDraw.drawString(5, m_textLine, "World mouse position: " + mouseWorld.toString(),
           Color3f.WHITE);
       m_textLine += 15;
+      if (rewindRing != null) {
+        debugDraw.drawString(5, m_textLine, "Step: " + stepCount + ", rewind captures: "
+            + rewindRing.size() + " (" + rewindRing.getOldestStep() + "-"
+            + rewindRing.getNewestStep() + ", " + rewindRing.getMemoryUsed() / 1024 + "KB)",
+            Color3f.WHITE);
+        m_textLine += 15;
+      }
 
 
       statsList.clear();
@@ -636,6 +1026,25 @@ public abstract class TestbedTest
       m_textLine += 5;
     }
 
+    if (settings.getSetting(TestbedSettings.ProfileAllocations).enabled
+        && allocationProfiler != null) {
+      AllocationProfiler ap = allocationProfiler;
+      debugDraw.drawString(5, m_textLine, "Allocations per step (bytes)", color4);
+      m_textLine += 15;
+      if (!ap.isSupported()) {
+        debugDraw.drawString(5, m_textLine, "Not supported by this VM", Color3f.WHITE);
+        m_textLine += 15;
+      } else {
+        for (int i = -1; i < AllocationProfiler.CATEGORIES; i++) {
+          debugDraw.drawString(5, m_textLine, (i < 0 ? "total" : AllocationProfiler.CATEGORY_NAMES[i])
+              + ": " + ap.getLast(i) + " (avg " + (long) ap.getMean(i) + ", max " + ap.getMax(i)
+              + ")", Color3f.WHITE);
+          m_textLine += 15;
+        }
+      }
+      m_textLine += 5;
+    }
+
     if (settings.getSetting(TestbedSettings.DrawHelp).enabled) {
       debugDraw.drawString(5, m_textLine, "Help", color4);
       m_textLine += 15;
@@ -652,6 +1061,12 @@ public abstract class TestbedTest
       m_textLine += 15;
       debugDraw.drawString(5, m_textLine, "Press '[' or ']' to change tests, and 'r' to restart.",
           Color3f.WHITE);
+      m_textLine += 15;
+      debugDraw.drawString(5, m_textLine, "Press 'z' to rewind to the last capture.",
+          Color3f.WHITE);
+      m_textLine += 15;
+      debugDraw.drawString(5, m_textLine, "Press 't' to record a trace, and 'p' to play it back.",
+          Color3f.WHITE);
       m_textLine += 20;
     }
 
@@ -711,6 +1126,23 @@ public abstract class TestbedTest
     }
   }
 
+  private void stepPlayback(boolean argAdvance) {
+    final DebugDraw debugDraw = model.getDebugDraw();
+    if (argAdvance) {
+      try {
+        tracePlayer.next();
+      } catch (IOException e) {
+        log.error("Error while reading transform trace", e);
+        closePlayer();
+        return;
+      }
+    }
+    tracePlayer.draw(debugDraw);
+    debugDraw.drawString(5, m_textLine, "****PLAYBACK**** step " + tracePlayer.getStep() + ", "
+        + tracePlayer.getBodyCount() + " bodies (left/right to seek)", Color3f.WHITE);
+    m_textLine += 15;
+  }
+
   public void queueShiftMouseDown(Vec2 p) {
     synchronized (inputQueue) {
       inputQueue.addLast(new QueueItem(QueueItemType.ShiftMouseDown, p));
@@ -905,6 +1337,16 @@ public abstract class TestbedTest
     bombSpawning = false;
   }
 
+  /**
+   * Creates the broadphase strategy for a new world. Override to wrap or replace it.
+   * 
+   * @param argName the model's broadphase, see {@link BroadPhaseStrategies}
+   * @return
+   */
+  protected BroadPhaseStrategy createBroadPhase(String argName) {
+    return BroadPhaseStrategies.create(argName);
+  }
+
   /**
    * Override to enable saving and loading. Remember to also override the {@link ObjectListener} and
    * {@link ObjectSigner} methods if you need to
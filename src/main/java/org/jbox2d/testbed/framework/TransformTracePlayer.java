@@ -0,0 +1,451 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.framework;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.jbox2d.callbacks.DebugDraw;
+import org.jbox2d.common.Color3f;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+
+/**
+ * Plays back a trace written by {@link TransformTraceRecorder}, drawing the recorded bodies without
+ * a world. The keyframe index and the body shapes are read when the trace is opened, so seeking
+ * only needs to inflate and decode the one block holding the requested step.
+ */
+public class TransformTracePlayer {
+
+  private final RandomAccessFile file;
+  private final float positionResolution;
+
+  private final HashMap<Integer, TraceBody> bodies = new HashMap<Integer, TraceBody>();
+  private int blockCount = 0;
+  private long[] blockOffsets = new long[64];
+  private int[] blockFirstSteps = new int[64];
+  private int[] blockFrames = new int[64];
+  private int[] blockRawLengths = new int[64];
+  private int[] blockCompressedLengths = new int[64];
+
+  private final Inflater inflater = new Inflater();
+  private byte[] compressed = new byte[1 << 12];
+  private byte[] raw = new byte[1 << 12];
+  private int rawLength;
+  private int rawPosition;
+  private int currentBlock = -1;
+  private int currentFrame;
+
+  private int step = -1;
+  private int count = 0;
+  private int[] ids = new int[0];
+  private int[] qx = new int[0];
+  private int[] qy = new int[0];
+  private int[] qa = new int[0];
+
+  private final Transform xf = new Transform();
+  private final Vec2 center = new Vec2();
+  private final Vec2 axis = new Vec2();
+  private final Vec2 v1 = new Vec2();
+  private final Vec2 v2 = new Vec2();
+  private final Vec2[] vertices = new Vec2[64];
+  private final Color3f staticColor = new Color3f(0.5f, 0.9f, 0.5f);
+  private final Color3f kinematicColor = new Color3f(0.5f, 0.5f, 0.9f);
+  private final Color3f dynamicColor = new Color3f(0.9f, 0.7f, 0.7f);
+
+  /**
+   * Opens the trace and builds its keyframe index
+   * 
+   * @param argFilename
+   * @throws IOException
+   */
+  public TransformTracePlayer(String argFilename) throws IOException {
+    for (int i = 0; i < vertices.length; i++) {
+      vertices[i] = new Vec2();
+    }
+    file = new RandomAccessFile(argFilename, "r");
+    if (file.readInt() != TransformTraceRecorder.MAGIC) {
+      file.close();
+      throw new IOException("Not a transform trace: " + argFilename);
+    }
+    int version = file.readInt();
+    if (version != TransformTraceRecorder.VERSION) {
+      file.close();
+      throw new IOException("Unsupported transform trace version " + version);
+    }
+    positionResolution = file.readFloat();
+    file.readInt(); // keyframe interval, informational
+    index();
+  }
+
+  private void index() throws IOException {
+    long length = file.length();
+    try {
+      while (file.getFilePointer() < length) {
+        byte type = file.readByte();
+        if (type == TransformTraceRecorder.SHAPE_RECORD) {
+          int size = file.readInt();
+          byte[] data = new byte[size];
+          file.readFully(data);
+          readShapes(data);
+        } else if (type == TransformTraceRecorder.BLOCK_RECORD) {
+          int firstStep = file.readInt();
+          int frames = file.readInt();
+          int rawLength = file.readInt();
+          int compressedLength = file.readInt();
+          long offset = file.getFilePointer();
+          if (offset + compressedLength > length) {
+            break; // truncated
+          }
+          addBlock(offset, firstStep, frames, rawLength, compressedLength);
+          file.seek(offset + compressedLength);
+        } else {
+          throw new IOException("Corrupt transform trace at " + (file.getFilePointer() - 1));
+        }
+      }
+    } catch (EOFException e) {
+      // a trace that was still being written, use what we have
+    }
+  }
+
+  private void addBlock(long argOffset, int argFirstStep, int argFrames, int argRawLength,
+      int argCompressedLength) {
+    if (blockCount == blockOffsets.length) {
+      int size = blockCount * 2;
+      blockOffsets = Arrays.copyOf(blockOffsets, size);
+      blockFirstSteps = Arrays.copyOf(blockFirstSteps, size);
+      blockFrames = Arrays.copyOf(blockFrames, size);
+      blockRawLengths = Arrays.copyOf(blockRawLengths, size);
+      blockCompressedLengths = Arrays.copyOf(blockCompressedLengths, size);
+    }
+    blockOffsets[blockCount] = argOffset;
+    blockFirstSteps[blockCount] = argFirstStep;
+    blockFrames[blockCount] = argFrames;
+    blockRawLengths[blockCount] = argRawLength;
+    blockCompressedLengths[blockCount] = argCompressedLength;
+    blockCount++;
+  }
+
+  private void readShapes(byte[] argData) {
+    rawPosition = 0;
+    byte[] saved = raw;
+    raw = argData;
+    TraceBody body = new TraceBody();
+    int id = readVarint();
+    body.type = raw[rawPosition++];
+    int fixtures = readVarint();
+    body.shapeTypes = new int[fixtures];
+    body.shapes = new float[fixtures][];
+    for (int i = 0; i < fixtures; i++) {
+      int type = raw[rawPosition++];
+      body.shapeTypes[i] = type;
+      int floats = type == TransformTraceRecorder.SHAPE_CIRCLE ? 3 : readVarint() * 2;
+      float[] values = new float[floats];
+      for (int j = 0; j < floats; j++) {
+        values[j] = readFloat();
+      }
+      body.shapes[i] = values;
+    }
+    bodies.put(id, body);
+    raw = saved;
+    rawPosition = 0;
+  }
+
+  /**
+   * The number of keyframe blocks in the trace
+   * 
+   * @return
+   */
+  public int getKeyframeCount() {
+    return blockCount;
+  }
+
+  /**
+   * The first recorded step, or -1 if the trace is empty
+   * 
+   * @return
+   */
+  public int getFirstStep() {
+    return blockCount == 0 ? -1 : blockFirstSteps[0];
+  }
+
+  /**
+   * The step of the current frame, or -1 if no frame has been read
+   * 
+   * @return
+   */
+  public int getStep() {
+    return step;
+  }
+
+  /**
+   * The number of bodies in the current frame
+   * 
+   * @return
+   */
+  public int getBodyCount() {
+    return count;
+  }
+
+  /**
+   * Gets the recorded id of a body in the current frame
+   * 
+   * @param argIndex
+   * @return
+   */
+  public int getBodyId(int argIndex) {
+    return ids[argIndex];
+  }
+
+  /**
+   * Gets the dequantized position of a body in the current frame
+   * 
+   * @param argIndex
+   * @param argOut
+   */
+  public void getPosition(int argIndex, Vec2 argOut) {
+    argOut.set(qx[argIndex] * positionResolution, qy[argIndex] * positionResolution);
+  }
+
+  /**
+   * Gets the dequantized angle of a body in the current frame
+   * 
+   * @param argIndex
+   * @return
+   */
+  public float getAngle(int argIndex) {
+    return qa[argIndex] / TransformTraceRecorder.ANGLE_SCALE;
+  }
+
+  /**
+   * Seeks to the last frame at or before the given step
+   * 
+   * @param argStep
+   * @return if there was such a frame
+   * @throws IOException
+   */
+  public boolean seek(int argStep) throws IOException {
+    int lo = 0, hi = blockCount - 1, found = -1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (blockFirstSteps[mid] <= argStep) {
+        found = mid;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    if (found < 0) {
+      return false;
+    }
+    if (found != currentBlock || step > argStep) {
+      loadBlock(found);
+      readFrame();
+    }
+    while (currentFrame < blockFrames[currentBlock] && peekStep() <= argStep) {
+      readFrame();
+    }
+    return true;
+  }
+
+  /**
+   * Advances to the next recorded frame
+   * 
+   * @return false if the end of the trace was reached
+   * @throws IOException
+   */
+  public boolean next() throws IOException {
+    if (currentBlock >= 0 && currentFrame < blockFrames[currentBlock]) {
+      readFrame();
+      return true;
+    }
+    if (currentBlock + 1 < blockCount) {
+      loadBlock(currentBlock + 1);
+      readFrame();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Draws the bodies of the current frame
+   * 
+   * @param argDraw
+   */
+  public void draw(DebugDraw argDraw) {
+    final float scale = positionResolution;
+    for (int i = 0; i < count; i++) {
+      TraceBody body = bodies.get(ids[i]);
+      if (body == null) {
+        continue;
+      }
+      xf.p.set(qx[i] * scale, qy[i] * scale);
+      xf.q.set(qa[i] / TransformTraceRecorder.ANGLE_SCALE);
+      Color3f color =
+          body.type == 0 ? staticColor : body.type == 1 ? kinematicColor : dynamicColor;
+      for (int j = 0; j < body.shapes.length; j++) {
+        drawShape(argDraw, body.shapeTypes[j], body.shapes[j], color);
+      }
+    }
+  }
+
+  private void drawShape(DebugDraw argDraw, int argType, float[] argValues, Color3f argColor) {
+    switch (argType) {
+      case TransformTraceRecorder.SHAPE_CIRCLE:
+        v1.set(argValues[0], argValues[1]);
+        Transform.mulToOutUnsafe(xf, v1, center);
+        axis.set(xf.q.c, xf.q.s);
+        argDraw.drawSolidCircle(center, argValues[2], axis, argColor);
+        break;
+      case TransformTraceRecorder.SHAPE_POLYGON: {
+        int n = Math.min(argValues.length / 2, vertices.length);
+        for (int i = 0; i < n; i++) {
+          v1.set(argValues[2 * i], argValues[2 * i + 1]);
+          Transform.mulToOutUnsafe(xf, v1, vertices[i]);
+        }
+        argDraw.drawSolidPolygon(vertices, n, argColor);
+        break;
+      }
+      default: {
+        int n = argValues.length / 2;
+        for (int i = 1; i < n; i++) {
+          v1.set(argValues[2 * i - 2], argValues[2 * i - 1]);
+          Transform.mulToOutUnsafe(xf, v1, center);
+          v1.set(argValues[2 * i], argValues[2 * i + 1]);
+          Transform.mulToOutUnsafe(xf, v1, v2);
+          argDraw.drawSegment(center, v2, argColor);
+        }
+        break;
+      }
+    }
+  }
+
+  public void close() throws IOException {
+    inflater.end();
+    file.close();
+  }
+
+  private void loadBlock(int argBlock) throws IOException {
+    int compressedLength = blockCompressedLengths[argBlock];
+    if (compressed.length < compressedLength) {
+      compressed = new byte[compressedLength];
+    }
+    file.seek(blockOffsets[argBlock]);
+    file.readFully(compressed, 0, compressedLength);
+
+    rawLength = blockRawLengths[argBlock];
+    if (raw.length < rawLength) {
+      raw = new byte[rawLength];
+    }
+    inflater.reset();
+    inflater.setInput(compressed, 0, compressedLength);
+    try {
+      int inflated = 0;
+      while (inflated < rawLength && !inflater.finished()) {
+        inflated += inflater.inflate(raw, inflated, rawLength - inflated);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt transform trace block " + argBlock, e);
+    }
+    rawPosition = 0;
+    currentBlock = argBlock;
+    currentFrame = 0;
+    step = blockFirstSteps[argBlock];
+  }
+
+  private int peekStep() {
+    int position = rawPosition;
+    int delta = readVarint();
+    rawPosition = position;
+    return step + delta;
+  }
+
+  private void readFrame() {
+    int stepDelta = readVarint();
+    int n = readVarint();
+    int added = readVarint();
+    if (ids.length < n) {
+      ids = Arrays.copyOf(ids, n);
+      qx = Arrays.copyOf(qx, n);
+      qy = Arrays.copyOf(qy, n);
+      qa = Arrays.copyOf(qa, n);
+    }
+    if (added > 0 && added < n) {
+      // new bodies go in front of the ones from the previous frame
+      System.arraycopy(ids, 0, ids, added, n - added);
+      System.arraycopy(qx, 0, qx, added, n - added);
+      System.arraycopy(qy, 0, qy, added, n - added);
+      System.arraycopy(qa, 0, qa, added, n - added);
+    }
+    for (int i = 0; i < added; i++) {
+      ids[i] = readVarint();
+      qx[i] = unzigzag(readVarint());
+      qy[i] = unzigzag(readVarint());
+      qa[i] = unzigzag(readVarint());
+    }
+    for (int i = added; i < n; i++) {
+      qx[i] += unzigzag(readVarint());
+      qy[i] += unzigzag(readVarint());
+      qa[i] += unzigzag(readVarint());
+    }
+    count = n;
+    step += stepDelta;
+    currentFrame++;
+  }
+
+  private int readVarint() {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = raw[rawPosition++];
+      value |= (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  private float readFloat() {
+    int bits =
+        ((raw[rawPosition] & 0xff) << 24) | ((raw[rawPosition + 1] & 0xff) << 16)
+            | ((raw[rawPosition + 2] & 0xff) << 8) | (raw[rawPosition + 3] & 0xff);
+    rawPosition += 4;
+    return Float.intBitsToFloat(bits);
+  }
+
+  private static int unzigzag(int argValue) {
+    return (argValue >>> 1) ^ -(argValue & 1);
+  }
+
+  private static class TraceBody {
+    int type;
+    int[] shapeTypes;
+    float[][] shapes;
+  }
+}
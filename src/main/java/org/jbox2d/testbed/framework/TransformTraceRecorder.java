@@ -0,0 +1,468 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.framework;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+import org.jbox2d.collision.shapes.ChainShape;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.EdgeShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams the body transforms of every step to an append-only trace file, which can be played back
+ * with {@link TransformTracePlayer} without running the physics.<br/>
+ * <br/>
+ * The file starts with a header, followed by records. A shape record describes the fixtures of a
+ * body the first time it's seen. A block record holds a keyframe with the quantized absolute
+ * transform of every body, followed by frames that store zigzag varint deltas against the previous
+ * frame. Bodies created since the previous frame are stored absolute at the front of a frame, as
+ * the world adds new bodies to the head of its list. Blocks are deflated independently, so a
+ * reader can seek to any keyframe by inflating a single block. A new block is started every
+ * keyframe interval, or whenever bodies are destroyed or reordered.<br/>
+ * <br/>
+ * Frames are encoded on the stepping thread into a reused buffer. Compression and file writes
+ * happen on a background thread.
+ */
+public class TransformTraceRecorder {
+  private static final Logger log = LoggerFactory.getLogger(TransformTraceRecorder.class);
+
+  public static final int MAGIC = 0x4a425452; // "JBTR"
+  public static final int VERSION = 1;
+  public static final byte SHAPE_RECORD = 'S';
+  public static final byte BLOCK_RECORD = 'B';
+
+  public static final int SHAPE_CIRCLE = 0;
+  public static final int SHAPE_EDGE = 1;
+  public static final int SHAPE_POLYGON = 2;
+  public static final int SHAPE_CHAIN = 3;
+
+  /**
+   * Angles are stored in units of 2pi / 65536
+   */
+  public static final float ANGLE_SCALE = 65536f / (float) (Math.PI * 2);
+
+  private static final int QUEUE_SIZE = 16;
+
+  private final int keyframeInterval;
+  private final float positionScale;
+
+  private IdentityHashMap<Body, Integer> bodyIds = new IdentityHashMap<Body, Integer>();
+  // swapped with bodyIds when the destroyed bodies are dropped from it
+  private IdentityHashMap<Body, Integer> liveIds = new IdentityHashMap<Body, Integer>();
+  private int nextBodyId = 0;
+
+  private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(QUEUE_SIZE);
+  private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(QUEUE_SIZE + 2);
+  private final Thread writer;
+  private volatile IOException writeError = null;
+
+  private Chunk block = null;
+  private int blockFrames = 0;
+  private int lastStep = 0;
+
+  private int count = 0;
+  private int[] ids = new int[64];
+  private int[] qx = new int[64];
+  private int[] qy = new int[64];
+  private int[] qa = new int[64];
+  private int[] prevIds = new int[64];
+  private int[] prevX = new int[64];
+  private int[] prevY = new int[64];
+  private int[] prevA = new int[64];
+  private int prevCount = -1;
+
+  /**
+   * @param argFilename
+   * @param argKeyframeInterval the maximum number of frames between keyframes
+   * @param argPositionResolution the position quantization step, in meters
+   * @throws IOException
+   */
+  public TransformTraceRecorder(String argFilename, int argKeyframeInterval,
+      float argPositionResolution) throws IOException {
+    if (argKeyframeInterval <= 0) {
+      throw new IllegalArgumentException("Keyframe interval must be positive");
+    }
+    keyframeInterval = argKeyframeInterval;
+    positionScale = 1f / argPositionResolution;
+
+    final DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(argFilename), 1 << 16));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeFloat(argPositionResolution);
+    out.writeInt(argKeyframeInterval);
+
+    writer = new Thread(new Runnable() {
+      public void run() {
+        writeLoop(out);
+      }
+    }, "Trace writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  public int getKeyframeInterval() {
+    return keyframeInterval;
+  }
+
+  /**
+   * Records the transforms of all bodies in the world for the given step
+   * 
+   * @param argWorld
+   * @param argStep
+   */
+  public void record(World argWorld, int argStep) {
+    if (writeError != null) {
+      return;
+    }
+    int n = argWorld.getBodyCount();
+    ensureCapacity(n);
+    count = 0;
+    for (Body b = argWorld.getBodyList(); b != null; b = b.getNext()) {
+      Integer id = bodyIds.get(b);
+      if (id == null) {
+        id = nextBodyId++;
+        bodyIds.put(b, id);
+        writeShapes(b, id);
+      }
+      ids[count] = id;
+      qx[count] = Math.round(b.m_xf.p.x * positionScale);
+      qy[count] = Math.round(b.m_xf.p.y * positionScale);
+      qa[count] = Math.round(b.m_sweep.a * ANGLE_SCALE);
+      count++;
+    }
+
+    int added = count - prevCount;
+    boolean sameBodies = block != null && added >= 0;
+    for (int i = 0; sameBodies && i < prevCount; i++) {
+      sameBodies = ids[i + added] == prevIds[i];
+    }
+    if (!sameBodies || blockFrames >= keyframeInterval) {
+      flushBlock();
+      if (bodyIds.size() > count) {
+        forgetDestroyedBodies(argWorld);
+      }
+      block = obtain(BLOCK_RECORD);
+      block.firstStep = argStep;
+      blockFrames = 0;
+      lastStep = argStep;
+      writeFrame(0, count);
+    } else {
+      writeFrame(argStep - lastStep, added);
+      lastStep = argStep;
+    }
+    blockFrames++;
+
+    int[] t = prevIds;
+    prevIds = ids;
+    ids = t;
+    t = prevX;
+    prevX = qx;
+    qx = t;
+    t = prevY;
+    prevY = qy;
+    qy = t;
+    t = prevA;
+    prevA = qa;
+    qa = t;
+    prevCount = count;
+  }
+
+  /**
+   * Drops the ids of bodies that aren't in the world anymore, so the recorder doesn't keep every
+   * body it ever saw. Their ids are never reused.
+   */
+  private void forgetDestroyedBodies(World argWorld) {
+    liveIds.clear();
+    for (Body b = argWorld.getBodyList(); b != null; b = b.getNext()) {
+      liveIds.put(b, bodyIds.get(b));
+    }
+    IdentityHashMap<Body, Integer> t = bodyIds;
+    bodyIds = liveIds;
+    liveIds = t;
+    liveIds.clear();
+  }
+
+  /**
+   * Flushes the remaining frames and waits for the writer to finish
+   * 
+   * @throws IOException if a write failed
+   */
+  public void close() throws IOException {
+    flushBlock();
+    try {
+      queue.put(new Chunk((byte) 0));
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (writeError != null) {
+      throw writeError;
+    }
+  }
+
+  /**
+   * Writes a frame, the first argAdded bodies absolute and the rest as deltas against the previous
+   * frame. A keyframe has every body added.
+   */
+  private void writeFrame(int argStepDelta, int argAdded) {
+    Chunk c = block;
+    c.writeVarint(argStepDelta);
+    c.writeVarint(count);
+    c.writeVarint(argAdded);
+    for (int i = 0; i < argAdded; i++) {
+      c.writeVarint(ids[i]);
+      c.writeVarint(zigzag(qx[i]));
+      c.writeVarint(zigzag(qy[i]));
+      c.writeVarint(zigzag(qa[i]));
+    }
+    for (int i = argAdded; i < count; i++) {
+      int j = i - argAdded;
+      c.writeVarint(zigzag(qx[i] - prevX[j]));
+      c.writeVarint(zigzag(qy[i] - prevY[j]));
+      c.writeVarint(zigzag(qa[i] - prevA[j]));
+    }
+  }
+
+  private void flushBlock() {
+    if (block == null) {
+      return;
+    }
+    block.frameCount = blockFrames;
+    enqueue(block);
+    block = null;
+  }
+
+  private void writeShapes(Body argBody, int argId) {
+    Chunk c = obtain(SHAPE_RECORD);
+    c.writeVarint(argId);
+    c.writeByte(argBody.getType() == BodyType.STATIC ? 0
+        : argBody.getType() == BodyType.KINEMATIC ? 1 : 2);
+    int fixtures = 0;
+    for (Fixture f = argBody.getFixtureList(); f != null; f = f.getNext()) {
+      fixtures++;
+    }
+    c.writeVarint(fixtures);
+    for (Fixture f = argBody.getFixtureList(); f != null; f = f.getNext()) {
+      Shape shape = f.getShape();
+      switch (shape.getType()) {
+        case CIRCLE:
+          CircleShape circle = (CircleShape) shape;
+          c.writeByte(SHAPE_CIRCLE);
+          c.writeFloat(circle.m_p.x);
+          c.writeFloat(circle.m_p.y);
+          c.writeFloat(circle.m_radius);
+          break;
+        case EDGE:
+          EdgeShape edge = (EdgeShape) shape;
+          c.writeByte(SHAPE_EDGE);
+          c.writeVarint(2);
+          c.writeFloat(edge.m_vertex1.x);
+          c.writeFloat(edge.m_vertex1.y);
+          c.writeFloat(edge.m_vertex2.x);
+          c.writeFloat(edge.m_vertex2.y);
+          break;
+        case POLYGON:
+          PolygonShape poly = (PolygonShape) shape;
+          c.writeByte(SHAPE_POLYGON);
+          c.writeVarint(poly.m_count);
+          for (int i = 0; i < poly.m_count; i++) {
+            c.writeFloat(poly.m_vertices[i].x);
+            c.writeFloat(poly.m_vertices[i].y);
+          }
+          break;
+        case CHAIN:
+          ChainShape chain = (ChainShape) shape;
+          c.writeByte(SHAPE_CHAIN);
+          c.writeVarint(chain.m_count);
+          for (int i = 0; i < chain.m_count; i++) {
+            c.writeFloat(chain.m_vertices[i].x);
+            c.writeFloat(chain.m_vertices[i].y);
+          }
+          break;
+        default:
+          c.writeByte(SHAPE_EDGE);
+          c.writeVarint(0);
+          break;
+      }
+    }
+    enqueue(c);
+  }
+
+  private Chunk obtain(byte argType) {
+    Chunk c = free.poll();
+    if (c == null) {
+      c = new Chunk(argType);
+    }
+    c.type = argType;
+    c.length = 0;
+    return c;
+  }
+
+  private void enqueue(Chunk argChunk) {
+    try {
+      queue.put(argChunk);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeLoop(DataOutputStream argOut) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    byte[] compressed = new byte[1 << 16];
+    try {
+      while (true) {
+        Chunk c = queue.take();
+        if (c.type == 0) {
+          break;
+        }
+        if (writeError != null) {
+          continue;
+        }
+        try {
+          argOut.writeByte(c.type);
+          if (c.type == SHAPE_RECORD) {
+            argOut.writeInt(c.length);
+            argOut.write(c.data, 0, c.length);
+          } else {
+            deflater.reset();
+            deflater.setInput(c.data, 0, c.length);
+            deflater.finish();
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+              if (compressedLength == compressed.length) {
+                byte[] larger = new byte[compressed.length * 2];
+                System.arraycopy(compressed, 0, larger, 0, compressedLength);
+                compressed = larger;
+              }
+              compressedLength +=
+                  deflater.deflate(compressed, compressedLength, compressed.length
+                      - compressedLength);
+            }
+            argOut.writeInt(c.firstStep);
+            argOut.writeInt(c.frameCount);
+            argOut.writeInt(c.length);
+            argOut.writeInt(compressedLength);
+            argOut.write(compressed, 0, compressedLength);
+          }
+        } catch (IOException e) {
+          log.error("Error writing transform trace", e);
+          writeError = e;
+        }
+        free.offer(c);
+      }
+      argOut.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      log.error("Error closing transform trace", e);
+      writeError = e;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private void ensureCapacity(int argCount) {
+    if (ids.length >= argCount) {
+      return;
+    }
+    int size = Math.max(argCount, ids.length * 2);
+    ids = new int[size];
+    qx = new int[size];
+    qy = new int[size];
+    qa = new int[size];
+    prevIds = copyOf(prevIds, size);
+    prevX = copyOf(prevX, size);
+    prevY = copyOf(prevY, size);
+    prevA = copyOf(prevA, size);
+  }
+
+  private static int[] copyOf(int[] argArray, int argSize) {
+    int[] a = new int[argSize];
+    System.arraycopy(argArray, 0, a, 0, argArray.length);
+    return a;
+  }
+
+  private static int zigzag(int argValue) {
+    return (argValue << 1) ^ (argValue >> 31);
+  }
+
+  private static class Chunk {
+    byte type;
+    byte[] data = new byte[1 << 12];
+    int length;
+    int firstStep;
+    int frameCount;
+
+    Chunk(byte argType) {
+      type = argType;
+    }
+
+    void ensure(int argBytes) {
+      if (length + argBytes > data.length) {
+        byte[] larger = new byte[Math.max(data.length * 2, length + argBytes)];
+        System.arraycopy(data, 0, larger, 0, length);
+        data = larger;
+      }
+    }
+
+    void writeByte(int argValue) {
+      ensure(1);
+      data[length++] = (byte) argValue;
+    }
+
+    void writeVarint(int argValue) {
+      ensure(5);
+      while ((argValue & ~0x7f) != 0) {
+        data[length++] = (byte) ((argValue & 0x7f) | 0x80);
+        argValue >>>= 7;
+      }
+      data[length++] = (byte) argValue;
+    }
+
+    void writeFloat(float argValue) {
+      ensure(4);
+      int bits = Float.floatToIntBits(argValue);
+      data[length++] = (byte) (bits >>> 24);
+      data[length++] = (byte) (bits >>> 16);
+      data[length++] = (byte) (bits >>> 8);
+      data[length++] = (byte) bits;
+    }
+  }
+}
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.framework;
+
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.testbed.spawn.BodySpawner;
+import org.jbox2d.testbed.spawn.BodyTemplate;
+
+/**
+ * Changes to the world that are asked for while it can't be changed, from the contact callbacks
+ * during the step, and made after it. {@link TestbedTest} applies them right after
+ * {@link World#step}, and also right before it for commands queued from input or the test's own
+ * logic, even while paused. Each pass goes fixture swaps, then destroys, then creates. A body that's
+ * destroyed more than once, or a fixture that's swapped more than once, is only done once, and
+ * swaps on bodies that are destroyed are dropped. The commands and the checks for duplicates are
+ * kept in arrays that are reused from step to step, so queueing doesn't allocate once they're big
+ * enough.
+ */
+public class WorldCommandBuffer {
+  /**
+   * Told about what the commands made, when they're applied
+   */
+  public static interface Listener {
+    void bodyCreated(Body argBody, int argId);
+
+    /**
+     * @param argOld destroyed
+     * @param argNew the fixture that replaced it, or null if it was only destroyed
+     */
+    void fixtureSwapped(Fixture argOld, Fixture argNew);
+  }
+
+  private World world;
+  private BodySpawner spawner;
+  private Listener listener;
+  private boolean applying = false;
+
+  private Body[] destroys = new Body[16];
+  private int destroyCount = 0;
+  private final IdentityIndex destroyed = new IdentityIndex(16);
+
+  private Fixture[] swapFixtures = new Fixture[16];
+  private FixtureDef[] swapDefs = new FixtureDef[16];
+  private int swapCount = 0;
+  private final IdentityIndex swapped = new IdentityIndex(16);
+
+  private final BodySpawner.SpawnListener spawnListener = new BodySpawner.SpawnListener() {
+    public void bodySpawned(Body argBody, int argId) {
+      if (listener != null) {
+        listener.bodyCreated(argBody, argId);
+      }
+    }
+  };
+
+  /**
+   * Forgets the commands and applies the next ones to the given world
+   * 
+   * @param argWorld
+   * @param argBroadPhase the world's broadphase, or null if it isn't known
+   */
+  public void reset(World argWorld, BroadPhaseStrategy argBroadPhase) {
+    clear();
+    if (world != argWorld) {
+      world = argWorld;
+      spawner = new BodySpawner(argWorld);
+      spawner.setListener(spawnListener);
+    }
+    spawner.setBroadPhase(argBroadPhase);
+  }
+
+  public Listener getListener() {
+    return listener;
+  }
+
+  public void setListener(Listener argListener) {
+    listener = argListener;
+  }
+
+  /**
+   * @return the number of commands waiting to be applied
+   */
+  public int getPending() {
+    return destroyCount + swapCount + (spawner != null ? spawner.getPending() : 0);
+  }
+
+  /**
+   * Queues the body to be destroyed
+   * 
+   * @param argBody
+   * @return false if it was already queued
+   */
+  public boolean destroy(Body argBody) {
+    assert (!applying);
+    if (destroyed.putIfAbsent(argBody, destroyCount) != IdentityIndex.NONE) {
+      return false;
+    }
+    if (destroyCount == destroys.length) {
+      Body[] old = destroys;
+      destroys = new Body[old.length * 2];
+      System.arraycopy(old, 0, destroys, 0, old.length);
+    }
+    destroys[destroyCount++] = argBody;
+    return true;
+  }
+
+  /**
+   * @param argBody
+   * @return if the body is queued to be destroyed
+   */
+  public boolean isDestroyPending(Body argBody) {
+    return destroyed.get(argBody) != IdentityIndex.NONE;
+  }
+
+  /**
+   * Queues the fixture to be replaced with one made from the def, on the same body. Swapping the
+   * same fixture again before it's applied replaces the def.
+   * 
+   * @param argFixture
+   * @param argDef the new fixture, or null to only destroy the old one
+   */
+  public void swapFixture(Fixture argFixture, FixtureDef argDef) {
+    assert (!applying);
+    int index = swapped.putIfAbsent(argFixture, swapCount);
+    if (index != IdentityIndex.NONE) {
+      swapDefs[index] = argDef;
+      return;
+    }
+    if (swapCount == swapFixtures.length) {
+      Fixture[] oldFixtures = swapFixtures;
+      FixtureDef[] oldDefs = swapDefs;
+      swapFixtures = new Fixture[oldFixtures.length * 2];
+      swapDefs = new FixtureDef[oldFixtures.length * 2];
+      System.arraycopy(oldFixtures, 0, swapFixtures, 0, swapCount);
+      System.arraycopy(oldDefs, 0, swapDefs, 0, swapCount);
+    }
+    swapFixtures[swapCount] = argFixture;
+    swapDefs[swapCount] = argDef;
+    swapCount++;
+  }
+
+  /**
+   * Queues a body to be created from the template. The listener is given the body and the id.
+   */
+  public void create(BodyTemplate argTemplate, float argX, float argY, float argAngle,
+      float argVX, float argVY, int argId) {
+    assert (!applying);
+    spawner.spawn(argTemplate, argX, argY, argAngle, argVX, argVY, argId);
+  }
+
+  /**
+   * Applies the queued commands. Can't be called during the step, and the listener can't queue
+   * more.
+   * 
+   * @return the number of commands applied
+   */
+  public int apply() {
+    if (getPending() == 0) {
+      return 0;
+    }
+    assert (!world.isLocked());
+    applying = true;
+    int applied = 0;
+    for (int i = 0; i < swapCount; i++) {
+      Fixture fixture = swapFixtures[i];
+      FixtureDef def = swapDefs[i];
+      swapFixtures[i] = null;
+      swapDefs[i] = null;
+      Body body = fixture.getBody();
+      if (destroyed.get(body) != IdentityIndex.NONE) {
+        continue;
+      }
+      body.destroyFixture(fixture);
+      Fixture replacement = def != null ? body.createFixture(def) : null;
+      applied++;
+      if (listener != null) {
+        listener.fixtureSwapped(fixture, replacement);
+      }
+    }
+    for (int i = 0; i < destroyCount; i++) {
+      world.destroyBody(destroys[i]);
+      destroys[i] = null;
+    }
+    applied += destroyCount;
+    applied += spawner.flush();
+    swapCount = 0;
+    destroyCount = 0;
+    swapped.clear();
+    destroyed.clear();
+    applying = false;
+    return applied;
+  }
+
+  /**
+   * Forgets the queued commands
+   */
+  public void clear() {
+    for (int i = 0; i < swapCount; i++) {
+      swapFixtures[i] = null;
+      swapDefs[i] = null;
+    }
+    for (int i = 0; i < destroyCount; i++) {
+      destroys[i] = null;
+    }
+    swapCount = 0;
+    destroyCount = 0;
+    swapped.clear();
+    destroyed.clear();
+    if (spawner != null) {
+      spawner.clear();
+    }
+  }
+}
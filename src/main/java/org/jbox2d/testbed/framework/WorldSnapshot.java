@@ -0,0 +1,507 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.framework;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.jbox2d.collision.ContactID;
+import org.jbox2d.collision.Manifold;
+import org.jbox2d.collision.ManifoldPoint;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.common.Vec3;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.dynamics.contacts.Contact;
+import org.jbox2d.dynamics.joints.Joint;
+
+/**
+ * An in-memory capture of the dynamic state of a world: body transforms, sweeps, velocities,
+ * forces, sleep state, type and activity, the joint impulses and contact manifolds used for warm
+ * starting, and gravity.
+ * State is packed into flat primitive arrays that are reused when the snapshot is written again.<br/>
+ * <br/>
+ * A snapshot keeps references to the captured bodies and joints rather than copies of them, so it
+ * can only be restored into the world it was taken from. {@link #restore(World)} restores whatever
+ * captured objects are still in the world, while {@link #restoreStructure(World)} also destroys
+ * objects created since the capture.<br/>
+ * <br/>
+ * Contacts are restored onto the contacts that are in the world at the time, matched by their
+ * fixtures. A captured contact that's gone isn't brought back, the broadphase creates it again
+ * without warm starting, and a contact that wasn't captured is reset as if it was just created.
+ * The broadphase's fat AABBs aren't captured either, so a restored world isn't guaranteed to step
+ * bit for bit the same as the original did, though settled stacks usually do.
+ */
+public class WorldSnapshot {
+
+  // transform (4), sweep (9), linear velocity (2), angular velocity, force (2), torque, sleep time
+  private static final int BODY_STRIDE = 20;
+  // local normal (2), local point (2), and for each point its local point (2) and impulses (2)
+  private static final int CONTACT_STRIDE = 4 + 4 * Settings.maxManifoldPoints;
+  // index a, index b, flags, manifold type, point count, and a contact id for each point
+  private static final int CONTACT_INT_STRIDE = 5 + Settings.maxManifoldPoints;
+  // a rough per-entry cost of a body, fixture or joint reference in the snapshot
+  private static final int REFERENCE_BYTES = 8;
+
+  private static final String[] IMPULSE_FIELDS = {"m_impulse", "m_motorImpulse",
+      "m_springImpulse", "m_linearImpulse", "m_angularImpulse"};
+  private static final HashMap<Class<?>, Field[]> impulseFields = new HashMap<Class<?>, Field[]>();
+
+  private World world;
+  private int step;
+  private final Vec2 gravity = new Vec2();
+  private int bodyCount;
+  private Body[] bodies = new Body[0];
+  private Fixture[] fixtures = new Fixture[0];
+  private BodyType[] bodyTypes = new BodyType[0];
+  private int[] bodyFlags = new int[0];
+  private int[] fixtureCounts = new int[0];
+  private float[] bodyState = new float[0];
+  private int jointCount;
+  private int jointFloats;
+  private Joint[] joints = new Joint[0];
+  private float[] jointState = new float[0];
+  private int contactCount;
+  private Fixture[] contactFixtures = new Fixture[0];
+  private int[] contactInts = new int[0];
+  private float[] contactState = new float[0];
+
+  /**
+   * The world the snapshot was taken from, or null if it's empty
+   * 
+   * @return
+   */
+  public World getWorld() {
+    return world;
+  }
+
+  /**
+   * The step the snapshot was taken at
+   * 
+   * @return
+   */
+  public int getStep() {
+    return step;
+  }
+
+  /**
+   * The approximate number of bytes used by the captured state
+   * 
+   * @return
+   */
+  public long getBytes() {
+    return (long) bodyCount * (BODY_STRIDE * 4 + 8 + 3 * REFERENCE_BYTES) + (long) jointCount
+        * REFERENCE_BYTES + jointFloats * 4 + (long) contactCount
+        * (CONTACT_STRIDE * 4 + CONTACT_INT_STRIDE * 4 + 2 * REFERENCE_BYTES);
+  }
+
+  /**
+   * Drops the references to the captured objects, so they can be collected
+   */
+  public void clear() {
+    for (int i = 0; i < bodyCount; i++) {
+      bodies[i] = null;
+      fixtures[i] = null;
+    }
+    for (int i = 0; i < jointCount; i++) {
+      joints[i] = null;
+    }
+    for (int i = 0; i < contactCount * 2; i++) {
+      contactFixtures[i] = null;
+    }
+    world = null;
+    bodyCount = jointCount = jointFloats = contactCount = 0;
+  }
+
+  /**
+   * Captures the state of the world
+   * 
+   * @param argWorld
+   * @param argStep
+   */
+  public void write(World argWorld, int argStep) {
+    world = argWorld;
+    step = argStep;
+    gravity.set(argWorld.getGravity());
+    bodyCount = argWorld.getBodyCount();
+    if (bodies.length < bodyCount) {
+      bodies = new Body[bodyCount];
+      fixtures = new Fixture[bodyCount];
+      bodyTypes = new BodyType[bodyCount];
+      bodyFlags = new int[bodyCount];
+      fixtureCounts = new int[bodyCount];
+      bodyState = new float[bodyCount * BODY_STRIDE];
+    }
+    int i = 0;
+    for (Body b = argWorld.getBodyList(); b != null; b = b.getNext()) {
+      bodies[i] = b;
+      fixtures[i] = b.m_fixtureList;
+      bodyTypes[i] = b.m_type;
+      bodyFlags[i] = b.m_flags;
+      fixtureCounts[i] = b.m_fixtureCount;
+      int k = i * BODY_STRIDE;
+      final float[] s = bodyState;
+      s[k++] = b.m_xf.p.x;
+      s[k++] = b.m_xf.p.y;
+      s[k++] = b.m_xf.q.s;
+      s[k++] = b.m_xf.q.c;
+      s[k++] = b.m_sweep.localCenter.x;
+      s[k++] = b.m_sweep.localCenter.y;
+      s[k++] = b.m_sweep.c0.x;
+      s[k++] = b.m_sweep.c0.y;
+      s[k++] = b.m_sweep.c.x;
+      s[k++] = b.m_sweep.c.y;
+      s[k++] = b.m_sweep.a0;
+      s[k++] = b.m_sweep.a;
+      s[k++] = b.m_sweep.alpha0;
+      s[k++] = b.m_linearVelocity.x;
+      s[k++] = b.m_linearVelocity.y;
+      s[k++] = b.m_angularVelocity;
+      s[k++] = b.m_force.x;
+      s[k++] = b.m_force.y;
+      s[k++] = b.m_torque;
+      s[k++] = b.m_sleepTime;
+      i++;
+    }
+
+    jointCount = argWorld.getJointCount();
+    if (joints.length < jointCount) {
+      joints = new Joint[jointCount];
+    }
+    int floats = 0;
+    int j = 0;
+    for (Joint joint = argWorld.getJointList(); joint != null; joint = joint.getNext()) {
+      joints[j++] = joint;
+      floats += getImpulseFloats(getImpulseFields(joint.getClass()));
+    }
+    if (jointState.length < floats) {
+      jointState = new float[floats];
+    }
+    jointFloats = floats;
+    int k = 0;
+    try {
+      for (j = 0; j < jointCount; j++) {
+        for (Field f : getImpulseFields(joints[j].getClass())) {
+          Class<?> type = f.getType();
+          if (type == float.class) {
+            jointState[k++] = f.getFloat(joints[j]);
+          } else if (type == Vec2.class) {
+            Vec2 v = (Vec2) f.get(joints[j]);
+            jointState[k++] = v.x;
+            jointState[k++] = v.y;
+          } else {
+            Vec3 v = (Vec3) f.get(joints[j]);
+            jointState[k++] = v.x;
+            jointState[k++] = v.y;
+            jointState[k++] = v.z;
+          }
+        }
+      }
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Could not read joint impulses", e);
+    }
+
+    writeContacts(argWorld);
+  }
+
+  private void writeContacts(World argWorld) {
+    contactCount = argWorld.getContactCount();
+    if (contactFixtures.length < contactCount * 2) {
+      contactFixtures = new Fixture[contactCount * 2];
+      contactInts = new int[contactCount * CONTACT_INT_STRIDE];
+      contactState = new float[contactCount * CONTACT_STRIDE];
+    }
+    int i = 0;
+    for (Contact c = argWorld.getContactList(); c != null; c = c.getNext()) {
+      contactFixtures[i * 2] = c.m_fixtureA;
+      contactFixtures[i * 2 + 1] = c.m_fixtureB;
+      final Manifold m = c.m_manifold;
+      int n = i * CONTACT_INT_STRIDE;
+      contactInts[n++] = c.m_indexA;
+      contactInts[n++] = c.m_indexB;
+      contactInts[n++] = c.m_flags;
+      contactInts[n++] = m.type == null ? -1 : m.type.ordinal();
+      contactInts[n++] = m.pointCount;
+      int k = i * CONTACT_STRIDE;
+      final float[] s = contactState;
+      s[k++] = m.localNormal.x;
+      s[k++] = m.localNormal.y;
+      s[k++] = m.localPoint.x;
+      s[k++] = m.localPoint.y;
+      for (int j = 0; j < Settings.maxManifoldPoints; j++) {
+        ManifoldPoint mp = m.points[j];
+        contactInts[n++] = packId(mp.id);
+        s[k++] = mp.localPoint.x;
+        s[k++] = mp.localPoint.y;
+        s[k++] = mp.normalImpulse;
+        s[k++] = mp.tangentImpulse;
+      }
+      i++;
+    }
+  }
+
+  /**
+   * Restores the captured state of the bodies and joints that are still in the world. Objects
+   * created since the capture are left alone.
+   * 
+   * @param argWorld
+   */
+  public void restore(World argWorld) {
+    IdentityHashMap<Object, Object> live = new IdentityHashMap<Object, Object>();
+    for (Body b = argWorld.getBodyList(); b != null; b = b.getNext()) {
+      live.put(b, b);
+    }
+    for (Joint joint = argWorld.getJointList(); joint != null; joint = joint.getNext()) {
+      live.put(joint, joint);
+    }
+    restore(argWorld, live);
+  }
+
+  /**
+   * Restores the world to exactly the captured bodies and joints. Joints and bodies created since
+   * the capture are destroyed, and contacts are restored so nothing is warm started from the
+   * discarded state. Nothing is changed if a captured body or joint was destroyed, or a
+   * captured body had its fixtures changed, since those can't be brought back.
+   * 
+   * @param argWorld
+   * @return false if the world could not be restored
+   */
+  public boolean restoreStructure(World argWorld) {
+    if (argWorld != world) {
+      return false;
+    }
+    IdentityHashMap<Object, Object> captured = new IdentityHashMap<Object, Object>();
+    for (int i = 0; i < bodyCount; i++) {
+      captured.put(bodies[i], bodies[i]);
+    }
+    for (int i = 0; i < jointCount; i++) {
+      captured.put(joints[i], joints[i]);
+    }
+
+    int liveBodies = 0, liveJoints = 0;
+    for (Body b = argWorld.getBodyList(); b != null; b = b.getNext()) {
+      if (captured.containsKey(b)) {
+        liveBodies++;
+      }
+    }
+    for (Joint joint = argWorld.getJointList(); joint != null; joint = joint.getNext()) {
+      if (captured.containsKey(joint)) {
+        liveJoints++;
+      }
+    }
+    if (liveBodies != bodyCount || liveJoints != jointCount) {
+      return false;
+    }
+    for (int i = 0; i < bodyCount; i++) {
+      if (bodies[i].m_fixtureList != fixtures[i] || bodies[i].m_fixtureCount != fixtureCounts[i]) {
+        return false;
+      }
+    }
+
+    Joint joint = argWorld.getJointList();
+    while (joint != null) {
+      Joint next = joint.getNext();
+      if (!captured.containsKey(joint)) {
+        argWorld.destroyJoint(joint);
+      }
+      joint = next;
+    }
+    Body body = argWorld.getBodyList();
+    while (body != null) {
+      Body next = body.getNext();
+      if (!captured.containsKey(body)) {
+        argWorld.destroyBody(body);
+      }
+      body = next;
+    }
+    restore(argWorld, captured);
+    return true;
+  }
+
+  private void restore(World argWorld, IdentityHashMap<Object, Object> argLive) {
+    argWorld.setGravity(gravity);
+    final Vec2 position = new Vec2();
+    for (int i = 0; i < bodyCount; i++) {
+      Body b = bodies[i];
+      if (!argLive.containsKey(b)) {
+        continue;
+      }
+      if (b.m_type != bodyTypes[i]) {
+        b.setType(bodyTypes[i]);
+      }
+      boolean active = (bodyFlags[i] & Body.e_activeFlag) != 0;
+      if (b.isActive() != active) {
+        b.setActive(active);
+      }
+      int k = i * BODY_STRIDE;
+      final float[] s = bodyState;
+      position.set(s[k], s[k + 1]);
+      b.m_sweep.localCenter.set(s[k + 4], s[k + 5]);
+      // moves the broadphase proxies, then we overwrite the sweep with the captured one
+      b.setTransform(position, s[k + 11]);
+      b.m_xf.q.s = s[k + 2];
+      b.m_xf.q.c = s[k + 3];
+      b.m_sweep.c0.set(s[k + 6], s[k + 7]);
+      b.m_sweep.c.set(s[k + 8], s[k + 9]);
+      b.m_sweep.a0 = s[k + 10];
+      b.m_sweep.alpha0 = s[k + 12];
+      b.m_linearVelocity.set(s[k + 13], s[k + 14]);
+      b.m_angularVelocity = s[k + 15];
+      b.m_force.set(s[k + 16], s[k + 17]);
+      b.m_torque = s[k + 18];
+      b.m_sleepTime = s[k + 19];
+      b.m_flags = (b.m_flags & ~Body.e_awakeFlag) | (bodyFlags[i] & Body.e_awakeFlag);
+    }
+
+    int k = 0;
+    try {
+      for (int j = 0; j < jointCount; j++) {
+        Field[] fields = getImpulseFields(joints[j].getClass());
+        if (!argLive.containsKey(joints[j])) {
+          k += getImpulseFloats(fields);
+          continue;
+        }
+        for (Field f : fields) {
+          Class<?> type = f.getType();
+          if (type == float.class) {
+            f.setFloat(joints[j], jointState[k++]);
+          } else if (type == Vec2.class) {
+            Vec2 v = (Vec2) f.get(joints[j]);
+            v.x = jointState[k++];
+            v.y = jointState[k++];
+          } else {
+            Vec3 v = (Vec3) f.get(joints[j]);
+            v.x = jointState[k++];
+            v.y = jointState[k++];
+            v.z = jointState[k++];
+          }
+        }
+      }
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Could not restore joint impulses", e);
+    }
+
+    restoreContacts(argWorld);
+  }
+
+  private void restoreContacts(World argWorld) {
+    // the captured contacts of each fixture a, chained through next
+    IdentityHashMap<Fixture, Integer> first = new IdentityHashMap<Fixture, Integer>();
+    int[] next = new int[contactCount];
+    for (int i = contactCount - 1; i >= 0; i--) {
+      Integer head = first.put(contactFixtures[i * 2], i);
+      next[i] = head == null ? -1 : head;
+    }
+
+    final Manifold.ManifoldType[] types = Manifold.ManifoldType.values();
+    for (Contact c = argWorld.getContactList(); c != null; c = c.getNext()) {
+      Integer head = first.get(c.m_fixtureA);
+      int i = head == null ? -1 : head;
+      while (i != -1
+          && (contactFixtures[i * 2 + 1] != c.m_fixtureB
+              || contactInts[i * CONTACT_INT_STRIDE] != c.m_indexA || contactInts[i
+              * CONTACT_INT_STRIDE + 1] != c.m_indexB)) {
+        i = next[i];
+      }
+      final Manifold m = c.m_manifold;
+      if (i == -1) {
+        // created since the capture, so start it over
+        m.pointCount = 0;
+        c.m_flags = Contact.ENABLED_FLAG;
+        c.m_toiCount = 0;
+        continue;
+      }
+      int n = i * CONTACT_INT_STRIDE + 2;
+      c.m_flags = contactInts[n++];
+      int type = contactInts[n++];
+      m.type = type < 0 ? null : types[type];
+      m.pointCount = contactInts[n++];
+      int k = i * CONTACT_STRIDE;
+      final float[] s = contactState;
+      m.localNormal.set(s[k], s[k + 1]);
+      m.localPoint.set(s[k + 2], s[k + 3]);
+      k += 4;
+      for (int j = 0; j < Settings.maxManifoldPoints; j++) {
+        ManifoldPoint mp = m.points[j];
+        unpackId(contactInts[n++], mp.id);
+        mp.localPoint.set(s[k], s[k + 1]);
+        mp.normalImpulse = s[k + 2];
+        mp.tangentImpulse = s[k + 3];
+        k += 4;
+      }
+      c.m_toiCount = 0;
+    }
+  }
+
+  private static int packId(ContactID argId) {
+    return (argId.indexA & 0xff) << 24 | (argId.indexB & 0xff) << 16 | (argId.typeA & 0xff) << 8
+        | (argId.typeB & 0xff);
+  }
+
+  private static void unpackId(int argKey, ContactID argId) {
+    argId.indexA = (byte) (argKey >> 24);
+    argId.indexB = (byte) (argKey >> 16);
+    argId.typeA = (byte) (argKey >> 8);
+    argId.typeB = (byte) argKey;
+  }
+
+  // joint impulses are private in the engine, so we go through reflection and cache the fields
+  private static Field[] getImpulseFields(Class<?> argClass) {
+    Field[] fields = impulseFields.get(argClass);
+    if (fields != null) {
+      return fields;
+    }
+    List<Field> found = new ArrayList<Field>();
+    for (String name : IMPULSE_FIELDS) {
+      try {
+        Field f = argClass.getDeclaredField(name);
+        Class<?> type = f.getType();
+        if (type == float.class || type == Vec2.class || type == Vec3.class) {
+          f.setAccessible(true);
+          found.add(f);
+        }
+      } catch (NoSuchFieldException e) {
+        // this joint type doesn't have it
+      }
+    }
+    fields = found.toArray(new Field[found.size()]);
+    impulseFields.put(argClass, fields);
+    return fields;
+  }
+
+  private static int getImpulseFloats(Field[] argFields) {
+    int floats = 0;
+    for (Field f : argFields) {
+      Class<?> type = f.getType();
+      floats += type == float.class ? 1 : type == Vec2.class ? 2 : 3;
+    }
+    return floats;
+  }
+}
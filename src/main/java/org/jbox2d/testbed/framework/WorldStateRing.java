@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.framework;
+
+import java.util.ArrayDeque;
+
+import org.jbox2d.dynamics.World;
+
+/**
+ * A bounded ring of in-memory {@link WorldSnapshot}s, used to rewind a running test without going
+ * through the serializer. The oldest captures are evicted once the retained captures exceed the
+ * memory budget, and their arrays are reused for new captures.<br/>
+ * <br/>
+ * Captures only cover the state of bodies, joints and contacts, not the structure of the world. Bodies or
+ * joints created after a capture are left untouched by a restore, and ones destroyed since are
+ * skipped. Use save/load if the world structure changes.
+ */
+public class WorldStateRing {
+
+  private final int interval;
+  private final long memoryBudget;
+  private final ArrayDeque<WorldSnapshot> captures = new ArrayDeque<WorldSnapshot>();
+  private final ArrayDeque<WorldSnapshot> free = new ArrayDeque<WorldSnapshot>();
+  private long memoryUsed = 0;
+
+  /**
+   * @param argInterval capture every this many steps
+   * @param argMemoryBudget the maximum number of bytes the retained captures may use
+   */
+  public WorldStateRing(int argInterval, long argMemoryBudget) {
+    if (argInterval <= 0) {
+      throw new IllegalArgumentException("Capture interval must be positive");
+    }
+    interval = argInterval;
+    memoryBudget = argMemoryBudget;
+  }
+
+  public int getInterval() {
+    return interval;
+  }
+
+  public long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /**
+   * The approximate number of bytes used by the retained captures
+   * 
+   * @return
+   */
+  public long getMemoryUsed() {
+    return memoryUsed;
+  }
+
+  /**
+   * The number of retained captures
+   * 
+   * @return
+   */
+  public int size() {
+    return captures.size();
+  }
+
+  /**
+   * The step of the oldest retained capture, or -1 if there is none
+   * 
+   * @return
+   */
+  public int getOldestStep() {
+    return captures.isEmpty() ? -1 : captures.peekFirst().getStep();
+  }
+
+  /**
+   * The step of the newest retained capture, or -1 if there is none
+   * 
+   * @return
+   */
+  public int getNewestStep() {
+    return captures.isEmpty() ? -1 : captures.peekLast().getStep();
+  }
+
+  /**
+   * Discards all captures
+   */
+  public void clear() {
+    while (!captures.isEmpty()) {
+      release(captures.pollLast());
+    }
+  }
+
+  /**
+   * Captures the world if the step falls on the capture interval.
+   * 
+   * @param argWorld
+   * @param argStep
+   */
+  public void onStep(World argWorld, int argStep) {
+    if (argStep % interval == 0) {
+      capture(argWorld, argStep);
+    }
+  }
+
+  /**
+   * Captures the state of the world at the given step. Captures at or after the step are replaced.
+   * 
+   * @param argWorld
+   * @param argStep
+   */
+  public void capture(World argWorld, int argStep) {
+    discardAfter(argStep - 1);
+
+    WorldSnapshot c = free.isEmpty() ? new WorldSnapshot() : free.pop();
+    c.write(argWorld, argStep);
+    long bytes = c.getBytes();
+    if (bytes > memoryBudget) {
+      // too big to keep, and it mustn't hold on to the world's bodies while it waits for reuse
+      c.clear();
+      free.push(c);
+      return;
+    }
+    while (!captures.isEmpty() && memoryUsed + bytes > memoryBudget) {
+      release(captures.pollFirst());
+    }
+    captures.addLast(c);
+    memoryUsed += bytes;
+  }
+
+  /**
+   * Restores the newest capture at or before the given step. Captures after the restored one are
+   * discarded, as they belong to a future that will now be re-simulated.
+   * 
+   * @param argWorld
+   * @param argStep
+   * @return the step that was restored, or -1 if no capture was old enough
+   */
+  public int restore(World argWorld, int argStep) {
+    discardAfter(argStep);
+    if (captures.isEmpty()) {
+      return -1;
+    }
+    WorldSnapshot c = captures.peekLast();
+    c.restore(argWorld);
+    return c.getStep();
+  }
+
+  private void discardAfter(int argStep) {
+    while (!captures.isEmpty() && captures.peekLast().getStep() > argStep) {
+      release(captures.pollLast());
+    }
+  }
+
+  private void release(WorldSnapshot argCapture) {
+    memoryUsed -= argCapture.getBytes();
+    argCapture.clear();
+    free.push(argCapture);
+  }
+}
@@ -47,6 +47,7 @@ import javax.swing.border.EtchedBorder;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
+import org.jbox2d.testbed.broadphase.BroadPhaseStrategies;
 import org.jbox2d.testbed.framework.TestbedController;
 import org.jbox2d.testbed.framework.TestbedModel;
 import org.jbox2d.testbed.framework.TestbedModel.ListItem;
@@ -71,6 +72,7 @@ public class TestbedSidePanel extends JPanel implements ChangeListener, ActionLi
   final TestbedController controller;
 
   public JComboBox tests;
+  private JComboBox<String> broadPhases;
 
   private JButton pauseButton = new JButton("Pause");
   private JButton stepButton = new JButton("Step");
@@ -152,6 +154,13 @@ public class TestbedSidePanel extends JPanel implements ChangeListener, ActionLi
     top.add(new JLabel("Choose a test:"));
     top.add(tests);
 
+    broadPhases = new JComboBox<String>(BroadPhaseStrategies.getNames());
+    broadPhases.setMaximumSize(new Dimension(250, 20));
+    broadPhases.setEditable(true);
+    broadPhases.setSelectedItem(model.getBroadPhase());
+    top.add(new JLabel("Broadphase:"));
+    top.add(broadPhases);
+
     addSettings(top, settings, SettingType.DRAWING);
 
     add(top, "North");
@@ -225,6 +234,23 @@ public class TestbedSidePanel extends JPanel implements ChangeListener, ActionLi
       }
     });
 
+    broadPhases.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        String name = String.valueOf(broadPhases.getSelectedItem());
+        if (name.equals(model.getBroadPhase())) {
+          return;
+        }
+        try {
+          model.setBroadPhase(name);
+        } catch (IllegalArgumentException ex) {
+          broadPhases.setSelectedItem(model.getBroadPhase());
+          return;
+        }
+        controller.resetTest();
+      }
+    });
+
     quitButton.addActionListener(new ActionListener() {
       @Override
       public void actionPerformed(ActionEvent e) {
@@ -0,0 +1,443 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.geometry;
+
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Vec2;
+
+/**
+ * Builds convex hulls of point clouds of any size, with Andrew's monotone chain, O(n log n). The
+ * points are given as x and y pairs in a float array, and the hull is kept as the same, counter
+ * clockwise, with no collinear vertices and none closer than {@link Settings#linearSlop} to the
+ * next. A hull with too many vertices for a {@link PolygonShape} can be simplified, dropping the
+ * vertices that take the least area with them, or split into several polygons that share its
+ * first vertex. The builder keeps its arrays between builds, so reuse it.
+ */
+public class ConvexHullBuilder {
+  private static final float[] DIRECTION_X = {1, 1, 0, -1, -1, -1, 0, 1};
+  private static final float[] DIRECTION_Y = {0, 1, 1, 1, 0, -1, -1, -1};
+
+  private float[] sorted = new float[64];
+  private float[] hull = new float[64];
+  private float[] areas = new float[32];
+  private int[] previous = new int[32], next = new int[32];
+  private int[] heap = new int[32], heapIndex = new int[32];
+  private final int[] extremes = new int[8];
+  private int count = 0;
+  private final Vec2[] vertices = new Vec2[Settings.maxPolygonVertices];
+
+  public ConvexHullBuilder() {
+    for (int i = 0; i < vertices.length; i++) {
+      vertices[i] = new Vec2();
+    }
+  }
+
+  /**
+   * Builds the hull of the points
+   * 
+   * @param argPoints x and y of each point, not changed
+   * @param argCount the number of points
+   * @return the number of hull vertices, less than 3 if the points don't enclose any area
+   */
+  public int build(float[] argPoints, int argCount) {
+    if (sorted.length < 2 * argCount) {
+      sorted = new float[2 * argCount];
+    }
+    if (hull.length < 4 * argCount + 2) {
+      hull = new float[4 * argCount + 2];
+    }
+    int n = filter(argPoints, argCount);
+    sort(sorted, 0, n - 1);
+
+    // lower chain left to right, then upper chain right to left
+    int k = 0;
+    for (int i = 0; i < n; i++) {
+      k = push(k, 2, sorted[2 * i], sorted[2 * i + 1]);
+    }
+    int lower = k + 1;
+    for (int i = n - 2; i >= 0; i--) {
+      k = push(k, lower, sorted[2 * i], sorted[2 * i + 1]);
+    }
+    // the last one is the first again
+    count = Math.max(0, k - 1);
+    weld();
+    return count;
+  }
+
+  /**
+   * Copies the points to be sorted, leaving out the ones strictly inside the octagon of the
+   * extreme points in x, y and the diagonals, which can't be on the hull (Akl-Toussaint). In a
+   * dense cloud that's most of them.
+   * 
+   * @return the number of points copied
+   */
+  private int filter(float[] argPoints, int argCount) {
+    if (argCount < 16) {
+      System.arraycopy(argPoints, 0, sorted, 0, 2 * argCount);
+      return argCount;
+    }
+    // the extreme points, counter clockwise from the rightmost
+    int[] extremes = this.extremes;
+    for (int j = 0; j < 8; j++) {
+      extremes[j] = 0;
+    }
+    for (int i = 1; i < argCount; i++) {
+      float x = argPoints[2 * i], y = argPoints[2 * i + 1];
+      for (int j = 0; j < 8; j++) {
+        int e = extremes[j];
+        if (DIRECTION_X[j] * x + DIRECTION_Y[j] * y > DIRECTION_X[j] * argPoints[2 * e]
+            + DIRECTION_Y[j] * argPoints[2 * e + 1]) {
+          extremes[j] = i;
+        }
+      }
+    }
+    int n = 0;
+    for (int i = 0; i < argCount; i++) {
+      float x = argPoints[2 * i], y = argPoints[2 * i + 1];
+      boolean inside = true;
+      for (int j = 0; j < 8 && inside; j++) {
+        int a = extremes[j], b = extremes[(j + 1) & 7];
+        float ax = argPoints[2 * a], ay = argPoints[2 * a + 1];
+        float bx = argPoints[2 * b], by = argPoints[2 * b + 1];
+        // on or outside an edge of the octagon, and the edges of repeated extremes are empty
+        inside = (bx - ax) * (y - ay) - (by - ay) * (x - ax) > 0 || (a == b);
+      }
+      if (!inside) {
+        sorted[2 * n] = x;
+        sorted[2 * n + 1] = y;
+        n++;
+      }
+    }
+    return n;
+  }
+
+  private int push(int argCount, int argMin, float argX, float argY) {
+    int k = argCount;
+    while (k >= argMin) {
+      float ax = hull[2 * (k - 2)], ay = hull[2 * (k - 2) + 1];
+      float bx = hull[2 * (k - 1)], by = hull[2 * (k - 1) + 1];
+      if ((bx - ax) * (argY - ay) - (by - ay) * (argX - ax) > 0) {
+        break;
+      }
+      k--;
+    }
+    hull[2 * k] = argX;
+    hull[2 * k + 1] = argY;
+    return k + 1;
+  }
+
+  private void weld() {
+    float tolerance = Settings.linearSlop * Settings.linearSlop;
+    int k = 0;
+    for (int i = 0; i < count; i++) {
+      float x = hull[2 * i], y = hull[2 * i + 1];
+      if (k > 0) {
+        float dx = x - hull[2 * (k - 1)], dy = y - hull[2 * (k - 1) + 1];
+        if (dx * dx + dy * dy < tolerance) {
+          continue;
+        }
+      }
+      hull[2 * k] = x;
+      hull[2 * k + 1] = y;
+      k++;
+    }
+    while (k > 1) {
+      float dx = hull[0] - hull[2 * (k - 1)], dy = hull[1] - hull[2 * (k - 1) + 1];
+      if (dx * dx + dy * dy >= tolerance) {
+        break;
+      }
+      k--;
+    }
+    count = k;
+  }
+
+  /**
+   * Sorts the points by x, then y. Quicksort on the pairs, recursing into the smaller side.
+   */
+  private static void sort(float[] argPoints, int argLow, int argHigh) {
+    while (argHigh - argLow > 16) {
+      int mid = (argLow + argHigh) >>> 1;
+      // median of three to the middle
+      if (less(argPoints, mid, argLow)) {
+        swap(argPoints, mid, argLow);
+      }
+      if (less(argPoints, argHigh, argLow)) {
+        swap(argPoints, argHigh, argLow);
+      }
+      if (less(argPoints, argHigh, mid)) {
+        swap(argPoints, argHigh, mid);
+      }
+      float px = argPoints[2 * mid], py = argPoints[2 * mid + 1];
+      int i = argLow, j = argHigh;
+      while (i <= j) {
+        while (compare(argPoints, i, px, py) < 0) {
+          i++;
+        }
+        while (compare(argPoints, j, px, py) > 0) {
+          j--;
+        }
+        if (i <= j) {
+          swap(argPoints, i++, j--);
+        }
+      }
+      if (j - argLow < argHigh - i) {
+        sort(argPoints, argLow, j);
+        argLow = i;
+      } else {
+        sort(argPoints, i, argHigh);
+        argHigh = j;
+      }
+    }
+    for (int i = argLow + 1; i <= argHigh; i++) {
+      float x = argPoints[2 * i], y = argPoints[2 * i + 1];
+      int j = i - 1;
+      while (j >= argLow && compare(argPoints, j, x, y) > 0) {
+        argPoints[2 * j + 2] = argPoints[2 * j];
+        argPoints[2 * j + 3] = argPoints[2 * j + 1];
+        j--;
+      }
+      argPoints[2 * j + 2] = x;
+      argPoints[2 * j + 3] = y;
+    }
+  }
+
+  private static int compare(float[] argPoints, int argIndex, float argX, float argY) {
+    float x = argPoints[2 * argIndex], y = argPoints[2 * argIndex + 1];
+    if (x != argX) {
+      return x < argX ? -1 : 1;
+    }
+    return y < argY ? -1 : (y > argY ? 1 : 0);
+  }
+
+  private static boolean less(float[] argPoints, int argA, int argB) {
+    return compare(argPoints, argA, argPoints[2 * argB], argPoints[2 * argB + 1]) < 0;
+  }
+
+  private static void swap(float[] argPoints, int argA, int argB) {
+    float x = argPoints[2 * argA], y = argPoints[2 * argA + 1];
+    argPoints[2 * argA] = argPoints[2 * argB];
+    argPoints[2 * argA + 1] = argPoints[2 * argB + 1];
+    argPoints[2 * argB] = x;
+    argPoints[2 * argB + 1] = y;
+  }
+
+  /**
+   * @return the number of hull vertices
+   */
+  public int getCount() {
+    return count;
+  }
+
+  public float getX(int argIndex) {
+    return hull[2 * argIndex];
+  }
+
+  public float getY(int argIndex) {
+    return hull[2 * argIndex + 1];
+  }
+
+  /**
+   * @return the hull's area
+   */
+  public float getArea() {
+    float area = 0;
+    for (int i = 0; i < count; i++) {
+      int j = i + 1 == count ? 0 : i + 1;
+      area += hull[2 * i] * hull[2 * j + 1] - hull[2 * j] * hull[2 * i + 1];
+    }
+    return area * .5f;
+  }
+
+  /**
+   * Drops vertices until there are at most the given number. Each time, the vertex that goes is
+   * the one whose triangle with its neighbors is smallest, which is the area the hull loses.
+   * 
+   * @param argMaxVertices at least 3
+   * @return the number of vertices
+   */
+  public int simplify(int argMaxVertices) {
+    assert (argMaxVertices >= 3);
+    if (count <= argMaxVertices) {
+      return count;
+    }
+    if (areas.length < count) {
+      areas = new float[count];
+      previous = new int[count];
+      next = new int[count];
+      heap = new int[count];
+      heapIndex = new int[count];
+    }
+    // a linked ring of the vertices, and a heap of them by area
+    for (int i = 0; i < count; i++) {
+      previous[i] = i == 0 ? count - 1 : i - 1;
+      next[i] = i + 1 == count ? 0 : i + 1;
+    }
+    for (int i = 0; i < count; i++) {
+      areas[i] = triangle(previous[i], i, next[i]);
+      heap[i] = i;
+      heapIndex[i] = i;
+    }
+    int heapSize = count;
+    for (int i = heapSize / 2 - 1; i >= 0; i--) {
+      siftDown(i, heapSize);
+    }
+
+    int remaining = count;
+    while (remaining > argMaxVertices) {
+      int smallest = heap[0];
+      heapSize--;
+      move(heap[heapSize], 0);
+      siftDown(0, heapSize);
+      heapIndex[smallest] = -1;
+
+      int p = previous[smallest], n = next[smallest];
+      next[p] = n;
+      previous[n] = p;
+      remaining--;
+      update(p, heapSize);
+      update(n, heapSize);
+    }
+
+    // compact the ring into the sort buffer, from the first vertex that's left, and back
+    int first = 0;
+    while (heapIndex[first] == -1) {
+      first++;
+    }
+    int k = 0;
+    int i = first;
+    do {
+      sorted[2 * k] = hull[2 * i];
+      sorted[2 * k + 1] = hull[2 * i + 1];
+      k++;
+      i = next[i];
+    } while (i != first);
+    System.arraycopy(sorted, 0, hull, 0, 2 * k);
+    count = k;
+    return count;
+  }
+
+  private void update(int argVertex, int argHeapSize) {
+    float area = triangle(previous[argVertex], argVertex, next[argVertex]);
+    float old = areas[argVertex];
+    areas[argVertex] = area;
+    int index = heapIndex[argVertex];
+    if (area < old) {
+      siftUp(index);
+    } else {
+      siftDown(index, argHeapSize);
+    }
+  }
+
+  private void move(int argVertex, int argIndex) {
+    heap[argIndex] = argVertex;
+    heapIndex[argVertex] = argIndex;
+  }
+
+  private void siftUp(int argIndex) {
+    int vertex = heap[argIndex];
+    while (argIndex > 0) {
+      int parent = (argIndex - 1) >> 1;
+      if (areas[heap[parent]] <= areas[vertex]) {
+        break;
+      }
+      move(heap[parent], argIndex);
+      argIndex = parent;
+    }
+    move(vertex, argIndex);
+  }
+
+  private void siftDown(int argIndex, int argHeapSize) {
+    int vertex = heap[argIndex];
+    while (true) {
+      int child = 2 * argIndex + 1;
+      if (child >= argHeapSize) {
+        break;
+      }
+      if (child + 1 < argHeapSize && areas[heap[child + 1]] < areas[heap[child]]) {
+        child++;
+      }
+      if (areas[vertex] <= areas[heap[child]]) {
+        break;
+      }
+      move(heap[child], argIndex);
+      argIndex = child;
+    }
+    move(vertex, argIndex);
+  }
+
+  private float triangle(int argPrevious, int argIndex, int argNext) {
+    float ax = hull[2 * argPrevious], ay = hull[2 * argPrevious + 1];
+    return .5f * ((hull[2 * argIndex] - ax) * (hull[2 * argNext + 1] - ay)
+        - (hull[2 * argIndex + 1] - ay) * (hull[2 * argNext] - ax));
+  }
+
+  /**
+   * Sets the polygon to the hull, which can't have more than {@link Settings#maxPolygonVertices}
+   * vertices
+   * 
+   * @param argShape
+   */
+  public void toPolygon(PolygonShape argShape) {
+    assert (count >= 3 && count <= Settings.maxPolygonVertices);
+    for (int i = 0; i < count; i++) {
+      vertices[i].set(hull[2 * i], hull[2 * i + 1]);
+    }
+    argShape.set(vertices, count);
+  }
+
+  /**
+   * @param argMaxVertices the most vertices a piece can have, at least 3
+   * @return the number of polygons {@link #getPiece} splits the hull into
+   */
+  public int getPieceCount(int argMaxVertices) {
+    assert (argMaxVertices >= 3);
+    if (count < 3) {
+      return 0;
+    }
+    return (count - 2 + argMaxVertices - 3) / (argMaxVertices - 2);
+  }
+
+  /**
+   * Sets the polygon to one piece of the hull, a fan of the first vertex and the next
+   * <code>argMaxVertices - 1</code> along. The pieces together cover the hull exactly.
+   * 
+   * @param argPiece from 0 to {@link #getPieceCount}
+   * @param argMaxVertices the most vertices a piece can have, at most
+   *        {@link Settings#maxPolygonVertices}
+   * @param argShape
+   */
+  public void getPiece(int argPiece, int argMaxVertices, PolygonShape argShape) {
+    assert (argPiece >= 0 && argPiece < getPieceCount(argMaxVertices));
+    assert (argMaxVertices <= Settings.maxPolygonVertices);
+    int start = 1 + argPiece * (argMaxVertices - 2);
+    int end = Math.min(start + argMaxVertices - 2, count - 1);
+    vertices[0].set(hull[0], hull[1]);
+    int k = 1;
+    for (int i = start; i <= end; i++) {
+      vertices[k++].set(hull[2 * i], hull[2 * i + 1]);
+    }
+    argShape.set(vertices, k);
+  }
+}
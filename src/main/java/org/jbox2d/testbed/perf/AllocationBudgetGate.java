@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.jbox2d.testbed.framework.AllocationProfiler;
+import org.jbox2d.testbed.framework.HeadlessTestbed;
+import org.jbox2d.testbed.framework.TestbedSettings;
+import org.jbox2d.testbed.framework.TestbedTest;
+
+/**
+ * Runs tests headlessly with the {@link AllocationProfiler} on, and fails if a test allocates more
+ * per step, on average, than its budget. Budgets are bytes per step, keyed by test name, with a
+ * <code>default</code> entry for tests that aren't listed; a test with neither is only reported.
+ * They're read from <code>allocation-budgets.properties</code> on the classpath, or from the file
+ * given as the first argument. Any further arguments select the tests to run.<br/>
+ * <br/>
+ * Exits with status 1 if any test is over budget, so it can gate a build.
+ */
+public class AllocationBudgetGate {
+
+	public static final String BUDGETS_RESOURCE = "/allocation-budgets.properties";
+	public static final String DEFAULT_KEY = "default";
+
+	public static int warmupSteps = 120;
+	public static int steps = 300;
+
+	public static class Result {
+		public String test;
+		public final double[] mean = new double[AllocationProfiler.CATEGORIES];
+		public double meanTotal;
+		public long maxTotal;
+		public long budget = -1;
+		public double[] stepMillis;
+
+		public boolean isOverBudget() {
+			return budget >= 0 && meanTotal > budget;
+		}
+	}
+
+	public static Result measure(HeadlessTestbed argTestbed, TestbedTest argTest) {
+		argTestbed.init(argTest);
+		argTestbed.step(argTest, warmupSteps);
+		AllocationProfiler profiler = argTest.getAllocationProfiler();
+		profiler.reset();
+		Result result = new Result();
+		result.stepMillis = new double[steps];
+		for (int i = 0; i < steps; i++) {
+			argTestbed.step(argTest, 1);
+			result.stepMillis[i] = argTest.getWorld().getProfile().step;
+		}
+
+		result.test = argTest.getTestName();
+		for (int i = 0; i < AllocationProfiler.CATEGORIES; i++) {
+			result.mean[i] = profiler.getMean(i);
+		}
+		result.meanTotal = profiler.getMean(-1);
+		result.maxTotal = profiler.getMax(-1);
+		return result;
+	}
+
+	public static Properties loadBudgets(String argFile) throws IOException {
+		Properties budgets = new Properties();
+		InputStream in =
+				argFile != null ? new FileInputStream(argFile) : AllocationBudgetGate.class
+						.getResourceAsStream(BUDGETS_RESOURCE);
+		if (in == null) {
+			return budgets;
+		}
+		try {
+			budgets.load(in);
+		} finally {
+			in.close();
+		}
+		return budgets;
+	}
+
+	public static long getBudget(Properties argBudgets, String argTest) {
+		String budget = argBudgets.getProperty(argTest, argBudgets.getProperty(DEFAULT_KEY));
+		return budget == null ? -1 : Long.parseLong(budget.trim());
+	}
+
+	public static void printResults(List<Result> argResults) {
+		System.out.printf("%-28s%12s%12s%12s%12s%12s%12s  %s\n", "Test", "Physics", "Debug draw", "Test",
+				"Total", "Max", "Budget", "Status");
+		for (Result r : argResults) {
+			System.out.printf("%-28s%12.0f%12.0f%12.0f%12.0f%12d%12s  %s\n", r.test,
+					r.mean[AllocationProfiler.PHYSICS], r.mean[AllocationProfiler.DEBUG_DRAW],
+					r.mean[AllocationProfiler.TEST], r.meanTotal, r.maxTotal, r.budget < 0 ? "-" : Long
+							.toString(r.budget), r.budget < 0 ? "" : r.isOverBudget() ? "OVER" : "ok");
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		String budgetFile = args.length > 0 && args[0].endsWith(".properties") ? args[0] : null;
+		Properties budgets = loadBudgets(budgetFile);
+		List<String> selected = new ArrayList<String>();
+		for (int i = budgetFile == null ? 0 : 1; i < args.length; i++) {
+			selected.add(args[i]);
+		}
+
+		HeadlessTestbed testbed = new HeadlessTestbed();
+		testbed.getSettings().getSetting(TestbedSettings.ProfileAllocations).enabled = true;
+		if (!new AllocationProfiler().isSupported()) {
+			System.err.println("Thread allocation counters aren't supported by this VM");
+			System.exit(2);
+		}
+
+		List<Result> results = new ArrayList<Result>();
+		boolean failed = false;
+		for (TestbedTest test : testbed.getTests()) {
+			if (!selected.isEmpty() && !selected.contains(test.getTestName())) {
+				continue;
+			}
+			Result result = measure(testbed, test);
+			result.budget = getBudget(budgets, result.test);
+			failed |= result.isOverBudget();
+			results.add(result);
+			test.exit();
+		}
+		printResults(results);
+
+		BenchmarkHistory history = new BenchmarkHistory("AllocationBudgetGate");
+		for (Result r : results) {
+			history.add(r.test + ":alloc", "B/step", false, r.meanTotal);
+			history.add(r.test + ":step", "ms", false, r.stepMillis);
+		}
+		history.save();
+		if (failed) {
+			System.out.println("Allocation budget exceeded");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import org.jbox2d.callbacks.QueryCallback;
+import org.jbox2d.callbacks.RayCastCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.testbed.query.AABBQueryBatch;
+import org.jbox2d.testbed.query.BatchQueryService;
+import org.jbox2d.testbed.query.RayCastBatch;
+
+/**
+ * Times line of sight rays between random pairs of bodies, and AABB queries around them, in a
+ * {@link ScalingPerf} world: one at a time through {@link World#raycast} and
+ * {@link World#queryAABB} callbacks, and as batches through a {@link BatchQueryService} on one
+ * thread and on all of them. The snapshot the service takes each step is timed with the batch.
+ * Before timing, the batch results are checked against the world's: the closest hit fractions must
+ * match, and the boxes must find the same fixtures.<br/>
+ * <br/>
+ * Usage: <code>BatchQueryPerf [-bodies count] [-n 1000,10000,...] [-warmup steps] [-steps steps]</code>
+ */
+public class BatchQueryPerf {
+
+	public static int bodies = 2000;
+	public static int[] counts = {1000, 10000};
+	public static int warmupSteps = 20;
+	public static int steps = 50;
+	public static float queryExtent = 2;
+
+	public static class Result {
+		public String mode;
+		public int queries;
+		public double[] rayMillis;
+		public double[] queryMillis;
+		public double rayMean, queryMean;
+	}
+
+	private static class ClosestCallback implements RayCastCallback {
+		Fixture fixture;
+		float fraction;
+
+		public float reportFixture(Fixture argFixture, Vec2 argPoint, Vec2 argNormal, float argFraction) {
+			fixture = argFixture;
+			fraction = argFraction;
+			return argFraction;
+		}
+	}
+
+	private static class CountCallback implements QueryCallback {
+		int count;
+
+		public boolean reportFixture(Fixture argFixture) {
+			count++;
+			return true;
+		}
+	}
+
+	private static Body[] getBodies(World argWorld) {
+		Body[] bodies = new Body[argWorld.getBodyCount()];
+		int i = 0;
+		for (Body b = argWorld.getBodyList(); b != null; b = b.getNext()) {
+			bodies[i++] = b;
+		}
+		return bodies;
+	}
+
+	/**
+	 * Fills the batches with rays between random pairs of bodies and boxes around random bodies
+	 */
+	private static void fill(World argWorld, RayCastBatch argRays, AABBQueryBatch argBoxes, int argCount,
+			Random argRandom) {
+		Body[] all = getBodies(argWorld);
+		argRays.setCount(argCount);
+		argBoxes.setCount(argCount);
+		for (int i = 0; i < argCount; i++) {
+			Vec2 a = all[argRandom.nextInt(all.length)].getPosition();
+			Vec2 b = all[argRandom.nextInt(all.length)].getPosition();
+			argRays.setRay(i, a.x, a.y, b.x, b.y);
+			argBoxes.setAABB(i, a.x - queryExtent, a.y - queryExtent, a.x + queryExtent, a.y + queryExtent);
+		}
+	}
+
+	/**
+	 * Checks the service's results against the world's
+	 * 
+	 * @return the number of mismatches
+	 */
+	public static int verify(World argWorld, BatchQueryService argService, RayCastBatch argRays,
+			AABBQueryBatch argBoxes) {
+		int errors = 0;
+		ClosestCallback closest = new ClosestCallback();
+		Vec2 p1 = new Vec2(), p2 = new Vec2();
+		for (int i = 0; i < argRays.getCount(); i++) {
+			p1.set(argRays.getP1X(i), argRays.getP1Y(i));
+			p2.set(argRays.getP2X(i), argRays.getP2Y(i));
+			if (p1.equals(p2)) {
+				continue;
+			}
+			closest.fixture = null;
+			argWorld.raycast(closest, p1, p2);
+			if (closest.fixture == null ? argRays.hasHit(i) : !argRays.hasHit(i)
+					|| Math.abs(closest.fraction - argRays.getFraction(i)) > 1e-4f) {
+				errors++;
+			}
+		}
+		final Set<Fixture> found = new HashSet<Fixture>();
+		AABB aabb = new AABB();
+		for (int i = 0; i < argBoxes.getCount(); i++) {
+			found.clear();
+			for (int k = 0; k < argBoxes.getResultCount(i); k++) {
+				found.add(argService.getFixture(argBoxes.getResult(i, k)));
+			}
+			aabb.lowerBound.set(argBoxes.getLowerX(i), argBoxes.getLowerY(i));
+			aabb.upperBound.set(argBoxes.getUpperX(i), argBoxes.getUpperY(i));
+			final AABB box = aabb;
+			final int[] missing = new int[1];
+			argWorld.queryAABB(new QueryCallback() {
+				public boolean reportFixture(Fixture argFixture) {
+					// the world reports by fat AABB, the service by the fixture's own
+					for (int c = 0; c < argFixture.m_proxyCount; c++) {
+						if (AABB.testOverlap(box, argFixture.getAABB(c)) && !found.contains(argFixture)) {
+							missing[0]++;
+							break;
+						}
+					}
+					return true;
+				}
+			}, aabb);
+			errors += missing[0];
+		}
+		return errors;
+	}
+
+	public static Result measure(String argMode, int argCount, int argThreads) {
+		World world = ScalingPerf.createWorld(bodies, "mixed", 1.5f, bodies);
+		Random random = new Random(argCount);
+		RayCastBatch rays = new RayCastBatch(argCount);
+		AABBQueryBatch boxes = new AABBQueryBatch(argCount);
+		BatchQueryService service = new BatchQueryService();
+		service.setThreads(Math.max(1, argThreads));
+		ClosestCallback closest = new ClosestCallback();
+		CountCallback counter = new CountCallback();
+		Vec2 p1 = new Vec2(), p2 = new Vec2();
+		AABB aabb = new AABB();
+		Blackhole blackhole = new Blackhole();
+
+		Result result = new Result();
+		result.mode = argMode;
+		result.queries = argCount;
+		result.rayMillis = new double[steps];
+		result.queryMillis = new double[steps];
+		for (int s = -warmupSteps; s < steps; s++) {
+			world.step(1f / 60, 8, 3);
+			fill(world, rays, boxes, argCount, random);
+
+			long start = System.nanoTime();
+			if (argThreads == 0) {
+				for (int i = 0; i < argCount; i++) {
+					p1.set(rays.getP1X(i), rays.getP1Y(i));
+					p2.set(rays.getP2X(i), rays.getP2Y(i));
+					if (!p1.equals(p2)) {
+						world.raycast(closest, p1, p2);
+					}
+				}
+			} else {
+				service.update(world);
+				service.raycast(rays);
+			}
+			long middle = System.nanoTime();
+			if (argThreads == 0) {
+				for (int i = 0; i < argCount; i++) {
+					aabb.lowerBound.set(boxes.getLowerX(i), boxes.getLowerY(i));
+					aabb.upperBound.set(boxes.getUpperX(i), boxes.getUpperY(i));
+					world.queryAABB(counter, aabb);
+				}
+			} else {
+				service.query(boxes);
+			}
+			long end = System.nanoTime();
+			if (s >= 0) {
+				result.rayMillis[s] = (middle - start) / 1e6;
+				result.queryMillis[s] = (end - middle) / 1e6;
+			}
+			blackhole.consume(closest.fraction);
+			blackhole.consume(counter.count);
+		}
+		service.shutdown();
+		result.rayMean = BenchmarkStatistics.mean(result.rayMillis, steps);
+		result.queryMean = BenchmarkStatistics.mean(result.queryMillis, steps);
+		return result;
+	}
+
+	public static void main(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-bodies")) {
+				bodies = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-n")) {
+				String[] values = args[++i].split(",");
+				counts = new int[values.length];
+				for (int j = 0; j < values.length; j++) {
+					counts[j] = Integer.parseInt(values[j]);
+				}
+			} else if (args[i].equals("-warmup")) {
+				warmupSteps = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-steps")) {
+				steps = Integer.parseInt(args[++i]);
+			}
+		}
+
+		World world = ScalingPerf.createWorld(bodies, "mixed", 1.5f, bodies);
+		for (int s = 0; s < warmupSteps; s++) {
+			world.step(1f / 60, 8, 3);
+		}
+		RayCastBatch rays = new RayCastBatch(1000);
+		AABBQueryBatch boxes = new AABBQueryBatch(1000);
+		BatchQueryService service = new BatchQueryService();
+		fill(world, rays, boxes, 1000, new Random(0));
+		service.update(world);
+		service.raycast(rays);
+		service.query(boxes);
+		int errors = verify(world, service, rays, boxes);
+		service.shutdown();
+		System.out.println("# " + errors + " mismatches with the world's results");
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		List<Result> results = new ArrayList<Result>();
+		for (int count : counts) {
+			System.out.println("# " + count + " queries");
+			results.add(measure("world", count, 0));
+			results.add(measure("batch", count, 1));
+			if (cores > 1) {
+				results.add(measure("batch" + cores, count, cores));
+			}
+		}
+
+		System.out.printf("%-10s%10s%14s%14s%14s\n", "Mode", "Queries", "Rays ms", "AABBs ms", "us/ray");
+		for (Result r : results) {
+			System.out.printf(Locale.ROOT, "%-10s%10d%14.3f%14.3f%14.3f\n", r.mode, r.queries, r.rayMean, r.queryMean,
+					r.rayMean * 1000 / r.queries);
+		}
+
+		BenchmarkHistory history = new BenchmarkHistory("BatchQueryPerf");
+		for (Result r : results) {
+			history.add("raycast/" + r.mode + "/" + r.queries, "ms", false, r.rayMillis);
+			history.add("query/" + r.mode + "/" + r.queries, "ms", false, r.queryMillis);
+		}
+		history.save();
+
+		if (errors > 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,626 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Keeps a history of benchmark results in a local JSON-lines file, one result per line, tagged with
+ * the run, the git revision, and the JVM and hardware it ran on. The perf suites add their results
+ * to a history and save it when they finish. The file is <code>perf-history.jsonl</code> in the
+ * working directory, or the <code>jbox2d.perf.history</code> system property; setting the
+ * property to <code>none</code> turns recording off.<br/>
+ * <br/>
+ * Run this class to list the recorded runs, or to compare a run with a baseline:<br/>
+ * <code>BenchmarkHistory list</code><br/>
+ * <code>BenchmarkHistory compare &lt;baseline run&gt; [run] [-threshold percent]</code><br/>
+ * A run defaults to the newest one of the baseline's suite. A change is flagged as a regression or
+ * improvement when it's larger than the threshold (5% by default) and larger than the combined
+ * 99.9% confidence intervals of the two runs, and the command exits with status 1 if there are
+ * regressions.
+ */
+public class BenchmarkHistory {
+
+	public static final String FILE_PROPERTY = "jbox2d.perf.history";
+	public static final String DEFAULT_FILE = "perf-history.jsonl";
+	public static final String DISABLED = "none";
+
+	public static class Record {
+		public String runId;
+		public String suite;
+		public long timestamp;
+		public String benchmark;
+		public String unit;
+		public boolean higherIsBetter;
+		public double[] samples;
+		public double score;
+		public double error;
+		public Map<String, String> metadata = new LinkedHashMap<String, String>();
+	}
+
+	private final String suite;
+	private final String runId;
+	private final long timestamp;
+	private final Map<String, String> metadata;
+	private final List<Record> records = new ArrayList<Record>();
+
+	public BenchmarkHistory(String argSuite) {
+		suite = argSuite;
+		timestamp = System.currentTimeMillis();
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		runId = argSuite + "-" + format.format(new Date(timestamp));
+		metadata = collectMetadata();
+	}
+
+	public String getRunId() {
+		return runId;
+	}
+
+	/**
+	 * Adds a result to the run
+	 * 
+	 * @param argBenchmark
+	 * @param argUnit
+	 * @param argHigherIsBetter
+	 * @param argSamples one value per measured iteration, or a single mean
+	 */
+	public void add(String argBenchmark, String argUnit, boolean argHigherIsBetter, double... argSamples) {
+		Record r = new Record();
+		r.runId = runId;
+		r.suite = suite;
+		r.timestamp = timestamp;
+		r.benchmark = argBenchmark;
+		r.unit = argUnit;
+		r.higherIsBetter = argHigherIsBetter;
+		r.samples = argSamples.clone();
+		r.score = BenchmarkStatistics.mean(r.samples, r.samples.length);
+		r.error = BenchmarkStatistics.error999(r.samples, r.samples.length);
+		r.metadata = metadata;
+		records.add(r);
+	}
+
+	/**
+	 * Appends the run to the history file, unless recording is turned off. Failures are reported
+	 * but don't fail the benchmark.
+	 */
+	public void save() {
+		File file = getFile();
+		if (file == null || records.isEmpty()) {
+			return;
+		}
+		try {
+			Writer out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+			try {
+				for (Record r : records) {
+					out.write(toJson(r));
+					out.write('\n');
+				}
+			} finally {
+				out.close();
+			}
+			System.out.println("Results recorded in " + file + " as run " + runId);
+		} catch (IOException e) {
+			System.err.println("Could not record results in " + file + ": " + e);
+		}
+	}
+
+	/**
+	 * The history file, or null if recording is turned off
+	 * 
+	 * @return
+	 */
+	public static File getFile() {
+		String name = System.getProperty(FILE_PROPERTY, DEFAULT_FILE);
+		return name.equals(DISABLED) ? null : new File(name);
+	}
+
+	public static Map<String, String> collectMetadata() {
+		Map<String, String> metadata = new LinkedHashMap<String, String>();
+		String revision = git("rev-parse", "HEAD");
+		metadata.put("git.revision", revision == null ? "unknown" : revision);
+		if (revision != null) {
+			String status = git("status", "--porcelain", "--untracked-files=no");
+			metadata.put("git.dirty", Boolean.toString(status != null && status.length() > 0));
+		}
+		metadata.put("java.version", System.getProperty("java.version"));
+		metadata.put("java.vm.name", System.getProperty("java.vm.name"));
+		metadata.put("java.vm.vendor", System.getProperty("java.vm.vendor"));
+		metadata.put("os.name", System.getProperty("os.name"));
+		metadata.put("os.version", System.getProperty("os.version"));
+		metadata.put("os.arch", System.getProperty("os.arch"));
+		metadata.put("cpu.count", Integer.toString(Runtime.getRuntime().availableProcessors()));
+		String cpu = cpuModel();
+		if (cpu != null) {
+			metadata.put("cpu.model", cpu);
+		}
+		metadata.put("memory.max", Long.toString(Runtime.getRuntime().maxMemory()));
+		return metadata;
+	}
+
+	private static String git(String... argArgs) {
+		String[] command = new String[argArgs.length + 1];
+		command[0] = "git";
+		System.arraycopy(argArgs, 0, command, 1, argArgs.length);
+		try {
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+			StringBuilder output = new StringBuilder();
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					output.append(line).append('\n');
+				}
+			} finally {
+				reader.close();
+			}
+			return process.waitFor() == 0 ? output.toString().trim() : null;
+		} catch (IOException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	private static String cpuModel() {
+		File cpuinfo = new File("/proc/cpuinfo");
+		if (!cpuinfo.canRead()) {
+			return null;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(cpuinfo), "UTF-8"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith("model name")) {
+						return line.substring(line.indexOf(':') + 1).trim();
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			// not worth failing over
+		}
+		return null;
+	}
+
+	public static List<Record> load(File argFile) throws IOException {
+		List<Record> records = new ArrayList<Record>();
+		if (!argFile.exists()) {
+			return records;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(argFile), "UTF-8"));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().length() == 0) {
+					continue;
+				}
+				try {
+					records.add(fromJson(line));
+				} catch (RuntimeException e) {
+					System.err.println("Skipping line " + lineNumber + " of " + argFile + ": " + e.getMessage());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return records;
+	}
+
+	static String toJson(Record argRecord) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"runId\":").append(quote(argRecord.runId));
+		sb.append(",\"suite\":").append(quote(argRecord.suite));
+		sb.append(",\"timestamp\":").append(argRecord.timestamp);
+		sb.append(",\"benchmark\":").append(quote(argRecord.benchmark));
+		sb.append(",\"unit\":").append(quote(argRecord.unit));
+		sb.append(",\"higherIsBetter\":").append(argRecord.higherIsBetter);
+		sb.append(",\"score\":").append(number(argRecord.score));
+		sb.append(",\"error\":").append(number(argRecord.error));
+		sb.append(",\"samples\":[");
+		for (int i = 0; i < argRecord.samples.length; i++) {
+			sb.append(i == 0 ? "" : ",").append(number(argRecord.samples[i]));
+		}
+		sb.append("],\"metadata\":{");
+		boolean first = true;
+		for (Map.Entry<String, String> e : argRecord.metadata.entrySet()) {
+			sb.append(first ? "" : ",").append(quote(e.getKey())).append(':').append(quote(e.getValue()));
+			first = false;
+		}
+		return sb.append("}}").toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	static Record fromJson(String argLine) {
+		Map<String, Object> json = (Map<String, Object>) new JsonReader(argLine).read();
+		Record r = new Record();
+		r.runId = (String) json.get("runId");
+		r.suite = (String) json.get("suite");
+		r.timestamp = ((Number) json.get("timestamp")).longValue();
+		r.benchmark = (String) json.get("benchmark");
+		r.unit = (String) json.get("unit");
+		r.higherIsBetter = Boolean.TRUE.equals(json.get("higherIsBetter"));
+		List<Object> samples = (List<Object>) json.get("samples");
+		r.samples = new double[samples.size()];
+		for (int i = 0; i < r.samples.length; i++) {
+			r.samples[i] = toDouble(samples.get(i));
+		}
+		r.score = toDouble(json.get("score"));
+		r.error = toDouble(json.get("error"));
+		Map<String, Object> metadata = (Map<String, Object>) json.get("metadata");
+		if (metadata != null) {
+			for (Map.Entry<String, Object> e : metadata.entrySet()) {
+				r.metadata.put(e.getKey(), String.valueOf(e.getValue()));
+			}
+		}
+		return r;
+	}
+
+	private static double toDouble(Object argValue) {
+		return argValue instanceof Number ? ((Number) argValue).doubleValue() : Double.NaN;
+	}
+
+	private static String number(double argValue) {
+		return Double.isNaN(argValue) || Double.isInfinite(argValue) ? "null" : Double.toString(argValue);
+	}
+
+	private static String quote(String argValue) {
+		if (argValue == null) {
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < argValue.length(); i++) {
+			char c = argValue.charAt(i);
+			switch (c) {
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\t':
+					sb.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Just enough of a JSON reader for the history lines
+	 */
+	private static class JsonReader {
+		private final String text;
+		private int pos = 0;
+
+		JsonReader(String argText) {
+			text = argText;
+		}
+
+		Object read() {
+			skipWhitespace();
+			char c = peek();
+			if (c == '{') {
+				pos++;
+				Map<String, Object> map = new LinkedHashMap<String, Object>();
+				skipWhitespace();
+				if (peek() == '}') {
+					pos++;
+					return map;
+				}
+				while (true) {
+					skipWhitespace();
+					String key = readString();
+					skipWhitespace();
+					expect(':');
+					map.put(key, read());
+					skipWhitespace();
+					if (peek() == ',') {
+						pos++;
+					} else {
+						expect('}');
+						return map;
+					}
+				}
+			} else if (c == '[') {
+				pos++;
+				List<Object> list = new ArrayList<Object>();
+				skipWhitespace();
+				if (peek() == ']') {
+					pos++;
+					return list;
+				}
+				while (true) {
+					list.add(read());
+					skipWhitespace();
+					if (peek() == ',') {
+						pos++;
+					} else {
+						expect(']');
+						return list;
+					}
+				}
+			} else if (c == '"') {
+				return readString();
+			} else if (text.startsWith("true", pos)) {
+				pos += 4;
+				return Boolean.TRUE;
+			} else if (text.startsWith("false", pos)) {
+				pos += 5;
+				return Boolean.FALSE;
+			} else if (text.startsWith("null", pos)) {
+				pos += 4;
+				return null;
+			}
+			int start = pos;
+			while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+				pos++;
+			}
+			if (start == pos) {
+				throw new IllegalArgumentException("Unexpected character at " + pos);
+			}
+			return Double.valueOf(text.substring(start, pos));
+		}
+
+		private String readString() {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				char c = text.charAt(pos++);
+				if (c == '"') {
+					return sb.toString();
+				}
+				if (c == '\\') {
+					char e = text.charAt(pos++);
+					switch (e) {
+						case 'n':
+							sb.append('\n');
+							break;
+						case 't':
+							sb.append('\t');
+							break;
+						case 'u':
+							sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+							pos += 4;
+							break;
+						default:
+							sb.append(e);
+					}
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+
+		private char peek() {
+			if (pos >= text.length()) {
+				throw new IllegalArgumentException("Unexpected end of line");
+			}
+			return text.charAt(pos);
+		}
+
+		private void expect(char argChar) {
+			if (peek() != argChar) {
+				throw new IllegalArgumentException("Expected '" + argChar + "' at " + pos);
+			}
+			pos++;
+		}
+
+		private void skipWhitespace() {
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+				pos++;
+			}
+		}
+	}
+
+	/**
+	 * The records of a run, in the order they were recorded
+	 */
+	public static List<Record> getRun(List<Record> argHistory, String argRunId) {
+		List<Record> run = new ArrayList<Record>();
+		for (Record r : argHistory) {
+			if (r.runId.equals(argRunId)) {
+				run.add(r);
+			}
+		}
+		return run;
+	}
+
+	/**
+	 * The id of the newest run of the suite, or null if there is none
+	 */
+	public static String getLatestRun(List<Record> argHistory, String argSuite) {
+		Record latest = null;
+		for (Record r : argHistory) {
+			if (r.suite.equals(argSuite) && (latest == null || r.timestamp >= latest.timestamp)) {
+				latest = r;
+			}
+		}
+		return latest == null ? null : latest.runId;
+	}
+
+	public static void printRuns(List<Record> argHistory) {
+		System.out.printf("%-44s%-24s%10s%14s  %s\n", "Run", "Suite", "Results", "Revision", "JVM");
+		Map<String, List<Record>> runs = new LinkedHashMap<String, List<Record>>();
+		for (Record r : argHistory) {
+			List<Record> run = runs.get(r.runId);
+			if (run == null) {
+				run = new ArrayList<Record>();
+				runs.put(r.runId, run);
+			}
+			run.add(r);
+		}
+		for (List<Record> run : runs.values()) {
+			Record r = run.get(0);
+			String revision = r.metadata.get("git.revision");
+			if (revision != null && revision.length() > 10) {
+				revision = revision.substring(0, 10);
+			}
+			if ("true".equals(r.metadata.get("git.dirty"))) {
+				revision += "+";
+			}
+			System.out.printf("%-44s%-24s%10d%14s  %s\n", r.runId, r.suite, run.size(), revision,
+					r.metadata.get("java.version"));
+		}
+	}
+
+	/**
+	 * Prints the change of every benchmark that's in both runs, and flags the significant ones
+	 * 
+	 * @param argBaseline
+	 * @param argCurrent
+	 * @param argThreshold the smallest relative change that's flagged, e.g. .05
+	 * @return the number of regressions
+	 */
+	public static int compare(List<Record> argBaseline, List<Record> argCurrent, double argThreshold) {
+		Map<String, Record> baseline = new LinkedHashMap<String, Record>();
+		for (Record r : argBaseline) {
+			baseline.put(r.benchmark, r);
+		}
+		if (!argBaseline.isEmpty() && !argCurrent.isEmpty()) {
+			printMetadataChanges(argBaseline.get(0).metadata, argCurrent.get(0).metadata);
+		}
+		System.out.printf("%-48s%-10s%22s%22s%10s  %s\n", "Benchmark", "Unit", "Baseline", "Current", "Change",
+				"Flag");
+		int regressions = 0;
+		for (Record current : argCurrent) {
+			Record base = baseline.get(current.benchmark);
+			if (base == null) {
+				continue;
+			}
+			double change;
+			if (base.score == 0) {
+				// e.g. a benchmark that started allocating
+				change = current.score == 0 ? 0 : Math.signum(current.score) * Double.POSITIVE_INFINITY;
+			} else {
+				change = (current.score - base.score) / Math.abs(base.score);
+			}
+			double noise = Math.sqrt(square(base.error) + square(current.error));
+			boolean significant =
+					Math.abs(change) > argThreshold
+							&& (Double.isNaN(noise) || Math.abs(current.score - base.score) > noise);
+			boolean worse = current.higherIsBetter ? change < 0 : change > 0;
+			String flag = "";
+			if (significant) {
+				flag = worse ? "REGRESSION" : "improvement";
+				if (worse) {
+					regressions++;
+				}
+			} else if (Math.abs(change) > argThreshold) {
+				flag = "within noise";
+			}
+			System.out.printf(Locale.ROOT, "%-48s%-10s%22s%22s%9.1f%%  %s\n", current.benchmark, current.unit,
+					format(base), format(current), change * 100, flag);
+		}
+		return regressions;
+	}
+
+	private static void printMetadataChanges(Map<String, String> argBaseline, Map<String, String> argCurrent) {
+		for (Map.Entry<String, String> e : argCurrent.entrySet()) {
+			String before = argBaseline.get(e.getKey());
+			if (before != null && !before.equals(e.getValue())) {
+				System.out.println("Note: " + e.getKey() + " changed from " + before + " to " + e.getValue());
+			}
+		}
+	}
+
+	private static String format(Record argRecord) {
+		if (Double.isNaN(argRecord.error)) {
+			return String.format(Locale.ROOT, "%.4g", argRecord.score);
+		}
+		return String.format(Locale.ROOT, "%.4g +- %.2g", argRecord.score, argRecord.error);
+	}
+
+	private static double square(double argValue) {
+		return argValue * argValue;
+	}
+
+	public static void main(String[] args) throws IOException {
+		File file = getFile();
+		if (file == null) {
+			file = new File(DEFAULT_FILE);
+		}
+		double threshold = .05;
+		List<String> positional = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threshold")) {
+				threshold = Double.parseDouble(args[++i]) / 100;
+			} else {
+				positional.add(args[i]);
+			}
+		}
+		List<Record> history = load(file);
+		if (positional.isEmpty() || positional.get(0).equals("list")) {
+			printRuns(history);
+			return;
+		}
+		if (!positional.get(0).equals("compare") || positional.size() < 2) {
+			System.out.println("Usage: BenchmarkHistory list | compare <baseline run> [run] [-threshold percent]");
+			return;
+		}
+		List<Record> baseline = getRun(history, positional.get(1));
+		if (baseline.isEmpty()) {
+			System.out.println("No run " + positional.get(1) + " in " + file);
+			System.exit(2);
+		}
+		String currentId =
+				positional.size() > 2 ? positional.get(2) : getLatestRun(history, baseline.get(0).suite);
+		List<Record> current = getRun(history, currentId);
+		System.out.println("Comparing " + currentId + " with baseline " + positional.get(1));
+		int regressions = compare(baseline, current, threshold);
+		if (regressions > 0) {
+			System.out.println(regressions + " regression(s)");
+			System.exit(1);
+		}
+	}
+}
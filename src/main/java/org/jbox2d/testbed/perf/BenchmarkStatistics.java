@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+/**
+ * Summary statistics for benchmark samples.
+ */
+public final class BenchmarkStatistics {
+
+	// two-sided 99.9% Student's t critical values for 1 to 30 degrees of freedom
+	private static final double[] T_999 = {636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041,
+			4.781, 4.587, 4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850, 3.819, 3.792,
+			3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646};
+	private static final double Z_999 = 3.291;
+
+	private BenchmarkStatistics() {}
+
+	public static double mean(double[] argSamples, int argCount) {
+		double sum = 0;
+		for (int i = 0; i < argCount; i++) {
+			sum += argSamples[i];
+		}
+		return argCount == 0 ? Double.NaN : sum / argCount;
+	}
+
+	/**
+	 * The sample standard deviation
+	 */
+	public static double stdDev(double[] argSamples, int argCount) {
+		if (argCount < 2) {
+			return Double.NaN;
+		}
+		double mean = mean(argSamples, argCount);
+		double sum = 0;
+		for (int i = 0; i < argCount; i++) {
+			double d = argSamples[i] - mean;
+			sum += d * d;
+		}
+		return Math.sqrt(sum / (argCount - 1));
+	}
+
+	/**
+	 * The half-width of the 99.9% confidence interval of the mean, like JMH reports as the score
+	 * error.
+	 * 
+	 * @param argSamples
+	 * @param argCount
+	 * @return NaN if there are fewer than two samples
+	 */
+	public static double error999(double[] argSamples, int argCount) {
+		if (argCount < 2) {
+			return Double.NaN;
+		}
+		int df = argCount - 1;
+		double t = df <= T_999.length ? T_999[df - 1] : Z_999;
+		return t * stdDev(argSamples, argCount) / Math.sqrt(argCount);
+	}
+}
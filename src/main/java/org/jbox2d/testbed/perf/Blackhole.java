@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+/**
+ * Consumes benchmark results so the JIT can't eliminate the code that computed them, the same way
+ * JMH's Blackhole does. The comparisons against the volatile fields can never succeed, but the
+ * compiler can't prove that, so every consumed value has to be computed.
+ */
+public final class Blackhole {
+
+	private volatile float f1 = 1, f2 = 2;
+	private volatile int i1 = 1, i2 = 2;
+	private volatile long l1 = 1, l2 = 2;
+	private volatile Object obj;
+	private int tlr = (int) System.nanoTime();
+	private int tlrMask = 1;
+	private Blackhole nullBait = null;
+
+	public final void consume(float argValue) {
+		if (argValue == f1 & argValue == f2) {
+			nullBait.f1 = argValue;
+		}
+	}
+
+	public final void consume(int argValue) {
+		if (argValue == i1 & argValue == i2) {
+			nullBait.i1 = argValue;
+		}
+	}
+
+	public final void consume(long argValue) {
+		if (argValue == l1 & argValue == l2) {
+			nullBait.l1 = argValue;
+		}
+	}
+
+	public final void consume(Object argObject) {
+		// publish the reference now and then, with a shrinking probability, so it escapes
+		int r = (tlr = tlr * 1664525 + 1013904223);
+		if ((r & tlrMask) == 0) {
+			obj = argObject;
+			tlrMask = (tlrMask << 1) + 1;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.jbox2d.dynamics.Profile;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.testbed.broadphase.ActorWorkload;
+import org.jbox2d.testbed.broadphase.BroadPhaseStrategies;
+
+/**
+ * Compares the broadphase strategies in {@link BroadPhaseStrategies} on two workloads. The first
+ * is the Dynamic Tree test's actors ({@link ActorWorkload}) at growing counts, timing the random
+ * creates, destroys and moves plus the query and ray cast of each step; every strategy first runs
+ * a few steps checked against brute force, and any mismatch is reported. The second steps a world
+ * of same-size circles from {@link ScalingPerf#createWorld} on each strategy and reports the step
+ * and broadphase times, which is where a grid should do best.<br/>
+ * <br/>
+ * Usage: <code>BroadPhasePerf [-strategies tree,flat,...] [-n 1000,10000,...] [-bodies 1000,...]
+ * [-warmup steps] [-steps steps]</code>
+ */
+public class BroadPhasePerf {
+
+	public static String[] strategies = BroadPhaseStrategies.getNames();
+	public static int[] actorCounts = {128, 1000, 10000, 100000};
+	public static int[] bodyCounts = {1000, 5000};
+	public static int warmupSteps = 30;
+	public static int steps = 100;
+	public static int verifySteps = 20;
+	public static int jitWarmupActors = 2000;
+	public static int jitWarmupBodies = 500;
+	public static float timeStep = 1f / 60;
+
+	public static class Result {
+		public String workload;
+		public String strategy;
+		public int count;
+		public double[] stepMillis;
+		public double mean, error;
+		public double broadphase;
+		public int errors;
+	}
+
+	public static Result measureActors(String argStrategy, int argCount) {
+		Result result = newResult("actors", argStrategy, argCount);
+
+		ActorWorkload verified = new ActorWorkload(BroadPhaseStrategies.create(argStrategy), argCount, new Random(
+				argCount));
+		verified.setVerify(true);
+		for (int i = 0; i < verifySteps; i++) {
+			verified.step(true);
+		}
+		result.errors = verified.getQueryErrors() + verified.getRayCastErrors();
+
+		ActorWorkload workload = new ActorWorkload(BroadPhaseStrategies.create(argStrategy), argCount, new Random(
+				argCount));
+		Blackhole blackhole = new Blackhole();
+		for (int s = -warmupSteps; s < steps; s++) {
+			long start = System.nanoTime();
+			workload.step(true);
+			if (s >= 0) {
+				result.stepMillis[s] = (System.nanoTime() - start) / 1e6;
+			}
+			blackhole.consume(workload.getQueryCount());
+		}
+		return finish(result);
+	}
+
+	public static Result measureWorld(String argStrategy, int argCount) {
+		Result result = newResult("circles", argStrategy, argCount);
+		World world = ScalingPerf.createWorld(argCount, "circle", 1.05f, argCount, BroadPhaseStrategies
+				.create(argStrategy));
+		Profile profile = world.getProfile();
+		for (int s = -warmupSteps; s < steps; s++) {
+			world.step(timeStep, 8, 3);
+			if (s >= 0) {
+				result.stepMillis[s] = profile.step;
+				result.broadphase += profile.broadphase;
+			}
+		}
+		result.broadphase /= steps;
+		return finish(result);
+	}
+
+	private static Result newResult(String argWorkload, String argStrategy, int argCount) {
+		Result result = new Result();
+		result.workload = argWorkload;
+		result.strategy = argStrategy;
+		result.count = argCount;
+		result.stepMillis = new double[steps];
+		return result;
+	}
+
+	private static Result finish(Result argResult) {
+		argResult.mean = BenchmarkStatistics.mean(argResult.stepMillis, steps);
+		argResult.error = BenchmarkStatistics.error999(argResult.stepMillis, steps);
+		return argResult;
+	}
+
+	public static void printResults(List<Result> argResults) {
+		System.out.printf("%-10s%-12s%10s%14s%12s%14s%10s\n", "Workload", "Strategy", "Count", "ms/step", "Error",
+				"Broad ms", "Errors");
+		for (Result r : argResults) {
+			System.out.printf(Locale.ROOT, "%-10s%-12s%10d%14.3f%12.3f%14s%10s\n", r.workload, r.strategy, r.count,
+					r.mean, r.error, r.workload.equals("actors") ? "" : String.format(Locale.ROOT, "%.3f", r.broadphase),
+					r.workload.equals("actors") ? String.valueOf(r.errors) : "");
+		}
+	}
+
+	private static int[] parseCounts(String argValue) {
+		String[] values = argValue.split(",");
+		int[] counts = new int[values.length];
+		for (int j = 0; j < values.length; j++) {
+			counts[j] = Integer.parseInt(values[j]);
+		}
+		return counts;
+	}
+
+	public static void main(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-strategies")) {
+				strategies = args[++i].split(",");
+			} else if (args[i].equals("-n")) {
+				actorCounts = parseCounts(args[++i]);
+			} else if (args[i].equals("-bodies")) {
+				bodyCounts = parseCounts(args[++i]);
+			} else if (args[i].equals("-warmup")) {
+				warmupSteps = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-steps")) {
+				steps = Integer.parseInt(args[++i]);
+			}
+		}
+
+		// so the first strategy measured doesn't pay for compiling the world
+		System.out.println("# JIT warmup");
+		for (String strategy : strategies) {
+			measureActors(strategy, jitWarmupActors);
+			measureWorld(strategy, jitWarmupBodies);
+		}
+
+		List<Result> results = new ArrayList<Result>();
+		for (int count : actorCounts) {
+			for (String strategy : strategies) {
+				System.out.println("# " + count + " actors, " + strategy);
+				results.add(measureActors(strategy, count));
+			}
+		}
+		for (int count : bodyCounts) {
+			for (String strategy : strategies) {
+				System.out.println("# " + count + " circles, " + strategy);
+				results.add(measureWorld(strategy, count));
+			}
+		}
+		printResults(results);
+
+		BenchmarkHistory history = new BenchmarkHistory("BroadPhasePerf");
+		for (Result r : results) {
+			history.add(r.workload + "/" + r.strategy + "/" + r.count, "ms", false, r.stepMillis);
+		}
+		history.save();
+
+		for (Result r : results) {
+			if (r.errors > 0) {
+				System.err.println(r.strategy + " disagreed with brute force " + r.errors + " times at " + r.count
+						+ " actors");
+				System.exit(1);
+			}
+		}
+	}
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.testbed.geometry.ConvexHullBuilder;
+
+/**
+ * Times convex hulls of point clouds: {@link PolygonShape#set}, which only takes up to
+ * {@link Settings#maxPolygonVertices} points, the same gift wrapping on any number of points, and
+ * the {@link ConvexHullBuilder}'s monotone chain, on its own and simplified to a polygon. The
+ * clouds are uniform in a square, where the hull is small, and on a circle, where every point is on
+ * it. Every hull's area is checked against the gift wrap's.<br/>
+ * <br/>
+ * Usage: <code>ConvexHullPerf [-n 8,1000,...] [-warmup samples] [-samples samples]
+ * [-giftwrap max points]</code>
+ */
+public class ConvexHullPerf {
+
+	public static int[] counts = {8, 64, 1000, 10000, 100000};
+	public static int warmupSamples = 10;
+	public static int samples = 30;
+	public static int giftWrapLimit = 10000;
+	/**
+	 * Points hulled in each sample, split into as many builds as it takes
+	 */
+	public static int pointsPerSample = 200000;
+
+	public static final String[] MODES = {"polygon", "giftwrap", "chain", "chain+simplify"};
+
+	public static class Result {
+		public String mode;
+		public String cloud;
+		public int points;
+		public int hullVertices;
+		public double[] micros;
+		public double mean, error;
+		public int errors;
+	}
+
+	public static float[] createCloud(String argCloud, int argCount, long argSeed) {
+		Random random = new Random(argSeed);
+		float[] points = new float[2 * argCount];
+		for (int i = 0; i < argCount; i++) {
+			if (argCloud.equals("circle")) {
+				float angle = random.nextFloat() * MathUtils.TWOPI;
+				points[2 * i] = 10 * MathUtils.cos(angle);
+				points[2 * i + 1] = 10 * MathUtils.sin(angle);
+			} else {
+				points[2 * i] = random.nextFloat() * 20 - 10;
+				points[2 * i + 1] = random.nextFloat() * 20 - 10;
+			}
+		}
+		return points;
+	}
+
+	/**
+	 * The gift wrapping of {@link PolygonShape#set}, without the limit on the number of points
+	 * 
+	 * @return the hull's area
+	 */
+	public static float giftWrap(float[] argPoints, int argCount, int[] argHull, int[] argHullCount) {
+		// the rightmost point, lowest on ties, is on the hull
+		int i0 = 0;
+		float x0 = argPoints[0];
+		for (int i = 1; i < argCount; i++) {
+			float x = argPoints[2 * i];
+			if (x > x0 || (x == x0 && argPoints[2 * i + 1] < argPoints[2 * i0 + 1])) {
+				i0 = i;
+				x0 = x;
+			}
+		}
+		int m = 0;
+		int ih = i0;
+		while (true) {
+			argHull[m] = ih;
+			int ie = 0;
+			for (int j = 1; j < argCount; j++) {
+				if (ie == ih) {
+					ie = j;
+					continue;
+				}
+				float rx = argPoints[2 * ie] - argPoints[2 * argHull[m]];
+				float ry = argPoints[2 * ie + 1] - argPoints[2 * argHull[m] + 1];
+				float vx = argPoints[2 * j] - argPoints[2 * argHull[m]];
+				float vy = argPoints[2 * j + 1] - argPoints[2 * argHull[m] + 1];
+				float c = rx * vy - ry * vx;
+				if (c < 0 || (c == 0 && vx * vx + vy * vy > rx * rx + ry * ry)) {
+					ie = j;
+				}
+			}
+			m++;
+			ih = ie;
+			if (ie == i0 || m == argCount) {
+				break;
+			}
+		}
+		argHullCount[0] = m;
+		float area = 0;
+		for (int i = 0; i < m; i++) {
+			int a = argHull[i], b = argHull[(i + 1) % m];
+			area += argPoints[2 * a] * argPoints[2 * b + 1] - argPoints[2 * b] * argPoints[2 * a + 1];
+		}
+		return area * .5f;
+	}
+
+	public static Result measure(String argMode, String argCloud, int argCount) {
+		float[] points = createCloud(argCloud, argCount, argCount);
+		Vec2[] vertices = new Vec2[argCount];
+		for (int i = 0; i < argCount; i++) {
+			vertices[i] = new Vec2(points[2 * i], points[2 * i + 1]);
+		}
+		int[] giftHull = new int[argCount];
+		int[] giftCount = new int[1];
+		float expectedArea = giftWrap(points, argCount, giftHull, giftCount);
+		PolygonShape shape = new PolygonShape();
+		ConvexHullBuilder builder = new ConvexHullBuilder();
+		Blackhole blackhole = new Blackhole();
+
+		Result result = new Result();
+		result.mode = argMode;
+		result.cloud = argCloud;
+		result.points = argCount;
+		result.micros = new double[samples];
+		int builds = Math.max(1, pointsPerSample / argCount);
+		for (int s = -warmupSamples; s < samples; s++) {
+			long start = System.nanoTime();
+			for (int b = 0; b < builds; b++) {
+				if (argMode.equals("polygon")) {
+					shape.set(vertices, argCount);
+					blackhole.consume(shape.m_count);
+				} else if (argMode.equals("giftwrap")) {
+					blackhole.consume(giftWrap(points, argCount, giftHull, giftCount));
+				} else if (argMode.equals("chain")) {
+					builder.build(points, argCount);
+					blackhole.consume(builder.getCount());
+				} else {
+					builder.build(points, argCount);
+					builder.simplify(Settings.maxPolygonVertices);
+					builder.toPolygon(shape);
+					blackhole.consume(shape.m_count);
+				}
+			}
+			if (s >= 0) {
+				result.micros[s] = (System.nanoTime() - start) / 1e3 / builds;
+			}
+		}
+
+		// check the hull that was built against the gift wrap's
+		float area;
+		if (argMode.equals("polygon")) {
+			result.hullVertices = shape.m_count;
+			area = polygonArea(shape);
+		} else if (argMode.equals("giftwrap")) {
+			result.hullVertices = giftCount[0];
+			area = giftWrap(points, argCount, giftHull, giftCount);
+		} else if (argMode.equals("chain")) {
+			result.hullVertices = builder.getCount();
+			area = builder.getArea();
+		} else {
+			// simplified, so only checked against the builder's own hull
+			builder.build(points, argCount);
+			float full = builder.getArea();
+			builder.simplify(Settings.maxPolygonVertices);
+			result.hullVertices = builder.getCount();
+			area = builder.getArea();
+			expectedArea = full;
+			if (area > full * (1 + 1e-4f) || area < 0) {
+				result.errors++;
+			}
+		}
+		if (!argMode.equals("chain+simplify") && Math.abs(area - expectedArea) > 1e-3f * expectedArea) {
+			result.errors++;
+		}
+		result.mean = BenchmarkStatistics.mean(result.micros, samples);
+		result.error = BenchmarkStatistics.error999(result.micros, samples);
+		return result;
+	}
+
+	private static float polygonArea(PolygonShape argShape) {
+		float area = 0;
+		for (int i = 0; i < argShape.m_count; i++) {
+			Vec2 a = argShape.m_vertices[i], b = argShape.m_vertices[(i + 1) % argShape.m_count];
+			area += a.x * b.y - b.x * a.y;
+		}
+		return area * .5f;
+	}
+
+	public static void main(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-n")) {
+				String[] values = args[++i].split(",");
+				counts = new int[values.length];
+				for (int j = 0; j < values.length; j++) {
+					counts[j] = Integer.parseInt(values[j]);
+				}
+			} else if (args[i].equals("-warmup")) {
+				warmupSamples = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-samples")) {
+				samples = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-giftwrap")) {
+				giftWrapLimit = Integer.parseInt(args[++i]);
+			}
+		}
+
+		List<Result> results = new ArrayList<Result>();
+		int errors = 0;
+		for (String cloud : new String[] {"square", "circle"}) {
+			for (int count : counts) {
+				System.out.println("# " + cloud + " " + count);
+				for (String mode : MODES) {
+					if (mode.equals("polygon") && count > Settings.maxPolygonVertices) {
+						continue;
+					}
+					if (mode.equals("giftwrap") && count > giftWrapLimit) {
+						continue;
+					}
+					Result result = measure(mode, cloud, count);
+					errors += result.errors;
+					results.add(result);
+				}
+			}
+		}
+
+		System.out.printf("%-16s%8s%10s%10s%14s%12s%8s\n", "Mode", "Cloud", "Points", "Hull", "us/hull", "Error",
+				"Errors");
+		for (Result r : results) {
+			System.out.printf(Locale.ROOT, "%-16s%8s%10d%10d%14.3f%12.3f%8d\n", r.mode, r.cloud, r.points,
+					r.hullVertices, r.mean, r.error, r.errors);
+		}
+
+		BenchmarkHistory history = new BenchmarkHistory("ConvexHullPerf");
+		for (Result r : results) {
+			history.add(r.mode + "/" + r.cloud + "/" + r.points, "us", false, r.micros);
+		}
+		history.save();
+
+		if (errors > 0) {
+			System.err.println("A hull's area disagreed with the gift wrap's " + errors + " times");
+			System.exit(1);
+		}
+	}
+}
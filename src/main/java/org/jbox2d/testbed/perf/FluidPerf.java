@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.util.Random;
+
+import org.jbox2d.testbed.fluid.FluidSolver;
+
+/**
+ * Times one {@link FluidSolver} solve over blocks of particles at liquid density, from the
+ * {@link org.jbox2d.testbed.tests.LiquidTest} size up to tens of thousands, on one thread and on all
+ * of them. Run it with {@link MicroBenchmarkRunner}.
+ */
+public class FluidPerf extends MicroBenchmark {
+
+	public static final int[] COUNTS = {1000, 10000, 50000};
+	public static final float RADIUS = .6f;
+	// about as far apart as the particles settle in the liquid test
+	public static final float SPACING = .12f;
+
+	private final FluidSolver[] solvers = new FluidSolver[COUNTS.length * 2];
+
+	@Override
+	public String[] getBenchmarkNames() {
+		String[] names = new String[solvers.length];
+		for (int i = 0; i < COUNTS.length; i++) {
+			names[2 * i] = "solve" + COUNTS[i];
+			names[2 * i + 1] = "solve" + COUNTS[i] + "Parallel";
+		}
+		return names;
+	}
+
+	@Override
+	public int getOpsPerInvocation() {
+		return 1;
+	}
+
+	@Override
+	public void setup(Random argRandom) {
+		for (int i = 0; i < solvers.length; i++) {
+			FluidSolver solver = new FluidSolver(COUNTS[i / 2]);
+			solver.setRadius(RADIUS);
+			solver.setCount(COUNTS[i / 2]);
+			solver.setThreads(i % 2 == 0 ? 1 : Runtime.getRuntime().availableProcessors());
+			solvers[i] = solver;
+		}
+	}
+
+	@Override
+	public void setupInvocation(Random argRandom) {
+		for (FluidSolver solver : solvers) {
+			int count = solver.getCount();
+			int width = (int) Math.sqrt(count);
+			for (int i = 0; i < count; i++) {
+				float jitter = SPACING * .25f;
+				solver.setParticle(i, (i % width) * SPACING + (argRandom.nextFloat() - .5f) * jitter, (i / width)
+						* SPACING + (argRandom.nextFloat() - .5f) * jitter, argRandom.nextFloat() - .5f,
+						argRandom.nextFloat() - .5f);
+			}
+		}
+	}
+
+	@Override
+	public void invoke(int argBenchmark, Blackhole argBlackhole) {
+		FluidSolver solver = solvers[argBenchmark];
+		solver.solve(1f / 60);
+		argBlackhole.consume(solver.getDeltaX(solver.getCount() - 1));
+	}
+
+	public static void main(String[] args) throws Exception {
+		MicroBenchmarkRunner.main(FluidPerf.class, args);
+	}
+}
@@ -0,0 +1,436 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Settings;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.testbed.framework.HeadlessTestbed;
+import org.jbox2d.testbed.framework.TestbedTest;
+
+/**
+ * Reports the accuracy and the speed of the {@link MathUtils} fast paths side by side, over several
+ * input ranges each, so it's clear which approximations are worth their error. For every range it
+ * reports the time per call of the fast path and of the exact {@link StrictMath} function, the max
+ * and mean absolute error, and the distribution of the error in ULPs of the correctly rounded float
+ * result. A fast path is Pareto-dominated in a range if it isn't faster than the exact function it
+ * approximates.<br/>
+ * <br/>
+ * It then steps the Pyramid test with the fast math settings on and off, and reports how far the
+ * bodies drift apart.<br/>
+ * <br/>
+ * The timings here are in-process, one range at a time. Use {@link MicroBenchmarkRunner} with
+ * {@link MathPerf} for forked numbers.
+ */
+public class MathAccuracyPerf {
+
+	public static int samples = 100000;
+	public static int warmupIters = 10;
+	public static int iters = 10;
+	public static int[] divergenceSteps = {60, 120, 300, 600};
+
+	private static final String[] FUNCTIONS = {"sinLUT", "fastPow", "fastAtan2", "floor", "ceil"};
+	private static final int SIN = 0, POW = 1, ATAN2 = 2, FLOOR = 3, CEIL = 4;
+
+	// ULP histogram bucket upper bounds, the last bucket is everything above and mismatched NaNs
+	private static final long[] ULP_BUCKETS = {0, 1, 16, 1024};
+	private static final String[] ULP_BUCKET_NAMES = {"0", "1", "2-16", "17-1K", ">1K"};
+
+	/**
+	 * An input range of a function. Functions of one argument ignore the second range.
+	 */
+	public static class Range {
+		public final int function;
+		public final String name;
+		public final float aLow, aHigh, bLow, bHigh;
+
+		public Range(int argFunction, String argName, float argALow, float argAHigh, float argBLow, float argBHigh) {
+			function = argFunction;
+			name = argName;
+			aLow = argALow;
+			aHigh = argAHigh;
+			bLow = argBLow;
+			bHigh = argBHigh;
+		}
+	}
+
+	public static final Range[] RANGES = {
+		new Range(SIN, "[-pi, pi]", -MathUtils.PI, MathUtils.PI, 0, 0),
+		new Range(SIN, "[-100pi, 100pi]", -100 * MathUtils.PI, 100 * MathUtils.PI, 0, 0),
+		new Range(SIN, "[-1e5, 1e5]", -1e5f, 1e5f, 0, 0),
+		new Range(POW, "[.01, 1]^[-4, 4]", .01f, 1, -4, 4),
+		new Range(POW, "[1, 100]^[-4, 4]", 1, 100, -4, 4),
+		new Range(POW, "[.01, 100]^[-30, 30]", .01f, 100, -30, 30),
+		new Range(ATAN2, "[-1, 1]^2", -1, 1, -1, 1),
+		new Range(ATAN2, "[-1e4, 1e4]^2", -1e4f, 1e4f, -1e4f, 1e4f),
+		new Range(ATAN2, "+x axis", -1e-4f, 1e-4f, .1f, 1),
+		new Range(ATAN2, "-x axis (cut)", -1e-4f, 1e-4f, -1, -.1f),
+		new Range(FLOOR, "[-1e4, 1e4]", -1e4f, 1e4f, 0, 0),
+		new Range(FLOOR, "[-2^30, 2^30]", -(1 << 30), 1 << 30, 0, 0),
+		new Range(FLOOR, "[-1e10, 1e10]", -1e10f, 1e10f, 0, 0),
+		new Range(CEIL, "[-1e4, 1e4]", -1e4f, 1e4f, 0, 0),
+		new Range(CEIL, "[-2^30, 2^30]", -(1 << 30), 1 << 30, 0, 0),
+		new Range(CEIL, "[-1e10, 1e10]", -1e10f, 1e10f, 0, 0),
+	};
+
+	public static class Result {
+		public Range range;
+		public double fastNanos, fastError;
+		public double exactNanos, exactError;
+		public double[] fastSamples, exactSamples;
+		public double maxAbsError, meanAbsError, maxRelError;
+		public long ulp50, ulp99, ulpMax;
+		public final double[] ulpBuckets = new double[ULP_BUCKET_NAMES.length];
+
+		public double getSpeedup() {
+			return exactNanos / fastNanos;
+		}
+
+		public boolean isDominated() {
+			return fastNanos >= exactNanos;
+		}
+	}
+
+	public static class Divergence {
+		public int step;
+		public double maxPosition, meanPosition, maxAngle;
+	}
+
+	public static Result measure(Range argRange, Random argRandom, Blackhole argBlackhole) {
+		Result result = new Result();
+		result.range = argRange;
+		float[] a = new float[samples];
+		float[] b = new float[samples];
+		MicroBenchmark.fill(argRandom, a, argRange.aLow, argRange.aHigh);
+		MicroBenchmark.fill(argRandom, b, argRange.bLow, argRange.bHigh);
+
+		long[] ulps = new long[samples];
+		double totalError = 0, maxError = 0, maxRelative = 0;
+		for (int i = 0; i < samples; i++) {
+			float fast = fast(argRange.function, a[i], b[i]);
+			// the correctly rounded float result is the best a float function can do
+			float exact = (float) exact(argRange.function, a[i], b[i]);
+			double error = fast == exact ? 0 : Math.abs((double) fast - exact);
+			if (Double.isNaN(error)) {
+				error = Float.isNaN(fast) && Float.isNaN(exact) ? 0 : Double.POSITIVE_INFINITY;
+			}
+			totalError += error;
+			maxError = Math.max(maxError, error);
+			if (exact != 0 && !Float.isInfinite(exact)) {
+				maxRelative = Math.max(maxRelative, error / Math.abs(exact));
+			}
+			ulps[i] = ulpDistance(fast, exact);
+			result.ulpBuckets[bucket(ulps[i])] += 100d / samples;
+		}
+		result.maxAbsError = maxError;
+		result.meanAbsError = totalError / samples;
+		result.maxRelError = maxRelative;
+		Arrays.sort(ulps);
+		result.ulp50 = ulps[samples / 2];
+		result.ulp99 = ulps[(int) (samples * .99)];
+		result.ulpMax = ulps[samples - 1];
+
+		double[] fastTimes = new double[iters];
+		double[] exactTimes = new double[iters];
+		for (int i = -warmupIters; i < iters; i++) {
+			long start = System.nanoTime();
+			runFast(argRange.function, a, b, argBlackhole);
+			long fast = System.nanoTime() - start;
+			start = System.nanoTime();
+			runExact(argRange.function, a, b, argBlackhole);
+			long exact = System.nanoTime() - start;
+			if (i >= 0) {
+				fastTimes[i] = (double) fast / samples;
+				exactTimes[i] = (double) exact / samples;
+			}
+		}
+		result.fastSamples = fastTimes;
+		result.exactSamples = exactTimes;
+		result.fastNanos = BenchmarkStatistics.mean(fastTimes, iters);
+		result.fastError = BenchmarkStatistics.error999(fastTimes, iters);
+		result.exactNanos = BenchmarkStatistics.mean(exactTimes, iters);
+		result.exactError = BenchmarkStatistics.error999(exactTimes, iters);
+		return result;
+	}
+
+	private static float fast(int argFunction, float argA, float argB) {
+		switch (argFunction) {
+			case SIN:
+				return MathUtils.sinLUT(argA);
+			case POW:
+				return MathUtils.fastPow(argA, argB);
+			case ATAN2:
+				return MathUtils.fastAtan2(argA, argB);
+			case FLOOR:
+				return MathUtils.floor(argA);
+			default:
+				return MathUtils.ceil(argA);
+		}
+	}
+
+	private static double exact(int argFunction, float argA, float argB) {
+		switch (argFunction) {
+			case SIN:
+				return StrictMath.sin(argA);
+			case POW:
+				return StrictMath.pow(argA, argB);
+			case ATAN2:
+				return StrictMath.atan2(argA, argB);
+			case FLOOR:
+				return StrictMath.floor(argA);
+			default:
+				return StrictMath.ceil(argA);
+		}
+	}
+
+	// one loop per function, so each call site stays monomorphic and inlined
+	private static void runFast(int argFunction, float[] argA, float[] argB, Blackhole argBlackhole) {
+		final int n = argA.length;
+		switch (argFunction) {
+			case SIN:
+				for (int i = 0; i < n; i++) {
+					argBlackhole.consume(MathUtils.sinLUT(argA[i]));
+				}
+				break;
+			case POW:
+				for (int i = 0; i < n; i++) {
+					argBlackhole.consume(MathUtils.fastPow(argA[i], argB[i]));
+				}
+				break;
+			case ATAN2:
+				for (int i = 0; i < n; i++) {
+					argBlackhole.consume(MathUtils.fastAtan2(argA[i], argB[i]));
+				}
+				break;
+			case FLOOR:
+				for (int i = 0; i < n; i++) {
+					argBlackhole.consume(MathUtils.floor(argA[i]));
+				}
+				break;
+			default:
+				for (int i = 0; i < n; i++) {
+					argBlackhole.consume(MathUtils.ceil(argA[i]));
+				}
+		}
+	}
+
+	private static void runExact(int argFunction, float[] argA, float[] argB, Blackhole argBlackhole) {
+		final int n = argA.length;
+		switch (argFunction) {
+			case SIN:
+				for (int i = 0; i < n; i++) {
+					argBlackhole.consume((float) StrictMath.sin(argA[i]));
+				}
+				break;
+			case POW:
+				for (int i = 0; i < n; i++) {
+					argBlackhole.consume((float) StrictMath.pow(argA[i], argB[i]));
+				}
+				break;
+			case ATAN2:
+				for (int i = 0; i < n; i++) {
+					argBlackhole.consume((float) StrictMath.atan2(argA[i], argB[i]));
+				}
+				break;
+			case FLOOR:
+				for (int i = 0; i < n; i++) {
+					argBlackhole.consume((float) StrictMath.floor(argA[i]));
+				}
+				break;
+			default:
+				for (int i = 0; i < n; i++) {
+					argBlackhole.consume((float) StrictMath.ceil(argA[i]));
+				}
+		}
+	}
+
+	/**
+	 * The number of representable floats between the two values, or Long.MAX_VALUE if only one of
+	 * them is NaN
+	 */
+	public static long ulpDistance(float argA, float argB) {
+		if (Float.isNaN(argA) || Float.isNaN(argB)) {
+			return Float.isNaN(argA) && Float.isNaN(argB) ? 0 : Long.MAX_VALUE;
+		}
+		return Math.abs(ordered(argA) - ordered(argB));
+	}
+
+	// maps float bits to a long that's monotonic in the float's value
+	private static long ordered(float argValue) {
+		int bits = Float.floatToIntBits(argValue);
+		return bits < 0 ? (long) Integer.MIN_VALUE - bits : bits;
+	}
+
+	private static int bucket(long argUlps) {
+		for (int i = 0; i < ULP_BUCKETS.length; i++) {
+			if (argUlps <= ULP_BUCKETS[i]) {
+				return i;
+			}
+		}
+		return ULP_BUCKETS.length;
+	}
+
+	/**
+	 * Steps the Pyramid test with the fast math settings on and then off, and compares the body
+	 * positions at each of {@link #divergenceSteps}.
+	 * 
+	 * @return
+	 */
+	public static Divergence[] measureDivergence() {
+		boolean[] saved = getFastMath();
+		try {
+			setFastMath(true);
+			float[][] fast = runPyramid();
+			setFastMath(false);
+			float[][] exact = runPyramid();
+
+			Divergence[] results = new Divergence[divergenceSteps.length];
+			for (int c = 0; c < divergenceSteps.length; c++) {
+				Divergence d = results[c] = new Divergence();
+				d.step = divergenceSteps[c];
+				int bodies = fast[c].length / 3;
+				double total = 0;
+				for (int i = 0; i < bodies; i++) {
+					double dx = fast[c][i * 3] - exact[c][i * 3];
+					double dy = fast[c][i * 3 + 1] - exact[c][i * 3 + 1];
+					double distance = Math.sqrt(dx * dx + dy * dy);
+					total += distance;
+					d.maxPosition = Math.max(d.maxPosition, distance);
+					d.maxAngle = Math.max(d.maxAngle, Math.abs(fast[c][i * 3 + 2] - exact[c][i * 3 + 2]));
+				}
+				d.meanPosition = total / bodies;
+			}
+			return results;
+		} finally {
+			setFastMath(saved);
+		}
+	}
+
+	// body x, y and angle at each checkpoint, in body list order
+	private static float[][] runPyramid() {
+		HeadlessTestbed testbed = new HeadlessTestbed();
+		TestbedTest test = testbed.getTest("Pyramid");
+		testbed.init(test);
+		float[][] checkpoints = new float[divergenceSteps.length][];
+		int step = 0;
+		for (int c = 0; c < divergenceSteps.length; c++) {
+			testbed.step(test, divergenceSteps[c] - step);
+			step = divergenceSteps[c];
+			float[] state = checkpoints[c] = new float[test.getWorld().getBodyCount() * 3];
+			int i = 0;
+			for (Body b = test.getWorld().getBodyList(); b != null; b = b.getNext()) {
+				state[i++] = b.getPosition().x;
+				state[i++] = b.getPosition().y;
+				state[i++] = b.getAngle();
+			}
+		}
+		return checkpoints;
+	}
+
+	private static boolean[] getFastMath() {
+		return new boolean[] {Settings.FAST_ABS, Settings.FAST_FLOOR, Settings.FAST_CEIL, Settings.FAST_ROUND,
+				Settings.FAST_ATAN2, Settings.SINCOS_LUT_ENABLED};
+	}
+
+	private static void setFastMath(boolean argFast) {
+		setFastMath(new boolean[] {argFast, argFast, argFast, argFast, argFast, argFast});
+	}
+
+	private static void setFastMath(boolean[] argFlags) {
+		Settings.FAST_ABS = argFlags[0];
+		Settings.FAST_FLOOR = argFlags[1];
+		Settings.FAST_CEIL = argFlags[2];
+		Settings.FAST_ROUND = argFlags[3];
+		Settings.FAST_ATAN2 = argFlags[4];
+		Settings.SINCOS_LUT_ENABLED = argFlags[5];
+	}
+
+	public static void printResults(Result[] argResults) {
+		System.out.printf("%-10s%-22s%10s%8s%10s%8s%9s%12s%12s%12s%12s%12s%12s  %s\n", "Function", "Range",
+				"Fast ns", "Error", "Exact ns", "Error", "Speedup", "Max abs", "Mean abs", "Max rel", "ULP p50",
+				"ULP p99", "ULP max", "Pareto");
+		for (Result r : argResults) {
+			System.out.printf("%-10s%-22s%10.3f%8.3f%10.3f%8.3f%9.2f%12.4g%12.4g%12.4g%12s%12s%12s  %s\n",
+					FUNCTIONS[r.range.function], r.range.name, r.fastNanos, r.fastError, r.exactNanos, r.exactError,
+					r.getSpeedup(), r.maxAbsError, r.meanAbsError, r.maxRelError, ulps(r.ulp50), ulps(r.ulp99),
+					ulps(r.ulpMax), r.isDominated() ? "dominated" : "frontier");
+		}
+
+		System.out.printf("\n%-10s%-22s", "Function", "ULP distribution (%)");
+		for (String name : ULP_BUCKET_NAMES) {
+			System.out.printf("%9s", name);
+		}
+		System.out.println();
+		for (Result r : argResults) {
+			System.out.printf("%-10s%-22s", FUNCTIONS[r.range.function], r.range.name);
+			for (double percent : r.ulpBuckets) {
+				System.out.printf("%9.2f", percent);
+			}
+			System.out.println();
+		}
+	}
+
+	public static void printDivergence(Divergence[] argResults) {
+		System.out.printf("%-10s%16s%16s%16s\n", "Step", "Max drift", "Mean drift", "Max angle");
+		for (Divergence d : argResults) {
+			System.out.printf("%-10d%16.6g%16.6g%16.6g\n", d.step, d.maxPosition, d.meanPosition, d.maxAngle);
+		}
+	}
+
+	private static String ulps(long argUlps) {
+		return argUlps == Long.MAX_VALUE ? "NaN" : Long.toString(argUlps);
+	}
+
+	public static void main(String[] args) {
+		if (args.length > 0) {
+			samples = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1) {
+			iters = Integer.parseInt(args[1]);
+		}
+		Random random = new Random(1);
+		Blackhole blackhole = new Blackhole();
+		Result[] results = new Result[RANGES.length];
+		for (int i = 0; i < RANGES.length; i++) {
+			results[i] = measure(RANGES[i], random, blackhole);
+		}
+		printResults(results);
+
+		BenchmarkHistory history = new BenchmarkHistory("MathAccuracyPerf");
+		for (Result r : results) {
+			String name = FUNCTIONS[r.range.function] + " " + r.range.name;
+			history.add(name + ":fast", "ns/op", false, r.fastSamples);
+			history.add(name + ":exact", "ns/op", false, r.exactSamples);
+			history.add(name + ":maxAbsError", "abs", false, r.maxAbsError);
+			history.add(name + ":ulpMax", "ulp", false, r.ulpMax);
+		}
+		history.save();
+
+		System.out.println("\nPyramid divergence, fast math on vs off (meters, radians)");
+		printDivergence(measureDivergence());
+	}
+}
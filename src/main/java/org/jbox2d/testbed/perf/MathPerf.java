@@ -26,216 +26,164 @@
  */
 package org.jbox2d.testbed.perf;
 
+import java.util.Random;
+
 import org.jbox2d.common.MathUtils;
-import org.jbox2d.profile.BasicPerformanceTest;
-
-// Results from Mac 1/19/11
-//Test Name               Milliseconds Avg
-//Sin                              86.2132
-//SinLUT                           26.7498
-//Pow                              74.5660
-//FastPow                          20.9268
-//Max                              11.6579
-//FastMax                          11.6045
-//Floor                             0.0593
-//fastFloor                         0.0216
-//aTan2                            20.1040
-//fastATan2                        18.2086
-//ceil                              0.0348
-//fastCeil                          0.0215
-
-// Results from Windows 1/19/11
-//Test Name               Milliseconds Avg
-//Sin                             254.5806
-//SinLUT                           57.6727
-//Pow                             125.5473
-//FastPow                          25.7931
-//Max                              16.9723
-//FastMax                          16.9692
-//Floor                             0.0659
-//fastFloor                         0.0206
-//aTan2                            31.6952
-//fastATan2                        22.9149
-//ceil                              0.0476
-//fastCeil                          0.0238
 
 /**
+ * Compares the {@link MathUtils} fast paths with the exact {@link StrictMath} functions. Run it
+ * with {@link MicroBenchmarkRunner}, e.g. <code>MicroBenchmarkRunner MathPerf -o math.json</code>.
+ * 
  * @author Daniel Murphy
  */
-public class MathPerf extends BasicPerformanceTest {
+public class MathPerf extends MicroBenchmark {
+
+	public static final int OPS = 1024;
 
-	public static int INNER_ITERS = 500000;
-	public static int OUTER_ITERS = 100;
-	
 	String[] tests = new String[]{
 		"Sin", "SinLUT", "Pow", "FastPow", "Max", "FastMax", "Floor", "fastFloor", "aTan2", "fastATan2", "ceil", "fastCeil"
 	};
-	
-	public float aStore = 0;
-	
-	/**
-	 * @param argNumTests
-	 * @param argIters
-	 */
-	public MathPerf() {
-		super(12, OUTER_ITERS);
-	}
-
-	/**
-	 * @see org.jbox2d.testbed.perf.BasicPerformanceTest#runTest(int)
-	 */
+
+	private final float[] angles = new float[OPS];
+	private final float[] bases = new float[OPS];
+	private final float[] exponents = new float[OPS];
+	private final float[] xs = new float[OPS];
+	private final float[] ys = new float[OPS];
+
+	@Override
+	public String[] getBenchmarkNames() {
+		return tests;
+	}
+
 	@Override
-	public void runTest(int argNum) {
-		float random = MathUtils.randomFloat(-Float.MAX_VALUE/3, Float.MAX_VALUE/3);
+	public int getOpsPerInvocation() {
+		return OPS;
+	}
+
+	@Override
+	public void setupInvocation(Random argRandom) {
+		fill(argRandom, angles, -100 * MathUtils.PI, 100 * MathUtils.PI);
+		fill(argRandom, bases, 0.01f, 100);
+		fill(argRandom, exponents, -4, 4);
+		fill(argRandom, xs, -10000, 10000);
+		fill(argRandom, ys, -10000, 10000);
+	}
+
+	@Override
+	public void invoke(int argNum, Blackhole argBlackhole) {
 		switch(argNum){
 			case 0:
-				runSinTest(random);
+				runSinTest(argBlackhole);
 				break;
 			case 1:
-				runSinLUTTest(random);
+				runSinLUTTest(argBlackhole);
 				break;
 			case 2:
-				runPowTest(random);
+				runPowTest(argBlackhole);
 				break;
 			case 3:
-				runFastPowTest(random);
+				runFastPowTest(argBlackhole);
 				break;
 			case 4:
-				runMaxTest(random);
+				runMaxTest(argBlackhole);
 				break;
 			case 5:
-				runFastMaxTest(random);
+				runFastMaxTest(argBlackhole);
 				break;
 			case 6:
-				runFloorTest(random);
+				runFloorTest(argBlackhole);
 				break;
 			case 7:
-				runFastFloorTest(random);
+				runFastFloorTest(argBlackhole);
 				break;
 			case 8:
-				runAtan2Test(random);
+				runAtan2Test(argBlackhole);
 				break;
 			case 9:
-				runFastAtan2Test(random);
+				runFastAtan2Test(argBlackhole);
 				break;
 			case 10:
-				runCeilTest(random);
+				runCeilTest(argBlackhole);
 				break;
 			case 11:
-				runFastCeilTest(random);
+				runFastCeilTest(argBlackhole);
 				break;
 		}
 	}
-	
-	public void runSinTest(float argRandom){
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
-			a = (float)StrictMath.sin(argRandom);
-		}
-		aStore += a;
-	}
-	
-	public void runSinLUTTest(float argRandom){
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
-			a = MathUtils.sinLUT(argRandom);
+
+	public void runSinTest(Blackhole argBlackhole){
+		for(int i=0; i<OPS; i++){
+			argBlackhole.consume((float)StrictMath.sin(angles[i]));
 		}
-		aStore += a;
 	}
-	
-	public void runPowTest(float argRandom){
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
-			a = (float)StrictMath.pow(argRandom, MathUtils.randomFloat(-100, 100));
+
+	public void runSinLUTTest(Blackhole argBlackhole){
+		for(int i=0; i<OPS; i++){
+			argBlackhole.consume(MathUtils.sinLUT(angles[i]));
 		}
-		aStore += a;
 	}
-	
-	public void runFastPowTest(float argRandom){
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
-			a = MathUtils.fastPow(argRandom, MathUtils.randomFloat(-100, 100));
+
+	public void runPowTest(Blackhole argBlackhole){
+		for(int i=0; i<OPS; i++){
+			argBlackhole.consume((float)StrictMath.pow(bases[i], exponents[i]));
 		}
-		aStore += a;
 	}
-	
-	public void runMaxTest(float argRandom){
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
-			a = StrictMath.max(argRandom, MathUtils.randomFloat(-100, 100));
+
+	public void runFastPowTest(Blackhole argBlackhole){
+		for(int i=0; i<OPS; i++){
+			argBlackhole.consume(MathUtils.fastPow(bases[i], exponents[i]));
 		}
-		aStore += a;
 	}
-	
-	public void runFastMaxTest(float argRandom){
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
-			a = MathUtils.max(argRandom, MathUtils.randomFloat(-100, 100));
+
+	public void runMaxTest(Blackhole argBlackhole){
+		for(int i=0; i<OPS; i++){
+			argBlackhole.consume(StrictMath.max(xs[i], ys[i]));
 		}
-		aStore += a;
 	}
-	
-	public void runFloorTest(float argRandom){
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
-			a = (float) StrictMath.floor(argRandom);
+
+	public void runFastMaxTest(Blackhole argBlackhole){
+		for(int i=0; i<OPS; i++){
+			argBlackhole.consume(MathUtils.max(xs[i], ys[i]));
 		}
-		aStore += a;
 	}
-	
-	public void runFastFloorTest(float argRandom){
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
-			a = MathUtils.floor(argRandom);
+
+	public void runFloorTest(Blackhole argBlackhole){
+		for(int i=0; i<OPS; i++){
+			argBlackhole.consume((float) StrictMath.floor(xs[i]));
 		}
-		aStore += a;
 	}
-	
-	public void runAtan2Test(float argRandom){
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
-			a = (float)StrictMath.atan2(argRandom, MathUtils.randomFloat(-10000, 10000));
+
+	public void runFastFloorTest(Blackhole argBlackhole){
+		for(int i=0; i<OPS; i++){
+			argBlackhole.consume(MathUtils.floor(xs[i]));
 		}
-		aStore += a;
 	}
-	
-	public void runFastAtan2Test(float argRandom){
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
-			a = MathUtils.fastAtan2(argRandom, MathUtils.randomFloat(-10000, 10000));
+
+	public void runAtan2Test(Blackhole argBlackhole){
+		for(int i=0; i<OPS; i++){
+			argBlackhole.consume((float)StrictMath.atan2(ys[i], xs[i]));
 		}
-		aStore += a;
 	}
-	
-	public void runCeilTest(float argRandom){
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
-			a = (float)StrictMath.ceil(argRandom);
+
+	public void runFastAtan2Test(Blackhole argBlackhole){
+		for(int i=0; i<OPS; i++){
+			argBlackhole.consume(MathUtils.fastAtan2(ys[i], xs[i]));
 		}
-		aStore += a;
 	}
-	
-	public void runFastCeilTest(float argRandom){
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
-			a = MathUtils.ceil(argRandom);
+
+	public void runCeilTest(Blackhole argBlackhole){
+		for(int i=0; i<OPS; i++){
+			argBlackhole.consume((float)StrictMath.ceil(xs[i]));
 		}
-		aStore += a;
 	}
-	
 
-	/**
-	 * @see org.jbox2d.testbed.perf.BasicPerformanceTest#getTestName(int)
-	 */
-	@Override
-	public String getTestName(int argNum) {
-		return tests[argNum];
+	public void runFastCeilTest(Blackhole argBlackhole){
+		for(int i=0; i<OPS; i++){
+			argBlackhole.consume(MathUtils.ceil(xs[i]));
+		}
 	}
 
-	
-	public static void main(String[] c){
-		MathPerf p = new MathPerf();
-		p.go();
+	public static void main(String[] c) throws Exception {
+		MicroBenchmarkRunner.main(MathPerf.class, c);
 	}
-	
 }
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.util.Random;
+
+/**
+ * A group of micro-benchmarks run by {@link MicroBenchmarkRunner}. Each invocation runs one
+ * benchmark over {@link #getOpsPerInvocation()} inputs that are randomized again before every
+ * invocation, outside of the timed region, and hands every result to a {@link Blackhole}.<br/>
+ * <br/>
+ * Implementations should keep {@link #setupInvocation(Random)} free of allocation, since the
+ * allocation profiler counts everything the benchmark thread allocates during an iteration.
+ */
+public abstract class MicroBenchmark {
+
+	/**
+	 * The names of the benchmarks in this group
+	 * 
+	 * @return
+	 */
+	public abstract String[] getBenchmarkNames();
+
+	/**
+	 * The number of operations each invocation performs
+	 * 
+	 * @return
+	 */
+	public abstract int getOpsPerInvocation();
+
+	/**
+	 * Called once in the benchmark JVM before any invocation.
+	 * 
+	 * @param argRandom
+	 */
+	public void setup(Random argRandom) {}
+
+	/**
+	 * Randomizes the inputs for the next invocation. Not timed.
+	 * 
+	 * @param argRandom
+	 */
+	public abstract void setupInvocation(Random argRandom);
+
+	/**
+	 * Runs one invocation of the given benchmark. Timed.
+	 * 
+	 * @param argBenchmark
+	 * @param argBlackhole
+	 */
+	public abstract void invoke(int argBenchmark, Blackhole argBlackhole);
+
+	/**
+	 * Fills the array with uniform random floats in the range
+	 * 
+	 * @param argRandom
+	 * @param argValues
+	 * @param argLow
+	 * @param argHigh
+	 */
+	protected static void fill(Random argRandom, float[] argValues, float argLow, float argHigh) {
+		final float range = argHigh - argLow;
+		for (int i = 0; i < argValues.length; i++) {
+			argValues[i] = argLow + argRandom.nextFloat() * range;
+		}
+	}
+}
@@ -0,0 +1,450 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Runs {@link MicroBenchmark}s with JMH's methodology: every benchmark runs in its own forked JVMs,
+ * with timed warmup and measurement iterations, and reports the average time per operation with a
+ * 99.9% confidence interval. The allocation and GC profilers report bytes allocated per operation
+ * and the number and duration of collections per iteration. Results can be written as JSON in the
+ * same shape JMH writes with <code>-rf json</code>, and every run is recorded in the
+ * {@link BenchmarkHistory}.<br/>
+ * <br/>
+ * Usage: <code>MicroBenchmarkRunner [-f forks] [-wi warmupIterations] [-i iterations]
+ * [-r iterationMillis] [-seed seed] [-o results.json] class[:benchmark]...</code><br/>
+ * A class name without a package is looked up in this package, and a benchmark filter selects the
+ * benchmarks whose name contains it. <code>-f 0</code> runs everything in this JVM, which is
+ * faster but lets benchmarks pollute each other's profiles.
+ */
+public class MicroBenchmarkRunner {
+
+	private static final String FORK_ARG = "--fork";
+	private static final String ITERATION_PREFIX = "ITERATION ";
+
+	public int forks = 2;
+	public int warmupIterations = 5;
+	public int iterations = 5;
+	public long iterationMillis = 500;
+	public long seed = 1;
+	public String outputFile = null;
+
+	/**
+	 * The results of one benchmark, over all forks
+	 */
+	public static class Result {
+		public String benchmark;
+		public int forks;
+		public final List<double[]> nanosPerOp = new ArrayList<double[]>();
+		public final List<double[]> bytesPerOp = new ArrayList<double[]>();
+		public final List<double[]> gcCount = new ArrayList<double[]>();
+		public final List<double[]> gcMillis = new ArrayList<double[]>();
+
+		public double getScore() {
+			return mean(nanosPerOp);
+		}
+
+		public double getScoreError() {
+			double[] all = flatten(nanosPerOp);
+			return BenchmarkStatistics.error999(all, all.length);
+		}
+
+		public double getBytesPerOp() {
+			return mean(bytesPerOp);
+		}
+
+		public double getGcCount() {
+			return sum(gcCount);
+		}
+
+		public double getGcMillis() {
+			return sum(gcMillis);
+		}
+	}
+
+	/**
+	 * Runs the selected benchmarks of the class and prints a summary table
+	 * 
+	 * @param argSelectors class names, each optionally followed by ':' and a benchmark filter
+	 * @return
+	 * @throws Exception
+	 */
+	public List<Result> run(String... argSelectors) throws Exception {
+		List<Result> results = new ArrayList<Result>();
+		for (String selector : argSelectors) {
+			int colon = selector.indexOf(':');
+			String className = resolveClassName(colon < 0 ? selector : selector.substring(0, colon));
+			String filter = colon < 0 ? "" : selector.substring(colon + 1);
+			MicroBenchmark mb = newBenchmark(className);
+			String[] names = mb.getBenchmarkNames();
+			for (int i = 0; i < names.length; i++) {
+				if (!names[i].contains(filter)) {
+					continue;
+				}
+				Result result = new Result();
+				result.benchmark = className.substring(className.lastIndexOf('.') + 1) + "." + names[i];
+				result.forks = forks;
+				System.out.println("# Running " + result.benchmark);
+				try {
+					if (forks == 0) {
+						runIterations(mb, i, result, null);
+					} else {
+						for (int f = 0; f < forks; f++) {
+							runFork(className, i, seed + f, result);
+						}
+					}
+				} catch (RuntimeException e) {
+					// report it and move on, one broken benchmark shouldn't lose the others' results
+					System.err.println("# Benchmark " + result.benchmark + " failed: " + e);
+					continue;
+				}
+				results.add(result);
+			}
+		}
+		printResults(results);
+		if (outputFile != null) {
+			writeJson(results, new File(outputFile));
+			System.out.println("Results written to " + outputFile);
+		}
+		BenchmarkHistory history = new BenchmarkHistory("MicroBenchmarks");
+		for (Result r : results) {
+			history.add(r.benchmark, "ns/op", false, flatten(r.nanosPerOp));
+			history.add(r.benchmark + ":alloc", "B/op", false, flatten(r.bytesPerOp));
+		}
+		history.save();
+		return results;
+	}
+
+	private void runFork(String argClassName, int argBenchmark, long argSeed, Result argResult)
+			throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			// a debugger agent would try to bind the same port in every fork
+			if (!arg.startsWith("-agentlib:jdwp")) {
+				command.add(arg);
+			}
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(MicroBenchmarkRunner.class.getName());
+		command.add(FORK_ARG);
+		command.add(argClassName);
+		command.add(Integer.toString(argBenchmark));
+		command.add(Integer.toString(warmupIterations));
+		command.add(Integer.toString(iterations));
+		command.add(Long.toString(iterationMillis));
+		command.add(Long.toString(argSeed));
+
+		Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		double[] nanos = new double[iterations];
+		double[] bytes = new double[iterations];
+		double[] gcs = new double[iterations];
+		double[] gcMillis = new double[iterations];
+		int count = 0;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.startsWith(ITERATION_PREFIX)) {
+					System.out.println(line);
+					continue;
+				}
+				String[] parts = line.substring(ITERATION_PREFIX.length()).split(" ");
+				if (count < iterations) {
+					nanos[count] = Double.parseDouble(parts[0]);
+					bytes[count] = Double.parseDouble(parts[1]);
+					gcs[count] = Double.parseDouble(parts[2]);
+					gcMillis[count] = Double.parseDouble(parts[3]);
+					count++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		int exit = process.waitFor();
+		if (exit != 0 || count != iterations) {
+			throw new IllegalStateException("Benchmark fork for " + argResult.benchmark + " failed (exit code "
+					+ exit + ", " + count + " of " + iterations + " iterations)");
+		}
+		argResult.nanosPerOp.add(nanos);
+		argResult.bytesPerOp.add(bytes);
+		argResult.gcCount.add(gcs);
+		argResult.gcMillis.add(gcMillis);
+	}
+
+	/**
+	 * Runs the warmup and measurement iterations in this JVM. Measurements are either added to the
+	 * result or, in a fork, printed for the parent to read.
+	 */
+	private void runIterations(MicroBenchmark argBenchmark, int argIndex, Result argResult, PrintStream argOut) {
+		Random random = new Random(seed);
+		Blackhole blackhole = new Blackhole();
+		argBenchmark.setup(random);
+		final long iterationNanos = iterationMillis * 1000000L;
+		final int ops = argBenchmark.getOpsPerInvocation();
+		final long threadId = Thread.currentThread().getId();
+		final com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+
+		double[] nanos = new double[iterations];
+		double[] bytes = new double[iterations];
+		double[] gcCounts = new double[iterations];
+		double[] gcMillis = new double[iterations];
+		for (int iter = -warmupIterations; iter < iterations; iter++) {
+			long gcCountBefore = 0, gcTimeBefore = 0;
+			for (GarbageCollectorMXBean gc : gcs) {
+				gcCountBefore += gc.getCollectionCount();
+				gcTimeBefore += gc.getCollectionTime();
+			}
+			long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+			long timed = 0;
+			long invocations = 0;
+			long iterationStart = System.nanoTime();
+			do {
+				argBenchmark.setupInvocation(random);
+				long start = System.nanoTime();
+				argBenchmark.invoke(argIndex, blackhole);
+				timed += System.nanoTime() - start;
+				invocations++;
+			} while (System.nanoTime() - iterationStart < iterationNanos);
+			long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+			long gcCount = -gcCountBefore, gcTime = -gcTimeBefore;
+			for (GarbageCollectorMXBean gc : gcs) {
+				gcCount += gc.getCollectionCount();
+				gcTime += gc.getCollectionTime();
+			}
+
+			double opCount = (double) invocations * ops;
+			double nsPerOp = timed / opCount;
+			double bytesPerOp = allocated / opCount;
+			if (iter < 0) {
+				continue;
+			}
+			if (argOut != null) {
+				argOut.println(ITERATION_PREFIX + nsPerOp + " " + bytesPerOp + " " + gcCount + " " + gcTime);
+			} else {
+				nanos[iter] = nsPerOp;
+				bytes[iter] = bytesPerOp;
+				gcCounts[iter] = gcCount;
+				gcMillis[iter] = gcTime;
+			}
+		}
+		if (argResult != null) {
+			argResult.nanosPerOp.add(nanos);
+			argResult.bytesPerOp.add(bytes);
+			argResult.gcCount.add(gcCounts);
+			argResult.gcMillis.add(gcMillis);
+		}
+	}
+
+	public static void printResults(List<Result> argResults) {
+		System.out.printf("%-36s%6s%14s%12s%14s%10s%12s\n", "Benchmark", "Forks", "ns/op", "Error",
+				"B/op", "GCs", "GC ms");
+		for (Result r : argResults) {
+			System.out.printf(Locale.ROOT, "%-36s%6d%14.3f%12.3f%14.3f%10.0f%12.0f\n", r.benchmark, r.forks,
+					r.getScore(), r.getScoreError(), r.getBytesPerOp(), r.getGcCount(), r.getGcMillis());
+		}
+	}
+
+	/**
+	 * Writes the results in JMH's JSON result format
+	 * 
+	 * @param argResults
+	 * @param argFile
+	 * @throws IOException
+	 */
+	public void writeJson(List<Result> argResults, File argFile) throws IOException {
+		Writer out = new FileWriter(argFile);
+		try {
+			out.write("[\n");
+			for (int i = 0; i < argResults.size(); i++) {
+				Result r = argResults.get(i);
+				double score = r.getScore();
+				double error = r.getScoreError();
+				out.write("  {\n");
+				out.write("    \"benchmark\" : \"" + r.benchmark + "\",\n");
+				out.write("    \"mode\" : \"avgt\",\n");
+				out.write("    \"threads\" : 1,\n");
+				out.write("    \"forks\" : " + r.forks + ",\n");
+				out.write("    \"jvm\" : \"" + jsonEscape(System.getProperty("java.home")) + "\",\n");
+				out.write("    \"jdkVersion\" : \"" + System.getProperty("java.version") + "\",\n");
+				out.write("    \"warmupIterations\" : " + warmupIterations + ",\n");
+				out.write("    \"warmupTime\" : \"" + iterationMillis + " ms\",\n");
+				out.write("    \"measurementIterations\" : " + iterations + ",\n");
+				out.write("    \"measurementTime\" : \"" + iterationMillis + " ms\",\n");
+				out.write("    \"primaryMetric\" : {\n");
+				out.write("      \"score\" : " + number(score) + ",\n");
+				out.write("      \"scoreError\" : " + number(error) + ",\n");
+				out.write("      \"scoreConfidence\" : [ " + number(score - error) + ", " + number(score + error)
+						+ " ],\n");
+				out.write("      \"scoreUnit\" : \"ns/op\",\n");
+				out.write("      \"rawData\" : " + rawData(r.nanosPerOp) + "\n");
+				out.write("    },\n");
+				out.write("    \"secondaryMetrics\" : {\n");
+				writeSecondary(out, "gc.alloc.rate.norm", r.getBytesPerOp(), "B/op", r.bytesPerOp, false);
+				writeSecondary(out, "gc.count", r.getGcCount(), "counts", r.gcCount, false);
+				writeSecondary(out, "gc.time", r.getGcMillis(), "ms", r.gcMillis, true);
+				out.write("    }\n");
+				out.write(i == argResults.size() - 1 ? "  }\n" : "  },\n");
+			}
+			out.write("]\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeSecondary(Writer argOut, String argName, double argScore, String argUnit,
+			List<double[]> argRaw, boolean argLast) throws IOException {
+		argOut.write("      \"" + argName + "\" : {\n");
+		argOut.write("        \"score\" : " + number(argScore) + ",\n");
+		argOut.write("        \"scoreUnit\" : \"" + argUnit + "\",\n");
+		argOut.write("        \"rawData\" : " + rawData(argRaw) + "\n");
+		argOut.write(argLast ? "      }\n" : "      },\n");
+	}
+
+	private static String rawData(List<double[]> argForks) {
+		StringBuilder sb = new StringBuilder("[ ");
+		for (int f = 0; f < argForks.size(); f++) {
+			sb.append(f == 0 ? "[ " : ", [ ");
+			double[] values = argForks.get(f);
+			for (int i = 0; i < values.length; i++) {
+				sb.append(i == 0 ? "" : ", ").append(number(values[i]));
+			}
+			sb.append(" ]");
+		}
+		return sb.append(" ]").toString();
+	}
+
+	private static String number(double argValue) {
+		return Double.isNaN(argValue) || Double.isInfinite(argValue) ? "\"NaN\"" : Double.toString(argValue);
+	}
+
+	private static String jsonEscape(String argValue) {
+		return argValue.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private static double[] flatten(List<double[]> argForks) {
+		int n = 0;
+		for (double[] values : argForks) {
+			n += values.length;
+		}
+		double[] all = new double[n];
+		int k = 0;
+		for (double[] values : argForks) {
+			System.arraycopy(values, 0, all, k, values.length);
+			k += values.length;
+		}
+		return all;
+	}
+
+	private static double mean(List<double[]> argForks) {
+		double[] all = flatten(argForks);
+		return BenchmarkStatistics.mean(all, all.length);
+	}
+
+	private static double sum(List<double[]> argForks) {
+		double sum = 0;
+		for (double[] values : argForks) {
+			for (double v : values) {
+				sum += v;
+			}
+		}
+		return sum;
+	}
+
+	private static String resolveClassName(String argName) {
+		return argName.indexOf('.') < 0 ? MicroBenchmarkRunner.class.getPackage().getName() + "." + argName
+				: argName;
+	}
+
+	private static MicroBenchmark newBenchmark(String argClassName) throws Exception {
+		return (MicroBenchmark) Class.forName(argClassName).getDeclaredConstructor().newInstance();
+	}
+
+	/**
+	 * Runs all benchmarks of the class, with the runner options given in the arguments
+	 * 
+	 * @param argClass
+	 * @param argArgs
+	 * @throws Exception
+	 */
+	public static void main(Class<? extends MicroBenchmark> argClass, String[] argArgs) throws Exception {
+		String[] args = new String[argArgs.length + 1];
+		System.arraycopy(argArgs, 0, args, 0, argArgs.length);
+		args[argArgs.length] = argClass.getName();
+		main(args);
+	}
+
+	public static void main(String[] args) throws Exception {
+		MicroBenchmarkRunner runner = new MicroBenchmarkRunner();
+		if (args.length > 0 && args[0].equals(FORK_ARG)) {
+			runner.warmupIterations = Integer.parseInt(args[3]);
+			runner.iterations = Integer.parseInt(args[4]);
+			runner.iterationMillis = Long.parseLong(args[5]);
+			runner.seed = Long.parseLong(args[6]);
+			runner.runIterations(newBenchmark(args[1]), Integer.parseInt(args[2]), null, System.out);
+			System.out.flush();
+			return;
+		}
+		List<String> selectors = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-f")) {
+				runner.forks = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-wi")) {
+				runner.warmupIterations = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-i")) {
+				runner.iterations = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-r")) {
+				runner.iterationMillis = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-seed")) {
+				runner.seed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-o")) {
+				runner.outputFile = args[++i];
+			} else {
+				selectors.add(args[i]);
+			}
+		}
+		if (selectors.isEmpty()) {
+			selectors.add(MathPerf.class.getName());
+			selectors.add(PoolingPerf.class.getName());
+			selectors.add(StackTest.class.getName());
+		}
+		runner.run(selectors.toArray(new String[selectors.size()]));
+	}
+}
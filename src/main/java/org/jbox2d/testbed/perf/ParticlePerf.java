@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.MassData;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.testbed.fluid.FluidSolver;
+import org.jbox2d.testbed.fluid.ParticleSystem;
+
+/**
+ * Compares liquid made of bodies, the way {@link org.jbox2d.testbed.tests.LiquidTest} does it, with
+ * liquid from a {@link ParticleSystem}, over growing particle counts. Both get the same
+ * {@link FluidSolver} constraint in the same tank, so the difference is what the bodies cost the
+ * world: a broadphase proxy, contacts that are filtered out after pairing, and a place in the
+ * solver islands. Body liquid is skipped above <code>-maxBodies</code>, since it stalls long
+ * before the particle system does.<br/>
+ * <br/>
+ * Usage: <code>ParticlePerf [-n 1000,5000,...] [-maxBodies count] [-warmup steps] [-steps steps]</code>
+ */
+public class ParticlePerf {
+
+	public static int[] counts = {1000, 2000, 5000, 10000, 20000, 50000};
+	public static int maxBodies = 5000;
+	public static int warmupSteps = 60;
+	public static int steps = 120;
+	public static float timeStep = 1f / 60;
+	public static float fluidRadius = .3f;
+	public static float spacing = .1f;
+
+	public static class Result {
+		public int particles;
+		public String mode;
+		public double[] stepMillis;
+		public double mean, error;
+	}
+
+	/**
+	 * The tank, as wide as the block of particles
+	 */
+	private static World createTank(int argCount) {
+		World world = new World(new Vec2(0, -10));
+		float width = Math.max(10, (float) Math.sqrt(argCount) * spacing * 2);
+		Body ground = world.createBody(new BodyDef());
+		PolygonShape shape = new PolygonShape();
+		shape.setAsBox(width, .5f, new Vec2(0, -.5f), 0);
+		ground.createFixture(shape, 0);
+		shape.setAsBox(.5f, width, new Vec2(-width - .5f, width), 0);
+		ground.createFixture(shape, 0);
+		shape.setAsBox(.5f, width, new Vec2(width + .5f, width), 0);
+		ground.createFixture(shape, 0);
+		return world;
+	}
+
+	private static float blockX(int argIndex, int argCount) {
+		int columns = (int) Math.sqrt(argCount) * 2;
+		return (argIndex % columns - columns / 2) * spacing;
+	}
+
+	private static float blockY(int argIndex, int argCount) {
+		int columns = (int) Math.sqrt(argCount) * 2;
+		return spacing + (argIndex / columns) * spacing;
+	}
+
+	public static Result measureBodies(int argCount) {
+		World world = createTank(argCount);
+		Body[] liquid = new Body[argCount];
+		CircleShape circle = new CircleShape();
+		circle.m_radius = .05f;
+		FixtureDef fd = new FixtureDef();
+		fd.shape = circle;
+		fd.density = 1;
+		fd.filter.groupIndex = -10;
+		fd.restitution = .4f;
+		fd.friction = 0;
+		MassData md = new MassData();
+		md.mass = .01f;
+		md.I = 1;
+		for (int i = 0; i < argCount; i++) {
+			BodyDef bd = new BodyDef();
+			bd.type = BodyType.DYNAMIC;
+			bd.fixedRotation = true;
+			bd.position.set(blockX(i, argCount), blockY(i, argCount));
+			Body b = world.createBody(bd);
+			b.createFixture(fd);
+			b.setMassData(md);
+			b.setSleepingAllowed(false);
+			liquid[i] = b;
+		}
+		FluidSolver solver = new FluidSolver(argCount);
+		solver.setRadius(fluidRadius);
+		solver.setCount(argCount);
+
+		Result result = newResult(argCount, "bodies");
+		for (int s = -warmupSteps; s < steps; s++) {
+			long start = System.nanoTime();
+			world.step(timeStep, 8, 3);
+			for (int i = 0; i < argCount; i++) {
+				Body b = liquid[i];
+				solver.setParticle(i, b.m_sweep.c.x, b.m_sweep.c.y, b.m_linearVelocity.x, b.m_linearVelocity.y);
+			}
+			solver.solve(timeStep);
+			for (int i = 0; i < argCount; i++) {
+				Body b = liquid[i];
+				float dx = solver.getDeltaX(i), dy = solver.getDeltaY(i);
+				b.m_xf.p.x += dx;
+				b.m_xf.p.y += dy;
+				b.m_linearVelocity.x += dx / timeStep;
+				b.m_linearVelocity.y += dy / timeStep;
+			}
+			if (s >= 0) {
+				result.stepMillis[s] = (System.nanoTime() - start) / 1e6;
+			}
+		}
+		solver.shutdown();
+		return finish(result);
+	}
+
+	public static Result measureParticles(int argCount) {
+		World world = createTank(argCount);
+		ParticleSystem particles = new ParticleSystem(world, argCount);
+		particles.getFluidSolver().setRadius(fluidRadius);
+		for (int i = 0; i < argCount; i++) {
+			particles.createParticle(blockX(i, argCount), blockY(i, argCount), 0, 0);
+		}
+
+		Result result = newResult(argCount, "particles");
+		for (int s = -warmupSteps; s < steps; s++) {
+			long start = System.nanoTime();
+			world.step(timeStep, 8, 3);
+			particles.step(timeStep);
+			if (s >= 0) {
+				result.stepMillis[s] = (System.nanoTime() - start) / 1e6;
+			}
+		}
+		particles.shutdown();
+		return finish(result);
+	}
+
+	private static Result newResult(int argCount, String argMode) {
+		Result result = new Result();
+		result.particles = argCount;
+		result.mode = argMode;
+		result.stepMillis = new double[steps];
+		return result;
+	}
+
+	private static Result finish(Result argResult) {
+		argResult.mean = BenchmarkStatistics.mean(argResult.stepMillis, steps);
+		argResult.error = BenchmarkStatistics.error999(argResult.stepMillis, steps);
+		return argResult;
+	}
+
+	public static void printResults(List<Result> argResults) {
+		System.out.printf("%12s%12s%14s%12s%14s\n", "Particles", "Mode", "ms/step", "Error", "us/particle");
+		for (Result r : argResults) {
+			System.out.printf(Locale.ROOT, "%12d%12s%14.3f%12.3f%14.3f\n", r.particles, r.mode, r.mean, r.error, r.mean
+					* 1000 / r.particles);
+		}
+	}
+
+	public static void main(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-n")) {
+				String[] values = args[++i].split(",");
+				counts = new int[values.length];
+				for (int j = 0; j < values.length; j++) {
+					counts[j] = Integer.parseInt(values[j]);
+				}
+			} else if (args[i].equals("-maxBodies")) {
+				maxBodies = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-warmup")) {
+				warmupSteps = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-steps")) {
+				steps = Integer.parseInt(args[++i]);
+			}
+		}
+
+		List<Result> results = new ArrayList<Result>();
+		for (int count : counts) {
+			if (count <= maxBodies) {
+				System.out.println("# " + count + " bodies");
+				results.add(measureBodies(count));
+			}
+			System.out.println("# " + count + " particles");
+			results.add(measureParticles(count));
+		}
+		printResults(results);
+
+		BenchmarkHistory history = new BenchmarkHistory("ParticlePerf");
+		for (Result r : results) {
+			history.add(r.mode + "/" + r.particles, "ms", false, r.stepMillis);
+		}
+		history.save();
+	}
+}
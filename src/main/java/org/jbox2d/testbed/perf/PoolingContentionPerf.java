@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.pooling.IWorldPool;
+import org.jbox2d.pooling.normal.DefaultWorldPool;
+import org.jbox2d.testbed.perf.PoolingPerf.CirclePool;
+import org.jbox2d.testbed.perf.PoolingPerf.CustStack;
+import org.jbox2d.testbed.perf.PoolingPerf.TLVec2;
+
+/**
+ * Runs the {@link PoolingPerf} strategies on 1 to N threads at once, each thread with its own
+ * pool, to see whether they scale and whether per-thread {@link IWorldPool}s are enough for
+ * running many worlds concurrently. Besides the single-threaded strategies it has:
+ * <ul>
+ * <li>Escaping creation, which stores every new vector so escape analysis can't remove the
+ * allocation, to compare with plain creation where the JIT may scalar-replace it</li>
+ * <li>Packed and padded indices, circular pools whose cursors live next to each other in one shared
+ * array, or a cache line apart, to show false sharing</li>
+ * </ul>
+ * For each strategy and thread count it reports the total throughput, the scaling efficiency
+ * relative to the one-thread run, and the bytes allocated per operation.<br/>
+ * <br/>
+ * Usage: <code>PoolingContentionPerf [maxThreads] [iterationMillis] [iterations]</code>
+ */
+public class PoolingContentionPerf {
+
+	public static final int OPS = 1024;
+	// ints per cache line, assuming 64 byte lines, and one more line for the array header
+	private static final int PADDING = 16;
+
+	public static int maxThreads = Runtime.getRuntime().availableProcessors();
+	public static long iterationMillis = 300;
+	public static int warmupIterations = 3;
+	public static int iterations = 5;
+
+	public static final String[] STRATEGIES = {"Creation", "Escaping creation", "World Pool", "Circle Pool",
+		"Custom Stack", "ThreadLocal member", "Member", "Packed indices", "Padded indices"};
+
+	private static final int CREATION = 0, ESCAPING = 1, WORLD_POOL = 2, CIRCLE_POOL = 3, CUSTOM_STACK = 4,
+			THREAD_LOCAL = 5, MEMBER = 6, PACKED = 7, PADDED = 8;
+
+	public static class Result {
+		public String strategy;
+		public int threads;
+		public double opsPerSecond;
+		public double opsPerSecondError;
+		public double[] opsPerSecondSamples;
+		public double efficiency;
+		public double bytesPerOp;
+	}
+
+	/**
+	 * The per-thread state of one strategy
+	 */
+	private static class Worker {
+		final int strategy;
+		final float[] xs = new float[OPS];
+		final float[] ys = new float[OPS];
+		final Vec2[] escaped = new Vec2[OPS];
+		final IWorldPool wp = new DefaultWorldPool(100, 10);
+		final CirclePool cp = new CirclePool();
+		final CustStack stack = new CustStack();
+		final Vec2 mv = new Vec2();
+		final TLVec2 tlv;
+		final Vec2[] indexedPool = new Vec2[200];
+		final int[] indices;
+		final int slot;
+
+		Worker(int argStrategy, int argThread, TLVec2 argThreadLocal, int[] argIndices, long argSeed) {
+			strategy = argStrategy;
+			tlv = argThreadLocal;
+			indices = argIndices;
+			slot = argStrategy == PADDED ? (argThread + 1) * PADDING : argThread;
+			for (int i = 0; i < indexedPool.length; i++) {
+				indexedPool[i] = new Vec2();
+			}
+			Random random = new Random(argSeed);
+			MicroBenchmark.fill(random, xs, -100, 100);
+			MicroBenchmark.fill(random, ys, -100, 100);
+		}
+
+		float op(Vec2 argVec, int argIndex) {
+			argVec.set(xs[argIndex], ys[argIndex]);
+			argVec.mulLocal(3.2f);
+			float s = argVec.length();
+			argVec.normalize();
+			return s;
+		}
+
+		void invoke(Blackhole argBlackhole) {
+			switch (strategy) {
+				case CREATION:
+					for (int i = 0; i < OPS; i++) {
+						argBlackhole.consume(op(new Vec2(), i));
+					}
+					break;
+				case ESCAPING:
+					for (int i = 0; i < OPS; i++) {
+						Vec2 v = new Vec2();
+						escaped[i] = v;
+						argBlackhole.consume(op(v, i));
+					}
+					break;
+				case WORLD_POOL:
+					for (int i = 0; i < OPS; i++) {
+						argBlackhole.consume(op(wp.popVec2(), i));
+						wp.pushVec2(1);
+					}
+					break;
+				case CIRCLE_POOL:
+					for (int i = 0; i < OPS; i++) {
+						argBlackhole.consume(op(cp.get(), i));
+					}
+					break;
+				case CUSTOM_STACK:
+					for (int i = 0; i < OPS; i++) {
+						argBlackhole.consume(op(stack.get(), i));
+						stack.reduce(1);
+					}
+					break;
+				case THREAD_LOCAL:
+					for (int i = 0; i < OPS; i++) {
+						argBlackhole.consume(op(tlv.get(), i));
+					}
+					break;
+				case MEMBER:
+					for (int i = 0; i < OPS; i++) {
+						argBlackhole.consume(op(mv, i));
+					}
+					break;
+				default:
+					// the cursor is read and written through the shared array every time, like a pool
+					// field would be
+					final int[] cursor = indices;
+					final int s = slot;
+					for (int i = 0; i < OPS; i++) {
+						int index = cursor[s] + 1;
+						if (index >= indexedPool.length) {
+							index = 0;
+						}
+						cursor[s] = index;
+						argBlackhole.consume(op(indexedPool[index], i));
+					}
+			}
+		}
+	}
+
+	public static Result measure(final int argStrategy, final int argThreads) throws Exception {
+		final TLVec2 threadLocal = new TLVec2();
+		final int[] indices = new int[(argThreads + 2) * PADDING];
+		final Worker[] workers = new Worker[argThreads];
+		for (int t = 0; t < argThreads; t++) {
+			workers[t] = new Worker(argStrategy, t, threadLocal, indices, t + 1);
+		}
+		final int rounds = warmupIterations + iterations;
+		final long[][] ops = new long[argThreads][rounds];
+		final long[][] nanos = new long[argThreads][rounds];
+		final long[] allocated = new long[argThreads];
+		final CyclicBarrier barrier = new CyclicBarrier(argThreads);
+		final Throwable[] failure = new Throwable[1];
+
+		Thread[] threads = new Thread[argThreads];
+		for (int t = 0; t < argThreads; t++) {
+			final int index = t;
+			threads[t] = new Thread("Pooling worker " + t) {
+				@Override
+				public void run() {
+					try {
+						Worker worker = workers[index];
+						Blackhole blackhole = new Blackhole();
+						com.sun.management.ThreadMXBean mx =
+								(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+						long id = Thread.currentThread().getId();
+						long iterationNanos = iterationMillis * 1000000L;
+						for (int round = 0; round < rounds; round++) {
+							barrier.await();
+							long allocatedBefore = mx.getThreadAllocatedBytes(id);
+							long start = System.nanoTime();
+							long count = 0;
+							long elapsed;
+							do {
+								worker.invoke(blackhole);
+								count += OPS;
+								elapsed = System.nanoTime() - start;
+							} while (elapsed < iterationNanos);
+							ops[index][round] = count;
+							nanos[index][round] = elapsed;
+							if (round >= warmupIterations) {
+								allocated[index] += mx.getThreadAllocatedBytes(id) - allocatedBefore;
+							}
+						}
+					} catch (Throwable e) {
+						failure[0] = e;
+						barrier.reset();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (failure[0] != null) {
+			throw new IllegalStateException("Worker failed", failure[0]);
+		}
+
+		double[] throughput = new double[iterations];
+		long measuredOps = 0;
+		long measuredBytes = 0;
+		for (int i = 0; i < iterations; i++) {
+			int round = warmupIterations + i;
+			for (int t = 0; t < argThreads; t++) {
+				throughput[i] += ops[t][round] * 1e9 / nanos[t][round];
+				measuredOps += ops[t][round];
+			}
+		}
+		for (int t = 0; t < argThreads; t++) {
+			measuredBytes += allocated[t];
+		}
+		Result result = new Result();
+		result.strategy = STRATEGIES[argStrategy];
+		result.threads = argThreads;
+		result.opsPerSecondSamples = throughput;
+		result.opsPerSecond = BenchmarkStatistics.mean(throughput, iterations);
+		result.opsPerSecondError = BenchmarkStatistics.error999(throughput, iterations);
+		result.bytesPerOp = (double) measuredBytes / measuredOps;
+		return result;
+	}
+
+	public static void printResults(List<Result> argResults) {
+		System.out.printf("%-20s%8s%16s%14s%12s%10s\n", "Strategy", "Threads", "Mops/s", "Error", "Efficiency",
+				"B/op");
+		for (Result r : argResults) {
+			System.out.printf(Locale.ROOT, "%-20s%8d%16.2f%14.2f%11.0f%%%10.2f\n", r.strategy, r.threads,
+					r.opsPerSecond / 1e6, r.opsPerSecondError / 1e6, r.efficiency * 100, r.bytesPerOp);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			maxThreads = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1) {
+			iterationMillis = Long.parseLong(args[1]);
+		}
+		if (args.length > 2) {
+			iterations = Integer.parseInt(args[2]);
+		}
+		List<Integer> threadCounts = new ArrayList<Integer>();
+		for (int t = 1; t <= maxThreads; t *= 2) {
+			threadCounts.add(t);
+		}
+		if (threadCounts.get(threadCounts.size() - 1) != maxThreads) {
+			threadCounts.add(maxThreads);
+		}
+		System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+
+		List<Result> results = new ArrayList<Result>();
+		for (int s = 0; s < STRATEGIES.length; s++) {
+			double single = 0;
+			for (int threads : threadCounts) {
+				Result result = measure(s, threads);
+				if (threads == 1) {
+					single = result.opsPerSecond;
+				}
+				result.efficiency = result.opsPerSecond / (single * threads);
+				results.add(result);
+			}
+		}
+		printResults(results);
+
+		BenchmarkHistory history = new BenchmarkHistory("PoolingContentionPerf");
+		for (Result r : results) {
+			history.add(r.strategy + "/" + r.threads, "ops/s", true, r.opsPerSecondSamples);
+			history.add(r.strategy + "/" + r.threads + ":alloc", "B/op", false, r.bytesPerOp);
+		}
+		history.save();
+	}
+}
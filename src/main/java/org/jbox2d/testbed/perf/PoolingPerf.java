@@ -26,47 +26,20 @@
  */
 package org.jbox2d.testbed.perf;
 
-import org.jbox2d.common.MathUtils;
+import java.util.Random;
+
 import org.jbox2d.common.Vec2;
 import org.jbox2d.pooling.IWorldPool;
 import org.jbox2d.pooling.normal.DefaultWorldPool;
-import org.jbox2d.profile.BasicPerformanceTest;
-
-//Test Name               Milliseconds Avg
-//Creation                         70.6609
-//World Pool                      251.3508
-//Circle Pool                      75.3677
-//Custom Stack                     75.6705
-//ThreadLocal member               77.2405
-//Member                           74.3760
-
-// Windows results 1/19/11
-//Test Name               Milliseconds Avg
-//Creation                         74.6291
-//World Pool                      273.5585
-//Circle Pool                      82.2195
-//ThreadLocal member               83.2970
-//Member                           80.7545
-
-// Windows results 7/5/2011
-//Test Name               Milliseconds Avg
-//Creation                         79.3003
-//World Pool                       82.9722
-//Circle Pool                      85.9589
-//Custom Stack                     85.5465
-//ThreadLocal member               87.7560
-//Member                           84.1358
-
 
 /**
+ * Compares ways of getting a temporary {@link Vec2}. Run it with {@link MicroBenchmarkRunner}.
+ * 
  * @author Daniel Murphy
  */
-public class PoolingPerf extends BasicPerformanceTest {
-	
-
+public class PoolingPerf extends MicroBenchmark {
 
-	public static final int INNER_ITERS = 50000;
-	public static final int OUTER_ITERS = 1000;
+	public static final int OPS = 1024;
 	
 	public static class CirclePool{
 		final Vec2[] pool;
@@ -121,128 +94,113 @@ public class PoolingPerf extends BasicPerformanceTest {
 		"Creation", "World Pool", "Circle Pool", "Custom Stack", "ThreadLocal member", "Member"
 	};
 	
-	public float aStore = 0;
 	public IWorldPool wp = new DefaultWorldPool(100, 10);
 	public CirclePool cp = new CirclePool();
 	public TLVec2 tlv = new TLVec2();
 	public Vec2 mv = new Vec2();
 	public CustStack stack = new CustStack();
-	
-	/**
-	 * @param argNumTests
-	 * @param argIters
-	 */
-	public PoolingPerf() {
-		super(6, OUTER_ITERS);
-		// TODO Auto-generated constructor stub
+
+	private final float[] xs = new float[OPS];
+	private final float[] ys = new float[OPS];
+
+	@Override
+	public String[] getBenchmarkNames() {
+		return tests;
 	}
-	
-	public float op(Vec2 argVec){
-		argVec.set(MathUtils.randomFloat(-100, 100), MathUtils.randomFloat(-100, 100));
+
+	@Override
+	public int getOpsPerInvocation() {
+		return OPS;
+	}
+
+	@Override
+	public void setupInvocation(Random argRandom) {
+		fill(argRandom, xs, -100, 100);
+		fill(argRandom, ys, -100, 100);
+	}
+
+	public float op(Vec2 argVec, int argIndex){
+		argVec.set(xs[argIndex], ys[argIndex]);
 		argVec.mulLocal(3.2f);
 		float s = argVec.length();
 		argVec.normalize();
 		return s;
 	}
 
-	/**
-	 * @see org.jbox2d.testbed.perf.BasicPerformanceTest#runTest(int)
-	 */
 	@Override
-	public void runTest(int argNum) {
+	public void invoke(int argNum, Blackhole argBlackhole) {
 		switch(argNum){
 			case 0:
-				runCreationTest();
+				runCreationTest(argBlackhole);
 				break;
 			case 1:
-				runWorldPoolTest();
+				runWorldPoolTest(argBlackhole);
 				break;
 			case 2:
-				runCirclePoolTest();
+				runCirclePoolTest(argBlackhole);
 				break;
 			case 3:
-				runCustStackTest();
+				runCustStackTest(argBlackhole);
 				break;
 			case 4:
-				runThreadLocalTest();
+				runThreadLocalTest(argBlackhole);
 				break;
 			case 5:
-				runMemberTest();
+				runMemberTest(argBlackhole);
 				break;
 		}
 	}
 	
-	public void runCreationTest(){
+	public void runCreationTest(Blackhole argBlackhole){
 		Vec2 v;
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
+		for(int i=0; i<OPS; i++){
 			v = new Vec2();
-			a += op(v);
+			argBlackhole.consume(op(v, i));
 		}
-		aStore += a;
 	}
 
-	public void runWorldPoolTest(){
+	public void runWorldPoolTest(Blackhole argBlackhole){
 		Vec2 v;
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
+		for(int i=0; i<OPS; i++){
 			v = wp.popVec2();
-			a += op(v);
+			argBlackhole.consume(op(v, i));
 			wp.pushVec2(1);
 		}
-		aStore += a;
 	}
 	
-	public void runCirclePoolTest(){
+	public void runCirclePoolTest(Blackhole argBlackhole){
 		Vec2 v;
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
+		for(int i=0; i<OPS; i++){
 			v = cp.get();
-			a += op(v);
+			argBlackhole.consume(op(v, i));
 		}
-		aStore += a;
 	}
 	
-	public void runThreadLocalTest(){
+	public void runThreadLocalTest(Blackhole argBlackhole){
 		Vec2 v;
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
+		for(int i=0; i<OPS; i++){
 			v = tlv.get();
-			a += op(v);
+			argBlackhole.consume(op(v, i));
 		}
-		aStore += a;
 	}
 	
-	public void runCustStackTest(){
+	public void runCustStackTest(Blackhole argBlackhole){
 		Vec2 v;
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
+		for(int i=0; i<OPS; i++){
 			v = stack.get();
-			a += op(v);
+			argBlackhole.consume(op(v, i));
 			stack.reduce(1);
 		}
-		aStore += a;
 	}
 	
-	public void runMemberTest(){
-		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
-			a += op(mv);
+	public void runMemberTest(Blackhole argBlackhole){
+		for(int i=0; i<OPS; i++){
+			argBlackhole.consume(op(mv, i));
 		}
-		aStore += a;
 	}
 
 
-	/**
-	 * @see org.jbox2d.testbed.perf.BasicPerformanceTest#getTestName(int)
-	 */
-	@Override
-	public String getTestName(int argNum) {
-		return tests[argNum];
-	}
-	
-	public static void main(String[] c){
-		PoolingPerf p = new PoolingPerf();
-		p.go();
+	public static void main(String[] c) throws Exception {
+		MicroBenchmarkRunner.main(PoolingPerf.class, c);
 	}
 }
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.jbox2d.callbacks.RayCastCallback;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.pooling.normal.DefaultWorldPool;
+import org.jbox2d.testbed.broadphase.BroadPhaseStrategies;
+import org.jbox2d.testbed.broadphase.TrackingBroadPhase;
+import org.jbox2d.testbed.query.RayCastCache;
+
+/**
+ * Times persistent sensor rays in a level of static boxes with some bodies moving through it, cast
+ * every step through {@link World#raycast} and through a {@link RayCastCache}. Half the rays stay
+ * put and half sweep a quarter degree a step, like {@link org.jbox2d.testbed.tests.RayCastTest}.
+ * Every step the cache's hits are checked against the world's.<br/>
+ * <br/>
+ * Usage: <code>RayCastCachePerf [-rays 100,1000,...] [-static count] [-dynamic count]
+ * [-warmup steps] [-steps steps]</code>
+ */
+public class RayCastCachePerf {
+
+	public static int[] rayCounts = {100, 1000, 5000};
+	public static int staticBoxes = 2000;
+	public static int dynamicBodies = 200;
+	public static int warmupSteps = 30;
+	public static int steps = 100;
+	public static float extent = 60;
+	public static float rayLength = 15;
+
+	public static class Result {
+		public String mode;
+		public int rays;
+		public double[] stepMillis;
+		public double mean, error;
+		public int errors;
+		public double reuseRatio;
+	}
+
+	private static class ClosestCallback implements RayCastCallback {
+		Fixture fixture;
+		float fraction;
+
+		public float reportFixture(Fixture argFixture, Vec2 argPoint, Vec2 argNormal, float argFraction) {
+			fixture = argFixture;
+			fraction = argFraction;
+			return argFraction;
+		}
+	}
+
+	public static World createLevel(TrackingBroadPhase argTracker, long argSeed) {
+		World world = new World(new Vec2(0, 0), new DefaultWorldPool(100, 10), argTracker);
+		Random random = new Random(argSeed);
+		Body ground = world.createBody(new BodyDef());
+		PolygonShape box = new PolygonShape();
+		for (int i = 0; i < staticBoxes; i++) {
+			box.setAsBox(.3f + random.nextFloat(), .3f + random.nextFloat(), new Vec2(
+					(random.nextFloat() * 2 - 1) * extent, (random.nextFloat() * 2 - 1) * extent), random.nextFloat()
+					* MathUtils.PI);
+			ground.createFixture(box, 0);
+		}
+		CircleShape circle = new CircleShape();
+		circle.m_radius = .5f;
+		FixtureDef fd = new FixtureDef();
+		fd.shape = circle;
+		fd.density = 1;
+		fd.restitution = 1;
+		BodyDef bd = new BodyDef();
+		bd.type = BodyType.DYNAMIC;
+		for (int i = 0; i < dynamicBodies; i++) {
+			bd.position.set((random.nextFloat() * 2 - 1) * extent, (random.nextFloat() * 2 - 1) * extent);
+			bd.linearVelocity.set(random.nextFloat() * 4 - 2, random.nextFloat() * 4 - 2);
+			world.createBody(bd).createFixture(fd);
+		}
+		return world;
+	}
+
+	public static Result measure(int argRays, boolean argCached) {
+		TrackingBroadPhase tracker = new TrackingBroadPhase(BroadPhaseStrategies.create(null));
+		World world = createLevel(tracker, 1);
+		RayCastCache cache = new RayCastCache(world, tracker);
+		ClosestCallback closest = new ClosestCallback();
+		Random random = new Random(argRays);
+		float[] x = new float[argRays], y = new float[argRays], angle = new float[argRays];
+		float[] endX = new float[argRays], endY = new float[argRays];
+		int[] ids = new int[argRays];
+		for (int i = 0; i < argRays; i++) {
+			x[i] = (random.nextFloat() * 2 - 1) * extent;
+			y[i] = (random.nextFloat() * 2 - 1) * extent;
+			angle[i] = random.nextFloat() * MathUtils.TWOPI;
+			if (argCached) {
+				ids[i] = cache.addRay(0, 0, 0, 0);
+			}
+		}
+		Vec2 p1 = new Vec2(), p2 = new Vec2();
+		Blackhole blackhole = new Blackhole();
+
+		Result result = new Result();
+		result.mode = argCached ? "cache" : "world";
+		result.rays = argRays;
+		result.stepMillis = new double[steps];
+		for (int s = -warmupSteps; s < steps; s++) {
+			world.step(1f / 60, 8, 3);
+			if (s == 0) {
+				cache.resetCounters();
+			}
+			long start = System.nanoTime();
+			for (int i = 0; i < argRays; i++) {
+				if (i % 2 == 1) {
+					angle[i] += .25f * MathUtils.PI / 180;
+				}
+				endX[i] = x[i] + rayLength * MathUtils.cos(angle[i]);
+				endY[i] = y[i] + rayLength * MathUtils.sin(angle[i]);
+				if (argCached) {
+					cache.setRay(ids[i], x[i], y[i], endX[i], endY[i]);
+				} else {
+					p1.set(x[i], y[i]);
+					p2.set(endX[i], endY[i]);
+					world.raycast(closest, p1, p2);
+					blackhole.consume(closest.fraction);
+				}
+			}
+			if (argCached) {
+				cache.update();
+			} else {
+				// nothing reads the tracker's record here
+				tracker.clearChanges();
+			}
+			if (s >= 0) {
+				result.stepMillis[s] = (System.nanoTime() - start) / 1e6;
+			}
+
+			if (argCached) {
+				for (int i = 0; i < argRays; i++) {
+					p1.set(x[i], y[i]);
+					p2.set(endX[i], endY[i]);
+					closest.fixture = null;
+					world.raycast(closest, p1, p2);
+					if (closest.fixture == null ? cache.hasHit(ids[i]) : !cache.hasHit(ids[i])
+							|| Math.abs(closest.fraction - cache.getFraction(ids[i])) > 1e-4f) {
+						result.errors++;
+					}
+				}
+			}
+		}
+		result.mean = BenchmarkStatistics.mean(result.stepMillis, steps);
+		result.error = BenchmarkStatistics.error999(result.stepMillis, steps);
+		if (argCached) {
+			result.reuseRatio = (double) cache.getReuses() / Math.max(1, cache.getReuses() + cache.getCasts());
+		}
+		return result;
+	}
+
+	public static void main(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-rays")) {
+				String[] values = args[++i].split(",");
+				rayCounts = new int[values.length];
+				for (int j = 0; j < values.length; j++) {
+					rayCounts[j] = Integer.parseInt(values[j]);
+				}
+			} else if (args[i].equals("-static")) {
+				staticBoxes = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-dynamic")) {
+				dynamicBodies = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-warmup")) {
+				warmupSteps = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-steps")) {
+				steps = Integer.parseInt(args[++i]);
+			}
+		}
+
+		List<Result> results = new ArrayList<Result>();
+		int errors = 0;
+		for (int count : rayCounts) {
+			System.out.println("# " + count + " rays");
+			results.add(measure(count, false));
+			Result cached = measure(count, true);
+			errors += cached.errors;
+			results.add(cached);
+		}
+
+		System.out.printf("%-8s%10s%14s%12s%12s%10s\n", "Mode", "Rays", "ms/step", "Error", "Reused", "Errors");
+		for (Result r : results) {
+			System.out.printf(Locale.ROOT, "%-8s%10d%14.3f%12.3f%12s%10s\n", r.mode, r.rays, r.mean, r.error,
+					r.mode.equals("cache") ? String.format(Locale.ROOT, "%.1f%%", r.reuseRatio * 100) : "",
+					r.mode.equals("cache") ? String.valueOf(r.errors) : "");
+		}
+
+		BenchmarkHistory history = new BenchmarkHistory("RayCastCachePerf");
+		for (Result r : results) {
+			history.add(r.mode + "/" + r.rays, "ms", false, r.stepMillis);
+		}
+		history.save();
+
+		if (errors > 0) {
+			System.err.println("The cache disagreed with the world " + errors + " times");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import org.jbox2d.collision.broadphase.DynamicTree;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.Profile;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.pooling.normal.DefaultWorldPool;
+
+/**
+ * Sweeps the number of bodies in a generated scenario and reports how the step time and its
+ * broadphase, narrowphase and solver parts scale with it, so it's clear where {@link World#step}
+ * stops being linear. The scenario is a box of bodies with a configurable shape mix, laid out on a
+ * grid with a configurable spacing, so the spacing sets how many contacts there are per body.
+ * Sleeping is off, so the load doesn't drop as the pile settles.<br/>
+ * <br/>
+ * For each count it prints the mean time per step of each phase, and the local scaling exponent
+ * against the previous count: 1 is linear, and anything well above it is superlinear. A log-log
+ * plot of the step time follows, and the results can be written as CSV.<br/>
+ * <br/>
+ * Usage: <code>ScalingPerf [-n 100,1000,...] [-mix circle,box,polygon,mixed] [-spacing 1.05,2]
+ * [-warmup steps] [-steps steps] [-csv file]</code>
+ */
+public class ScalingPerf {
+
+	public static int[] counts = {100, 300, 1000, 3000, 10000, 30000, 100000};
+	public static String[] mixes = {"mixed"};
+	public static float[] spacings = {1.05f, 2f};
+	public static int warmupSteps = 20;
+	public static int steps = 30;
+	public static int jitWarmupBodies = 1000;
+	public static int jitWarmupSteps = 300;
+	public static float timeStep = 1f / 60;
+	public static int velocityIterations = 8;
+	public static int positionIterations = 3;
+
+	// plain body size, the bodies' bounding boxes are a square this wide
+	private static final float SIZE = 1;
+
+	public static class Result {
+		public int bodies;
+		public String mix;
+		public float spacing;
+		public int contacts;
+		public double step, broadphase, narrowphase, solver, toi;
+		public double[] stepSamples;
+	}
+
+	/**
+	 * Creates a world with the bodies in a grid, inside a static box with room above them to fall
+	 * into
+	 * 
+	 * @param argCount the number of dynamic bodies
+	 * @param argMix circle, box, polygon or mixed
+	 * @param argSpacing the grid spacing, in body sizes
+	 * @param argSeed
+	 * @return
+	 */
+	public static World createWorld(int argCount, String argMix, float argSpacing, long argSeed) {
+		return createWorld(argCount, argMix, argSpacing, argSeed, new DynamicTree());
+	}
+
+	/**
+	 * Creates the world with the given broadphase strategy
+	 * 
+	 * @see #createWorld(int, String, float, long)
+	 */
+	public static World createWorld(int argCount, String argMix, float argSpacing, long argSeed,
+			BroadPhaseStrategy argStrategy) {
+		World world = new World(new Vec2(0, -10), new DefaultWorldPool(100, 10), argStrategy);
+		world.setAllowSleep(false);
+		Random random = new Random(argSeed);
+
+		int columns = (int) Math.ceil(Math.sqrt(argCount));
+		float pitch = SIZE * argSpacing;
+		float width = columns * pitch;
+		float height = (argCount + columns - 1) / columns * pitch;
+
+		BodyDef bd = new BodyDef();
+		Body ground = world.createBody(bd);
+		PolygonShape wall = new PolygonShape();
+		wall.setAsBox(width / 2 + 1, .5f, new Vec2(0, -.5f), 0);
+		ground.createFixture(wall, 0);
+		wall.setAsBox(.5f, height + 1, new Vec2(-width / 2 - .5f, height), 0);
+		ground.createFixture(wall, 0);
+		wall.setAsBox(.5f, height + 1, new Vec2(width / 2 + .5f, height), 0);
+		ground.createFixture(wall, 0);
+
+		CircleShape circle = new CircleShape();
+		circle.m_radius = SIZE / 2;
+		PolygonShape box = new PolygonShape();
+		box.setAsBox(SIZE / 2, SIZE / 2);
+		PolygonShape polygon = new PolygonShape();
+		Vec2[] vertices = new Vec2[6];
+		for (int i = 0; i < vertices.length; i++) {
+			double angle = i * Math.PI * 2 / vertices.length;
+			vertices[i] = new Vec2((float) Math.cos(angle) * SIZE / 2, (float) Math.sin(angle) * SIZE / 2);
+		}
+		polygon.set(vertices, vertices.length);
+
+		FixtureDef fd = new FixtureDef();
+		fd.density = 1;
+		fd.friction = .4f;
+		bd.type = BodyType.DYNAMIC;
+		for (int i = 0; i < argCount; i++) {
+			int shape;
+			if (argMix.equals("circle")) {
+				shape = 0;
+			} else if (argMix.equals("box")) {
+				shape = 1;
+			} else if (argMix.equals("polygon")) {
+				shape = 2;
+			} else {
+				shape = random.nextInt(3);
+			}
+			fd.shape = shape == 0 ? circle : shape == 1 ? box : polygon;
+			bd.position.set(-width / 2 + (i % columns + .5f) * pitch, (i / columns + .5f) * pitch);
+			bd.angle = random.nextFloat() * .1f;
+			world.createBody(bd).createFixture(fd);
+		}
+		return world;
+	}
+
+	public static Result measure(int argCount, String argMix, float argSpacing) {
+		World world = createWorld(argCount, argMix, argSpacing, argCount);
+		for (int i = 0; i < warmupSteps; i++) {
+			world.step(timeStep, velocityIterations, positionIterations);
+		}
+		Result result = new Result();
+		result.bodies = argCount;
+		result.mix = argMix;
+		result.spacing = argSpacing;
+		result.stepSamples = new double[steps];
+		Profile p = world.getProfile();
+		for (int i = 0; i < steps; i++) {
+			world.step(timeStep, velocityIterations, positionIterations);
+			result.stepSamples[i] = p.step;
+			result.step += p.step;
+			result.broadphase += p.broadphase;
+			result.narrowphase += p.collide;
+			// the broadphase update happens inside solve
+			result.solver += p.solve - p.broadphase;
+			result.toi += p.solveTOI;
+		}
+		result.step /= steps;
+		result.broadphase /= steps;
+		result.narrowphase /= steps;
+		result.solver /= steps;
+		result.toi /= steps;
+		result.contacts = world.getContactCount();
+		return result;
+	}
+
+	/**
+	 * The local scaling exponent between two results, log(t2 / t1) / log(n2 / n1)
+	 */
+	public static double exponent(double argTime1, int argCount1, double argTime2, int argCount2) {
+		return Math.log(argTime2 / argTime1) / Math.log((double) argCount2 / argCount1);
+	}
+
+	public static void printResults(List<Result> argResults) {
+		System.out.printf("%-8s%8s%8s%10s%12s%12s%12s%12s%12s%11s%11s%11s%11s\n", "Mix", "Spacing", "Bodies",
+				"Contacts", "Step ms", "Broad ms", "Narrow ms", "Solver ms", "TOI ms", "Step exp", "Broad exp",
+				"Narrow exp", "Solver exp");
+		Result previous = null;
+		for (Result r : argResults) {
+			boolean series = previous != null && previous.mix.equals(r.mix) && previous.spacing == r.spacing;
+			System.out.printf(Locale.ROOT, "%-8s%8.2f%8d%10d%12.3f%12.3f%12.3f%12.3f%12.3f%11s%11s%11s%11s\n", r.mix,
+					r.spacing, r.bodies, r.contacts, r.step, r.broadphase, r.narrowphase, r.solver, r.toi,
+					series ? formatExponent(previous.step, previous.bodies, r.step, r.bodies) : "",
+					series ? formatExponent(previous.broadphase, previous.bodies, r.broadphase, r.bodies) : "",
+					series ? formatExponent(previous.narrowphase, previous.bodies, r.narrowphase, r.bodies) : "",
+					series ? formatExponent(previous.solver, previous.bodies, r.solver, r.bodies) : "");
+			previous = r;
+		}
+	}
+
+	private static String formatExponent(double argTime1, int argCount1, double argTime2, int argCount2) {
+		if (argTime1 <= 0 || argTime2 <= 0) {
+			return "-";
+		}
+		return String.format(Locale.ROOT, "%.2f", exponent(argTime1, argCount1, argTime2, argCount2));
+	}
+
+	/**
+	 * Plots the step time against the body count on log-log axes, one letter per series
+	 */
+	public static void plot(List<Result> argResults, int argWidth, int argHeight) {
+		double minN = Double.MAX_VALUE, maxN = 0, minT = Double.MAX_VALUE, maxT = 0;
+		for (Result r : argResults) {
+			minN = Math.min(minN, r.bodies);
+			maxN = Math.max(maxN, r.bodies);
+			minT = Math.min(minT, r.step);
+			maxT = Math.max(maxT, r.step);
+		}
+		if (minT <= 0 || maxN <= minN || maxT <= minT) {
+			return;
+		}
+		char[][] grid = new char[argHeight][argWidth];
+		for (char[] row : grid) {
+			java.util.Arrays.fill(row, ' ');
+		}
+		List<String> series = new ArrayList<String>();
+		for (Result r : argResults) {
+			String name = r.mix + " " + r.spacing;
+			if (!series.contains(name)) {
+				series.add(name);
+			}
+			int x = (int) Math.round(Math.log(r.bodies / minN) / Math.log(maxN / minN) * (argWidth - 1));
+			int y = (int) Math.round(Math.log(r.step / minT) / Math.log(maxT / minT) * (argHeight - 1));
+			grid[argHeight - 1 - y][x] = (char) ('a' + series.indexOf(name));
+		}
+		System.out.printf(Locale.ROOT, "\nStep ms (log) from %.3f to %.3f, bodies (log) from %.0f to %.0f\n", minT,
+				maxT, minN, maxN);
+		for (char[] row : grid) {
+			System.out.println("|" + new String(row));
+		}
+		StringBuilder axis = new StringBuilder("+");
+		for (int i = 0; i < argWidth; i++) {
+			axis.append('-');
+		}
+		System.out.println(axis);
+		for (int i = 0; i < series.size(); i++) {
+			System.out.println("  " + (char) ('a' + i) + ": " + series.get(i));
+		}
+	}
+
+	public static void writeCsv(List<Result> argResults, String argFile) throws IOException {
+		Writer out = new FileWriter(argFile);
+		try {
+			out.write("mix,spacing,bodies,contacts,step_ms,broadphase_ms,narrowphase_ms,solver_ms,toi_ms\n");
+			for (Result r : argResults) {
+				out.write(String.format(Locale.ROOT, "%s,%s,%d,%d,%f,%f,%f,%f,%f\n", r.mix, r.spacing, r.bodies,
+						r.contacts, r.step, r.broadphase, r.narrowphase, r.solver, r.toi));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		String csv = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-n")) {
+				String[] values = args[++i].split(",");
+				counts = new int[values.length];
+				for (int j = 0; j < values.length; j++) {
+					counts[j] = Integer.parseInt(values[j]);
+				}
+			} else if (args[i].equals("-mix")) {
+				mixes = args[++i].split(",");
+			} else if (args[i].equals("-spacing")) {
+				String[] values = args[++i].split(",");
+				spacings = new float[values.length];
+				for (int j = 0; j < values.length; j++) {
+					spacings[j] = Float.parseFloat(values[j]);
+				}
+			} else if (args[i].equals("-warmup")) {
+				warmupSteps = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-steps")) {
+				steps = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-csv")) {
+				csv = args[++i];
+			}
+		}
+
+		// compile the engine before the first measurement, or the smallest counts run interpreted
+		World warmup = createWorld(jitWarmupBodies, "mixed", 1.05f, 0);
+		for (int i = 0; i < jitWarmupSteps; i++) {
+			warmup.step(timeStep, velocityIterations, positionIterations);
+		}
+
+		List<Result> results = new ArrayList<Result>();
+		for (String mix : mixes) {
+			for (float spacing : spacings) {
+				for (int count : counts) {
+					System.out.println("# " + mix + ", spacing " + spacing + ", " + count + " bodies");
+					results.add(measure(count, mix, spacing));
+				}
+			}
+		}
+		printResults(results);
+		plot(results, 60, 16);
+		if (csv != null) {
+			writeCsv(results, csv);
+			System.out.println("Results written to " + csv);
+		}
+
+		BenchmarkHistory history = new BenchmarkHistory("ScalingPerf");
+		for (Result r : results) {
+			String name = r.mix + "/" + r.spacing + "/" + r.bodies;
+			history.add(name + ":step", "ms", false, r.stepSamples);
+			history.add(name + ":broadphase", "ms", false, r.broadphase);
+			history.add(name + ":narrowphase", "ms", false, r.narrowphase);
+			history.add(name + ":solver", "ms", false, r.solver);
+		}
+		history.save();
+	}
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.jbox2d.dynamics.World;
+import org.jbox2d.testbed.broadphase.BroadPhaseStrategies;
+import org.jbox2d.testbed.framework.HeadlessTestbed;
+import org.jbox2d.testbed.framework.TestbedTest;
+import org.jbox2d.testbed.scenario.GeneratedScenario;
+import org.jbox2d.testbed.scenario.ScenarioDef;
+
+/**
+ * Benchmarks the testbed's scenarios headlessly, separating the transient phase at the start of a
+ * scenario (stacks settling, the tumbler filling up, liquid pouring) from its steady state. Each
+ * test is stepped until a {@link SteadyStateDetector} says it's steady, or until the transient limit,
+ * and then a fixed number of steps are measured. The transient cost and the steady cost are
+ * reported separately, so the steady numbers are comparable between runs and machines whatever
+ * the scenario's start-up looks like. Before that, each test runs once for the JIT warmup steps and
+ * is initialized again, so the transient isn't mostly compilation.<br/>
+ * <br/>
+ * With <code>-broadphase</code>, each test is run once on each of the listed broadphase strategies
+ * (see {@link BroadPhaseStrategies}) and the results are named with the strategy. Each
+ * <code>-scenario</code> adds a {@link GeneratedScenario} from a {@link ScenarioDef} spec and
+ * selects it.<br/>
+ * <br/>
+ * Usage: <code>ScenarioPerf [-window steps] [-tolerance percent] [-sleep percent]
+ * [-max steps] [-steps steps] [-jit steps] [-broadphase name[,name]...] [-scenario spec]...
+ * [test name]...</code>
+ */
+public class ScenarioPerf {
+
+	public static int maxTransientSteps = 3000;
+	public static int steps = 300;
+	public static int jitWarmupSteps = 300;
+
+	public static class Result {
+		public String test;
+		public String reason;
+		public int transientSteps;
+		public double transientMillis;
+		public double[] steadyMillis;
+		public double steadyMean, steadyError;
+		public double steadyP50, steadyP99;
+		public int bodies;
+		public int contacts;
+	}
+
+	public static Result measure(HeadlessTestbed argTestbed, TestbedTest argTest, SteadyStateDetector argDetector) {
+		if (jitWarmupSteps > 0) {
+			argTestbed.init(argTest);
+			argTestbed.step(argTest, jitWarmupSteps);
+		}
+		argTestbed.init(argTest);
+		argDetector.reset();
+
+		Result result = new Result();
+		result.test = argTest.getTestName();
+		while (result.transientSteps < maxTransientSteps) {
+			argTestbed.step(argTest, 1);
+			World world = argTest.getWorld();
+			result.transientSteps++;
+			result.transientMillis += world.getProfile().step;
+			if (argDetector.add(world)) {
+				break;
+			}
+		}
+		result.reason = argDetector.getReason();
+
+		result.steadyMillis = new double[steps];
+		for (int i = 0; i < steps; i++) {
+			argTestbed.step(argTest, 1);
+			result.steadyMillis[i] = argTest.getWorld().getProfile().step;
+		}
+		result.steadyMean = BenchmarkStatistics.mean(result.steadyMillis, steps);
+		result.steadyError = BenchmarkStatistics.error999(result.steadyMillis, steps);
+		double[] sorted = result.steadyMillis.clone();
+		Arrays.sort(sorted);
+		result.steadyP50 = sorted[steps / 2];
+		result.steadyP99 = sorted[Math.min(steps - 1, (int) (steps * .99))];
+		result.bodies = argTest.getWorld().getBodyCount();
+		result.contacts = argTest.getWorld().getContactCount();
+		return result;
+	}
+
+	public static void printResults(List<Result> argResults) {
+		System.out.printf("%-28s%12s%10s%14s%14s%14s%12s%12s%12s%8s%10s\n", "Test", "Steady by", "Steps",
+				"Transient ms", "Trans ms/step", "Steady ms", "Error", "p50 ms", "p99 ms", "Bodies", "Contacts");
+		for (Result r : argResults) {
+			System.out.printf(Locale.ROOT, "%-28s%12s%10d%14.1f%14.3f%14.3f%12.3f%12.3f%12.3f%8d%10d\n", r.test,
+					r.reason, r.transientSteps, r.transientMillis, r.transientMillis / r.transientSteps, r.steadyMean,
+					r.steadyError, r.steadyP50, r.steadyP99, r.bodies, r.contacts);
+		}
+	}
+
+	public static void main(String[] args) {
+		SteadyStateDetector detector = new SteadyStateDetector();
+		List<String> selected = new ArrayList<String>();
+		String[] broadPhases = null;
+		List<ScenarioDef> scenarios = new ArrayList<ScenarioDef>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-window")) {
+				detector.window = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-tolerance")) {
+				detector.tolerance = Double.parseDouble(args[++i]) / 100;
+			} else if (args[i].equals("-sleep")) {
+				detector.sleepRatio = Double.parseDouble(args[++i]) / 100;
+			} else if (args[i].equals("-max")) {
+				maxTransientSteps = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-steps")) {
+				steps = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-jit")) {
+				jitWarmupSteps = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-broadphase")) {
+				broadPhases = args[++i].split(",");
+			} else if (args[i].equals("-scenario")) {
+				ScenarioDef def = ScenarioDef.parse(args[++i]);
+				scenarios.add(def);
+				selected.add(def.name);
+			} else {
+				selected.add(args[i]);
+			}
+		}
+
+		HeadlessTestbed testbed = new HeadlessTestbed();
+		for (ScenarioDef def : scenarios) {
+			testbed.addTest(new GeneratedScenario(def));
+		}
+		List<Result> results = new ArrayList<Result>();
+		for (TestbedTest test : testbed.getTests()) {
+			if (!selected.isEmpty() && !selected.contains(test.getTestName())) {
+				continue;
+			}
+			if (broadPhases == null) {
+				System.out.println("# " + test.getTestName());
+				results.add(measure(testbed, test, detector));
+				test.exit();
+				continue;
+			}
+			for (String broadPhase : broadPhases) {
+				testbed.getModel().setBroadPhase(broadPhase);
+				System.out.println("# " + test.getTestName() + " [" + broadPhase + "]");
+				Result result = measure(testbed, test, detector);
+				result.test += " [" + broadPhase + "]";
+				results.add(result);
+				test.exit();
+			}
+		}
+		printResults(results);
+
+		BenchmarkHistory history = new BenchmarkHistory("ScenarioPerf");
+		for (Result r : results) {
+			history.add(r.test + ":steady", "ms", false, r.steadyMillis);
+			history.add(r.test + ":transient", "ms", false, r.transientMillis);
+			history.add(r.test + ":transientSteps", "steps", false, r.transientSteps);
+		}
+		history.save();
+	}
+}
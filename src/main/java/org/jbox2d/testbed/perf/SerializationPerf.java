@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.dynamics.joints.RevoluteJointDef;
+import org.jbox2d.serialization.JbDeserializer;
+import org.jbox2d.serialization.JbSerializer;
+import org.jbox2d.serialization.SerializationResult;
+import org.jbox2d.serialization.UnsupportedListener;
+import org.jbox2d.serialization.UnsupportedObjectException;
+import org.jbox2d.serialization.pb.PbDeserializer;
+import org.jbox2d.serialization.pb.PbSerializer;
+import org.jbox2d.testbed.framework.HeadlessTestbed;
+import org.jbox2d.testbed.framework.TestbedTest;
+
+/**
+ * Measures the protobuf serialization round trip used by the testbed's save and load: time spent
+ * in {@link JbSerializer#serialize(World)}, {@link SerializationResult#writeTo} and
+ * {@link JbDeserializer#deserializeWorld}, the encoded size per body, and the bytes allocated by
+ * each stage. Runs every test with save/load enabled, after letting it settle for a number of
+ * steps, plus synthetic worlds of increasing size.<br/>
+ * <br/>
+ * Usage: <code>SerializationPerf [steps before measuring] [warmup iterations] [measured iterations]
+ * </code>
+ */
+public class SerializationPerf {
+
+	public static int settleSteps = 60;
+	public static int warmupIters = 20;
+	public static int iters = 50;
+	public static int[] syntheticSizes = {1000, 5000, 20000};
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+	public long aStore = 0;
+
+	public static class Result {
+		public String name;
+		public int bodies;
+		public int bytes;
+		public double serializeMs;
+		public double writeMs;
+		public double deserializeMs;
+		public long serializeAlloc;
+		public long writeAlloc;
+		public long deserializeAlloc;
+	}
+
+	public Result measure(String argName, World argWorld, JbSerializer argSerializer,
+			JbDeserializer argDeserializer) throws IOException, UnsupportedObjectException {
+		for (int i = 0; i < warmupIters; i++) {
+			roundTrip(argWorld, argSerializer, argDeserializer);
+		}
+
+		Result r = new Result();
+		r.name = argName;
+		r.bodies = argWorld.getBodyCount();
+		long serializeTime = 0, writeTime = 0, deserializeTime = 0;
+		for (int i = 0; i < iters; i++) {
+			long a0 = allocatedBytes();
+			long t0 = System.nanoTime();
+			SerializationResult result = argSerializer.serialize(argWorld);
+			long t1 = System.nanoTime();
+			long a1 = allocatedBytes();
+			out.reset();
+			result.writeTo(out);
+			long t2 = System.nanoTime();
+			long a2 = allocatedBytes();
+			World w = argDeserializer.deserializeWorld(new ByteArrayInputStream(out.toByteArray()));
+			long t3 = System.nanoTime();
+			long a3 = allocatedBytes();
+
+			serializeTime += t1 - t0;
+			writeTime += t2 - t1;
+			deserializeTime += t3 - t2;
+			r.serializeAlloc += a1 - a0;
+			r.writeAlloc += a2 - a1;
+			r.deserializeAlloc += a3 - a2;
+			r.bytes = out.size();
+			aStore += w.getBodyCount();
+		}
+		r.serializeMs = serializeTime / 1000000.0 / iters;
+		r.writeMs = writeTime / 1000000.0 / iters;
+		r.deserializeMs = deserializeTime / 1000000.0 / iters;
+		r.serializeAlloc /= iters;
+		r.writeAlloc /= iters;
+		r.deserializeAlloc /= iters;
+		return r;
+	}
+
+	private void roundTrip(World argWorld, JbSerializer argSerializer,
+			JbDeserializer argDeserializer) throws IOException, UnsupportedObjectException {
+		out.reset();
+		argSerializer.serialize(argWorld).writeTo(out);
+		aStore += argDeserializer.deserializeWorld(new ByteArrayInputStream(out.toByteArray()))
+				.getBodyCount();
+	}
+
+	/**
+	 * Builds a world of dynamic circles, boxes and triangles in a grid over a static ground, with
+	 * every eighth body pinned to its neighbor by a revolute joint.
+	 */
+	public static World createSyntheticWorld(int argBodies) {
+		World world = new World(new Vec2(0, -10f));
+		BodyDef bd = new BodyDef();
+		Body ground = world.createBody(bd);
+		PolygonShape groundShape = new PolygonShape();
+		groundShape.setAsBox(500f, 1f);
+		ground.createFixture(groundShape, 0);
+
+		CircleShape circle = new CircleShape();
+		circle.m_radius = 0.5f;
+		PolygonShape box = new PolygonShape();
+		box.setAsBox(0.5f, 0.5f);
+		PolygonShape triangle = new PolygonShape();
+		triangle.set(new Vec2[] {new Vec2(-0.5f, 0), new Vec2(0.5f, 0), new Vec2(0, 0.8f)}, 3);
+
+		FixtureDef fd = new FixtureDef();
+		fd.density = 1f;
+		fd.friction = 0.3f;
+		bd.type = BodyType.DYNAMIC;
+		RevoluteJointDef jd = new RevoluteJointDef();
+
+		int columns = (int) Math.ceil(Math.sqrt(argBodies));
+		Body prev = null;
+		for (int i = 0; i < argBodies; i++) {
+			bd.position.set((i % columns) * 1.2f - columns * 0.6f, 2f + (i / columns) * 1.2f);
+			Body body = world.createBody(bd);
+			switch (i % 3) {
+				case 0:
+					fd.shape = circle;
+					break;
+				case 1:
+					fd.shape = box;
+					break;
+				default:
+					fd.shape = triangle;
+					break;
+			}
+			body.createFixture(fd);
+			if (i % 8 == 0 && prev != null) {
+				jd.initialize(prev, body, body.getWorldCenter());
+				world.createJoint(jd);
+			}
+			prev = body;
+		}
+		return world;
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	public static void printResults(List<Result> argResults) {
+		System.out.printf("%-22s%8s%10s%8s%10s%10s%10s%11s%11s%12s%12s%12s\n", "Scenario", "Bodies",
+				"Bytes", "B/Body", "Ser ms", "Write ms", "Deser ms", "Ser MB/s", "Deser MB/s",
+				"Ser KB", "Write KB", "Deser KB");
+		for (Result r : argResults) {
+			System.out.printf("%-22s%8d%10d%8.1f%10.4f%10.4f%10.4f%11.2f%11.2f%12.1f%12.1f%12.1f\n",
+					r.name, r.bodies, r.bytes, r.bodies > 0 ? r.bytes / (float) r.bodies : 0f,
+					r.serializeMs, r.writeMs, r.deserializeMs, r.bytes / 1048.576 / r.serializeMs,
+					r.bytes / 1048.576 / r.deserializeMs, r.serializeAlloc / 1024.0,
+					r.writeAlloc / 1024.0, r.deserializeAlloc / 1024.0);
+		}
+	}
+
+	private static void usage(String argError) {
+		System.err.println(argError);
+		System.err.println("Usage: SerializationPerf [steps before measuring] [warmup iterations] "
+				+ "[measured iterations]");
+		System.err.println("Sample parameters: 60 20 50");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length > 3) {
+			usage("Too many parameters");
+		}
+		try {
+			if (args.length > 0) {
+				settleSteps = Integer.parseInt(args[0]);
+			}
+			if (args.length > 1) {
+				warmupIters = Integer.parseInt(args[1]);
+			}
+			if (args.length > 2) {
+				iters = Integer.parseInt(args[2]);
+			}
+		} catch (NumberFormatException e) {
+			usage("Not a number: " + e.getMessage());
+		}
+		if (settleSteps < 0 || warmupIters < 0 || iters <= 0) {
+			usage("Steps and warmup iterations can't be negative, and there must be measured iterations");
+		}
+
+		SerializationPerf perf = new SerializationPerf();
+		List<Result> results = new ArrayList<Result>();
+
+		HeadlessTestbed testbed = new HeadlessTestbed();
+		for (TestbedTest test : testbed.getTests()) {
+			if (!test.isSaveLoadEnabled()) {
+				continue;
+			}
+			testbed.init(test);
+			testbed.step(test, settleSteps);
+			try {
+				results.add(perf.measure(test.getTestName(), test.getWorld(), new PbSerializer(test,
+						test), new PbDeserializer((UnsupportedListener) test)));
+			} catch (UnsupportedObjectException e) {
+				System.out.println("Skipping " + test.getTestName() + ": " + e.getMessage());
+			}
+		}
+
+		for (int size : syntheticSizes) {
+			World world = createSyntheticWorld(size);
+			try {
+				results.add(perf.measure("Synthetic " + size, world, new PbSerializer(),
+						new PbDeserializer()));
+			} catch (UnsupportedObjectException e) {
+				System.out.println("Skipping synthetic " + size + ": " + e.getMessage());
+			}
+		}
+
+		printResults(results);
+
+		BenchmarkHistory history = new BenchmarkHistory("SerializationPerf");
+		for (Result r : results) {
+			history.add(r.name + ":serialize", "ms", false, r.serializeMs);
+			history.add(r.name + ":write", "ms", false, r.writeMs);
+			history.add(r.name + ":deserialize", "ms", false, r.deserializeMs);
+			history.add(r.name + ":bytes", "B", false, r.bytes);
+		}
+		history.save();
+	}
+}
@@ -26,43 +26,49 @@
  */
 package org.jbox2d.testbed.perf;
 
-import org.jbox2d.common.MathUtils;
+import java.util.Random;
+
 import org.jbox2d.common.Vec2;
 import org.jbox2d.pooling.IWorldPool;
 import org.jbox2d.pooling.normal.DefaultWorldPool;
-import org.jbox2d.profile.BasicPerformanceTest;
-
-
-//Test Name               Milliseconds Avg
-//Pop2Sep                           6.9922
-//Pop2Cont                          7.0805
-//Pop3Sep                           9.9359
-//Pop3Cont                         10.1472
-//Pop4Sep                          13.8380
-//Pop4Cont                         14.0874
-//Pop9Sep                          31.5494
-//Pop9Cont                         31.0169
 
 /**
+ * Compares popping pooled vectors one at a time with taking them as a contiguous array from the
+ * pool. The contiguous cases use {@link IWorldPool#getVec2Array(int)}, since
+ * {@link IWorldPool#popVec2(int)} throws a ClassCastException in the bundled jbox2d. Run it with
+ * {@link MicroBenchmarkRunner}.
+ * 
  * @author Daniel Murphy
  */
-public class StackTest extends BasicPerformanceTest {
+public class StackTest extends MicroBenchmark {
 	
-	public static final int INNER_ITERS = 50000;
-	public static final int OUTER_ITERS = 200;
+	public static final int OPS = 1024;
 	
 	public static String[] tests = new String[]{
 		"Pop2Sep", "Pop2Cont", "Pop3Sep", "Pop3Cont", "Pop4Sep", "Pop4Cont", "Pop9Sep", "Pop9Cont"
 	};
- 	public static float aStore = 0;
-	
-	public StackTest(){
-		super(8, OUTER_ITERS);
+
+	private final float[] xs = new float[OPS + 9];
+	private final float[] ys = new float[OPS + 9];
+
+	@Override
+	public String[] getBenchmarkNames() {
+		return tests;
 	}
-	
-	
-	public float op(Vec2 argVec){
-		argVec.set(MathUtils.randomFloat(-100, 100), MathUtils.randomFloat(-100, 100));
+
+	@Override
+	public int getOpsPerInvocation() {
+		return OPS;
+	}
+
+	@Override
+	public void setupInvocation(Random argRandom) {
+		fill(argRandom, xs, -100, 100);
+		fill(argRandom, ys, -100, 100);
+	}
+
+	public float op(Vec2 argVec, int argIndex){
+		argVec.set(xs[argIndex], ys[argIndex]);
 		argVec.mulLocal(3.2f);
 		float s = argVec.length();
 		argVec.normalize();
@@ -71,63 +77,55 @@ public class StackTest extends BasicPerformanceTest {
 	
 	private final IWorldPool wp = new DefaultWorldPool(100, 10);
 
-	
-	/**
-	 * @see org.jbox2d.testbed.perf.BasicPerformanceTest#runTest(int)
-	 */
 	@Override
-	public void runTest(int argNum) {
-		
+	public void invoke(int argNum, Blackhole argBlackhole) {
 		float a = 0;
-		for(int i=0; i<INNER_ITERS; i++){
+		for(int i=0; i<OPS; i++){
 			switch(argNum){
 				case 0:{
 					final Vec2 v1 = wp.popVec2();
 					final Vec2 v2 = wp.popVec2();
-					a += op(v1);
-					a += op(v2);
+					a += op(v1, i);
+					a += op(v2, i + 1);
 					wp.pushVec2(2);
 					break;}
 				case 1:{
-					final Vec2[] pc = wp.popVec2(2);
-					a += op(pc[0]);
-					a += op(pc[1]);
-					wp.pushVec2(2);
+					final Vec2[] pc = wp.getVec2Array(2);
+					a += op(pc[0], i);
+					a += op(pc[1], i + 1);
 					break;}
 				case 2:{
 					final Vec2 v1 = wp.popVec2();
 					final Vec2 v2 = wp.popVec2();
 					final Vec2 v3 = wp.popVec2();
-					a += op(v1);
-					a += op(v2);
-					a += op(v3);
+					a += op(v1, i);
+					a += op(v2, i + 1);
+					a += op(v3, i + 2);
 					wp.pushVec2(3);
 					break;}
 				case 3:{
-					final Vec2[] pc = wp.popVec2(3);
-					a += op(pc[0]);
-					a += op(pc[1]);
-					a += op(pc[2]);
-					wp.pushVec2(3);
+					final Vec2[] pc = wp.getVec2Array(3);
+					a += op(pc[0], i);
+					a += op(pc[1], i + 1);
+					a += op(pc[2], i + 2);
 					break;}
 				case 4:{
 					final Vec2 v1 = wp.popVec2();
 					final Vec2 v2 = wp.popVec2();
 					final Vec2 v3 = wp.popVec2();
 					final Vec2 v4 = wp.popVec2();
-					a += op(v1);
-					a += op(v2);
-					a += op(v3);
-					a += op(v4);
+					a += op(v1, i);
+					a += op(v2, i + 1);
+					a += op(v3, i + 2);
+					a += op(v4, i + 3);
 					wp.pushVec2(4);
 					break;}
 				case 5:{
-					final Vec2[] pc = wp.popVec2(4);
-					a += op(pc[0]);
-					a += op(pc[1]);
-					a += op(pc[2]);
-					a += op(pc[3]);
-					wp.pushVec2(4);}
+					final Vec2[] pc = wp.getVec2Array(4);
+					a += op(pc[0], i);
+					a += op(pc[1], i + 1);
+					a += op(pc[2], i + 2);
+					a += op(pc[3], i + 3);}
 					break;
 				case 6:{
 					final Vec2 v1 = wp.popVec2();
@@ -139,45 +137,36 @@ public class StackTest extends BasicPerformanceTest {
 					final Vec2 v7 = wp.popVec2();
 					final Vec2 v8 = wp.popVec2();
 					final Vec2 v9 = wp.popVec2();
-					a += op(v1);
-					a += op(v2);
-					a += op(v3);
-					a += op(v4);
-					a += op(v5);
-					a += op(v6);
-					a += op(v7);
-					a += op(v8);
-					a += op(v9);
+					a += op(v1, i);
+					a += op(v2, i + 1);
+					a += op(v3, i + 2);
+					a += op(v4, i + 3);
+					a += op(v5, i + 4);
+					a += op(v6, i + 5);
+					a += op(v7, i + 6);
+					a += op(v8, i + 7);
+					a += op(v9, i + 8);
 					wp.pushVec2(9);
 					break;}
 				case 7:{
-					final Vec2[] pc = wp.popVec2(9);
-					a += op(pc[0]);
-					a += op(pc[1]);
-					a += op(pc[2]);
-					a += op(pc[3]);
-					a += op(pc[4]);
-					a += op(pc[5]);
-					a += op(pc[6]);
-					a += op(pc[7]);
-					a += op(pc[8]);
-					wp.pushVec2(9);
+					final Vec2[] pc = wp.getVec2Array(9);
+					a += op(pc[0], i);
+					a += op(pc[1], i + 1);
+					a += op(pc[2], i + 2);
+					a += op(pc[3], i + 3);
+					a += op(pc[4], i + 4);
+					a += op(pc[5], i + 5);
+					a += op(pc[6], i + 6);
+					a += op(pc[7], i + 7);
+					a += op(pc[8], i + 8);
 					break;}
 			}
+			argBlackhole.consume(a);
+			a = 0;
 		}
-		aStore += a;
-	}
-	
-	/**
-	 * @see org.jbox2d.testbed.perf.BasicPerformanceTest#getTestName(int)
-	 */
-	@Override
-	public String getTestName(int argNum) {
-		return tests[argNum];
 	}
 	
-	public static void main(String[] c){
-		(new StackTest()).go();
+	public static void main(String[] c) throws Exception {
+		MicroBenchmarkRunner.main(StackTest.class, c);
 	}
-	
 }
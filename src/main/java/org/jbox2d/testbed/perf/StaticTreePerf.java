@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.jbox2d.callbacks.QueryCallback;
+import org.jbox2d.callbacks.RayCastCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import org.jbox2d.collision.shapes.ChainShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.pooling.normal.DefaultWorldPool;
+import org.jbox2d.testbed.broadphase.BroadPhaseStrategies;
+import org.jbox2d.testbed.broadphase.BulkLoadable;
+
+/**
+ * Builds a large static level, a chain shape terrain and boxes scattered over it created left to
+ * right like a level loader would, inserted one proxy at a time and bulk loaded
+ * ({@link BulkLoadable}), then times world AABB queries and ray casts against it. Reports the
+ * setup time and the tree height, balance and quality from the world, and checks that every mode
+ * finds the same fixtures.<br/>
+ * <br/>
+ * Usage: <code>StaticTreePerf [-n 10000,50000,...] [-queries count] [-setups count]
+ * [-warmup batches] [-batches batches]</code>
+ */
+public class StaticTreePerf {
+
+	/**
+	 * The strategy, and whether it's bulk loaded
+	 */
+	public static String[][] modes = { {BroadPhaseStrategies.TREE, "false"},
+			{BroadPhaseStrategies.FLAT_TREE, "false"}, {BroadPhaseStrategies.FLAT_TREE, "true"}};
+	public static int[] proxyCounts = {10000, 50000};
+	public static int queries = 2000;
+	public static int setups = 5;
+	public static int warmupBatches = 10;
+	public static int batches = 30;
+	public static float spacing = .5f;
+	public static float querySize = 4;
+	public static float rayLength = 20;
+
+	public static class Result {
+		public String mode;
+		public int count;
+		public double setupMillis;
+		public int height, balance;
+		public float quality;
+		public double[] queryMillis, rayMillis;
+		public double queryMean, queryError, rayMean, rayError;
+		public long hits;
+		public boolean mismatch;
+	}
+
+	private static class CountingCallback implements QueryCallback, RayCastCallback {
+		long count;
+
+		public boolean reportFixture(Fixture argFixture) {
+			count++;
+			return true;
+		}
+
+		public float reportFixture(Fixture argFixture, Vec2 argPoint, Vec2 argNormal, float argFraction) {
+			count++;
+			return 1;
+		}
+	}
+
+	/**
+	 * Creates the level, half of the proxies terrain segments and half boxes
+	 */
+	public static World createLevel(BroadPhaseStrategy argStrategy, boolean argBulkLoad, int argCount) {
+		World world = new World(new Vec2(0, -10), new DefaultWorldPool(100, 10), argStrategy);
+		if (argBulkLoad) {
+			((BulkLoadable) argStrategy).beginBulkLoad();
+		}
+		Random random = new Random(argCount);
+		int segments = argCount / 2;
+		float width = segments * spacing;
+
+		Vec2[] vertices = new Vec2[segments + 1];
+		for (int i = 0; i <= segments; i++) {
+			float x = i * spacing - width / 2;
+			vertices[i] = new Vec2(x, 4 * MathUtils.sin(x * .05f) + random.nextFloat());
+		}
+		ChainShape chain = new ChainShape();
+		chain.createChain(vertices, vertices.length);
+		world.createBody(new BodyDef()).createFixture(chain, 0);
+
+		BodyDef bd = new BodyDef();
+		PolygonShape box = new PolygonShape();
+		for (int i = 0, boxes = argCount - segments; i < boxes; i++) {
+			box.setAsBox(.2f + random.nextFloat(), .2f + random.nextFloat() * .5f);
+			bd.position.set((i + random.nextFloat()) * width / boxes - width / 2, 8 + random.nextFloat() * 30);
+			bd.angle = random.nextFloat() * MathUtils.PI;
+			Body body = world.createBody(bd);
+			body.createFixture(box, 0);
+		}
+		if (argBulkLoad) {
+			((BulkLoadable) argStrategy).endBulkLoad();
+		}
+		return world;
+	}
+
+	public static Result measure(String argStrategy, boolean argBulkLoad, int argCount) {
+		Result result = new Result();
+		result.mode = argStrategy + (argBulkLoad ? " bulk" : "");
+		result.count = argCount;
+
+		World world = null;
+		long setupNanos = 0;
+		for (int i = 0; i < setups; i++) {
+			long start = System.nanoTime();
+			world = createLevel(BroadPhaseStrategies.create(argStrategy), argBulkLoad, argCount);
+			setupNanos += System.nanoTime() - start;
+		}
+		result.setupMillis = setupNanos / 1e6 / setups;
+		result.height = world.getTreeHeight();
+		result.balance = world.getTreeBalance();
+		result.quality = world.getTreeQuality();
+
+		float halfWidth = argCount / 2 * spacing / 2;
+		float[] queryX = new float[queries], queryY = new float[queries];
+		float[] rayX = new float[queries], rayY = new float[queries], rayAngle = new float[queries];
+		Random random = new Random(1);
+		for (int i = 0; i < queries; i++) {
+			queryX[i] = (random.nextFloat() * 2 - 1) * halfWidth;
+			queryY[i] = random.nextFloat() * 40 - 5;
+			rayX[i] = (random.nextFloat() * 2 - 1) * halfWidth;
+			rayY[i] = random.nextFloat() * 40 - 5;
+			rayAngle[i] = random.nextFloat() * MathUtils.TWOPI;
+		}
+
+		CountingCallback callback = new CountingCallback();
+		AABB aabb = new AABB();
+		Vec2 p1 = new Vec2(), p2 = new Vec2();
+		result.queryMillis = new double[batches];
+		result.rayMillis = new double[batches];
+		for (int b = -warmupBatches; b < batches; b++) {
+			callback.count = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < queries; i++) {
+				aabb.lowerBound.set(queryX[i] - querySize / 2, queryY[i] - querySize / 2);
+				aabb.upperBound.set(queryX[i] + querySize / 2, queryY[i] + querySize / 2);
+				world.queryAABB(callback, aabb);
+			}
+			long middle = System.nanoTime();
+			for (int i = 0; i < queries; i++) {
+				p1.set(rayX[i], rayY[i]);
+				p2.set(rayX[i] + rayLength * MathUtils.cos(rayAngle[i]), rayY[i] + rayLength
+						* MathUtils.sin(rayAngle[i]));
+				world.raycast(callback, p1, p2);
+			}
+			long end = System.nanoTime();
+			if (b >= 0) {
+				result.queryMillis[b] = (middle - start) / 1e6;
+				result.rayMillis[b] = (end - middle) / 1e6;
+			}
+			result.hits = callback.count;
+		}
+		result.queryMean = BenchmarkStatistics.mean(result.queryMillis, batches);
+		result.queryError = BenchmarkStatistics.error999(result.queryMillis, batches);
+		result.rayMean = BenchmarkStatistics.mean(result.rayMillis, batches);
+		result.rayError = BenchmarkStatistics.error999(result.rayMillis, batches);
+		return result;
+	}
+
+	public static void printResults(List<Result> argResults) {
+		System.out.printf("%-12s%8s%12s%8s%9s%10s%12s%10s%12s%10s%12s\n", "Mode", "Proxies", "Setup ms", "Height",
+				"Balance", "Quality", "Query ms", "Error", "Ray ms", "Error", "Hits");
+		for (Result r : argResults) {
+			System.out.printf(Locale.ROOT, "%-12s%8d%12.2f%8d%9d%10.2f%12.3f%10.3f%12.3f%10.3f%12d%s\n", r.mode,
+					r.count, r.setupMillis, r.height, r.balance, r.quality, r.queryMean, r.queryError, r.rayMean,
+					r.rayError, r.hits, r.mismatch ? " MISMATCH" : "");
+		}
+	}
+
+	private static int[] parseCounts(String argValue) {
+		String[] values = argValue.split(",");
+		int[] counts = new int[values.length];
+		for (int j = 0; j < values.length; j++) {
+			counts[j] = Integer.parseInt(values[j]);
+		}
+		return counts;
+	}
+
+	public static void main(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-n")) {
+				proxyCounts = parseCounts(args[++i]);
+			} else if (args[i].equals("-queries")) {
+				queries = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-setups")) {
+				setups = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-warmup")) {
+				warmupBatches = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-batches")) {
+				batches = Integer.parseInt(args[++i]);
+			}
+		}
+
+		System.out.println("# JIT warmup");
+		for (String[] mode : modes) {
+			measure(mode[0], Boolean.parseBoolean(mode[1]), 2000);
+		}
+
+		List<Result> results = new ArrayList<Result>();
+		for (int count : proxyCounts) {
+			Result first = null;
+			for (String[] mode : modes) {
+				boolean bulkLoad = Boolean.parseBoolean(mode[1]);
+				System.out.println("# " + count + " proxies, " + mode[0] + (bulkLoad ? " bulk" : ""));
+				Result result = measure(mode[0], bulkLoad, count);
+				if (first == null) {
+					first = result;
+				} else {
+					result.mismatch = result.hits != first.hits;
+				}
+				results.add(result);
+			}
+		}
+		printResults(results);
+
+		BenchmarkHistory history = new BenchmarkHistory("StaticTreePerf");
+		for (Result r : results) {
+			history.add("query/" + r.mode + "/" + r.count, "ms", false, r.queryMillis);
+			history.add("raycast/" + r.mode + "/" + r.count, "ms", false, r.rayMillis);
+		}
+		history.save();
+
+		for (Result r : results) {
+			if (r.mismatch) {
+				System.err.println(r.mode + " found different fixtures than " + modes[0][0] + " at " + r.count
+						+ " proxies");
+				System.exit(1);
+			}
+		}
+	}
+}
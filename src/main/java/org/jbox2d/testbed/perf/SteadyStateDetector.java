@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.perf;
+
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.World;
+
+/**
+ * Decides when a world has reached steady state, from one step at a time. The step times from
+ * {@link World#getProfile()} are collected in fixed windows, and the world is steady when the mean
+ * of a window is within the tolerance, or within the two windows' 99.9% confidence intervals, of
+ * the window before it and the body count didn't change in between. A world is also steady once
+ * enough of its dynamic bodies are asleep, since nothing will change until something wakes them.
+ */
+public class SteadyStateDetector {
+
+	public static final String NOT_STEADY = "not steady";
+	public static final String STEP_TIME = "step time";
+	public static final String ASLEEP = "asleep";
+
+	public int window = 60;
+	public double tolerance = .1;
+	public double sleepRatio = .95;
+
+	private double[] samples;
+	private int count;
+	private double previousMean;
+	private double previousError;
+	private int previousBodies;
+	private int windows;
+	private String reason;
+
+	public SteadyStateDetector() {
+		reset();
+	}
+
+	public void reset() {
+		samples = new double[window];
+		count = 0;
+		windows = 0;
+		previousMean = Double.NaN;
+		previousError = Double.NaN;
+		previousBodies = -1;
+		reason = NOT_STEADY;
+	}
+
+	/**
+	 * Adds the step the world just took
+	 * 
+	 * @param argWorld
+	 * @return true if the world is steady
+	 */
+	public boolean add(World argWorld) {
+		if (isSteady()) {
+			return true;
+		}
+		if (isAsleep(argWorld)) {
+			reason = ASLEEP;
+			return true;
+		}
+		samples[count++] = argWorld.getProfile().step;
+		if (count < window) {
+			return false;
+		}
+		double mean = BenchmarkStatistics.mean(samples, count);
+		double error = BenchmarkStatistics.error999(samples, count);
+		int bodies = argWorld.getBodyCount();
+		if (windows > 0 && bodies == previousBodies) {
+			double difference = Math.abs(mean - previousMean);
+			if (difference <= tolerance * previousMean
+					|| difference <= Math.sqrt(error * error + previousError * previousError)) {
+				reason = STEP_TIME;
+			}
+		}
+		previousMean = mean;
+		previousError = error;
+		previousBodies = bodies;
+		windows++;
+		count = 0;
+		return isSteady();
+	}
+
+	public boolean isSteady() {
+		return reason != NOT_STEADY;
+	}
+
+	/**
+	 * Why the world is steady, {@link #STEP_TIME}, {@link #ASLEEP}, or {@link #NOT_STEADY}
+	 * 
+	 * @return
+	 */
+	public String getReason() {
+		return reason;
+	}
+
+	private boolean isAsleep(World argWorld) {
+		int dynamic = 0, asleep = 0;
+		for (Body b = argWorld.getBodyList(); b != null; b = b.getNext()) {
+			if (b.getType() == BodyType.STATIC) {
+				continue;
+			}
+			dynamic++;
+			if (!b.isAwake()) {
+				asleep++;
+			}
+		}
+		return dynamic > 0 && asleep >= sleepRatio * dynamic;
+	}
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.query;
+
+/**
+ * The boxes of a batch AABB query and, after {@link BatchQueryService#query(AABBQueryBatch)}, the
+ * fixtures overlapping each of them. The results of all the boxes are packed into one array, box
+ * i's from {@link #getResultStart(int)} for {@link #getResultCount(int)} entries. Everything is
+ * kept in primitive arrays that are only reallocated when the batch grows.
+ */
+public class AABBQueryBatch {
+  private int count = 0;
+  private int capacity = 0;
+
+  private float[] lowerX, lowerY, upperX, upperY;
+  private int[] resultStart, resultCount;
+  private int[] results = new int[64];
+
+  public AABBQueryBatch(int argCapacity) {
+    ensureCapacity(argCapacity);
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Sets the number of boxes, growing the arrays if needed
+   * 
+   * @param argCount
+   */
+  public void setCount(int argCount) {
+    ensureCapacity(argCount);
+    count = argCount;
+  }
+
+  public void setAABB(int argIndex, float argLowerX, float argLowerY, float argUpperX, float argUpperY) {
+    lowerX[argIndex] = argLowerX;
+    lowerY[argIndex] = argLowerY;
+    upperX[argIndex] = argUpperX;
+    upperY[argIndex] = argUpperY;
+  }
+
+  public float getLowerX(int argIndex) {
+    return lowerX[argIndex];
+  }
+
+  public float getLowerY(int argIndex) {
+    return lowerY[argIndex];
+  }
+
+  public float getUpperX(int argIndex) {
+    return upperX[argIndex];
+  }
+
+  public float getUpperY(int argIndex) {
+    return upperY[argIndex];
+  }
+
+  public int getResultStart(int argIndex) {
+    return resultStart[argIndex];
+  }
+
+  public int getResultCount(int argIndex) {
+    return resultCount[argIndex];
+  }
+
+  /**
+   * @param argIndex the box
+   * @param argResult from 0 to the box's result count
+   * @return the fixture's index in the service's snapshot, see
+   *         {@link BatchQueryService#getFixture(int)}
+   */
+  public int getResult(int argIndex, int argResult) {
+    return results[resultStart[argIndex] + argResult];
+  }
+
+  /**
+   * @return the packed results of all the boxes
+   */
+  public int[] getResults() {
+    return results;
+  }
+
+  int[] ensureResultCapacity(int argCapacity) {
+    if (argCapacity > results.length) {
+      results = new int[Math.max(argCapacity, results.length * 2)];
+    }
+    return results;
+  }
+
+  void setResultRange(int argIndex, int argStart, int argCount) {
+    resultStart[argIndex] = argStart;
+    resultCount[argIndex] = argCount;
+  }
+
+  private void ensureCapacity(int argCapacity) {
+    if (argCapacity <= capacity) {
+      return;
+    }
+    int newCapacity = Math.max(argCapacity, capacity * 2);
+    lowerX = grow(lowerX, newCapacity);
+    lowerY = grow(lowerY, newCapacity);
+    upperX = grow(upperX, newCapacity);
+    upperY = grow(upperY, newCapacity);
+    resultStart = new int[newCapacity];
+    resultCount = new int[newCapacity];
+    capacity = newCapacity;
+  }
+
+  private static float[] grow(float[] argOld, int argCapacity) {
+    float[] array = new float[argCapacity];
+    if (argOld != null) {
+      System.arraycopy(argOld, 0, array, 0, argOld.length);
+    }
+    return array;
+  }
+}
@@ -0,0 +1,610 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.jbox2d.collision.AABB;
+import org.jbox2d.common.Transform;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+
+/**
+ * Runs batches of ray casts and AABB queries against a world, split over worker threads. It's
+ * meant for the read-only phase between steps: {@link #update(World)} takes a snapshot of the
+ * fixtures' bounding boxes and transforms into flat arrays and builds a bounding volume tree over
+ * them, and every batch after that is answered from the snapshot, with each thread keeping its own
+ * traversal stack and scratch. Nothing goes through the world's broadphase or pool, so the
+ * threads don't share any mutable state, and the results land in the batch's primitive arrays.<br/>
+ * <br/>
+ * The world must not be stepped or changed between the update and the batches. Fixtures are
+ * reported by their index in the snapshot, see {@link #getFixture(int)}. Ray casts test the
+ * actual shapes, with {@link ShapeRayCast}, and AABB queries report the fixtures whose bounding
+ * boxes overlap, like {@link World#queryAABB}.
+ */
+public class BatchQueryService {
+  /**
+   * Below this many queries in a batch the work isn't worth handing to other threads
+   */
+  public static int parallelThreshold = 256;
+
+  /**
+   * Entries per leaf of the tree
+   */
+  private static final int LEAF_SIZE = 4;
+
+  // per fixture
+  private Fixture[] fixtures = new Fixture[0];
+  private int[] categoryBits = new int[0];
+  private boolean[] sensor = new boolean[0];
+  private float[] x = new float[0], y = new float[0], cos = new float[0], sin = new float[0];
+  private int fixtureCount = 0;
+
+  // per fixture child, in tree order
+  private float[] entryLowerX = new float[0], entryLowerY = new float[0];
+  private float[] entryUpperX = new float[0], entryUpperY = new float[0];
+  private float[] entryCenterX = new float[0], entryCenterY = new float[0];
+  private int[] entryFixture = new int[0], entryChild = new int[0];
+  private int entryCount = 0;
+
+  // the tree, children are allocated in pairs so a node's second child is its first plus one
+  private float[] nodeLowerX = new float[0], nodeLowerY = new float[0];
+  private float[] nodeUpperX = new float[0], nodeUpperY = new float[0];
+  private int[] nodeChild = new int[0], nodeStart = new int[0], nodeCount = new int[0];
+  private int nodes = 0;
+  private int height = 0;
+
+  private int maskBits = 0xFFFF;
+  private boolean includeSensors = true;
+
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private ExecutorService executor;
+  private final List<Worker> workers = new ArrayList<Worker>();
+
+  public BatchQueryService() {
+    workers.add(new Worker());
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Sets the number of threads a batch is split over, including the calling thread
+   * 
+   * @param argThreads
+   */
+  public void setThreads(int argThreads) {
+    if (argThreads != threads) {
+      shutdown();
+      threads = Math.max(1, argThreads);
+    }
+  }
+
+  /**
+   * Stops the worker threads. They're started again by the next batch that needs them.
+   */
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  /**
+   * Only fixtures with a category bit in the mask are reported
+   * 
+   * @param argMaskBits
+   */
+  public void setMaskBits(int argMaskBits) {
+    maskBits = argMaskBits;
+  }
+
+  public int getMaskBits() {
+    return maskBits;
+  }
+
+  public void setIncludeSensors(boolean argIncludeSensors) {
+    includeSensors = argIncludeSensors;
+  }
+
+  public boolean isIncludeSensors() {
+    return includeSensors;
+  }
+
+  public int getFixtureCount() {
+    return fixtureCount;
+  }
+
+  /**
+   * @param argIndex a fixture index from a batch's results
+   * @return
+   */
+  public Fixture getFixture(int argIndex) {
+    return fixtures[argIndex];
+  }
+
+  /**
+   * @return the height of the snapshot's tree
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Takes a snapshot of the world's fixtures for the batches that follow
+   * 
+   * @param argWorld
+   */
+  public void update(World argWorld) {
+    fixtureCount = 0;
+    entryCount = 0;
+    for (Body b = argWorld.getBodyList(); b != null; b = b.getNext()) {
+      Transform xf = b.getTransform();
+      for (Fixture f = b.getFixtureList(); f != null; f = f.getNext()) {
+        if (f.m_proxyCount == 0) {
+          // inactive body
+          continue;
+        }
+        if (fixtureCount == fixtures.length) {
+          growFixtures(Math.max(64, fixtureCount * 2));
+        }
+        int index = fixtureCount++;
+        fixtures[index] = f;
+        categoryBits[index] = f.m_filter.categoryBits;
+        sensor[index] = f.m_isSensor;
+        x[index] = xf.p.x;
+        y[index] = xf.p.y;
+        cos[index] = xf.q.c;
+        sin[index] = xf.q.s;
+        for (int child = 0; child < f.m_proxyCount; child++) {
+          if (entryCount == entryFixture.length) {
+            growEntries(Math.max(64, entryCount * 2));
+          }
+          AABB aabb = f.getAABB(child);
+          int e = entryCount++;
+          entryLowerX[e] = aabb.lowerBound.x;
+          entryLowerY[e] = aabb.lowerBound.y;
+          entryUpperX[e] = aabb.upperBound.x;
+          entryUpperY[e] = aabb.upperBound.y;
+          entryCenterX[e] = (aabb.lowerBound.x + aabb.upperBound.x) * .5f;
+          entryCenterY[e] = (aabb.lowerBound.y + aabb.upperBound.y) * .5f;
+          entryFixture[e] = index;
+          entryChild[e] = child;
+        }
+      }
+    }
+    for (int i = fixtureCount; i < fixtures.length && fixtures[i] != null; i++) {
+      fixtures[i] = null;
+    }
+    build();
+  }
+
+  private void growFixtures(int argCapacity) {
+    Fixture[] oldFixtures = fixtures;
+    fixtures = new Fixture[argCapacity];
+    System.arraycopy(oldFixtures, 0, fixtures, 0, fixtureCount);
+    boolean[] oldSensor = sensor;
+    sensor = new boolean[argCapacity];
+    System.arraycopy(oldSensor, 0, sensor, 0, fixtureCount);
+    categoryBits = copy(categoryBits, argCapacity);
+    x = copy(x, argCapacity);
+    y = copy(y, argCapacity);
+    cos = copy(cos, argCapacity);
+    sin = copy(sin, argCapacity);
+  }
+
+  private void growEntries(int argCapacity) {
+    entryLowerX = copy(entryLowerX, argCapacity);
+    entryLowerY = copy(entryLowerY, argCapacity);
+    entryUpperX = copy(entryUpperX, argCapacity);
+    entryUpperY = copy(entryUpperY, argCapacity);
+    entryCenterX = copy(entryCenterX, argCapacity);
+    entryCenterY = copy(entryCenterY, argCapacity);
+    entryFixture = copy(entryFixture, argCapacity);
+    entryChild = copy(entryChild, argCapacity);
+  }
+
+  private static float[] copy(float[] argOld, int argCapacity) {
+    float[] array = new float[argCapacity];
+    System.arraycopy(argOld, 0, array, 0, Math.min(argOld.length, argCapacity));
+    return array;
+  }
+
+  private static int[] copy(int[] argOld, int argCapacity) {
+    int[] array = new int[argCapacity];
+    System.arraycopy(argOld, 0, array, 0, Math.min(argOld.length, argCapacity));
+    return array;
+  }
+
+  /**
+   * Builds the tree top down, splitting each node's entries at the median of their centers along
+   * the wider axis
+   */
+  private void build() {
+    // the median splits leave at least two entries in a leaf
+    int maxNodes = Math.max(1, entryCount);
+    if (nodeChild.length < maxNodes) {
+      nodeLowerX = new float[maxNodes];
+      nodeLowerY = new float[maxNodes];
+      nodeUpperX = new float[maxNodes];
+      nodeUpperY = new float[maxNodes];
+      nodeChild = new int[maxNodes];
+      nodeStart = new int[maxNodes];
+      nodeCount = new int[maxNodes];
+    }
+    nodes = 1;
+    height = build(0, 0, entryCount);
+  }
+
+  private int build(int argNode, int argStart, int argEnd) {
+    float lx = Float.MAX_VALUE, ly = Float.MAX_VALUE, ux = -Float.MAX_VALUE, uy = -Float.MAX_VALUE;
+    float clx = Float.MAX_VALUE, cly = Float.MAX_VALUE, cux = -Float.MAX_VALUE, cuy = -Float.MAX_VALUE;
+    for (int e = argStart; e < argEnd; e++) {
+      lx = Math.min(lx, entryLowerX[e]);
+      ly = Math.min(ly, entryLowerY[e]);
+      ux = Math.max(ux, entryUpperX[e]);
+      uy = Math.max(uy, entryUpperY[e]);
+      clx = Math.min(clx, entryCenterX[e]);
+      cly = Math.min(cly, entryCenterY[e]);
+      cux = Math.max(cux, entryCenterX[e]);
+      cuy = Math.max(cuy, entryCenterY[e]);
+    }
+    nodeLowerX[argNode] = lx;
+    nodeLowerY[argNode] = ly;
+    nodeUpperX[argNode] = ux;
+    nodeUpperY[argNode] = uy;
+
+    if (argEnd - argStart <= LEAF_SIZE) {
+      nodeStart[argNode] = argStart;
+      nodeCount[argNode] = argEnd - argStart;
+      nodeChild[argNode] = -1;
+      return 0;
+    }
+
+    int middle = (argStart + argEnd) >>> 1;
+    select(cux - clx >= cuy - cly ? entryCenterX : entryCenterY, argStart, argEnd - 1, middle);
+    int child = nodes;
+    nodes += 2;
+    nodeChild[argNode] = child;
+    nodeCount[argNode] = 0;
+    int height1 = build(child, argStart, middle);
+    int height2 = build(child + 1, middle, argEnd);
+    return 1 + Math.max(height1, height2);
+  }
+
+  /**
+   * Partially sorts the entries so the one at argK has the key it would have sorted, with smaller
+   * keys before it and larger after
+   */
+  private void select(float[] argKeys, int argLeft, int argRight, int argK) {
+    int left = argLeft, right = argRight;
+    while (left < right) {
+      float pivot = argKeys[(left + right) >>> 1];
+      int i = left, j = right;
+      while (i <= j) {
+        while (argKeys[i] < pivot) {
+          i++;
+        }
+        while (argKeys[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swapEntries(i++, j--);
+        }
+      }
+      if (argK <= j) {
+        right = j;
+      } else if (argK >= i) {
+        left = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  private void swapEntries(int argA, int argB) {
+    swap(entryLowerX, argA, argB);
+    swap(entryLowerY, argA, argB);
+    swap(entryUpperX, argA, argB);
+    swap(entryUpperY, argA, argB);
+    swap(entryCenterX, argA, argB);
+    swap(entryCenterY, argA, argB);
+    int t = entryFixture[argA];
+    entryFixture[argA] = entryFixture[argB];
+    entryFixture[argB] = t;
+    t = entryChild[argA];
+    entryChild[argA] = entryChild[argB];
+    entryChild[argB] = t;
+  }
+
+  private static void swap(float[] argArray, int argA, int argB) {
+    float t = argArray[argA];
+    argArray[argA] = argArray[argB];
+    argArray[argB] = t;
+  }
+
+  private boolean accepts(int argFixture) {
+    return (categoryBits[argFixture] & maskBits) != 0 && (includeSensors || !sensor[argFixture]);
+  }
+
+  /**
+   * Casts every ray in the batch
+   * 
+   * @param argBatch
+   */
+  public void raycast(RayCastBatch argBatch) {
+    run(argBatch, null, argBatch.getCount());
+  }
+
+  /**
+   * Queries every box in the batch
+   * 
+   * @param argBatch
+   */
+  public void query(AABBQueryBatch argBatch) {
+    run(null, argBatch, argBatch.getCount());
+    // pack the threads' results
+    int total = 0;
+    for (int t = 0; t < workers.size(); t++) {
+      total += workers.get(t).resultCount;
+    }
+    int[] results = argBatch.ensureResultCapacity(total);
+    int base = 0;
+    for (int t = 0; t < workers.size(); t++) {
+      Worker worker = workers.get(t);
+      if (worker.to <= worker.from) {
+        continue;
+      }
+      System.arraycopy(worker.results, 0, results, base, worker.resultCount);
+      for (int i = worker.from; i < worker.to; i++) {
+        argBatch.setResultRange(i, base + worker.resultStart[i - worker.from], worker.resultCounts[i
+            - worker.from]);
+      }
+      base += worker.resultCount;
+    }
+  }
+
+  private void run(RayCastBatch argRays, AABBQueryBatch argBoxes, int argCount) {
+    int used = threads == 1 || argCount < parallelThreshold ? 1 : threads;
+    while (workers.size() < used) {
+      workers.add(new Worker());
+    }
+    for (int t = 0; t < workers.size(); t++) {
+      int from = t < used ? (int) ((long) argCount * t / used) : 0;
+      int to = t < used ? (int) ((long) argCount * (t + 1) / used) : 0;
+      workers.get(t).set(argRays, argBoxes, from, to);
+    }
+    if (used == 1) {
+      workers.get(0).call();
+      return;
+    }
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+        public Thread newThread(Runnable argRunnable) {
+          Thread thread = new Thread(argRunnable, "BatchQueryService");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(used - 1);
+    for (int t = 1; t < used; t++) {
+      futures.add(executor.submit(workers.get(t)));
+    }
+    workers.get(0).call();
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Slab test of the segment from p1 to p1 + maxFraction * d against a box
+   */
+  static boolean segmentOverlaps(float argLowerX, float argLowerY, float argUpperX, float argUpperY,
+      float argP1X, float argP1Y, float argDX, float argDY, float argMaxFraction) {
+    float tmin = 0, tmax = argMaxFraction;
+    if (argDX == 0) {
+      if (argP1X < argLowerX || argP1X > argUpperX) {
+        return false;
+      }
+    } else {
+      float inverse = 1 / argDX;
+      float t1 = (argLowerX - argP1X) * inverse;
+      float t2 = (argUpperX - argP1X) * inverse;
+      tmin = Math.max(tmin, Math.min(t1, t2));
+      tmax = Math.min(tmax, Math.max(t1, t2));
+      if (tmin > tmax) {
+        return false;
+      }
+    }
+    if (argDY == 0) {
+      return argP1Y >= argLowerY && argP1Y <= argUpperY;
+    }
+    float inverse = 1 / argDY;
+    float t1 = (argLowerY - argP1Y) * inverse;
+    float t2 = (argUpperY - argP1Y) * inverse;
+    tmin = Math.max(tmin, Math.min(t1, t2));
+    tmax = Math.min(tmax, Math.max(t1, t2));
+    return tmin <= tmax;
+  }
+
+  /**
+   * A thread's range of the batch, with its own stack and scratch
+   */
+  private class Worker implements Callable<Void> {
+    private RayCastBatch rays;
+    private AABBQueryBatch boxes;
+    private int from, to;
+
+    private int[] stack = new int[64];
+    private final float[] out = new float[3];
+
+    // AABB query results for the range, the stamps keep a chain's fixture from being reported
+    // once per child
+    private int[] stamps = new int[0];
+    private int stamp = 0;
+    private int[] results = new int[64];
+    private int resultCount;
+    private int[] resultStart = new int[0], resultCounts = new int[0];
+
+    void set(RayCastBatch argRays, AABBQueryBatch argBoxes, int argFrom, int argTo) {
+      rays = argRays;
+      boxes = argBoxes;
+      from = argFrom;
+      to = argTo;
+      resultCount = 0;
+    }
+
+    public Void call() {
+      if (rays != null) {
+        for (int i = from; i < to; i++) {
+          raycast(i);
+        }
+      } else {
+        if (resultStart.length < to - from) {
+          resultStart = new int[to - from];
+          resultCounts = new int[to - from];
+        }
+        if (stamps.length < fixtureCount) {
+          stamps = new int[fixtures.length];
+          stamp = 0;
+        }
+        resultCount = 0;
+        for (int i = from; i < to; i++) {
+          query(i);
+        }
+      }
+      return null;
+    }
+
+    private void push(int argIndex, int argNode) {
+      if (argIndex == stack.length) {
+        stack = copy(stack, argIndex * 2);
+      }
+      stack[argIndex] = argNode;
+    }
+
+    private void raycast(int argRay) {
+      final RayCastBatch batch = rays;
+      batch.setMiss(argRay);
+      if (entryCount == 0) {
+        return;
+      }
+      final float p1x = batch.getP1X(argRay), p1y = batch.getP1Y(argRay);
+      final float p2x = batch.getP2X(argRay), p2y = batch.getP2Y(argRay);
+      final float dx = p2x - p1x, dy = p2y - p1y;
+      final boolean anyHit = batch.isAnyHit();
+      float maxFraction = 1;
+
+      int count = 0;
+      push(count++, 0);
+      while (count > 0) {
+        int node = stack[--count];
+        if (!segmentOverlaps(nodeLowerX[node], nodeLowerY[node], nodeUpperX[node], nodeUpperY[node], p1x, p1y,
+            dx, dy, maxFraction)) {
+          continue;
+        }
+        int child = nodeChild[node];
+        if (child != -1) {
+          push(count++, child);
+          push(count++, child + 1);
+          continue;
+        }
+        for (int e = nodeStart[node], end = e + nodeCount[node]; e < end; e++) {
+          int f = entryFixture[e];
+          if (!accepts(f)
+              || !segmentOverlaps(entryLowerX[e], entryLowerY[e], entryUpperX[e], entryUpperY[e], p1x, p1y, dx,
+                  dy, maxFraction)) {
+            continue;
+          }
+          if (ShapeRayCast.raycast(fixtures[f].m_shape, entryChild[e], x[f], y[f], cos[f], sin[f], p1x, p1y, p2x,
+              p2y, maxFraction, out)) {
+            maxFraction = out[0];
+            batch.setHit(argRay, f, out[0], out[1], out[2]);
+            if (anyHit) {
+              return;
+            }
+          }
+        }
+      }
+    }
+
+    private void query(int argBox) {
+      final AABBQueryBatch batch = boxes;
+      final float lx = batch.getLowerX(argBox), ly = batch.getLowerY(argBox);
+      final float ux = batch.getUpperX(argBox), uy = batch.getUpperY(argBox);
+      resultStart[argBox - from] = resultCount;
+      if (++stamp == Integer.MAX_VALUE) {
+        for (int i = 0; i < stamps.length; i++) {
+          stamps[i] = 0;
+        }
+        stamp = 1;
+      }
+      if (entryCount > 0) {
+        int count = 0;
+        push(count++, 0);
+        while (count > 0) {
+          int node = stack[--count];
+          if (nodeLowerX[node] > ux || nodeLowerY[node] > uy || lx > nodeUpperX[node] || ly > nodeUpperY[node]) {
+            continue;
+          }
+          int child = nodeChild[node];
+          if (child != -1) {
+            push(count++, child);
+            push(count++, child + 1);
+            continue;
+          }
+          for (int e = nodeStart[node], end = e + nodeCount[node]; e < end; e++) {
+            int f = entryFixture[e];
+            if (entryLowerX[e] > ux || entryLowerY[e] > uy || lx > entryUpperX[e] || ly > entryUpperY[e]
+                || stamps[f] == stamp || !accepts(f)) {
+              continue;
+            }
+            stamps[f] = stamp;
+            if (resultCount == results.length) {
+              results = copy(results, resultCount * 2);
+            }
+            results[resultCount++] = f;
+          }
+        }
+      }
+      resultCounts[argBox - from] = resultCount - resultStart[argBox - from];
+    }
+  }
+}
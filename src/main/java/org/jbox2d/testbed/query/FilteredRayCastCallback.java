@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.query;
+
+import org.jbox2d.callbacks.RayCastCallback;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.Fixture;
+
+/**
+ * A ray cast callback that skips fixtures before they're reported: those of one body, like the
+ * one casting the ray, and those of bodies with a given user data. Override
+ * {@link #accepts(Fixture)} to filter on anything else.
+ */
+public abstract class FilteredRayCastCallback implements RayCastCallback {
+  private Body ignoredBody;
+  private Object ignoredUserData;
+
+  public Body getIgnoredBody() {
+    return ignoredBody;
+  }
+
+  /**
+   * @param argBody the body to ray cast through, or null
+   */
+  public void setIgnoredBody(Body argBody) {
+    ignoredBody = argBody;
+  }
+
+  public Object getIgnoredUserData() {
+    return ignoredUserData;
+  }
+
+  /**
+   * @param argUserData bodies with user data equal to this are ray cast through, or null for none
+   */
+  public void setIgnoredUserData(Object argUserData) {
+    ignoredUserData = argUserData;
+  }
+
+  /**
+   * @param argFixture
+   * @return if the fixture can be hit
+   */
+  protected boolean accepts(Fixture argFixture) {
+    Body body = argFixture.getBody();
+    return body != ignoredBody
+        && (ignoredUserData == null || !ignoredUserData.equals(body.getUserData()));
+  }
+
+  public final float reportFixture(Fixture argFixture, Vec2 argPoint, Vec2 argNormal,
+      float argFraction) {
+    if (!accepts(argFixture)) {
+      return -1;
+    }
+    return reportHit(argFixture, argPoint, argNormal, argFraction);
+  }
+
+  /**
+   * Called for each accepted fixture the ray hits, like
+   * {@link RayCastCallback#reportFixture(Fixture, Vec2, Vec2, float)}. The point and normal belong
+   * to the world and are reused, copy them to keep them.
+   * 
+   * @return -1 to filter, 0 to terminate, fraction to clip the ray for closest hit, 1 to continue
+   */
+  protected abstract float reportHit(Fixture argFixture, Vec2 argPoint, Vec2 argNormal,
+      float argFraction);
+}
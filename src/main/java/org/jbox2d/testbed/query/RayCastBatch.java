@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.query;
+
+/**
+ * The rays of a batch ray cast and, after {@link BatchQueryService#raycast(RayCastBatch)}, what
+ * each of them hit. Everything is kept in primitive arrays that are only reallocated when the
+ * batch grows, so a batch can be refilled and cast every step without garbage.<br/>
+ * <br/>
+ * Each ray reports its closest hit, or with {@link #setAnyHit(boolean)} the first hit found,
+ * which is all a line of sight check needs and stops the search early.
+ */
+public class RayCastBatch {
+  private int count = 0;
+  private int capacity = 0;
+  private boolean anyHit = false;
+
+  private float[] p1x, p1y, p2x, p2y;
+  private int[] fixture;
+  private float[] fraction, pointX, pointY, normalX, normalY;
+
+  public RayCastBatch(int argCapacity) {
+    ensureCapacity(argCapacity);
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Sets the number of rays, growing the arrays if needed
+   * 
+   * @param argCount
+   */
+  public void setCount(int argCount) {
+    ensureCapacity(argCount);
+    count = argCount;
+  }
+
+  public boolean isAnyHit() {
+    return anyHit;
+  }
+
+  /**
+   * Stops each ray at the first hit found instead of the closest
+   * 
+   * @param argAnyHit
+   */
+  public void setAnyHit(boolean argAnyHit) {
+    anyHit = argAnyHit;
+  }
+
+  /**
+   * Sets a ray, from p1 to p2
+   */
+  public void setRay(int argIndex, float argP1X, float argP1Y, float argP2X, float argP2Y) {
+    p1x[argIndex] = argP1X;
+    p1y[argIndex] = argP1Y;
+    p2x[argIndex] = argP2X;
+    p2y[argIndex] = argP2Y;
+  }
+
+  public float getP1X(int argIndex) {
+    return p1x[argIndex];
+  }
+
+  public float getP1Y(int argIndex) {
+    return p1y[argIndex];
+  }
+
+  public float getP2X(int argIndex) {
+    return p2x[argIndex];
+  }
+
+  public float getP2Y(int argIndex) {
+    return p2y[argIndex];
+  }
+
+  public boolean hasHit(int argIndex) {
+    return fixture[argIndex] != -1;
+  }
+
+  /**
+   * @param argIndex
+   * @return the hit fixture's index in the service's snapshot, see
+   *         {@link BatchQueryService#getFixture(int)}, or -1 if the ray hit nothing
+   */
+  public int getFixture(int argIndex) {
+    return fixture[argIndex];
+  }
+
+  public float getFraction(int argIndex) {
+    return fraction[argIndex];
+  }
+
+  public float getPointX(int argIndex) {
+    return pointX[argIndex];
+  }
+
+  public float getPointY(int argIndex) {
+    return pointY[argIndex];
+  }
+
+  public float getNormalX(int argIndex) {
+    return normalX[argIndex];
+  }
+
+  public float getNormalY(int argIndex) {
+    return normalY[argIndex];
+  }
+
+  void setMiss(int argIndex) {
+    fixture[argIndex] = -1;
+    fraction[argIndex] = 1;
+    pointX[argIndex] = p2x[argIndex];
+    pointY[argIndex] = p2y[argIndex];
+    normalX[argIndex] = 0;
+    normalY[argIndex] = 0;
+  }
+
+  void setHit(int argIndex, int argFixture, float argFraction, float argNormalX, float argNormalY) {
+    fixture[argIndex] = argFixture;
+    fraction[argIndex] = argFraction;
+    pointX[argIndex] = p1x[argIndex] + argFraction * (p2x[argIndex] - p1x[argIndex]);
+    pointY[argIndex] = p1y[argIndex] + argFraction * (p2y[argIndex] - p1y[argIndex]);
+    normalX[argIndex] = argNormalX;
+    normalY[argIndex] = argNormalY;
+  }
+
+  private void ensureCapacity(int argCapacity) {
+    if (argCapacity <= capacity) {
+      return;
+    }
+    int newCapacity = Math.max(argCapacity, capacity * 2);
+    p1x = grow(p1x, newCapacity);
+    p1y = grow(p1y, newCapacity);
+    p2x = grow(p2x, newCapacity);
+    p2y = grow(p2y, newCapacity);
+    fixture = new int[newCapacity];
+    fraction = new float[newCapacity];
+    pointX = new float[newCapacity];
+    pointY = new float[newCapacity];
+    normalX = new float[newCapacity];
+    normalY = new float[newCapacity];
+    capacity = newCapacity;
+  }
+
+  private static float[] grow(float[] argOld, int argCapacity) {
+    float[] array = new float[argCapacity];
+    if (argOld != null) {
+      System.arraycopy(argOld, 0, array, 0, argOld.length);
+    }
+    return array;
+  }
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.query;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+
+/**
+ * Casts a ray through a world and keeps what it hit in primitive arrays, so casting every step
+ * doesn't allocate anything. Depending on the {@link Mode}, that's the closest hit, the first hit
+ * found, or every hit up to the buffer's capacity. The points and normals are copied out of the
+ * world's reused vectors as they're reported.
+ */
+public class RayCastBuffer extends FilteredRayCastCallback {
+  public static enum Mode {
+    /**
+     * The hit closest to the start of the ray
+     */
+    CLOSEST,
+    /**
+     * The first hit found, which is all a line of sight check needs, and stops the ray cast early
+     */
+    ANY,
+    /**
+     * Every hit, in the order they're found, until the buffer is full
+     */
+    ALL
+  }
+
+  private Mode mode;
+  private int count = 0;
+  private final Fixture[] fixtures;
+  private final float[] fractions, pointX, pointY, normalX, normalY;
+
+  private final Vec2 p1 = new Vec2(), p2 = new Vec2();
+
+  /**
+   * @param argMode
+   * @param argCapacity the most hits kept in {@link Mode#ALL}
+   */
+  public RayCastBuffer(Mode argMode, int argCapacity) {
+    assert (argCapacity > 0);
+    mode = argMode;
+    fixtures = new Fixture[argCapacity];
+    fractions = new float[argCapacity];
+    pointX = new float[argCapacity];
+    pointY = new float[argCapacity];
+    normalX = new float[argCapacity];
+    normalY = new float[argCapacity];
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  public void setMode(Mode argMode) {
+    mode = argMode;
+  }
+
+  public int getCapacity() {
+    return fixtures.length;
+  }
+
+  /**
+   * Forgets the hits, done by each cast
+   */
+  public void clear() {
+    for (int i = 0; i < count; i++) {
+      fixtures[i] = null;
+    }
+    count = 0;
+  }
+
+  /**
+   * Clears the buffer and casts a ray from p1 to p2
+   */
+  public void cast(World argWorld, Vec2 argP1, Vec2 argP2) {
+    cast(argWorld, argP1.x, argP1.y, argP2.x, argP2.y);
+  }
+
+  /**
+   * Clears the buffer and casts a ray from p1 to p2
+   */
+  public void cast(World argWorld, float argP1X, float argP1Y, float argP2X, float argP2Y) {
+    clear();
+    p1.set(argP1X, argP1Y);
+    p2.set(argP2X, argP2Y);
+    if (p1.x == p2.x && p1.y == p2.y) {
+      // the world can't ray cast a point
+      return;
+    }
+    argWorld.raycast(this, p1, p2);
+  }
+
+  @Override
+  protected float reportHit(Fixture argFixture, Vec2 argPoint, Vec2 argNormal, float argFraction) {
+    switch (mode) {
+      case CLOSEST:
+        // each report is closer than the last, the ray was clipped to it
+        set(0, argFixture, argPoint, argNormal, argFraction);
+        count = 1;
+        return argFraction;
+      case ANY:
+        set(0, argFixture, argPoint, argNormal, argFraction);
+        count = 1;
+        return 0;
+      default:
+        set(count++, argFixture, argPoint, argNormal, argFraction);
+        return count == fixtures.length ? 0 : 1;
+    }
+  }
+
+  private void set(int argIndex, Fixture argFixture, Vec2 argPoint, Vec2 argNormal,
+      float argFraction) {
+    fixtures[argIndex] = argFixture;
+    fractions[argIndex] = argFraction;
+    pointX[argIndex] = argPoint.x;
+    pointY[argIndex] = argPoint.y;
+    normalX[argIndex] = argNormal.x;
+    normalY[argIndex] = argNormal.y;
+  }
+
+  /**
+   * @return the number of hits, at most 1 unless in {@link Mode#ALL}
+   */
+  public int getCount() {
+    return count;
+  }
+
+  public boolean hasHit() {
+    return count > 0;
+  }
+
+  public Fixture getFixture(int argIndex) {
+    assert (argIndex < count);
+    return fixtures[argIndex];
+  }
+
+  public float getFraction(int argIndex) {
+    assert (argIndex < count);
+    return fractions[argIndex];
+  }
+
+  public float getPointX(int argIndex) {
+    assert (argIndex < count);
+    return pointX[argIndex];
+  }
+
+  public float getPointY(int argIndex) {
+    assert (argIndex < count);
+    return pointY[argIndex];
+  }
+
+  public float getNormalX(int argIndex) {
+    assert (argIndex < count);
+    return normalX[argIndex];
+  }
+
+  public float getNormalY(int argIndex) {
+    assert (argIndex < count);
+    return normalY[argIndex];
+  }
+
+  /**
+   * Copies a hit's point into the given vector
+   * 
+   * @return the vector
+   */
+  public Vec2 getPoint(int argIndex, Vec2 argOut) {
+    assert (argIndex < count);
+    return argOut.set(pointX[argIndex], pointY[argIndex]);
+  }
+
+  /**
+   * Copies a hit's normal into the given vector
+   * 
+   * @return the vector
+   */
+  public Vec2 getNormal(int argIndex, Vec2 argOut) {
+    assert (argIndex < count);
+    return argOut.set(normalX[argIndex], normalY[argIndex]);
+  }
+}
@@ -0,0 +1,513 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jbox2d.callbacks.QueryCallback;
+import org.jbox2d.callbacks.TreeCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.common.Transform;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.testbed.broadphase.FlatDynamicTree;
+import org.jbox2d.testbed.broadphase.TrackingBroadPhase;
+
+/**
+ * Closest hit ray casts for rays that persist from step to step, like sensors and sight lines,
+ * reusing what was found for them the step before. Each ray keeps a corridor, its segment's box
+ * grown by {@link #corridorMargin}, and the fixtures whose fat AABBs overlapped the corridor, each
+ * with its own hit and the transform it was tested at.<br/>
+ * <br/>
+ * On {@link #update()}, a ray whose segment is still in its corridor only casts against the
+ * candidates whose bodies have moved, or against all of them if the ray itself changed (starting
+ * with the last closest hit, so the others are mostly rejected by their boxes), and reuses the
+ * rest, so static geometry isn't tested again for a ray that stays put. The world's tree is only
+ * searched for the whole corridor when the segment leaves it or a proxy in it is destroyed. A
+ * proxy created in a corridor, or whose fat AABB moved into one, comes from the world's
+ * {@link TrackingBroadPhase}, and the fixtures around it are added to the ray's candidates. A body
+ * moving inside its fat AABB can't reach a corridor its fat AABB doesn't touch, so the results are
+ * the same as {@link World#raycast} with a closest hit callback.<br/>
+ * <br/>
+ * The world has to be created with a {@link TrackingBroadPhase}, and {@link #update()} called
+ * after each step. Changes to a fixture's shape or filter aren't tracked, call
+ * {@link #invalidate()} after them.
+ */
+public class RayCastCache {
+  /**
+   * How far the corridor reaches past the ray's box, the further the longer a moving ray keeps
+   * its candidates, but the more of them there are
+   */
+  public static float corridorMargin = 1f;
+
+  // candidate state, per candidate. The fraction is -1 until the candidate is cast against, and a
+  // miss is only known up to the limit it was cast with.
+  private static final int STRIDE = 8;
+  private static final int X = 0, Y = 1, COS = 2, SIN = 3, FRACTION = 4, NORMAL_X = 5, NORMAL_Y = 6,
+      LIMIT = 7;
+  private static final float MISS = 2;
+
+  private final World world;
+  private final TrackingBroadPhase tracker;
+  private final FlatDynamicTree corridors = new FlatDynamicTree();
+  private final List<Ray> rays = new ArrayList<Ray>();
+  private int freeRay = -1;
+
+  private int maskBits = 0xFFFF;
+  private boolean includeSensors = true;
+
+  private int fullCasts, casts, reuses;
+
+  private final AABB aabb = new AABB();
+  private final float[] out = new float[3];
+  private Ray gathering;
+  private final List<Ray> affected = new ArrayList<Ray>();
+  private final List<Fixture> changed = new ArrayList<Fixture>();
+
+  private final QueryCallback gatherCallback = new QueryCallback() {
+    public boolean reportFixture(Fixture argFixture) {
+      if (accepts(argFixture)) {
+        gathering.add(argFixture);
+      }
+      return true;
+    }
+  };
+
+  private final QueryCallback changedCallback = new QueryCallback() {
+    public boolean reportFixture(Fixture argFixture) {
+      if (accepts(argFixture)) {
+        changed.add(argFixture);
+      }
+      return true;
+    }
+  };
+
+  private final TreeCallback affectedCallback = new TreeCallback() {
+    public boolean treeCallback(int argProxyId) {
+      affected.add((Ray) corridors.getUserData(argProxyId));
+      return true;
+    }
+  };
+
+  private static class Ray {
+    final int id;
+    boolean active;
+    int next;
+    float p1x, p1y, p2x, p2y;
+    boolean changed, dirty;
+    int corridor = -1;
+    float lowerX, lowerY, upperX, upperY;
+
+    Fixture[] fixtures = new Fixture[8];
+    float[] state = new float[8 * STRIDE];
+    int count;
+    int gatheredCount;
+
+    int hit = -1;
+    float fraction, normalX, normalY;
+
+    Ray(int argId) {
+      id = argId;
+    }
+
+    boolean contains(Fixture argFixture) {
+      for (int i = 0; i < count; i++) {
+        if (fixtures[i] == argFixture) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void add(Fixture argFixture) {
+      if (count == fixtures.length) {
+        Fixture[] oldFixtures = fixtures;
+        fixtures = new Fixture[count * 2];
+        System.arraycopy(oldFixtures, 0, fixtures, 0, count);
+        float[] oldState = state;
+        state = new float[count * 2 * STRIDE];
+        System.arraycopy(oldState, 0, state, 0, count * STRIDE);
+      }
+      fixtures[count] = argFixture;
+      state[count * STRIDE + FRACTION] = -1;
+      count++;
+    }
+
+    void clear() {
+      for (int i = 0; i < count; i++) {
+        fixtures[i] = null;
+      }
+      count = 0;
+      hit = -1;
+    }
+  }
+
+  /**
+   * @param argWorld
+   * @param argTracker the world's broadphase strategy
+   */
+  public RayCastCache(World argWorld, TrackingBroadPhase argTracker) {
+    world = argWorld;
+    tracker = argTracker;
+  }
+
+  /**
+   * Only fixtures with a category bit in the mask are hit
+   * 
+   * @param argMaskBits
+   */
+  public void setMaskBits(int argMaskBits) {
+    maskBits = argMaskBits;
+    invalidate();
+  }
+
+  public int getMaskBits() {
+    return maskBits;
+  }
+
+  public void setIncludeSensors(boolean argIncludeSensors) {
+    includeSensors = argIncludeSensors;
+    invalidate();
+  }
+
+  public boolean isIncludeSensors() {
+    return includeSensors;
+  }
+
+  /**
+   * Decides which fixtures the rays can hit. It's asked when a ray's candidates are gathered, so
+   * the answer for a fixture shouldn't change without a call to {@link #invalidate()}.
+   * 
+   * @param argFixture
+   * @return
+   */
+  protected boolean accepts(Fixture argFixture) {
+    return (argFixture.m_filter.categoryBits & maskBits) != 0 && (includeSensors || !argFixture.m_isSensor);
+  }
+
+  /**
+   * Adds a ray from p1 to p2
+   * 
+   * @return the ray's id
+   */
+  public int addRay(float argP1X, float argP1Y, float argP2X, float argP2Y) {
+    Ray ray;
+    if (freeRay != -1) {
+      ray = rays.get(freeRay);
+      freeRay = ray.next;
+    } else {
+      ray = new Ray(rays.size());
+      rays.add(ray);
+    }
+    ray.active = true;
+    ray.dirty = true;
+    ray.clear();
+    setRay(ray.id, argP1X, argP1Y, argP2X, argP2Y);
+    return ray.id;
+  }
+
+  public void removeRay(int argRay) {
+    Ray ray = rays.get(argRay);
+    assert (ray.active);
+    if (ray.corridor != -1) {
+      corridors.destroyProxy(ray.corridor);
+      ray.corridor = -1;
+    }
+    ray.clear();
+    ray.active = false;
+    ray.next = freeRay;
+    freeRay = argRay;
+  }
+
+  /**
+   * Moves a ray, it's cast again on the next update
+   */
+  public void setRay(int argRay, float argP1X, float argP1Y, float argP2X, float argP2Y) {
+    Ray ray = rays.get(argRay);
+    if (ray.p1x == argP1X && ray.p1y == argP1Y && ray.p2x == argP2X && ray.p2y == argP2Y) {
+      return;
+    }
+    ray.p1x = argP1X;
+    ray.p1y = argP1Y;
+    ray.p2x = argP2X;
+    ray.p2y = argP2Y;
+    ray.changed = true;
+  }
+
+  /**
+   * Makes every ray search the world again on the next update
+   */
+  public void invalidate() {
+    for (Ray ray : rays) {
+      ray.dirty = true;
+    }
+  }
+
+  /**
+   * Brings every ray's hit up to date with the world. Call it after each step and after moving
+   * rays.
+   */
+  public void update() {
+    for (int i = 0, count = tracker.getChangeCount(); i < count; i++) {
+      aabb.lowerBound.set(tracker.getChangeLowerX(i), tracker.getChangeLowerY(i));
+      aabb.upperBound.set(tracker.getChangeUpperX(i), tracker.getChangeUpperY(i));
+      corridors.query(affectedCallback, aabb);
+      if (affected.isEmpty()) {
+        continue;
+      }
+      if (tracker.getChangeType(i) == TrackingBroadPhase.DESTROYED) {
+        // the candidates may include the destroyed fixture
+        for (int j = 0; j < affected.size(); j++) {
+          affected.get(j).dirty = true;
+        }
+      } else {
+        final float changeLowerX = aabb.lowerBound.x, changeLowerY = aabb.lowerBound.y;
+        final float changeUpperX = aabb.upperBound.x, changeUpperY = aabb.upperBound.y;
+        for (int j = 0; j < affected.size(); j++) {
+          Ray ray = affected.get(j);
+          // only what reaches into the corridor, the ray can't hit the rest
+          aabb.lowerBound.set(Math.max(changeLowerX, ray.lowerX), Math.max(changeLowerY, ray.lowerY));
+          aabb.upperBound.set(Math.min(changeUpperX, ray.upperX), Math.min(changeUpperY, ray.upperY));
+          world.queryAABB(changedCallback, aabb);
+          for (int k = 0; k < changed.size(); k++) {
+            Fixture fixture = changed.get(k);
+            if (!ray.contains(fixture)) {
+              ray.add(fixture);
+            }
+          }
+          changed.clear();
+          if (ray.count > 2 * ray.gatheredCount + 8) {
+            // most of them have probably moved on
+            ray.dirty = true;
+          }
+        }
+      }
+      affected.clear();
+    }
+    tracker.clearChanges();
+
+    for (int i = 0; i < rays.size(); i++) {
+      Ray ray = rays.get(i);
+      if (ray.active) {
+        update(ray);
+      }
+    }
+  }
+
+  private void update(Ray argRay) {
+    final float lowerX = Math.min(argRay.p1x, argRay.p2x), lowerY = Math.min(argRay.p1y, argRay.p2y);
+    final float upperX = Math.max(argRay.p1x, argRay.p2x), upperY = Math.max(argRay.p1y, argRay.p2y);
+    final boolean retestAll = argRay.changed;
+    if (!argRay.dirty && hasDestroyed(argRay)) {
+      // a candidate that moved out of the corridor was destroyed where the ray didn't see it
+      argRay.dirty = true;
+    }
+    if (argRay.dirty || lowerX < argRay.lowerX || lowerY < argRay.lowerY || upperX > argRay.upperX
+        || upperY > argRay.upperY) {
+      gather(argRay, lowerX, lowerY, upperX, upperY);
+      fullCasts++;
+    }
+    argRay.changed = false;
+    argRay.dirty = false;
+
+    // the last closest hit first, it probably still is, and the rest can be cut short by it
+    final float[] state = argRay.state;
+    int hit = -1;
+    float fraction = MISS;
+    int previous = argRay.hit;
+    for (int n = previous == -1 ? 0 : -1; n < argRay.count; n++) {
+      int i = n == -1 ? previous : n;
+      if (n == previous) {
+        continue;
+      }
+      int s = i * STRIDE;
+      Transform xf = argRay.fixtures[i].getBody().getTransform();
+      if (retestAll || state[s + FRACTION] < 0 || xf.p.x != state[s + X] || xf.p.y != state[s + Y]
+          || xf.q.c != state[s + COS] || xf.q.s != state[s + SIN]) {
+        state[s + X] = xf.p.x;
+        state[s + Y] = xf.p.y;
+        state[s + COS] = xf.q.c;
+        state[s + SIN] = xf.q.s;
+        cast(argRay, i, Math.min(1, fraction));
+        casts++;
+      } else {
+        reuses++;
+      }
+      if (state[s + FRACTION] < fraction) {
+        fraction = state[s + FRACTION];
+        hit = i;
+      }
+    }
+
+    // misses that were cut short by a hit that's no longer the closest
+    final float limit = Math.min(1, fraction);
+    for (int i = 0; i < argRay.count; i++) {
+      int s = i * STRIDE;
+      if (state[s + FRACTION] == MISS && state[s + LIMIT] < limit) {
+        cast(argRay, i, Math.min(1, fraction));
+        casts++;
+        if (state[s + FRACTION] < fraction) {
+          fraction = state[s + FRACTION];
+          hit = i;
+        }
+      }
+    }
+
+    argRay.hit = hit;
+    if (hit != -1) {
+      argRay.fraction = fraction;
+      argRay.normalX = state[hit * STRIDE + NORMAL_X];
+      argRay.normalY = state[hit * STRIDE + NORMAL_Y];
+    }
+  }
+
+  private static boolean hasDestroyed(Ray argRay) {
+    for (int i = 0; i < argRay.count; i++) {
+      Fixture fixture = argRay.fixtures[i];
+      // destroying a fixture clears its body, destroying its body clears its shape
+      if (fixture.getBody() == null || fixture.m_shape == null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Finds the fixtures in the ray's new corridor
+   */
+  private void gather(Ray argRay, float argLowerX, float argLowerY, float argUpperX, float argUpperY) {
+    final float margin = corridorMargin;
+    argRay.lowerX = argLowerX - margin;
+    argRay.lowerY = argLowerY - margin;
+    argRay.upperX = argUpperX + margin;
+    argRay.upperY = argUpperY + margin;
+    aabb.lowerBound.set(argRay.lowerX, argRay.lowerY);
+    aabb.upperBound.set(argRay.upperX, argRay.upperY);
+    if (argRay.corridor != -1) {
+      corridors.destroyProxy(argRay.corridor);
+    }
+    argRay.corridor = corridors.createProxy(aabb, argRay);
+
+    argRay.clear();
+    gathering = argRay;
+    world.queryAABB(gatherCallback, aabb);
+    gathering = null;
+    argRay.gatheredCount = argRay.count;
+  }
+
+  /**
+   * Casts against one candidate up to the max fraction, keeping its closest hit over all its
+   * children
+   */
+  private void cast(Ray argRay, int argCandidate, float argMaxFraction) {
+    final Fixture fixture = argRay.fixtures[argCandidate];
+    final float[] state = argRay.state;
+    final int s = argCandidate * STRIDE;
+    final float p1x = argRay.p1x, p1y = argRay.p1y, p2x = argRay.p2x, p2y = argRay.p2y;
+    final float dx = p2x - p1x, dy = p2y - p1y;
+    float fraction = MISS, normalX = 0, normalY = 0;
+    for (int child = 0, children = fixture.m_proxyCount; child < children; child++) {
+      float maxFraction = Math.min(argMaxFraction, fraction);
+      AABB box = fixture.getAABB(child);
+      if (!BatchQueryService.segmentOverlaps(box.lowerBound.x, box.lowerBound.y, box.upperBound.x,
+          box.upperBound.y, p1x, p1y, dx, dy, maxFraction)) {
+        continue;
+      }
+      if (ShapeRayCast.raycast(fixture.m_shape, child, state[s + X], state[s + Y], state[s + COS],
+          state[s + SIN], p1x, p1y, p2x, p2y, maxFraction, out) && out[0] < fraction) {
+        fraction = out[0];
+        normalX = out[1];
+        normalY = out[2];
+      }
+    }
+    state[s + FRACTION] = fraction;
+    state[s + NORMAL_X] = normalX;
+    state[s + NORMAL_Y] = normalY;
+    state[s + LIMIT] = argMaxFraction;
+  }
+
+  public boolean hasHit(int argRay) {
+    return rays.get(argRay).hit != -1;
+  }
+
+  /**
+   * @param argRay
+   * @return the closest fixture the ray hit, or null
+   */
+  public Fixture getFixture(int argRay) {
+    Ray ray = rays.get(argRay);
+    return ray.hit == -1 ? null : ray.fixtures[ray.hit];
+  }
+
+  public float getFraction(int argRay) {
+    Ray ray = rays.get(argRay);
+    return ray.hit == -1 ? 1 : ray.fraction;
+  }
+
+  public float getPointX(int argRay) {
+    Ray ray = rays.get(argRay);
+    return ray.p1x + getFraction(argRay) * (ray.p2x - ray.p1x);
+  }
+
+  public float getPointY(int argRay) {
+    Ray ray = rays.get(argRay);
+    return ray.p1y + getFraction(argRay) * (ray.p2y - ray.p1y);
+  }
+
+  public float getNormalX(int argRay) {
+    Ray ray = rays.get(argRay);
+    return ray.hit == -1 ? 0 : ray.normalX;
+  }
+
+  public float getNormalY(int argRay) {
+    Ray ray = rays.get(argRay);
+    return ray.hit == -1 ? 0 : ray.normalY;
+  }
+
+  /**
+   * @return how many times a ray searched the world's tree
+   */
+  public int getFullCasts() {
+    return fullCasts;
+  }
+
+  /**
+   * @return how many times a ray was cast against a candidate
+   */
+  public int getCasts() {
+    return casts;
+  }
+
+  /**
+   * @return how many times a candidate's last hit was reused
+   */
+  public int getReuses() {
+    return reuses;
+  }
+
+  public void resetCounters() {
+    fullCasts = casts = reuses = 0;
+  }
+}
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.query;
+
+import org.jbox2d.collision.shapes.ChainShape;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.EdgeShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Vec2;
+
+/**
+ * Ray casts against shapes, on primitives. These are the same tests as the shapes' own
+ * <code>raycast</code> methods, but they only read the shape and keep everything else on the
+ * stack, so any number of threads can cast against the same shapes at once (the library's
+ * polygon and edge casts use scratch vectors in the shape).<br/>
+ * <br/>
+ * The transform is given as a position and the cosine and sine of the angle. A hit is written to
+ * <code>argOut</code> as the fraction, then the world normal's x and y.
+ */
+public final class ShapeRayCast {
+
+  private ShapeRayCast() {}
+
+  /**
+   * Casts the ray from p1 toward p2 against a child of the shape
+   * 
+   * @param argShape
+   * @param argChildIndex
+   * @param argX transform position x
+   * @param argY transform position y
+   * @param argCos transform rotation cosine
+   * @param argSin transform rotation sine
+   * @param argP1X
+   * @param argP1Y
+   * @param argP2X
+   * @param argP2Y
+   * @param argMaxFraction
+   * @param argOut fraction, normal x, normal y
+   * @return true if it hit at or before the max fraction
+   */
+  public static boolean raycast(Shape argShape, int argChildIndex, float argX, float argY, float argCos,
+      float argSin, float argP1X, float argP1Y, float argP2X, float argP2Y, float argMaxFraction, float[] argOut) {
+    switch (argShape.m_type) {
+      case CIRCLE:
+        return raycastCircle((CircleShape) argShape, argX, argY, argCos, argSin, argP1X, argP1Y, argP2X, argP2Y,
+            argMaxFraction, argOut);
+      case POLYGON:
+        return raycastPolygon((PolygonShape) argShape, argX, argY, argCos, argSin, argP1X, argP1Y, argP2X, argP2Y,
+            argMaxFraction, argOut);
+      case EDGE: {
+        EdgeShape edge = (EdgeShape) argShape;
+        return raycastSegment(edge.m_vertex1, edge.m_vertex2, argX, argY, argCos, argSin, argP1X, argP1Y, argP2X,
+            argP2Y, argMaxFraction, argOut);
+      }
+      case CHAIN: {
+        ChainShape chain = (ChainShape) argShape;
+        int next = argChildIndex + 1 < chain.m_count ? argChildIndex + 1 : 0;
+        return raycastSegment(chain.m_vertices[argChildIndex], chain.m_vertices[next], argX, argY, argCos, argSin,
+            argP1X, argP1Y, argP2X, argP2Y, argMaxFraction, argOut);
+      }
+      default:
+        return false;
+    }
+  }
+
+  public static boolean raycastCircle(CircleShape argCircle, float argX, float argY, float argCos, float argSin,
+      float argP1X, float argP1Y, float argP2X, float argP2Y, float argMaxFraction, float[] argOut) {
+    final float px = argCos * argCircle.m_p.x - argSin * argCircle.m_p.y + argX;
+    final float py = argSin * argCircle.m_p.x + argCos * argCircle.m_p.y + argY;
+    final float sx = argP1X - px, sy = argP1Y - py;
+    final float b = sx * sx + sy * sy - argCircle.m_radius * argCircle.m_radius;
+
+    // solve quadratic equation
+    final float rx = argP2X - argP1X, ry = argP2Y - argP1Y;
+    final float c = sx * rx + sy * ry;
+    final float rr = rx * rx + ry * ry;
+    final float sigma = c * c - rr * b;
+
+    // check for negative discriminant and short segment
+    if (sigma < 0.0f || rr < Settings.EPSILON) {
+      return false;
+    }
+
+    // find the point of intersection of the line with the circle
+    float a = -(c + MathUtils.sqrt(sigma));
+
+    // is the intersection point on the segment?
+    if (0.0f <= a && a <= argMaxFraction * rr) {
+      a /= rr;
+      float nx = sx + a * rx, ny = sy + a * ry;
+      float length = MathUtils.sqrt(nx * nx + ny * ny);
+      if (length >= Settings.EPSILON) {
+        nx /= length;
+        ny /= length;
+      }
+      argOut[0] = a;
+      argOut[1] = nx;
+      argOut[2] = ny;
+      return true;
+    }
+    return false;
+  }
+
+  public static boolean raycastPolygon(PolygonShape argPolygon, float argX, float argY, float argCos,
+      float argSin, float argP1X, float argP1Y, float argP2X, float argP2Y, float argMaxFraction, float[] argOut) {
+    // put the ray into the polygon's frame of reference
+    final float t1x = argP1X - argX, t1y = argP1Y - argY;
+    final float p1x = argCos * t1x + argSin * t1y, p1y = -argSin * t1x + argCos * t1y;
+    final float t2x = argP2X - argX, t2y = argP2Y - argY;
+    final float dx = argCos * t2x + argSin * t2y - p1x, dy = -argSin * t2x + argCos * t2y - p1y;
+
+    float lower = 0, upper = argMaxFraction;
+    int index = -1;
+    final Vec2[] vertices = argPolygon.m_vertices;
+    final Vec2[] normals = argPolygon.m_normals;
+    for (int i = 0; i < argPolygon.m_count; ++i) {
+      // p = p1 + a * d
+      // dot(normal, p - v) = 0
+      // dot(normal, p1 - v) + a * dot(normal, d) = 0
+      final Vec2 normal = normals[i];
+      final Vec2 vertex = vertices[i];
+      float numerator = normal.x * (vertex.x - p1x) + normal.y * (vertex.y - p1y);
+      float denominator = normal.x * dx + normal.y * dy;
+
+      if (denominator == 0.0f) {
+        if (numerator < 0.0f) {
+          return false;
+        }
+      } else {
+        // Note: we want this predicate without division:
+        // lower < numerator / denominator, where denominator < 0
+        // Since denominator < 0, we have to flip the inequality:
+        // lower < numerator / denominator <==> denominator * lower > numerator.
+        if (denominator < 0.0f && numerator < lower * denominator) {
+          // increase lower, the segment enters this half-space
+          lower = numerator / denominator;
+          index = i;
+        } else if (denominator > 0.0f && numerator < upper * denominator) {
+          // decrease upper, the segment exits this half-space
+          upper = numerator / denominator;
+        }
+      }
+
+      if (upper < lower) {
+        return false;
+      }
+    }
+
+    assert (0.0f <= lower && lower <= argMaxFraction);
+
+    if (index >= 0) {
+      final Vec2 normal = normals[index];
+      argOut[0] = lower;
+      argOut[1] = argCos * normal.x - argSin * normal.y;
+      argOut[2] = argSin * normal.x + argCos * normal.y;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * The two sided segment from v1 to v2, for edges and chain children
+   */
+  public static boolean raycastSegment(Vec2 argV1, Vec2 argV2, float argX, float argY, float argCos,
+      float argSin, float argP1X, float argP1Y, float argP2X, float argP2Y, float argMaxFraction, float[] argOut) {
+    // put the ray into the edge's frame of reference
+    final float t1x = argP1X - argX, t1y = argP1Y - argY;
+    final float p1x = argCos * t1x + argSin * t1y, p1y = -argSin * t1x + argCos * t1y;
+    final float t2x = argP2X - argX, t2y = argP2Y - argY;
+    final float dx = argCos * t2x + argSin * t2y - p1x, dy = -argSin * t2x + argCos * t2y - p1y;
+
+    final float ex = argV2.x - argV1.x, ey = argV2.y - argV1.y;
+    float nx = ey, ny = -ex;
+    float length = MathUtils.sqrt(nx * nx + ny * ny);
+    if (length < Settings.EPSILON) {
+      return false;
+    }
+    nx /= length;
+    ny /= length;
+
+    // q = p1 + t * d
+    // dot(normal, q - v1) = 0
+    // dot(normal, p1 - v1) + t * dot(normal, d) = 0
+    final float numerator = nx * (argV1.x - p1x) + ny * (argV1.y - p1y);
+    final float denominator = nx * dx + ny * dy;
+    if (denominator == 0.0f) {
+      return false;
+    }
+
+    final float t = numerator / denominator;
+    if (t < 0.0f || argMaxFraction < t) {
+      return false;
+    }
+
+    // q = v1 + s * r
+    // s = dot(q - v1, r) / dot(r, r)
+    final float qx = p1x + t * dx, qy = p1y + t * dy;
+    final float rr = ex * ex + ey * ey;
+    final float s = ((qx - argV1.x) * ex + (qy - argV1.y) * ey) / rr;
+    if (s < 0.0f || 1.0f < s) {
+      return false;
+    }
+
+    if (numerator > 0.0f) {
+      nx = -nx;
+      ny = -ny;
+    }
+    argOut[0] = t;
+    argOut[1] = argCos * nx - argSin * ny;
+    argOut[2] = argSin * nx + argCos * ny;
+    return true;
+  }
+}
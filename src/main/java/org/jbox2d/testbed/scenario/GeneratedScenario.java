@@ -0,0 +1,334 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.scenario;
+
+import java.util.Random;
+
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.EdgeShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.joints.RevoluteJointDef;
+import org.jbox2d.testbed.framework.TestbedSettings;
+import org.jbox2d.testbed.framework.TestbedTest;
+
+/**
+ * A test built from a {@link ScenarioDef} instead of by hand. The container is made first, then
+ * the bodies are put in its spawn area by the def's pattern, all at once or, for
+ * {@link ScenarioDef.Pattern#STREAM}, a few each step. The shapes, sizes and positions come from a
+ * random generator seeded by the def, so every reset, and every run, builds the same world.<br/>
+ * <br/>
+ * Grids and streams space the bodies by their mean size, so with a size variance neighbors can
+ * start out overlapping and push apart on the first steps, like they do in Circle Stress.
+ */
+public class GeneratedScenario extends TestbedTest {
+
+  private final ScenarioDef def;
+
+  private Random random;
+  private int spawned;
+  // spawn area
+  private float lowerX, lowerY, upperX, upperY;
+
+  private final BodyDef bodyDef = new BodyDef();
+  private final FixtureDef fixtureDef = new FixtureDef();
+  private final CircleShape circle = new CircleShape();
+  private final PolygonShape box = new PolygonShape();
+  private final PolygonShape polygon = new PolygonShape();
+  private final Vec2[] vertices = new Vec2[Settings.maxPolygonVertices];
+
+  /**
+   * @param argDef the def is validated, and kept, later changes to it show up on reset
+   * @throws IllegalArgumentException if the def isn't valid
+   */
+  public GeneratedScenario(ScenarioDef argDef) {
+    argDef.validate();
+    def = argDef;
+    for (int i = 0; i < vertices.length; i++) {
+      vertices[i] = new Vec2();
+    }
+  }
+
+  public ScenarioDef getDef() {
+    return def;
+  }
+
+  /**
+   * @return the bodies spawned so far
+   */
+  public int getSpawned() {
+    return spawned;
+  }
+
+  @Override
+  public String getTestName() {
+    return def.name;
+  }
+
+  @Override
+  public Vec2 getDefaultCameraPos() {
+    return new Vec2(0, def.height / 2);
+  }
+
+  @Override
+  public float getDefaultCameraScale() {
+    return Math.min(10, 450 / Math.max(def.width, def.height));
+  }
+
+  @Override
+  public void initTest(boolean argDeserialized) {
+    random = new Random(def.seed);
+    spawned = 0;
+
+    switch (def.container) {
+      case GROUND:
+        createGround(false);
+        break;
+      case BOX:
+        createGround(true);
+        break;
+      case TUMBLER:
+        createTumbler();
+        break;
+      case MIXER:
+        createMixer();
+        break;
+    }
+
+    bodyDef.type = BodyType.DYNAMIC;
+    fixtureDef.friction = def.friction;
+    fixtureDef.restitution = def.restitution;
+    switch (def.pattern) {
+      case GRID:
+        spawnGrid();
+        break;
+      case RANDOM:
+        while (spawned < def.bodyCount) {
+          spawn(lowerX + (upperX - lowerX) * random.nextFloat(), lowerY + (upperY - lowerY)
+              * random.nextFloat());
+        }
+        break;
+      case PYRAMID:
+        spawnPyramid();
+        break;
+      case STREAM:
+        break;
+    }
+  }
+
+  @Override
+  public synchronized void step(TestbedSettings settings) {
+    super.step(settings);
+
+    if (def.pattern == ScenarioDef.Pattern.STREAM) {
+      float x = (lowerX + upperX) / 2, y = (lowerY + upperY) / 2;
+      for (int i = 0; i < def.spawnPerStep && spawned < def.bodyCount; i++) {
+        spawn(x, y);
+      }
+    }
+  }
+
+  private void createGround(boolean argWalls) {
+    final float halfWidth = def.width / 2;
+    Body ground = getWorld().createBody(new BodyDef());
+    EdgeShape edge = new EdgeShape();
+    if (argWalls) {
+      edge.set(new Vec2(-halfWidth, 0), new Vec2(halfWidth, 0));
+      ground.createFixture(edge, 0);
+      edge.set(new Vec2(-halfWidth, 0), new Vec2(-halfWidth, def.height));
+      ground.createFixture(edge, 0);
+      edge.set(new Vec2(halfWidth, 0), new Vec2(halfWidth, def.height));
+      ground.createFixture(edge, 0);
+    } else {
+      edge.set(new Vec2(-def.width, 0), new Vec2(def.width, 0));
+      ground.createFixture(edge, 0);
+    }
+    setSpawnArea(-halfWidth, 0, halfWidth, def.height);
+  }
+
+  private void createTumbler() {
+    final float halfWidth = def.width / 2, halfHeight = def.height / 2;
+    BodyDef bd = new BodyDef();
+    bd.type = BodyType.DYNAMIC;
+    bd.allowSleep = false;
+    bd.position.set(0, halfHeight);
+    Body body = getWorld().createBody(bd);
+
+    PolygonShape shape = new PolygonShape();
+    shape.setAsBox(0.5f, halfHeight, new Vec2(halfWidth, 0), 0);
+    body.createFixture(shape, 5);
+    shape.setAsBox(0.5f, halfHeight, new Vec2(-halfWidth, 0), 0);
+    body.createFixture(shape, 5);
+    shape.setAsBox(halfWidth, 0.5f, new Vec2(0, halfHeight), 0);
+    body.createFixture(shape, 5);
+    shape.setAsBox(halfWidth, 0.5f, new Vec2(0, -halfHeight), 0);
+    body.createFixture(shape, 5);
+
+    RevoluteJointDef jd = new RevoluteJointDef();
+    jd.bodyA = getGroundBody();
+    jd.bodyB = body;
+    jd.localAnchorA.set(0, halfHeight);
+    jd.localAnchorB.set(0, 0);
+    jd.motorSpeed = def.motorSpeed;
+    jd.maxMotorTorque = 1e8f;
+    jd.enableMotor = true;
+    getWorld().createJoint(jd);
+
+    setSpawnArea(-halfWidth + .5f, .5f, halfWidth - .5f, def.height - .5f);
+  }
+
+  private void createMixer() {
+    // Circle Stress is 90 wide and 65 high
+    final float halfWidth = def.width / 2, height = def.height;
+    final float scale = def.width / 90;
+
+    BodyDef bd = new BodyDef();
+    PolygonShape shape = new PolygonShape();
+    FixtureDef fd = new FixtureDef();
+    fd.shape = shape;
+    fd.friction = 1;
+
+    // ground and top
+    shape.setAsBox(halfWidth + 5, 10);
+    bd.position.set(0, -10);
+    getWorld().createBody(bd).createFixture(fd);
+    bd.position.set(0, height + 10);
+    getWorld().createBody(bd).createFixture(fd);
+
+    // walls
+    shape.setAsBox(3, height / 2 + 10);
+    bd.position.set(halfWidth, height / 2);
+    getWorld().createBody(bd).createFixture(shape, 0);
+    bd.position.set(-halfWidth, height / 2);
+    getWorld().createBody(bd).createFixture(shape, 0);
+
+    // corners
+    shape.setAsBox(20 * scale, 3);
+    bd.angle = -MathUtils.QUARTER_PI;
+    bd.position.set(-35 * scale, 8 * height / 65);
+    getWorld().createBody(bd).createFixture(shape, 0);
+    bd.angle = MathUtils.QUARTER_PI;
+    bd.position.set(35 * scale, 8 * height / 65);
+    getWorld().createBody(bd).createFixture(shape, 0);
+
+    // the wheel
+    bd = new BodyDef();
+    bd.type = BodyType.DYNAMIC;
+    bd.position.set(0, 10 * height / 65);
+    Body wheel = getWorld().createBody(bd);
+    CircleShape spoke = new CircleShape();
+    spoke.m_radius = 1.2f * scale;
+    fd = new FixtureDef();
+    fd.shape = spoke;
+    fd.density = 25;
+    fd.friction = .1f;
+    fd.restitution = .9f;
+    final int spokes = 5;
+    for (int i = 0; i < spokes; i++) {
+      float angle = MathUtils.TWOPI * i / spokes;
+      spoke.m_p.set(6 * scale * MathUtils.cos(angle), 6 * scale * MathUtils.sin(angle));
+      wheel.createFixture(fd);
+    }
+
+    RevoluteJointDef rjd = new RevoluteJointDef();
+    rjd.initialize(wheel, getGroundBody(), wheel.getPosition());
+    rjd.motorSpeed = def.motorSpeed;
+    rjd.maxMotorTorque = 1000000.0f;
+    rjd.enableMotor = true;
+    getWorld().createJoint(rjd);
+
+    setSpawnArea(-halfWidth + 3, height * .75f, halfWidth - 3, height - 1);
+  }
+
+  private void setSpawnArea(float argLowerX, float argLowerY, float argUpperX, float argUpperY) {
+    lowerX = argLowerX;
+    lowerY = argLowerY;
+    upperX = argUpperX;
+    upperY = argUpperY;
+  }
+
+  private void spawnGrid() {
+    final float cell = 2 * def.size;
+    final int columns = Math.max(1, (int) ((upperX - lowerX) / cell));
+    final float left = (lowerX + upperX - columns * cell) / 2;
+    for (int row = 0; spawned < def.bodyCount; row++) {
+      for (int column = 0; column < columns && spawned < def.bodyCount; column++) {
+        spawn(left + (column + .5f) * cell, lowerY + (row + .5f) * cell);
+      }
+    }
+  }
+
+  private void spawnPyramid() {
+    // the spacing of the Pyramid test
+    final float a = def.size;
+    int rows = 0;
+    while (rows * (rows + 1) / 2 < def.bodyCount) {
+      rows++;
+    }
+    for (int row = 0; row < rows && spawned < def.bodyCount; row++) {
+      float x = -(rows - 1) * 1.125f * a + row * 1.125f * a;
+      float y = lowerY + 1.5f * a + row * 2.5f * a;
+      for (int i = row; i < rows && spawned < def.bodyCount; i++) {
+        spawn(x, y);
+        x += 2.25f * a;
+      }
+    }
+  }
+
+  private void spawn(float argX, float argY) {
+    final float size = def.size * (1 + def.sizeVariance * (2 * random.nextFloat() - 1));
+    float pick = random.nextFloat() * (def.circles + def.boxes + def.polygons);
+    Shape shape;
+    if (pick < def.circles) {
+      circle.m_radius = size;
+      shape = circle;
+    } else if (pick < def.circles + def.boxes) {
+      box.setAsBox(size, size);
+      shape = box;
+    } else {
+      int count = 3 + random.nextInt(Settings.maxPolygonVertices - 2);
+      for (int i = 0; i < count; i++) {
+        float angle = MathUtils.TWOPI * (i + .8f * random.nextFloat()) / count;
+        vertices[i].set(size * MathUtils.cos(angle), size * MathUtils.sin(angle));
+      }
+      polygon.set(vertices, count);
+      shape = polygon;
+    }
+
+    bodyDef.position.set(argX, argY);
+    bodyDef.angle =
+        def.pattern == ScenarioDef.Pattern.RANDOM ? random.nextFloat() * MathUtils.TWOPI : 0;
+    fixtureDef.shape = shape;
+    fixtureDef.density = def.densityBySize ? def.density * size : def.density;
+    getWorld().createBody(bodyDef).createFixture(fixtureDef);
+    spawned++;
+  }
+}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.scenario;
+
+import java.util.Locale;
+
+/**
+ * The parameters of a {@link GeneratedScenario}: what bodies it has, how they're put into the
+ * world, and what holds them. Like the engine's defs, the fields are public and start at usable
+ * defaults, and a def can be reused for several scenarios.<br/>
+ * <br/>
+ * A def can also be written as a spec string of <code>key=value</code> pairs separated by
+ * semicolons, see {@link #parse(String)}, so scenarios can be described on the command line.
+ */
+public class ScenarioDef {
+  public static enum Pattern {
+    /**
+     * Rows of evenly spaced bodies filling the spawn area from the bottom
+     */
+    GRID,
+    /**
+     * Bodies scattered at random over the spawn area, overlapping or not
+     */
+    RANDOM,
+    /**
+     * A pyramid of rows, each one body shorter than the one under it
+     */
+    PYRAMID,
+    /**
+     * {@link ScenarioDef#spawnPerStep} bodies each step at the middle of the spawn area, until
+     * there are {@link ScenarioDef#bodyCount}
+     */
+    STREAM
+  }
+
+  public static enum Container {
+    /**
+     * A flat ground
+     */
+    GROUND,
+    /**
+     * A static box open at the top
+     */
+    BOX,
+    /**
+     * A closed box turned by a motor, like the Tumbler test
+     */
+    TUMBLER,
+    /**
+     * A closed arena with sloped corners and a motorized wheel in the middle, like the Circle
+     * Stress test
+     */
+    MIXER
+  }
+
+  public String name = "Generated";
+  public int bodyCount = 500;
+  /**
+   * The relative share of circles, boxes and random convex polygons
+   */
+  public float circles = 1, boxes = 0, polygons = 0;
+  /**
+   * The radius of circles and polygons and half the side of boxes
+   */
+  public float size = .5f;
+  /**
+   * How much the size varies, as a fraction of it, from 0 for all the same to under 1
+   */
+  public float sizeVariance = 0;
+  public float density = 1;
+  /**
+   * If true, the density is multiplied by each body's size, so bigger bodies are heavier still
+   */
+  public boolean densityBySize = false;
+  public float friction = .5f;
+  public float restitution = 0;
+  public Pattern pattern = Pattern.GRID;
+  public int spawnPerStep = 1;
+  public Container container = Container.GROUND;
+  public float width = 40;
+  public float height = 40;
+  /**
+   * The motor speed of a {@link Container#TUMBLER} or {@link Container#MIXER}, in radians per
+   * second
+   */
+  public float motorSpeed = .05f * (float) Math.PI;
+  public long seed = 0;
+
+  /**
+   * Parses a spec like <code>name=Crates;bodies=2000;boxes=3;circles=1;container=box</code>.
+   * Keys that are left out keep their defaults. The keys are name, bodies, circles, boxes,
+   * polygons, size, variance, density, densityBySize, friction, restitution, pattern, perStep,
+   * container, width, height, speed and seed; patterns and containers are their names in any
+   * case.
+   * 
+   * @param argSpec
+   * @return
+   * @throws IllegalArgumentException if a key or value isn't valid
+   */
+  public static ScenarioDef parse(String argSpec) {
+    ScenarioDef def = new ScenarioDef();
+    for (String pair : argSpec.split(";")) {
+      pair = pair.trim();
+      if (pair.length() == 0) {
+        continue;
+      }
+      int equals = pair.indexOf('=');
+      if (equals < 0) {
+        throw new IllegalArgumentException("Expected key=value, got '" + pair + "'");
+      }
+      String key = pair.substring(0, equals).trim();
+      String value = pair.substring(equals + 1).trim();
+      try {
+        def.set(key, value);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+      }
+    }
+    def.validate();
+    return def;
+  }
+
+  private void set(String argKey, String argValue) {
+    if (argKey.equals("name")) {
+      name = argValue;
+    } else if (argKey.equals("bodies")) {
+      bodyCount = Integer.parseInt(argValue);
+    } else if (argKey.equals("circles")) {
+      circles = Float.parseFloat(argValue);
+    } else if (argKey.equals("boxes")) {
+      boxes = Float.parseFloat(argValue);
+    } else if (argKey.equals("polygons")) {
+      polygons = Float.parseFloat(argValue);
+    } else if (argKey.equals("size")) {
+      size = Float.parseFloat(argValue);
+    } else if (argKey.equals("variance")) {
+      sizeVariance = Float.parseFloat(argValue);
+    } else if (argKey.equals("density")) {
+      density = Float.parseFloat(argValue);
+    } else if (argKey.equals("densityBySize")) {
+      densityBySize = Boolean.parseBoolean(argValue);
+    } else if (argKey.equals("friction")) {
+      friction = Float.parseFloat(argValue);
+    } else if (argKey.equals("restitution")) {
+      restitution = Float.parseFloat(argValue);
+    } else if (argKey.equals("pattern")) {
+      pattern = Pattern.valueOf(toConstant(argKey, argValue, Pattern.values()));
+    } else if (argKey.equals("perStep")) {
+      spawnPerStep = Integer.parseInt(argValue);
+    } else if (argKey.equals("container")) {
+      container = Container.valueOf(toConstant(argKey, argValue, Container.values()));
+    } else if (argKey.equals("width")) {
+      width = Float.parseFloat(argValue);
+    } else if (argKey.equals("height")) {
+      height = Float.parseFloat(argValue);
+    } else if (argKey.equals("speed")) {
+      motorSpeed = Float.parseFloat(argValue);
+    } else if (argKey.equals("seed")) {
+      seed = Long.parseLong(argValue);
+    } else {
+      throw new IllegalArgumentException("Unknown scenario key '" + argKey + "'");
+    }
+  }
+
+  private static String toConstant(String argKey, String argValue, Enum<?>[] argValues) {
+    String constant = argValue.toUpperCase(Locale.ROOT);
+    for (Enum<?> value : argValues) {
+      if (value.name().equals(constant)) {
+        return constant;
+      }
+    }
+    throw new IllegalArgumentException("Invalid value for " + argKey + ": " + argValue);
+  }
+
+  /**
+   * @throws IllegalArgumentException if the def can't make a scenario
+   */
+  public void validate() {
+    if (bodyCount < 0) {
+      throw new IllegalArgumentException("Negative body count: " + bodyCount);
+    }
+    if (!(circles >= 0 && boxes >= 0 && polygons >= 0 && circles + boxes + polygons > 0)) {
+      throw new IllegalArgumentException("Invalid shape shares: " + circles + "/" + boxes + "/"
+          + polygons);
+    }
+    if (!(size > 0)) {
+      throw new IllegalArgumentException("Invalid size: " + size);
+    }
+    if (!(sizeVariance >= 0 && sizeVariance < 1)) {
+      throw new IllegalArgumentException("Invalid size variance: " + sizeVariance);
+    }
+    if (!(density >= 0)) {
+      throw new IllegalArgumentException("Invalid density: " + density);
+    }
+    if (spawnPerStep < 1) {
+      throw new IllegalArgumentException("Invalid spawns per step: " + spawnPerStep);
+    }
+    if (!(width > 0 && height > 0)) {
+      throw new IllegalArgumentException("Invalid container size: " + width + "x" + height);
+    }
+  }
+}
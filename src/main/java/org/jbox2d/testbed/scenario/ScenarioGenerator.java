@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.scenario;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.testbed.framework.TestbedModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The preset scenarios, generated versions of Circle Stress, Tumbler and Pyramid, and the ones
+ * described in the <code>jbox2d.scenarios</code> system property as {@link ScenarioDef} specs
+ * separated by <code>|</code>, like
+ * <code>-Djbox2d.scenarios="name=Crates;bodies=2000;boxes=1;circles=0|name=Balls;pattern=random"</code>.
+ */
+public class ScenarioGenerator {
+  private static final Logger log = LoggerFactory.getLogger(ScenarioGenerator.class);
+
+  public static final String PROPERTY = "jbox2d.scenarios";
+  public static final String CATEGORY = "Generated";
+
+  private ScenarioGenerator() {}
+
+  /**
+   * 615 circles of different sizes bounced around an arena by a wheel, like
+   * {@link org.jbox2d.testbed.tests.CircleStress}
+   */
+  public static ScenarioDef circleStress() {
+    ScenarioDef def = new ScenarioDef();
+    def.name = "Generated Circle Stress";
+    def.bodyCount = 615;
+    def.size = 1;
+    def.sizeVariance = .5f;
+    def.density = 1.5f;
+    def.densityBySize = true;
+    def.friction = .5f;
+    def.restitution = .7f;
+    def.container = ScenarioDef.Container.MIXER;
+    def.width = 90;
+    def.height = 65;
+    def.motorSpeed = MathUtils.PI;
+    return def;
+  }
+
+  /**
+   * 800 small boxes dropped one a step into a turning box, like
+   * {@link org.jbox2d.testbed.tests.Tumbler}
+   */
+  public static ScenarioDef tumbler() {
+    ScenarioDef def = new ScenarioDef();
+    def.name = "Generated Tumbler";
+    def.bodyCount = 800;
+    def.circles = 0;
+    def.boxes = 1;
+    def.size = .125f;
+    def.friction = .2f;
+    def.pattern = ScenarioDef.Pattern.STREAM;
+    def.container = ScenarioDef.Container.TUMBLER;
+    def.width = 20;
+    def.height = 20;
+    return def;
+  }
+
+  /**
+   * A 20 row pyramid of boxes, like {@link org.jbox2d.testbed.tests.PyramidTest}
+   */
+  public static ScenarioDef pyramid() {
+    ScenarioDef def = new ScenarioDef();
+    def.name = "Generated Pyramid";
+    def.bodyCount = 210;
+    def.circles = 0;
+    def.boxes = 1;
+    def.size = .5f;
+    def.density = 5;
+    def.friction = .2f;
+    def.pattern = ScenarioDef.Pattern.PYRAMID;
+    def.width = 40;
+    def.height = 30;
+    return def;
+  }
+
+  /**
+   * @return the presets, then the scenarios from the system property. Specs that aren't valid
+   *         are logged and skipped.
+   */
+  public static List<ScenarioDef> getDefs() {
+    List<ScenarioDef> defs = new ArrayList<ScenarioDef>();
+    defs.add(circleStress());
+    defs.add(tumbler());
+    defs.add(pyramid());
+    String specs = System.getProperty(PROPERTY);
+    if (specs != null) {
+      for (String spec : specs.split("\\|")) {
+        if (spec.trim().length() > 0) {
+          try {
+            defs.add(ScenarioDef.parse(spec));
+          } catch (IllegalArgumentException e) {
+            log.error("Skipping invalid scenario in " + PROPERTY + ": " + spec, e);
+          }
+        }
+      }
+    }
+    return defs;
+  }
+
+  /**
+   * Adds the {@link #CATEGORY} category and a test for each of {@link #getDefs()}
+   * 
+   * @param argModel
+   */
+  public static void populateModel(TestbedModel argModel) {
+    argModel.addCategory(CATEGORY);
+    for (ScenarioDef def : getDefs()) {
+      argModel.addTest(new GeneratedScenario(def));
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.spawn;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.World;
+
+/**
+ * Recycles the bodies of a {@link BodyTemplate}. A released body is deactivated, which takes it
+ * out of the broadphase and the contact list, but it keeps its fixtures and its mass. Obtaining a
+ * body takes one off the free list, moves it and sets its velocity, and activates it again, so
+ * constant churn like particles and projectiles doesn't create garbage or work out any mass. Only
+ * when the free list is empty is a new body created from the template.<br/>
+ * <br/>
+ * Every released body must have been created from the pool's template. Like creating and
+ * destroying bodies, none of this can happen during the world's step.
+ */
+public class BodyPool {
+  private final World world;
+  private final BodyTemplate template;
+  private final Vec2 position = new Vec2();
+
+  private Body[] free = new Body[16];
+  private int freeCount = 0;
+  private int created = 0;
+
+  public BodyPool(World argWorld, BodyTemplate argTemplate) {
+    world = argWorld;
+    template = argTemplate;
+  }
+
+  public BodyTemplate getTemplate() {
+    return template;
+  }
+
+  /**
+   * @return the number of released bodies waiting to be reused
+   */
+  public int getFreeCount() {
+    return freeCount;
+  }
+
+  /**
+   * @return the number of bodies the pool had to create
+   */
+  public int getCreatedCount() {
+    return created;
+  }
+
+  /**
+   * Creates bodies up front, inactive, until there are at least the given number free
+   * 
+   * @param argCount
+   */
+  public void prefill(int argCount) {
+    while (freeCount < argCount) {
+      Body body = template.create(world, 0, 0, 0, 0, 0);
+      created++;
+      release(body);
+    }
+  }
+
+  /**
+   * Gets a body at the given transform and velocity, reusing a released one if there is one
+   * 
+   * @param argX
+   * @param argY
+   * @param argAngle
+   * @param argVX
+   * @param argVY
+   * @return
+   */
+  public Body obtain(float argX, float argY, float argAngle, float argVX, float argVY) {
+    if (freeCount == 0) {
+      created++;
+      return template.create(world, argX, argY, argAngle, argVX, argVY);
+    }
+    Body body = free[--freeCount];
+    free[freeCount] = null;
+    // moved while inactive, so the proxies are made once, where the body is
+    position.set(argX, argY);
+    body.setTransform(position, argAngle);
+    position.set(argVX, argVY);
+    body.setLinearVelocity(position);
+    body.setAngularVelocity(0);
+    body.m_force.setZero();
+    body.m_torque = 0;
+    body.setAwake(true);
+    body.setActive(true);
+    return body;
+  }
+
+  /**
+   * Deactivates the body and keeps it for {@link #obtain}
+   * 
+   * @param argBody
+   */
+  public void release(Body argBody) {
+    assert (argBody.getWorld() == world);
+    argBody.setActive(false);
+    if (freeCount == free.length) {
+      Body[] old = free;
+      free = new Body[old.length * 2];
+      System.arraycopy(old, 0, free, 0, old.length);
+    }
+    free[freeCount++] = argBody;
+  }
+
+  /**
+   * Destroys the free bodies
+   */
+  public void clear() {
+    for (int i = 0; i < freeCount; i++) {
+      world.destroyBody(free[i]);
+      free[i] = null;
+    }
+    freeCount = 0;
+  }
+}
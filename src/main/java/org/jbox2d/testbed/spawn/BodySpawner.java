@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.spawn;
+
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.testbed.broadphase.BulkLoadable;
+
+/**
+ * Creates bodies from {@link BodyTemplate}s, many at a time. Spawns are queued with their
+ * position, angle, velocity and an id for the listener, and created by {@link #flush()}, or a few
+ * each step by {@link #update()} with {@link #setMaxPerStep(int)}, so a burst of hundreds of
+ * bodies can be spread over several steps instead of landing on one. The queue is kept in
+ * primitive arrays that only grow.<br/>
+ * <br/>
+ * With a {@link BulkLoadable} broadphase, a batch of at least {@link #bulkLoadThreshold} bodies
+ * that's big next to what's already in the world is bulk loaded instead of inserted one at a time.
+ * Spawning has to happen outside of the world's step, like any other body creation.
+ */
+public class BodySpawner {
+  /**
+   * Told about each body as it's created
+   */
+  public static interface SpawnListener {
+    void bodySpawned(Body argBody, int argId);
+  }
+
+  public static int bulkLoadThreshold = 64;
+
+  private final World world;
+  private BulkLoadable bulkLoad = null;
+  private SpawnListener listener = null;
+  private int maxPerStep = 0;
+
+  private int head = 0, tail = 0;
+  private BodyTemplate[] templates = new BodyTemplate[16];
+  private float[] x = new float[16], y = new float[16], angle = new float[16];
+  private float[] vx = new float[16], vy = new float[16];
+  private int[] ids = new int[16];
+
+  public BodySpawner(World argWorld) {
+    world = argWorld;
+  }
+
+  /**
+   * @param argBroadPhase the world's broadphase, bulk loaded if it's {@link BulkLoadable}
+   */
+  public void setBroadPhase(BroadPhaseStrategy argBroadPhase) {
+    bulkLoad = argBroadPhase instanceof BulkLoadable ? (BulkLoadable) argBroadPhase : null;
+  }
+
+  public SpawnListener getListener() {
+    return listener;
+  }
+
+  public void setListener(SpawnListener argListener) {
+    listener = argListener;
+  }
+
+  public int getMaxPerStep() {
+    return maxPerStep;
+  }
+
+  /**
+   * @param argMaxPerStep the most bodies {@link #update()} creates, or 0 for all of them
+   */
+  public void setMaxPerStep(int argMaxPerStep) {
+    assert (argMaxPerStep >= 0);
+    maxPerStep = argMaxPerStep;
+  }
+
+  /**
+   * @return the number of spawns queued
+   */
+  public int getPending() {
+    return tail - head;
+  }
+
+  /**
+   * Forgets the queued spawns
+   */
+  public void clear() {
+    for (int i = head; i < tail; i++) {
+      templates[i] = null;
+    }
+    head = tail = 0;
+  }
+
+  /**
+   * Queues a spawn
+   */
+  public void spawn(BodyTemplate argTemplate, float argX, float argY, float argAngle, float argVX,
+      float argVY, int argId) {
+    ensureCapacity(1);
+    templates[tail] = argTemplate;
+    x[tail] = argX;
+    y[tail] = argY;
+    angle[tail] = argAngle;
+    vx[tail] = argVX;
+    vy[tail] = argVY;
+    ids[tail] = argId;
+    tail++;
+  }
+
+  /**
+   * Queues many spawns of the same template, with no rotation
+   * 
+   * @param argTemplate
+   * @param argPositions x and y of each body
+   * @param argVelocities x and y of each body's velocity, or null for none
+   * @param argCount
+   * @param argFirstId the id of the first body, the rest count up from it
+   */
+  public void spawn(BodyTemplate argTemplate, float[] argPositions, float[] argVelocities,
+      int argCount, int argFirstId) {
+    ensureCapacity(argCount);
+    for (int i = 0; i < argCount; i++) {
+      templates[tail] = argTemplate;
+      x[tail] = argPositions[2 * i];
+      y[tail] = argPositions[2 * i + 1];
+      angle[tail] = 0;
+      vx[tail] = argVelocities == null ? 0 : argVelocities[2 * i];
+      vy[tail] = argVelocities == null ? 0 : argVelocities[2 * i + 1];
+      ids[tail] = argFirstId + i;
+      tail++;
+    }
+  }
+
+  /**
+   * Creates the next {@link #getMaxPerStep()} queued bodies, call once a step
+   * 
+   * @return the number created
+   */
+  public int update() {
+    int count = getPending();
+    if (maxPerStep > 0) {
+      count = Math.min(count, maxPerStep);
+    }
+    return create(count);
+  }
+
+  /**
+   * Creates all the queued bodies
+   * 
+   * @return the number created
+   */
+  public int flush() {
+    return create(getPending());
+  }
+
+  private int create(int argCount) {
+    if (argCount == 0) {
+      return 0;
+    }
+    boolean bulk = bulkLoad != null && argCount >= bulkLoadThreshold
+        && argCount * 2 >= world.getProxyCount();
+    if (bulk) {
+      bulkLoad.beginBulkLoad();
+    }
+    for (int i = 0; i < argCount; i++) {
+      int index = head++;
+      Body body = templates[index].create(world, x[index], y[index], angle[index], vx[index],
+          vy[index]);
+      templates[index] = null;
+      if (listener != null) {
+        listener.bodySpawned(body, ids[index]);
+      }
+    }
+    if (bulk) {
+      bulkLoad.endBulkLoad();
+    }
+    if (head == tail) {
+      head = tail = 0;
+    }
+    return argCount;
+  }
+
+  private void ensureCapacity(int argCount) {
+    if (tail + argCount <= ids.length) {
+      return;
+    }
+    // move the queue to the front, and grow if that isn't enough
+    int pending = tail - head;
+    int capacity = ids.length;
+    while (pending + argCount > capacity) {
+      capacity *= 2;
+    }
+    BodyTemplate[] oldTemplates = templates;
+    if (capacity != oldTemplates.length) {
+      templates = new BodyTemplate[capacity];
+    }
+    System.arraycopy(oldTemplates, head, templates, 0, pending);
+    if (templates == oldTemplates) {
+      for (int i = pending; i < tail; i++) {
+        templates[i] = null;
+      }
+    }
+    x = move(x, capacity, pending);
+    y = move(y, capacity, pending);
+    angle = move(angle, capacity, pending);
+    vx = move(vx, capacity, pending);
+    vy = move(vy, capacity, pending);
+    int[] oldIds = ids;
+    ids = capacity == oldIds.length ? oldIds : new int[capacity];
+    System.arraycopy(oldIds, head, ids, 0, pending);
+    head = 0;
+    tail = pending;
+  }
+
+  private float[] move(float[] argArray, int argCapacity, int argPending) {
+    float[] array = argCapacity == argArray.length ? argArray : new float[argCapacity];
+    System.arraycopy(argArray, head, array, 0, argPending);
+    return array;
+  }
+}
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.spawn;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jbox2d.collision.shapes.MassData;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.World;
+
+/**
+ * A body def and fixture defs that many bodies are created from. The defs, and their shapes, are
+ * shared by every body, the world copies what it needs. The mass of the fixtures is worked out
+ * once, instead of again for each fixture of each body, unless it's set by hand with
+ * {@link #setMassData(MassData)}.<br/>
+ * <br/>
+ * Changing the defs after the first body is created doesn't change the mass, call
+ * {@link #invalidate()} after.
+ */
+public class BodyTemplate {
+  private final BodyDef bodyDef;
+  private final List<FixtureDef> fixtureDefs = new ArrayList<FixtureDef>();
+  private final MassData massData = new MassData();
+  private boolean massSet = false;
+  private boolean massComputed = false;
+  private boolean sleepingAllowed = true;
+
+  private final MassData fixtureMass = new MassData();
+
+  public BodyTemplate(BodyDef argBodyDef) {
+    bodyDef = argBodyDef;
+  }
+
+  public BodyDef getBodyDef() {
+    return bodyDef;
+  }
+
+  /**
+   * @param argFixtureDef
+   * @return this
+   */
+  public BodyTemplate addFixture(FixtureDef argFixtureDef) {
+    fixtureDefs.add(argFixtureDef);
+    massComputed = false;
+    return this;
+  }
+
+  public int getFixtureCount() {
+    return fixtureDefs.size();
+  }
+
+  public FixtureDef getFixture(int argIndex) {
+    return fixtureDefs.get(argIndex);
+  }
+
+  /**
+   * Gives every body this mass, instead of the one of its fixtures. Only for dynamic bodies.
+   * 
+   * @param argMassData copied, or null to go back to the fixtures' mass
+   */
+  public void setMassData(MassData argMassData) {
+    massSet = argMassData != null;
+    if (massSet) {
+      massData.set(argMassData);
+    }
+    massComputed = massSet;
+  }
+
+  public boolean isSleepingAllowed() {
+    return sleepingAllowed;
+  }
+
+  /**
+   * The body def's <code>allowSleep</code> only goes as far as the body's sleep flag, this also
+   * keeps it from being put to sleep with its island
+   * 
+   * @param argSleepingAllowed
+   */
+  public void setSleepingAllowed(boolean argSleepingAllowed) {
+    sleepingAllowed = argSleepingAllowed;
+  }
+
+  /**
+   * Works out the mass again on the next body, after the defs were changed
+   */
+  public void invalidate() {
+    massComputed = massSet;
+  }
+
+  /**
+   * @return the mass every body gets, about the body origin
+   */
+  public MassData getMassData() {
+    if (!massComputed) {
+      computeMass();
+    }
+    return massData;
+  }
+
+  private void computeMass() {
+    // the same as Body.resetMassData, for all fixtures at once
+    float mass = 0, inertia = 0, centerX = 0, centerY = 0;
+    for (int i = 0; i < fixtureDefs.size(); i++) {
+      FixtureDef fd = fixtureDefs.get(i);
+      if (fd.density == 0) {
+        continue;
+      }
+      fd.shape.computeMass(fixtureMass, fd.density);
+      mass += fixtureMass.mass;
+      centerX += fixtureMass.center.x * fixtureMass.mass;
+      centerY += fixtureMass.center.y * fixtureMass.mass;
+      inertia += fixtureMass.I;
+    }
+    massData.mass = mass;
+    massData.I = inertia;
+    if (mass > 0) {
+      massData.center.set(centerX / mass, centerY / mass);
+    } else {
+      massData.center.setZero();
+    }
+    massComputed = true;
+  }
+
+  /**
+   * Creates a body from the template
+   * 
+   * @param argWorld
+   * @param argX
+   * @param argY
+   * @param argAngle
+   * @param argVX
+   * @param argVY
+   * @return
+   */
+  public Body create(World argWorld, float argX, float argY, float argAngle, float argVX,
+      float argVY) {
+    final BodyDef bd = bodyDef;
+    final float x = bd.position.x, y = bd.position.y, angle = bd.angle;
+    final float vx = bd.linearVelocity.x, vy = bd.linearVelocity.y;
+    bd.position.set(argX, argY);
+    bd.angle = argAngle;
+    bd.linearVelocity.set(argVX, argVY);
+    Body body = argWorld.createBody(bd);
+    bd.position.set(x, y);
+    bd.angle = angle;
+    bd.linearVelocity.set(vx, vy);
+
+    if (bd.type != BodyType.DYNAMIC) {
+      for (int i = 0; i < fixtureDefs.size(); i++) {
+        body.createFixture(fixtureDefs.get(i));
+      }
+      return body;
+    }
+
+    // without density the fixtures don't reset the mass as they're added
+    MassData md = getMassData();
+    for (int i = 0; i < fixtureDefs.size(); i++) {
+      FixtureDef fd = fixtureDefs.get(i);
+      float density = fd.density;
+      fd.density = 0;
+      Fixture fixture = body.createFixture(fd);
+      fd.density = density;
+      fixture.setDensity(density);
+    }
+    if (md.mass > 0 || massSet) {
+      body.setMassData(md);
+    }
+    if (!sleepingAllowed) {
+      body.setSleepingAllowed(false);
+    }
+    return body;
+  }
+}
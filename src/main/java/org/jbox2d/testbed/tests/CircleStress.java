@@ -69,6 +69,16 @@ public class CircleStress extends TestbedTest {
     return true;
   }
 
+  @Override
+  public boolean isPrototypeResetEnabled() {
+    return true;
+  }
+
+  @Override
+  protected void prototypeRestored() {
+    joint.setMotorSpeed(MathUtils.PI);
+  }
+
   @Override
   public Vec2 getDefaultCameraPos() {
     return new Vec2(0, 20);
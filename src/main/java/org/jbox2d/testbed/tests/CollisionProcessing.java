@@ -26,8 +26,7 @@
  */
 package org.jbox2d.testbed.tests;
 
-import java.util.HashSet;
-
+import org.jbox2d.collision.Manifold;
 import org.jbox2d.collision.shapes.CircleShape;
 import org.jbox2d.collision.shapes.EdgeShape;
 import org.jbox2d.collision.shapes.PolygonShape;
@@ -37,8 +36,7 @@ import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
 import org.jbox2d.dynamics.BodyType;
 import org.jbox2d.dynamics.FixtureDef;
-import org.jbox2d.testbed.framework.ContactPoint;
-import org.jbox2d.testbed.framework.TestbedSettings;
+import org.jbox2d.dynamics.contacts.Contact;
 import org.jbox2d.testbed.framework.TestbedTest;
 
 /**
@@ -148,41 +146,26 @@ public class CollisionProcessing extends TestbedTest {
   }
 
   @Override
-  public void step(TestbedSettings settings) {
-    super.step(settings);
-
-    // We are going to destroy some bodies according to contact
-    // points. We must buffer the bodies that should be destroyed
-    // because they may belong to multiple contact points.
-    HashSet<Body> nuke = new HashSet<Body>();
-
-    // Traverse the contact results. Destroy bodies that
-    // are touching heavier bodies.
-    for (int i = 0; i < getPointCount(); ++i) {
-      ContactPoint point = points[i];
-
-      Body body1 = point.fixtureA.getBody();
-      Body body2 = point.fixtureB.getBody();
-      float mass1 = body1.getMass();
-      float mass2 = body2.getMass();
-
-      if (mass1 > 0.0f && mass2 > 0.0f) {
-        if (mass2 > mass1) {
-          nuke.add(body1);
-        } else {
-          nuke.add(body2);
-        }
-      }
+  public void preSolve(Contact contact, Manifold oldManifold) {
+    super.preSolve(contact, oldManifold);
+    if (contact.getManifold().pointCount == 0) {
+      return;
     }
 
-    // Sort the nuke array to group duplicates.
-    // Arrays.sort(nuke);
-
-    // Destroy the bodies, skipping duplicates.
-    for (Body b : nuke) {
-
-      if (b != getBomb()) {
-        getWorld().destroyBody(b);
+    // We are going to destroy some bodies according to contact
+    // points. The command buffer skips the bodies that are already
+    // queued, because they may belong to multiple contacts.
+
+    // Destroy bodies that are touching heavier bodies.
+    Body body1 = contact.getFixtureA().getBody();
+    Body body2 = contact.getFixtureB().getBody();
+    float mass1 = body1.getMass();
+    float mass2 = body2.getMass();
+
+    if (mass1 > 0.0f && mass2 > 0.0f) {
+      Body nuke = mass2 > mass1 ? body1 : body2;
+      if (nuke != getBomb()) {
+        getCommands().destroy(nuke);
       }
     }
   }
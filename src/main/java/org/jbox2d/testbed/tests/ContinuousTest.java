@@ -31,14 +31,15 @@ import org.jbox2d.collision.TimeOfImpact;
 import org.jbox2d.collision.shapes.CircleShape;
 import org.jbox2d.collision.shapes.EdgeShape;
 import org.jbox2d.collision.shapes.PolygonShape;
-import org.jbox2d.collision.shapes.Shape;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
 import org.jbox2d.dynamics.BodyType;
 import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.FixtureDef;
 import org.jbox2d.testbed.framework.TestbedSettings;
 import org.jbox2d.testbed.framework.TestbedTest;
+import org.jbox2d.testbed.framework.WorldCommandBuffer;
 
 /**
  * @author Daniel Murphy
@@ -49,7 +50,8 @@ public class ContinuousTest extends TestbedTest {
   Fixture currFixture;
   PolygonShape m_poly;
   CircleShape m_circle;
-  Shape nextShape = null;
+  FixtureDef m_polyDef;
+  FixtureDef m_circleDef;
   boolean polygon = false;
   float m_angularVelocity;
 
@@ -59,11 +61,7 @@ public class ContinuousTest extends TestbedTest {
   }
 
   public void switchObjects() {
-    if (polygon) {
-      nextShape = m_circle;
-    } else {
-      nextShape = m_poly;
-    }
+    getCommands().swapFixture(currFixture, polygon ? m_circleDef : m_polyDef);
     polygon = !polygon;
   }
 
@@ -88,13 +86,28 @@ public class ContinuousTest extends TestbedTest {
     m_circle = new CircleShape();
     m_circle.m_p.setZero();
     m_circle.m_radius = 0.5f;
+    m_polyDef = new FixtureDef();
+    m_polyDef.shape = m_poly;
+    m_polyDef.density = 1.0f;
+    m_circleDef = new FixtureDef();
+    m_circleDef.shape = m_circle;
+    m_circleDef.density = 1.0f;
 
     BodyDef bd = new BodyDef();
     bd.type = BodyType.DYNAMIC;
     bd.position.set(0.0f, 20.0f);
 
     m_body = getWorld().createBody(bd);
-    currFixture = m_body.createFixture(m_poly, 1.0f);
+    currFixture = m_body.createFixture(m_polyDef);
+    polygon = false;
+
+    getCommands().setListener(new WorldCommandBuffer.Listener() {
+      public void fixtureSwapped(Fixture argOld, Fixture argNew) {
+        currFixture = argNew;
+      }
+
+      public void bodyCreated(Body argBody, int argId) {}
+    });
 
     m_angularVelocity = (float) Math.random() * 100 - 50;
     m_angularVelocity = 33.468121f;
@@ -117,11 +130,6 @@ public class ContinuousTest extends TestbedTest {
 
   @Override
   public void step(TestbedSettings settings) {
-    if (nextShape != null) {
-      m_body.destroyFixture(currFixture);
-      currFixture = m_body.createFixture(nextShape, 1f);
-      nextShape = null;
-    }
     // if (stepCount == 12){
     // stepCount += 0;
     // } what is this?
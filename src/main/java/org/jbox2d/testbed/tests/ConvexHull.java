@@ -30,16 +30,28 @@ import org.jbox2d.common.Settings;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.testbed.framework.TestbedSettings;
 import org.jbox2d.testbed.framework.TestbedTest;
+import org.jbox2d.testbed.geometry.ConvexHullBuilder;
 
 public class ConvexHull extends TestbedTest {
 
-  private final int count = Settings.maxPolygonVertices;
+  private static final int MANY = 200;
+
+  private int count = Settings.maxPolygonVertices;
 
   private boolean m_auto = false;
-  private Vec2[] m_points = new Vec2[count];
+  private Vec2[] m_points = new Vec2[MANY];
+  private float[] m_coords = new float[2 * MANY];
+  private Vec2[] m_hull = new Vec2[MANY];
+  private final ConvexHullBuilder m_builder = new ConvexHullBuilder();
 
   @Override
   public void initTest(boolean deserialized) {
+    if (m_points[0] == null) {
+      for (int i = 0; i < MANY; i++) {
+        m_points[i] = new Vec2();
+        m_hull[i] = new Vec2();
+      }
+    }
     if (deserialized) {
       return;
     }
@@ -54,9 +66,11 @@ public class ConvexHull extends TestbedTest {
       float x = MathUtils.randomFloat(0, 10);
       float y = MathUtils.randomFloat(0, 10);
 
-      Vec2 v = new Vec2(x, y);
+      Vec2 v = m_points[i];
+      v.set(x, y);
       MathUtils.clampToOut(v, lowerBound, upperBound, v);
-      m_points[i] = v;
+      m_coords[2 * i] = v.x;
+      m_coords[2 * i + 1] = v.y;
     }
   }
 
@@ -65,26 +79,49 @@ public class ConvexHull extends TestbedTest {
       generate();
     } else if (argKeyChar == 'a') {
       m_auto = !m_auto;
+    } else if (argKeyChar == 'm') {
+      count = count == MANY ? Settings.maxPolygonVertices : MANY;
+      generate();
     }
   }
 
   PolygonShape shape = new PolygonShape();
   Color3f color = new Color3f(.9f, .9f, .9f);
   Color3f color2 = new Color3f(.9f, .5f, .5f);
+  Color3f color3 = new Color3f(.5f, .5f, .9f);
 
   @Override
   public synchronized void step(TestbedSettings settings) {
     super.step(settings);
 
-    shape.set(m_points, count);
+    int hullCount = m_builder.build(m_coords, count);
+    if (hullCount < 3) {
+      addTextLine("Degenerate hull, press g");
+      return;
+    }
+    for (int i = 0; i < hullCount; i++) {
+      m_hull[i].set(m_builder.getX(i), m_builder.getY(i));
+    }
+    float area = m_builder.getArea();
+    m_builder.simplify(Settings.maxPolygonVertices);
+    m_builder.toPolygon(shape);
 
     addTextLine("Press g to generate a new random convex hull");
+    addTextLine("Press m to switch between " + Settings.maxPolygonVertices + " and " + MANY
+        + " points");
+    if (hullCount > Settings.maxPolygonVertices) {
+      addTextLine(String.format("hull vertices = %d, area kept = %.1f%%", hullCount,
+          100 * m_builder.getArea() / area));
+      getDebugDraw().drawPolygon(m_hull, hullCount, color3);
+    }
 
     getDebugDraw().drawPolygon(shape.m_vertices, shape.m_count, color);
 
     for (int i = 0; i < count; ++i) {
       getDebugDraw().drawPoint(m_points[i], 2.0f, color2);
-      getDebugDraw().drawString(m_points[i].add(new Vec2(0.05f, 0.05f)), i + "", Color3f.WHITE);
+      if (count <= Settings.maxPolygonVertices) {
+        getDebugDraw().drawString(m_points[i].add(new Vec2(0.05f, 0.05f)), i + "", Color3f.WHITE);
+      }
     }
 
     assert (shape.validate());
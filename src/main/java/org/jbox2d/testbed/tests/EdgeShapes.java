@@ -26,7 +26,6 @@
  */
 package org.jbox2d.testbed.tests;
 
-import org.jbox2d.callbacks.RayCastCallback;
 import org.jbox2d.collision.shapes.CircleShape;
 import org.jbox2d.collision.shapes.EdgeShape;
 import org.jbox2d.collision.shapes.PolygonShape;
@@ -36,10 +35,12 @@ import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
 import org.jbox2d.dynamics.BodyType;
-import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.FixtureDef;
 import org.jbox2d.testbed.framework.TestbedSettings;
 import org.jbox2d.testbed.framework.TestbedTest;
+import org.jbox2d.testbed.query.RayCastBuffer;
+import org.jbox2d.testbed.spawn.BodyPool;
+import org.jbox2d.testbed.spawn.BodyTemplate;
 
 /**
  * @author Daniel Murphy
@@ -49,6 +50,8 @@ public class EdgeShapes extends TestbedTest {
   int e_maxBodies = 256;
   int m_bodyIndex;
   Body m_bodies[] = new Body[e_maxBodies];
+  int m_kinds[] = new int[e_maxBodies];
+  BodyPool m_pools[] = new BodyPool[5];
   PolygonShape m_polygons[] = new PolygonShape[4];
   CircleShape m_circle;
 
@@ -126,43 +129,34 @@ public class EdgeShapes extends TestbedTest {
       m_circle.m_radius = 0.5f;
     }
 
+    for (int i = 0; i < m_pools.length; i++) {
+      BodyDef bd = new BodyDef();
+      bd.type = BodyType.DYNAMIC;
+      if (i == 4) {
+        bd.angularDamping = 0.02f;
+      }
+      FixtureDef fd = new FixtureDef();
+      fd.shape = i < 4 ? m_polygons[i] : m_circle;
+      fd.friction = 0.3f;
+      fd.density = 20.0f;
+      m_pools[i] = new BodyPool(getWorld(), new BodyTemplate(bd).addFixture(fd));
+    }
+
     m_bodyIndex = 0;
     m_angle = 0.0f;
   }
 
   void Create(int index) {
     if (m_bodies[m_bodyIndex] != null) {
-      getWorld().destroyBody(m_bodies[m_bodyIndex]);
+      m_pools[m_kinds[m_bodyIndex]].release(m_bodies[m_bodyIndex]);
       m_bodies[m_bodyIndex] = null;
     }
 
-    BodyDef bd = new BodyDef();
-
     float x = MathUtils.randomFloat(-10.0f, 10.0f);
     float y = MathUtils.randomFloat(10.0f, 20.0f);
-    bd.position.set(x, y);
-    bd.angle = MathUtils.randomFloat(-MathUtils.PI, MathUtils.PI);
-    bd.type = BodyType.DYNAMIC;
-
-    if (index == 4) {
-      bd.angularDamping = 0.02f;
-    }
-
-    m_bodies[m_bodyIndex] = getWorld().createBody(bd);
-
-    if (index < 4) {
-      FixtureDef fd = new FixtureDef();
-      fd.shape = m_polygons[index];
-      fd.friction = 0.3f;
-      fd.density = 20.0f;
-      m_bodies[m_bodyIndex].createFixture(fd);
-    } else {
-      FixtureDef fd = new FixtureDef();
-      fd.shape = m_circle;
-      fd.friction = 0.3f;
-      fd.density = 20.0f;
-      m_bodies[m_bodyIndex].createFixture(fd);
-    }
+    float angle = MathUtils.randomFloat(-MathUtils.PI, MathUtils.PI);
+    m_bodies[m_bodyIndex] = m_pools[index].obtain(x, y, angle, 0, 0);
+    m_kinds[m_bodyIndex] = index;
 
     m_bodyIndex = (m_bodyIndex + 1) % e_maxBodies;
   }
@@ -170,7 +164,7 @@ public class EdgeShapes extends TestbedTest {
   void DestroyBody() {
     for (int i = 0; i < e_maxBodies; ++i) {
       if (m_bodies[i] != null) {
-        getWorld().destroyBody(m_bodies[i]);
+        m_pools[m_kinds[i]].release(m_bodies[i]);
         m_bodies[i] = null;
         return;
       }
@@ -194,7 +188,17 @@ public class EdgeShapes extends TestbedTest {
     }
   }
 
-  EdgeShapesCallback callback = new EdgeShapesCallback();
+  RayCastBuffer buffer = new RayCastBuffer(RayCastBuffer.Mode.CLOSEST, 1);
+
+  private static final Color3f POINT_COLOR = new Color3f(0.4f, 0.9f, 0.4f);
+  private static final Color3f RAY_COLOR = new Color3f(0.8f, 0.8f, 0.8f);
+  private static final Color3f NORMAL_COLOR = new Color3f(0.9f, 0.9f, 0.4f);
+
+  // pooling
+  Vec2 point1 = new Vec2();
+  Vec2 point2 = new Vec2();
+  Vec2 point = new Vec2();
+  Vec2 head = new Vec2();
 
   @Override
   public void step(TestbedSettings settings) {
@@ -205,23 +209,22 @@ public class EdgeShapes extends TestbedTest {
     addTextLine("Press 1-5 to drop stuff");
 
     float L = 25.0f;
-    Vec2 point1 = new Vec2(0.0f, 10.0f);
-    Vec2 d = new Vec2(L * MathUtils.cos(m_angle), -L * MathUtils.abs(MathUtils.sin(m_angle)));
-    Vec2 point2 = point1.add(d);
-
+    point1.set(0.0f, 10.0f);
+    point2.set(L * MathUtils.cos(m_angle), -L * MathUtils.abs(MathUtils.sin(m_angle)));
+    point2.addLocal(point1);
 
-    callback.m_fixture = null;
-    getWorld().raycast(callback, point1, point2);
+    buffer.cast(getWorld(), point1, point2);
 
-    if (callback.m_fixture != null) {
-      getDebugDraw().drawPoint(callback.m_point, 5.0f, new Color3f(0.4f, 0.9f, 0.4f));
+    if (buffer.hasHit()) {
+      buffer.getPoint(0, point);
+      getDebugDraw().drawPoint(point, 5.0f, POINT_COLOR);
 
-      getDebugDraw().drawSegment(point1, callback.m_point, new Color3f(0.8f, 0.8f, 0.8f));
+      getDebugDraw().drawSegment(point1, point, RAY_COLOR);
 
-      Vec2 head = callback.m_normal.mul(.5f).addLocal(callback.m_point);
-      getDebugDraw().drawSegment(callback.m_point, head, new Color3f(0.9f, 0.9f, 0.4f));
+      buffer.getNormal(0, head).mulLocal(.5f).addLocal(point);
+      getDebugDraw().drawSegment(point, head, NORMAL_COLOR);
     } else {
-      getDebugDraw().drawSegment(point1, point2, new Color3f(0.8f, 0.8f, 0.8f));
+      getDebugDraw().drawSegment(point1, point2, RAY_COLOR);
     }
 
     if (advanceRay) {
@@ -235,22 +238,3 @@ public class EdgeShapes extends TestbedTest {
   }
 
 }
-
-
-class EdgeShapesCallback implements RayCastCallback {
-  EdgeShapesCallback() {
-    m_fixture = null;
-  }
-
-  public float reportFixture(Fixture fixture, final Vec2 point, final Vec2 normal, float fraction) {
-    m_fixture = fixture;
-    m_point = point;
-    m_normal = normal;
-
-    return fraction;
-  }
-
-  Fixture m_fixture;
-  Vec2 m_point;
-  Vec2 m_normal;
-};
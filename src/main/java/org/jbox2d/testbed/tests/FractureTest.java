@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.tests;
+
+import org.jbox2d.callbacks.ContactImpulse;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.EdgeShape;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.contacts.Contact;
+import org.jbox2d.testbed.fracture.FractureManager;
+import org.jbox2d.testbed.fracture.FracturePattern;
+import org.jbox2d.testbed.framework.TestbedSettings;
+import org.jbox2d.testbed.framework.TestbedTest;
+
+/**
+ * Walls of pre-fractured slabs, knocked down by heavy balls
+ */
+public class FractureTest extends TestbedTest {
+  private static final int COLUMNS = 6;
+  private static final int ROWS = 8;
+
+  FractureManager m_fracture;
+  // only rebuilt when a body breaks
+  private String m_countText;
+  private int m_countBroken = -1;
+
+  @Override
+  public void initTest(boolean argDeserialized) {
+    {
+      BodyDef bd = new BodyDef();
+      Body ground = getWorld().createBody(bd);
+
+      EdgeShape shape = new EdgeShape();
+      shape.set(new Vec2(-40.0f, 0.0f), new Vec2(40.0f, 0.0f));
+      ground.createFixture(shape, 0.0f);
+    }
+
+    m_fracture = new FractureManager(getWorld());
+    m_countBroken = -1;
+    Vec2[] outline = new Vec2[] {new Vec2(-1.0f, -0.5f), new Vec2(1.0f, -0.5f),
+        new Vec2(1.0f, 0.5f), new Vec2(-1.0f, 0.5f)};
+    FracturePattern[] patterns = new FracturePattern[3];
+    for (int i = 0; i < patterns.length; i++) {
+      patterns[i] = FracturePattern.voronoi(outline, 4, 6 + 2 * i, i);
+    }
+
+    BodyDef bd = new BodyDef();
+    bd.type = BodyType.DYNAMIC;
+    FixtureDef fd = new FixtureDef();
+    fd.density = 1.0f;
+    fd.friction = 0.6f;
+    for (int i = 0; i < COLUMNS; i++) {
+      for (int j = 0; j < ROWS; j++) {
+        bd.position.set(-10.0f + 4.0f * i + (j % 2), 0.5f + 1.0f * j);
+        m_fracture.create(patterns[(i + j) % patterns.length], bd, fd, 15.0f);
+      }
+    }
+
+    {
+      CircleShape shape = new CircleShape();
+      shape.m_radius = 1.0f;
+      bd.bullet = true;
+      for (int i = 0; i < 3; i++) {
+        bd.position.set(-30.0f - 3.0f * i, 5.0f + 4.0f * i);
+        bd.linearVelocity.set(40.0f, 5.0f);
+        getWorld().createBody(bd).createFixture(shape, 20.0f);
+      }
+    }
+  }
+
+  @Override
+  public void postSolve(Contact contact, ContactImpulse impulse) {
+    m_fracture.postSolve(contact, impulse);
+  }
+
+  @Override
+  public void step(TestbedSettings settings) {
+    super.step(settings);
+
+    m_fracture.update();
+    if (m_fracture.getBrokenCount() != m_countBroken) {
+      m_countBroken = m_fracture.getBrokenCount();
+      m_countText = "intact/broken = " + m_fracture.getIntactCount() + "/" + m_countBroken;
+    }
+    addTextLine(m_countText);
+  }
+
+  @Override
+  public String getTestName() {
+    return "Fracture";
+  }
+}
@@ -23,26 +23,26 @@
  ******************************************************************************/
 package org.jbox2d.testbed.tests;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-
 import org.jbox2d.collision.shapes.CircleShape;
 import org.jbox2d.collision.shapes.MassData;
 import org.jbox2d.collision.shapes.PolygonShape;
 import org.jbox2d.common.MathUtils;
-import org.jbox2d.common.Settings;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
 import org.jbox2d.dynamics.BodyType;
 import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.testbed.fluid.FluidSolver;
 import org.jbox2d.testbed.framework.TestbedSettings;
 import org.jbox2d.testbed.framework.TestbedTest;
+import org.jbox2d.testbed.spawn.BodyPool;
+import org.jbox2d.testbed.spawn.BodySpawner;
+import org.jbox2d.testbed.spawn.BodyTemplate;
 
 // TODO make this liquid usable for developers
 /**
  * The dynamic tree broadphase doesn't really suite this test
- * well.
+ * well. The liquid constraint itself is solved by a {@link FluidSolver}.
  */
 public class LiquidTest extends TestbedTest {
 	private boolean firstTime = true;
@@ -58,171 +58,45 @@ public class LiquidTest extends TestbedTest {
 	private float fluidMaxY = 10.0f;
 	
 	private Body[] liquid;
+	private BodyTemplate particle;
+	private BodySpawner spawner;
+	private BodyPool pool;
 	
 	private float rad = 0.6f;
 	private float visc = 0.004f;//0.005f;
 	
-	private ArrayList<Integer>[][] hash;
-	private int hashWidth,hashHeight;
-	
-	private int hashX(float x) {
-		float f = MathUtils.map(x, fluidMinX, fluidMaxX, 0, hashWidth-.001f);
-		return (int)f;
-	}
-	
-	private int hashY(float y) {
-		float f = MathUtils.map(y,fluidMinY,fluidMaxY,0,hashHeight-.001f);
-		return (int)f;
-	}
-	
-	@SuppressWarnings("unchecked")
-	public LiquidTest() {
-        hash = new ArrayList[40][40];
-        for (int i=0; i<40; ++i) {
-        	for (int j=0; j<40; ++j) {
-        		hash[i][j] = new ArrayList<Integer>();
-        	}
-        }
-        hashWidth = 40;
-        hashHeight = 40;
-    }
-	
-	private void hashLocations() {
-		for(int a = 0; a < hashWidth; a++)
-        {
-            for(int b = 0; b < hashHeight; b++){
-            	hash[a][b].clear();
-            }
-        }
-
-        for(int a = 0; a < liquid.length; a++)
-        {
-            int hcell = hashX(liquid[a].m_sweep.c.x);
-            int vcell = hashY(liquid[a].m_sweep.c.y);
-            if(hcell > -1 && hcell < hashWidth && vcell > -1 && vcell < hashHeight)
-                hash[hcell][vcell].add(new Integer(a));
-        }
-	}
+	private final FluidSolver solver = new FluidSolver(nParticles);
+	// the liquid particles that are in the fluid box, by their index in the solver
+	private int[] inFluid = new int[nParticles];
 	
 	private void applyLiquidConstraint(float deltaT) {
-		/*
-		 * Unfortunately, this simulation method is not actually scale
-		 * invariant, and it breaks down for rad < ~3 or so.  So we need
-		 * to scale everything to an ideal rad and then scale it back after.
-		 */
-		final float idealRad = 50.0f;
-		float multiplier = idealRad / rad;
-		
-		float[] xchange = new float[liquid.length];
-		float[] ychange = new float[liquid.length];
-		Arrays.fill(xchange,0.0f);
-		Arrays.fill(ychange, 0.0f);
-		
-		float[] xs = new float[liquid.length];
-		float[] ys = new float[liquid.length];
-		float[] vxs = new float[liquid.length];
-		float[] vys = new float[liquid.length];
-		for (int i=0; i<liquid.length; ++i) {
-			xs[i] = multiplier*liquid[i].m_sweep.c.x;
-			ys[i] = multiplier*liquid[i].m_sweep.c.y;
-			vxs[i] = multiplier*liquid[i].m_linearVelocity.x;
-			vys[i] = multiplier*liquid[i].m_linearVelocity.y;
+		solver.setRadius(rad);
+		solver.setViscosity(visc);
+		if (inFluid.length < liquid.length) {
+			inFluid = new int[liquid.length];
 		}
-		
-		for(int i = 0; i < liquid.length; i++) {
-			// Populate the neighbor list from the 9 proximate cells
-			ArrayList<Integer> neighbors = new ArrayList<Integer>();
-	        int hcell = hashX(liquid[i].m_sweep.c.x);
-	        int vcell = hashY(liquid[i].m_sweep.c.y);
-	        for(int nx = -1; nx < 2; nx++) {
-	            for(int ny = -1; ny < 2; ny++) {
-	                int xc = hcell + nx;
-	                int yc = vcell + ny;
-	                if(xc > -1 && xc < hashWidth && yc > -1 && yc < hashHeight && hash[xc][yc].size() > 0) {
-	                    for(int a = 0; a < hash[xc][yc].size(); a++) {
-	                        Integer ne = (Integer)hash[xc][yc].get(a);
-	                        if(ne != null && ne.intValue() != i) neighbors.add(ne);
-	                    }
-	                }
-	            }
-	        }
-	        
-	        // Particle pressure calculated by particle proximity
-            // Pressures = 0 iff all particles within range are idealRad distance away
-            float[] vlen = new float[neighbors.size()];
-            float p = 0.0f;
-            float pnear = 0.0f;
-            for(int a = 0; a < neighbors.size(); a++) {
-                Integer n = (Integer)neighbors.get(a);
-                int j = n.intValue();
-                float vx = xs[j]-xs[i];//liquid[j].m_sweep.c.x - liquid[i].m_sweep.c.x;
-                float vy = ys[j]-ys[i];//liquid[j].m_sweep.c.y - liquid[i].m_sweep.c.y;
-                
-                //early exit check
-                if(vx > -idealRad && vx < idealRad && vy > -idealRad && vy < idealRad) {
-                    float vlensqr = (vx * vx + vy * vy);
-                    //within idealRad check
-                    if(vlensqr < idealRad*idealRad) {
-                    	vlen[a] = (float)Math.sqrt(vlensqr);
-                    	if (vlen[a] < Settings.EPSILON) vlen[a] = idealRad-.01f;
-                        float oneminusq = 1.0f-(vlen[a] / idealRad);
-                        p = (p + oneminusq*oneminusq);
-                        pnear = (pnear + oneminusq*oneminusq*oneminusq);
-                    } else {
-                    	vlen[a] = Float.MAX_VALUE;
-                    }
-                }
-            }
-            
-            // Now actually apply the forces
-            //System.out.println(p);
-            float pressure = (p - 5F) / 2.0F; //normal pressure term
-            float presnear = pnear / 2.0F; //near particles term
-            float changex = 0.0F;
-            float changey = 0.0F;
-            for(int a = 0; a < neighbors.size(); a++) {
-                Integer n = (Integer)neighbors.get(a);
-                int j = n.intValue();
-                float vx = xs[j]-xs[i];//liquid[j].m_sweep.c.x - liquid[i].m_sweep.c.x;
-                float vy = ys[j]-ys[i];//liquid[j].m_sweep.c.y - liquid[i].m_sweep.c.y;
-                if(vx > -idealRad && vx < idealRad && vy > -idealRad && vy < idealRad) {
-                    if(vlen[a] < idealRad) {
-                        float q = vlen[a] / idealRad;
-                        float oneminusq = 1.0f-q;
-                        float factor = oneminusq * (pressure + presnear * oneminusq) / (2.0F*vlen[a]);
-                        float dx = vx * factor;
-                        float dy = vy * factor;
-                        float relvx = vxs[j] - vxs[i];
-                        float relvy = vys[j] - vys[i];
-                        factor = visc * oneminusq * deltaT;
-                        dx -= relvx * factor;
-                        dy -= relvy * factor;
-                        //liquid[j].m_xf.position.x += dx;//*deltaT*deltaT;
-                        //liquid[j].m_xf.position.y += dy;//*deltaT*deltaT;
-                        //liquid[j].m_linearVelocity.x += dx;///deltaT;//deltaT;
-                        //liquid[j].m_linearVelocity.y += dy;///deltaT;//deltaT;
-                        xchange[j] += dx;
-                        ychange[j] += dy;
-                        changex -= dx;
-                        changey -= dy;
-                    }
-                }
-            }
-	        //liquid[i].m_xf.position.x += changex;//*deltaT*deltaT;
-	        //liquid[i].m_xf.position.y += changey;//*deltaT*deltaT;
-	        //liquid[i].m_linearVelocity.x += changex;///deltaT;//deltaT;
-	        //liquid[i].m_linearVelocity.y += changey;///deltaT;//deltaT;
-	        xchange[i] += changex;
-	        ychange[i] += changey;
-        }
-		//multiplier *= deltaT;
+		int n = 0;
 		for (int i=0; i<liquid.length; ++i) {
-			liquid[i].m_xf.p.x += xchange[i] / multiplier;
-			liquid[i].m_xf.p.y += ychange[i] / multiplier;
-			liquid[i].m_linearVelocity.x += xchange[i] / (multiplier*deltaT);
-			liquid[i].m_linearVelocity.y += ychange[i] / (multiplier*deltaT);
+			Vec2 c = liquid[i].m_sweep.c;
+			if (c.x >= fluidMinX && c.x < fluidMaxX && c.y >= fluidMinY && c.y < fluidMaxY) {
+				inFluid[n++] = i;
+			}
+		}
+		solver.setCount(n);
+		for (int k=0; k<n; ++k) {
+			Body b = liquid[inFluid[k]];
+			solver.setParticle(k, b.m_sweep.c.x, b.m_sweep.c.y, b.m_linearVelocity.x, b.m_linearVelocity.y);
+		}
+		solver.solve(deltaT);
+		for (int k=0; k<n; ++k) {
+			Body b = liquid[inFluid[k]];
+			float dx = solver.getDeltaX(k);
+			float dy = solver.getDeltaY(k);
+			b.m_xf.p.x += dx;
+			b.m_xf.p.y += dy;
+			b.m_linearVelocity.x += dx / deltaT;
+			b.m_linearVelocity.y += dy / deltaT;
 		}
-		
 	}
 	
 	@Override
@@ -277,28 +151,35 @@ public class LiquidTest extends TestbedTest {
 		fd.shape = pd;
 		fd.density = 1f;
 		fd.filter.groupIndex = -10;
+		fd.userData = LIQUID_INT;
 		pd.m_radius = .05f;
 		fd.restitution = 0.4f;
 		fd.friction = 0.0f;
+		BodyDef bd = new BodyDef();
+		bd.fixedRotation = true;
+		bd.type = BodyType.DYNAMIC;
+		MassData md = new MassData();
+		md.mass = massPerParticle;
+		md.I = 1.0f;
+		particle = new BodyTemplate(bd).addFixture(fd);
+		particle.setMassData(md);
+		particle.setSleepingAllowed(false);
+		
+		spawner = new BodySpawner(getWorld());
+		spawner.setBroadPhase(getBroadPhase());
+		spawner.setListener(new BodySpawner.SpawnListener() {
+			public void bodySpawned(Body argBody, int argId) {
+				liquid[argId] = argBody;
+			}
+		});
 		float cx = 0.0f;
 		float cy = 25.0f;
 		for (int i=0; i<nParticles; ++i) {
-			BodyDef bd = new BodyDef();
-			bd.position = new Vec2( MathUtils.randomFloat(cx-boxWidth*.5f ,cx+boxWidth*.5f),
-					MathUtils.randomFloat(cy-boxHeight*.5f,cy+boxHeight*.5f));
-			bd.fixedRotation = true;
-			bd.type = BodyType.DYNAMIC;
-			Body b = getWorld().createBody(bd);
-			
-			b.createFixture(fd).setUserData(LIQUID_INT);
-			
-			MassData md = new MassData();
-			md.mass = massPerParticle;
-			md.I = 1.0f;
-			b.setMassData(md);
-			b.setSleepingAllowed(false);
-			liquid[i] = b;
+			spawner.spawn(particle, MathUtils.randomFloat(cx-boxWidth*.5f ,cx+boxWidth*.5f),
+					MathUtils.randomFloat(cy-boxHeight*.5f,cy+boxHeight*.5f), 0, 0, 0, i);
 		}
+		spawner.flush();
+		pool = new BodyPool(getWorld(), particle);
 		
 		PolygonShape polyDef = new PolygonShape();
 		polyDef.setAsBox(MathUtils.randomFloat(0.3f,0.7f), MathUtils.randomFloat(0.3f,0.7f));
@@ -322,7 +203,6 @@ public class LiquidTest extends TestbedTest {
 		
 		int n = 1;
 		for (int i=0; i<n; ++i) {
-			hashLocations();
 			applyLiquidConstraint(dt*n);
 		}
 		dampenLiquid();
@@ -335,31 +215,10 @@ public class LiquidTest extends TestbedTest {
 	private void checkBounds() {
 		for (int i=0; i<liquid.length; ++i) {
 			if (liquid[i].getWorldCenter().y < -10.0f) {
-				getWorld().destroyBody(liquid[i]);
-				float massPerParticle = totalMass / nParticles;
-				
-				CircleShape pd = new CircleShape();
-				FixtureDef fd = new FixtureDef();
-				fd.shape = pd;
-				fd.density = 1.0f;
-				fd.filter.groupIndex = -10;
-				pd.m_radius = .05f;
-				fd.restitution = 0.4f;
-				fd.friction = 0.0f;
 				float cx = 0.0f + MathUtils.randomFloat(-0.6f,0.6f);
 				float cy = 15.0f + MathUtils.randomFloat(-2.3f,2.0f);
-				BodyDef bd = new BodyDef();
-				bd.position = new Vec2( cx, cy );
-				bd.fixedRotation = true;
-				bd.type = BodyType.DYNAMIC;
-				Body b = getWorld().createBody(bd);
-				b.createFixture(fd).setUserData(LIQUID_INT);
-				MassData md = new MassData();
-				md.mass = massPerParticle;
-				md.I = 1.0f;
-				b.setMassData(md);
-				b.setSleepingAllowed(false);
-				liquid[i] = b;
+				pool.release(liquid[i]);
+				liquid[i] = pool.obtain(cx, cy, 0, 0, 0);
 			}
 		}
 		
@@ -383,6 +242,12 @@ public class LiquidTest extends TestbedTest {
 	}
 
 
+	@Override
+	public void exit() {
+		super.exit();
+		solver.shutdown();
+	}
+
 	@Override
 	public String getTestName() {
 		return "Liquid Test";
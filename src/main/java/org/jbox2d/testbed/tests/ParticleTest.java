@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Daniel Murphy
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 	* Redistributions of source code must retain the above copyright notice,
+ * 	  this list of conditions and the following disclaimer.
+ * 	* Redistributions in binary form must reproduce the above copyright notice,
+ * 	  this list of conditions and the following disclaimer in the documentation
+ * 	  and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package org.jbox2d.testbed.tests;
+
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.Color3f;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.testbed.fluid.ParticleSystem;
+import org.jbox2d.testbed.framework.TestbedSettings;
+import org.jbox2d.testbed.framework.TestbedTest;
+
+/**
+ * A tank of liquid from a {@link ParticleSystem}, with floating boxes and a paddle stirring it.
+ * Unlike {@link LiquidTest} the particles aren't bodies, so there can be tens of thousands.
+ */
+public class ParticleTest extends TestbedTest {
+  private static final int INITIAL_PARTICLES = 5000;
+  private static final int ADDED_PARTICLES = 1000;
+  // the fluid's rest density with this radius is about one particle per spacing squared
+  private static final float FLUID_RADIUS = .3f;
+  private static final float SPACING = .1f;
+  private static final Color3f PARTICLE_COLOR = new Color3f(.3f, .5f, 1f);
+
+  private ParticleSystem particles;
+  private Body paddle;
+  private int lastStep;
+  private double stepMillis;
+  private boolean firstTime = true;
+
+  @Override
+  public void initTest(boolean argDeserialized) {
+    if (firstTime) {
+      setCamera(new Vec2(0, 12), 15f);
+      firstTime = false;
+    }
+
+    {
+      BodyDef bd = new BodyDef();
+      Body ground = getWorld().createBody(bd);
+      PolygonShape shape = new PolygonShape();
+      shape.setAsBox(16, .5f, new Vec2(0, -.5f), 0);
+      ground.createFixture(shape, 0);
+      shape.setAsBox(.5f, 14, new Vec2(-16.5f, 13.5f), 0);
+      ground.createFixture(shape, 0);
+      shape.setAsBox(.5f, 14, new Vec2(16.5f, 13.5f), 0);
+      ground.createFixture(shape, 0);
+    }
+
+    {
+      BodyDef bd = new BodyDef();
+      bd.type = BodyType.KINEMATIC;
+      bd.position.set(8, 3);
+      bd.angularVelocity = .5f * MathUtils.PI;
+      paddle = getWorld().createBody(bd);
+      PolygonShape shape = new PolygonShape();
+      shape.setAsBox(2.5f, .2f);
+      paddle.createFixture(shape, 0);
+    }
+
+    for (int i = 0; i < 4; i++) {
+      BodyDef bd = new BodyDef();
+      bd.type = BodyType.DYNAMIC;
+      bd.position.set(-12 + i * 4, 14);
+      Body body = getWorld().createBody(bd);
+      if (i % 2 == 0) {
+        PolygonShape shape = new PolygonShape();
+        shape.setAsBox(.8f, .5f);
+        body.createFixture(shape, .5f);
+      } else {
+        CircleShape shape = new CircleShape();
+        shape.m_radius = .6f;
+        body.createFixture(shape, .5f);
+      }
+    }
+
+    if (particles != null) {
+      particles.shutdown();
+    }
+    particles = new ParticleSystem(getWorld(), INITIAL_PARTICLES);
+    particles.getFluidSolver().setRadius(FLUID_RADIUS);
+    addBlock(-15, SPACING, 20, INITIAL_PARTICLES);
+    lastStep = getStepCount();
+  }
+
+  private void addBlock(float argX, float argY, float argWidth, int argCount) {
+    int columns = (int) (argWidth / SPACING);
+    for (int i = 0; i < argCount; i++) {
+      particles.createParticle(argX + (i % columns) * SPACING + MathUtils.randomFloat(0, .01f), argY
+          + (i / columns) * SPACING, 0, 0);
+    }
+  }
+
+  @Override
+  public void keyPressed(char argKeyChar, int argKeyCode) {
+    switch (argKeyChar) {
+      case 'a':
+        addBlock(-6, 20, 12, ADDED_PARTICLES);
+        break;
+      case 'f':
+        particles.setFluid(!particles.isFluid());
+        break;
+    }
+  }
+
+  @Override
+  public void step(TestbedSettings settings) {
+    super.step(settings);
+    if (getStepCount() != lastStep) {
+      lastStep = getStepCount();
+      float hz = settings.getSetting(TestbedSettings.Hz).value;
+      long start = System.nanoTime();
+      particles.step(1 / hz);
+      stepMillis = (System.nanoTime() - start) / 1e6;
+
+      // recycle the particles that escaped the tank
+      float[] y = particles.getPositionY();
+      for (int i = particles.getCount() - 1; i >= 0; i--) {
+        if (y[i] < -10) {
+          particles.destroyParticle(i);
+        }
+      }
+    }
+    particles.draw(getDebugDraw(), PARTICLE_COLOR);
+    addTextLine("Press 'a' to add " + ADDED_PARTICLES + " particles, 'f' to turn the fluid "
+        + (particles.isFluid() ? "off" : "on"));
+    addTextLine("Particles: " + particles.getCount() + ", particle step: "
+        + String.format("%.2f", stepMillis) + " ms");
+  }
+
+  @Override
+  public void exit() {
+    super.exit();
+    particles.shutdown();
+  }
+
+  @Override
+  public String getTestName() {
+    return "Particles";
+  }
+}
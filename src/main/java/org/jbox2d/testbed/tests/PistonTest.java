@@ -45,6 +45,11 @@ public class PistonTest extends TestbedTest {
     return true;
   }
 
+  @Override
+  public boolean isPrototypeResetEnabled() {
+    return true;
+  }
+
   @Override
   public void initTest(boolean deserialized) {
     if (deserialized) {
@@ -23,6 +23,7 @@
  ******************************************************************************/
 package org.jbox2d.testbed.tests;
 
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
 import org.jbox2d.collision.shapes.CircleShape;
 import org.jbox2d.collision.shapes.EdgeShape;
 import org.jbox2d.collision.shapes.PolygonShape;
@@ -33,9 +34,13 @@ import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
 import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.testbed.broadphase.TrackingBroadPhase;
 import org.jbox2d.testbed.framework.TestbedSettings;
 import org.jbox2d.testbed.framework.TestbedTest;
-import org.jbox2d.callbacks.RayCastCallback;
+import org.jbox2d.testbed.query.RayCastBuffer;
+import org.jbox2d.testbed.query.RayCastCache;
+import org.jbox2d.testbed.spawn.BodyPool;
+import org.jbox2d.testbed.spawn.BodyTemplate;
 
 public class RayCastTest extends TestbedTest {
 
@@ -47,7 +52,8 @@ public class RayCastTest extends TestbedTest {
 
   int m_bodyIndex;
   Body[] m_bodies;
-  Integer[] m_userData;
+  int[] m_kinds;
+  BodyPool[] m_pools;
   PolygonShape[] m_polygons;
   CircleShape m_circle;
 
@@ -55,15 +61,27 @@ public class RayCastTest extends TestbedTest {
 
   Mode m_mode;
 
+  TrackingBroadPhase m_tracker;
+  RayCastCache m_cache;
+  int m_cachedRay;
+  boolean m_cached;
+
   @Override
   public String getTestName() {
     return "Raycast";
   }
 
+  @Override
+  protected BroadPhaseStrategy createBroadPhase(String argName) {
+    m_tracker = new TrackingBroadPhase(super.createBroadPhase(argName));
+    return m_tracker;
+  }
+
   @Override
   public void initTest(boolean deserialized) {
     m_bodies = new Body[e_maxBodies];
-    m_userData = new Integer[e_maxBodies];
+    m_kinds = new int[e_maxBodies];
+    m_pools = new BodyPool[5];
     m_polygons = new PolygonShape[4];
     {
       BodyDef bd = new BodyDef();
@@ -121,22 +139,50 @@ public class RayCastTest extends TestbedTest {
       m_circle.m_radius = 0.5f;
     }
 
+    for (int i = 0; i < m_pools.length; i++) {
+      BodyDef bd = new BodyDef();
+      if (i == 4) {
+        bd.angularDamping = 0.02f;
+      }
+      bd.userData = i;
+      FixtureDef fd = new FixtureDef();
+      fd.shape = i < 4 ? m_polygons[i] : m_circle;
+      fd.friction = 0.3f;
+      m_pools[i] = new BodyPool(getWorld(), new BodyTemplate(bd).addFixture(fd));
+    }
+
     m_bodyIndex = 0;
 
     m_angle = 0.0f;
 
     m_mode = Mode.e_closest;
+    m_buffer.setIgnoredUserData(0);
+
+    // the same filter as the buffer
+    m_cache = new RayCastCache(getWorld(), m_tracker) {
+      @Override
+      protected boolean accepts(Fixture argFixture) {
+        Object userData = argFixture.getBody().getUserData();
+        return userData == null || (Integer) userData != 0;
+      }
+    };
+    m_cachedRay = m_cache.addRay(0, 0, 0, 0);
+    m_cached = false;
   }
 
-  RayCastClosestCallback ccallback = new RayCastClosestCallback();
-  RayCastAnyCallback acallback = new RayCastAnyCallback();
-  RayCastMultipleCallback mcallback = new RayCastMultipleCallback();
+  // Polygon 0 is filtered, so the ray always misses one type of polygon
+  RayCastBuffer m_buffer = new RayCastBuffer(RayCastBuffer.Mode.CLOSEST, 30);
+
+  private static final Color3f POINT_COLOR = new Color3f(0.4f, 0.9f, 0.4f);
+  private static final Color3f RAY_COLOR = new Color3f(0.8f, 0.8f, 0.8f);
+  private static final Color3f NORMAL_COLOR = new Color3f(0.9f, 0.9f, 0.4f);
 
   // pooling
   Vec2 point1 = new Vec2();
   Vec2 d = new Vec2();
   Vec2 pooledHead = new Vec2();
   Vec2 point2 = new Vec2();
+  Vec2 point = new Vec2();
 
   @Override
   public void step(TestbedSettings settings) {
@@ -144,9 +190,9 @@ public class RayCastTest extends TestbedTest {
 
     super.step(settings);
 
-    addTextLine("Press 1-5 to drop stuff, m to change the mode");
+    addTextLine("Press 1-5 to drop stuff, m to change the mode, c to toggle the cache");
     addTextLine("Polygon 1 is filtered");
-    addTextLine("Mode = " + m_mode);
+    addTextLine("Mode = " + m_mode + (m_cached && m_mode == Mode.e_closest ? " (cached)" : ""));
 
     float L = 11.0f;
     point1.set(0.0f, 10.0f);
@@ -154,45 +200,43 @@ public class RayCastTest extends TestbedTest {
     point2.set(point1);
     point2.addLocal(d);
 
-    if (m_mode == Mode.e_closest) {
-      ccallback.init();
-      getWorld().raycast(ccallback, point1, point2);
-
-      if (ccallback.m_hit) {
-        getDebugDraw().drawPoint(ccallback.m_point, 5.0f, new Color3f(0.4f, 0.9f, 0.4f));
-        getDebugDraw().drawSegment(point1, ccallback.m_point, new Color3f(0.8f, 0.8f, 0.8f));
-        pooledHead.set(ccallback.m_normal);
-        pooledHead.mulLocal(.5f).addLocal(ccallback.m_point);
-        getDebugDraw().drawSegment(ccallback.m_point, pooledHead, new Color3f(0.9f, 0.9f, 0.4f));
+    // the cache follows the ray whatever the mode, so the world's changes don't pile up
+    m_cache.setRay(m_cachedRay, point1.x, point1.y, point2.x, point2.y);
+    m_cache.update();
+
+    if (m_mode == Mode.e_closest && m_cached) {
+      addTextLine("Searches: " + m_cache.getFullCasts() + ", casts: " + m_cache.getCasts() + ", reused: "
+          + m_cache.getReuses());
+      if (m_cache.hasHit(m_cachedRay)) {
+        point.set(m_cache.getPointX(m_cachedRay), m_cache.getPointY(m_cachedRay));
+        getDebugDraw().drawPoint(point, 5.0f, POINT_COLOR);
+        getDebugDraw().drawSegment(point1, point, RAY_COLOR);
+        pooledHead.set(m_cache.getNormalX(m_cachedRay), m_cache.getNormalY(m_cachedRay));
+        pooledHead.mulLocal(.5f).addLocal(point);
+        getDebugDraw().drawSegment(point, pooledHead, NORMAL_COLOR);
       } else {
-        getDebugDraw().drawSegment(point1, point2, new Color3f(0.8f, 0.8f, 0.8f));
+        getDebugDraw().drawSegment(point1, point2, RAY_COLOR);
       }
-    } else if (m_mode == Mode.e_any) {
-      acallback.init();
-      getWorld().raycast(acallback, point1, point2);
-
-      if (acallback.m_hit) {
-        getDebugDraw().drawPoint(acallback.m_point, 5.0f, new Color3f(0.4f, 0.9f, 0.4f));
-        getDebugDraw().drawSegment(point1, acallback.m_point, new Color3f(0.8f, 0.8f, 0.8f));
-        pooledHead.set(acallback.m_normal);
-        pooledHead.mulLocal(.5f).addLocal(acallback.m_point);
-        getDebugDraw().drawSegment(acallback.m_point, pooledHead, new Color3f(0.9f, 0.9f, 0.4f));
+    } else {
+      if (m_mode == Mode.e_closest) {
+        m_buffer.setMode(RayCastBuffer.Mode.CLOSEST);
+      } else if (m_mode == Mode.e_any) {
+        m_buffer.setMode(RayCastBuffer.Mode.ANY);
       } else {
-        getDebugDraw().drawSegment(point1, point2, new Color3f(0.8f, 0.8f, 0.8f));
+        m_buffer.setMode(RayCastBuffer.Mode.ALL);
+      }
+      m_buffer.cast(getWorld(), point1, point2);
+
+      if (m_mode == Mode.e_multiple || !m_buffer.hasHit()) {
+        getDebugDraw().drawSegment(point1, point2, RAY_COLOR);
       }
-    } else if (m_mode == Mode.e_multiple) {
-      mcallback.init();
-      getWorld().raycast(mcallback, point1, point2);
-      getDebugDraw().drawSegment(point1, point2, new Color3f(0.8f, 0.8f, 0.8f));
-
-      for (int i = 0; i < mcallback.m_count; ++i) {
-        Vec2 p = mcallback.m_points[i];
-        Vec2 n = mcallback.m_normals[i];
-        getDebugDraw().drawPoint(p, 5.0f, new Color3f(0.4f, 0.9f, 0.4f));
-        getDebugDraw().drawSegment(point1, p, new Color3f(0.8f, 0.8f, 0.8f));
-        pooledHead.set(n);
-        pooledHead.mulLocal(.5f).addLocal(p);
-        getDebugDraw().drawSegment(p, pooledHead, new Color3f(0.9f, 0.9f, 0.4f));
+      for (int i = 0; i < m_buffer.getCount(); ++i) {
+        m_buffer.getPoint(i, point);
+        getDebugDraw().drawPoint(point, 5.0f, POINT_COLOR);
+        getDebugDraw().drawSegment(point1, point, RAY_COLOR);
+        m_buffer.getNormal(i, pooledHead);
+        pooledHead.mulLocal(.5f).addLocal(point);
+        getDebugDraw().drawSegment(point, pooledHead, NORMAL_COLOR);
       }
     }
 
@@ -203,38 +247,15 @@ public class RayCastTest extends TestbedTest {
 
   void Create(int index) {
     if (m_bodies[m_bodyIndex] != null) {
-      getWorld().destroyBody(m_bodies[m_bodyIndex]);
+      m_pools[m_kinds[m_bodyIndex]].release(m_bodies[m_bodyIndex]);
       m_bodies[m_bodyIndex] = null;
     }
 
-    BodyDef bd = new BodyDef();
-
     float x = (float) Math.random() * 20 - 10;
     float y = (float) Math.random() * 20;
-    bd.position.set(x, y);
-    bd.angle = (float) Math.random() * MathUtils.TWOPI - MathUtils.PI;
-
-    m_userData[m_bodyIndex] = index;
-    bd.userData = m_userData[m_bodyIndex];
-
-    if (index == 4) {
-      bd.angularDamping = 0.02f;
-    }
-
-    m_bodies[m_bodyIndex] = getWorld().createBody(bd);
-
-    if (index < 4) {
-      FixtureDef fd = new FixtureDef();
-      fd.shape = m_polygons[index];
-      fd.friction = 0.3f;
-      m_bodies[m_bodyIndex].createFixture(fd);
-    } else {
-      FixtureDef fd = new FixtureDef();
-      fd.shape = m_circle;
-      fd.friction = 0.3f;
-
-      m_bodies[m_bodyIndex].createFixture(fd);
-    }
+    float angle = (float) Math.random() * MathUtils.TWOPI - MathUtils.PI;
+    m_bodies[m_bodyIndex] = m_pools[index].obtain(x, y, angle, 0, 0);
+    m_kinds[m_bodyIndex] = index;
 
     m_bodyIndex = (m_bodyIndex + 1) % e_maxBodies;
   }
@@ -242,7 +263,7 @@ public class RayCastTest extends TestbedTest {
   void DestroyBody() {
     for (int i = 0; i < e_maxBodies; ++i) {
       if (m_bodies[i] != null) {
-        getWorld().destroyBody(m_bodies[i]);
+        m_pools[m_kinds[i]].release(m_bodies[i]);
         m_bodies[i] = null;
         return;
       }
@@ -265,6 +286,11 @@ public class RayCastTest extends TestbedTest {
         DestroyBody();
         break;
 
+      case 'c':
+        m_cached = !m_cached;
+        m_cache.resetCounters();
+        break;
+
       case 'm':
         if (m_mode == Mode.e_closest) {
           m_mode = Mode.e_any;
@@ -278,107 +304,3 @@ public class RayCastTest extends TestbedTest {
   }
 
 }
-
-// This test demonstrates how to use the world ray-cast feature.
-// NOTE: we are intentionally filtering one of the polygons, therefore
-// the ray will always miss one type of polygon.
-
-// This callback finds the closest hit. Polygon 0 is filtered.
-class RayCastClosestCallback implements RayCastCallback {
-
-  boolean m_hit;
-  Vec2 m_point;
-  Vec2 m_normal;
-
-  public void init() {
-    m_hit = false;
-  }
-
-  public float reportFixture(Fixture fixture, Vec2 point, Vec2 normal, float fraction) {
-    Body body = fixture.getBody();
-    Object userData = body.getUserData();
-    if (userData != null) {
-      int index = (Integer) userData;
-      if (index == 0) {
-        // filter
-        return -1f;
-      }
-    }
-
-    m_hit = true;
-    m_point = point;
-    m_normal = normal;
-    return fraction;
-  }
-
-};
-
-// This callback finds any hit. Polygon 0 is filtered.
-class RayCastAnyCallback implements RayCastCallback {
-  public void init() {
-    m_hit = false;
-  }
-
-  public float reportFixture(Fixture fixture, Vec2 point, Vec2 normal, float fraction) {
-    Body body = fixture.getBody();
-    Object userData = body.getUserData();
-    if (userData != null) {
-      int index = (Integer) userData;
-      if (index == 0) {
-        // filter
-        return -1f;
-      }
-    }
-
-    m_hit = true;
-    m_point = point;
-    m_normal = normal;
-    return 0f;
-  }
-
-  boolean m_hit;
-  Vec2 m_point;
-  Vec2 m_normal;
-};
-
-// This ray cast collects multiple hits along the ray. Polygon 0 is filtered.
-class RayCastMultipleCallback implements RayCastCallback {
-  public int e_maxCount = 30;
-  Vec2 m_points[] = new Vec2[e_maxCount];
-  Vec2 m_normals[] = new Vec2[e_maxCount];
-  int m_count;
-
-  public void init() {
-    for (int i = 0; i < e_maxCount; i++) {
-      m_points[i] = new Vec2();
-      m_normals[i] = new Vec2();
-    }
-    m_count = 0;
-  }
-
-  public float reportFixture(Fixture fixture, Vec2 point, Vec2 normal, float fraction) {
-    Body body = fixture.getBody();
-    int index = 0;
-    Object userData = body.getUserData();
-    if (userData != null) {
-      index = (Integer) userData;
-      if (index == 0) {
-        // filter
-        return -1f;
-      }
-    }
-
-    assert (m_count < e_maxCount);
-
-    m_points[m_count].set(point);
-    m_normals[m_count].set(normal);
-    ++m_count;
-
-    if (m_count == e_maxCount) {
-      return 0f;
-    }
-
-    return 1f;
-  }
-
-};
@@ -6,15 +6,19 @@ import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
 import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.FixtureDef;
 import org.jbox2d.dynamics.joints.RevoluteJoint;
 import org.jbox2d.dynamics.joints.RevoluteJointDef;
 import org.jbox2d.testbed.framework.TestbedSettings;
 import org.jbox2d.testbed.framework.TestbedTest;
+import org.jbox2d.testbed.spawn.BodySpawner;
+import org.jbox2d.testbed.spawn.BodyTemplate;
 
 public class Tumbler extends TestbedTest {
   private static final int MAX_NUM = 800;
   RevoluteJoint m_joint;
-  int m_count;
+  BodyTemplate m_box;
+  BodySpawner m_spawner;
 
   @Override
   public void initTest(boolean deserialized) {
@@ -46,27 +50,48 @@ public class Tumbler extends TestbedTest {
       jd.enableMotor = true;
       m_joint = (RevoluteJoint) m_world.createJoint(jd);
     }
-    m_count = 0;
-  }
-
-  @Override
-  public synchronized void step(TestbedSettings settings) {
-    super.step(settings);
 
-    if (m_count < MAX_NUM) {
+    {
       BodyDef bd = new BodyDef();
       bd.type = BodyType.DYNAMIC;
-      bd.position.set(0.0f, 10.0f);
-      Body body = m_world.createBody(bd);
-
       PolygonShape shape = new PolygonShape();
       shape.setAsBox(0.125f, 0.125f);
-      body.createFixture(shape, 1.0f);
+      FixtureDef fd = new FixtureDef();
+      fd.shape = shape;
+      fd.density = 1.0f;
+      m_box = new BodyTemplate(bd).addFixture(fd);
+    }
+    // one box a step
+    m_spawner = new BodySpawner(m_world);
+    m_spawner.setBroadPhase(getBroadPhase());
+    m_spawner.setMaxPerStep(1);
+    queueBoxes();
+  }
 
-      ++m_count;
+  private void queueBoxes() {
+    m_spawner.clear();
+    for (int i = 0; i < MAX_NUM; i++) {
+      m_spawner.spawn(m_box, 0.0f, 10.0f, 0, 0, 0, i);
     }
   }
 
+  @Override
+  public boolean isPrototypeResetEnabled() {
+    return true;
+  }
+
+  @Override
+  protected void prototypeRestored() {
+    queueBoxes();
+  }
+
+  @Override
+  public synchronized void step(TestbedSettings settings) {
+    super.step(settings);
+
+    m_spawner.update();
+  }
+
   @Override
   public String getTestName() {
     return "Tumbler";
@@ -28,6 +28,9 @@ import org.jbox2d.common.MathUtils;
 public class SinCosTable {
 	
 	public static final float TWOPI = (float) (Math.PI * 2);
+	private static final float INV_TWOPI = (float) (1 / (Math.PI * 2));
+	// adding and subtracting 1.5 * 2^23 rounds a float to the nearest integer
+	private static final float ROUND_MAGIC = 12582912f;
 	
 	public static boolean LERP_LOOKUP = true;
 	
@@ -35,18 +38,32 @@ public class SinCosTable {
 	public final int tableLength;
 	
 	public final float[] sinLUT;
-	//public final float[] cosLUT;
+
+	// sin at every step from -pi past pi + pi/2, so the batch lookups can lerp into the next entry
+	// and read cosine a quarter turn ahead without wrapping
+	private final float[] lerpLUT;
+	private final float stepsPerTurn;
+	private final float quarterSteps;
+	private final int maxSinIndex;
+	private final int maxCosIndex;
 
 	public SinCosTable(float argPrecision){
 		precision = argPrecision;
 		tableLength = (int) Math.ceil(TWOPI / precision);
 		
 		sinLUT = new float[tableLength];
-		//cosLUT = new float[tableLength];
 		
 		for(int i=0; i<tableLength; i++){
 			sinLUT[i] = (float) Math.sin( i * precision);
-			//cosLUT[i] = (float) Math.cos( i * precision);
+		}
+
+		stepsPerTurn = (float) (Math.PI * 2 / precision);
+		quarterSteps = (float) (Math.PI / 2 / precision);
+		maxSinIndex = tableLength;
+		maxCosIndex = tableLength + (int) Math.ceil(quarterSteps);
+		lerpLUT = new float[maxCosIndex + 2];
+		for(int i=0; i<lerpLUT.length; i++){
+			lerpLUT[i] = (float) Math.sin((double) i * precision - Math.PI);
 		}
 	}
 	
@@ -74,4 +91,89 @@ public class SinCosTable {
 			return sinLUT[ MathUtils.round(x / precision) % tableLength];
 		}
 	}
+
+	/**
+	 * Computes the lerped sine of the first <code>argCount</code> angles. Any finite angle is
+	 * accepted, including negative ones, though precision drops with magnitude. The loop has no
+	 * branches, integer division or float-int-float round trips, so the range reduction and
+	 * interpolation pipeline well; only the table reads are scalar.
+	 * 
+	 * @param argIn angles in radians
+	 * @param argOut receives the sines, may be the same array as argIn
+	 * @param argCount
+	 */
+	public final void sin(float[] argIn, float[] argOut, int argCount){
+		final float[] table = lerpLUT;
+		final float steps = stepsPerTurn;
+		final int maxIndex = maxSinIndex;
+		for(int i=0; i<argCount; i++){
+			final float t = tablePosition(argIn[i], steps);
+			final int index = Math.max(0, Math.min((int) t, maxIndex));
+			final float frac = t - index;
+			final float a = table[index];
+			argOut[i] = a + frac * (table[index + 1] - a);
+		}
+	}
+
+	/**
+	 * Computes the lerped cosine of the first <code>argCount</code> angles.
+	 * 
+	 * @see #sin(float[], float[], int)
+	 * @param argIn angles in radians
+	 * @param argOut receives the cosines, may be the same array as argIn
+	 * @param argCount
+	 */
+	public final void cos(float[] argIn, float[] argOut, int argCount){
+		final float[] table = lerpLUT;
+		final float steps = stepsPerTurn;
+		final float quarter = quarterSteps;
+		final int maxIndex = maxCosIndex;
+		for(int i=0; i<argCount; i++){
+			final float t = tablePosition(argIn[i], steps) + quarter;
+			final int index = Math.max(0, Math.min((int) t, maxIndex));
+			final float frac = t - index;
+			final float a = table[index];
+			argOut[i] = a + frac * (table[index + 1] - a);
+		}
+	}
+
+	/**
+	 * Computes the lerped sine and cosine of the first <code>argCount</code> angles, sharing the
+	 * range reduction between them.
+	 * 
+	 * @see #sin(float[], float[], int)
+	 * @param argIn angles in radians
+	 * @param argSinOut receives the sines
+	 * @param argCosOut receives the cosines
+	 * @param argCount
+	 */
+	public final void sinCos(float[] argIn, float[] argSinOut, float[] argCosOut, int argCount){
+		final float[] table = lerpLUT;
+		final float steps = stepsPerTurn;
+		final float quarter = quarterSteps;
+		final int maxSin = maxSinIndex;
+		final int maxCos = maxCosIndex;
+		for(int i=0; i<argCount; i++){
+			final float t = tablePosition(argIn[i], steps);
+			final int sIndex = Math.max(0, Math.min((int) t, maxSin));
+			final float sFrac = t - sIndex;
+			final float s = table[sIndex];
+			final float tc = t + quarter;
+			final int cIndex = Math.max(0, Math.min((int) tc, maxCos));
+			final float cFrac = tc - cIndex;
+			final float c = table[cIndex];
+			argSinOut[i] = s + sFrac * (table[sIndex + 1] - s);
+			argCosOut[i] = c + cFrac * (table[cIndex + 1] - c);
+		}
+	}
+
+	/**
+	 * Maps an angle to its position in the table, in [0, stepsPerTurn]. Rounds to whole turns in
+	 * float arithmetic, since converting to int and back puts a conversion stall on every element.
+	 */
+	private static float tablePosition(float argAngle, float argStepsPerTurn){
+		final float turns = argAngle * INV_TWOPI;
+		final float whole = (turns + ROUND_MAGIC) - ROUND_MAGIC;
+		return (turns - whole + .5f) * argStepsPerTurn;
+	}
 }
@@ -24,6 +24,7 @@
 package org.jbox2d.tests.math;
 
 import org.jbox2d.common.MathUtils;
+import org.jbox2d.testbed.perf.BenchmarkHistory;
 
 public class SinCosTest {
   // formating stuff
@@ -40,7 +41,12 @@ public class SinCosTest {
   public static int speedTrials = 20;
   public static int speedIterations = 50000;
 
+  // batch
+  public static int batchSize = 1024;
+  public static float batchRange = 10 * MathUtils.PI;
+
   private static SinCosTable[] tables;
+  private static float sink;
 
   /**
    * @param args
@@ -71,9 +77,13 @@ public class SinCosTest {
     System.out.println("Speed Iterations: " + speedIterations);
 
     constructTables();
-    doAccuracyTest(true);
+    double[][] accuracy = doAccuracyTest(true);
+    doBatchAccuracyTest(true);
+    double[][][] speed = new double[overall][][];
+    double[][][] batchSpeed = new double[overall][][];
     for (int i = 0; i < overall; i++) {
-      doSpeedTest(true);
+      speed[i] = doSpeedTest(true);
+      batchSpeed[i] = doBatchSpeedTest(true);
       try {
         Thread.sleep(1000);
       } catch (InterruptedException e) {
@@ -81,6 +91,38 @@ public class SinCosTest {
         e.printStackTrace();
       }
     }
+    recordHistory(accuracy, speed, batchSpeed);
+  }
+
+  /**
+   * records the lerped accuracy and the speeds in the benchmark history, each overall speed test
+   * set is a sample
+   */
+  private static void recordHistory(double[][] accuracy, double[][][] speed, double[][][] batchSpeed) {
+    BenchmarkHistory history = new BenchmarkHistory("SinCosTest");
+    String[] speedNames = { "sin", "lerped sin", null, "Math.sin" };
+    String[] batchNames = { "batch sin", "batch sinCos", "table sin", "sinLUT", "StrictMath.sin" };
+    for (int t = 0; t < numTables; t++) {
+      String table = formatDecimal(tables[t].precision, NUM_DECIMALS) + " ";
+      history.add(table + "lerped error", "rad", false, accuracy[t][1]);
+      for (int c = 0; c < speedNames.length; c++) {
+        if (speedNames[c] != null) {
+          history.add(table + speedNames[c], "ops/s", true, column(speed, t, c));
+        }
+      }
+      for (int c = 0; c < batchNames.length; c++) {
+        history.add(table + batchNames[c], "ops/s", true, column(batchSpeed, t, c));
+      }
+    }
+    history.save();
+  }
+
+  private static double[] column(double[][][] sets, int table, int column) {
+    double[] samples = new double[sets.length];
+    for (int i = 0; i < sets.length; i++) {
+      samples[i] = sets[i][table][column];
+    }
+    return samples;
   }
 
   /**
@@ -183,6 +225,161 @@ public class SinCosTest {
     return speedResults;
   }
 
+  /**
+   * accuracy test of the batch lookups against StrictMath, over angles in [-batchRange,
+   * batchRange]. returns double[tables][0-5 (batch sin avg, batch sin max, batch cos avg, batch cos
+   * max, sinLUT avg, sinLUT max)]. The sinLUT columns don't depend on the table, they're for
+   * reference.
+   * 
+   * @return
+   */
+  public static final double[][] doBatchAccuracyTest(boolean print) {
+    System.out.println("\ndoing batch accuracy tests");
+
+    double[][] accuracyResults = new double[numTables][6];
+    float[] angles = randomAngles(accuracyIterations, batchRange);
+    float[] sines = new float[accuracyIterations];
+    float[] cosines = new float[accuracyIterations];
+
+    double lutTotal = 0, lutMax = 0;
+    for (int i = 0; i < accuracyIterations; i++) {
+      double diff = Math.abs(StrictMath.sin(angles[i]) - MathUtils.sinLUT(angles[i]));
+      lutTotal += diff;
+      lutMax = Math.max(lutMax, diff);
+    }
+
+    for (int t = 0; t < numTables; t++) {
+      tables[t].sinCos(angles, sines, cosines, accuracyIterations);
+      double sinTotal = 0, sinMax = 0, cosTotal = 0, cosMax = 0;
+      for (int i = 0; i < accuracyIterations; i++) {
+        double sinDiff = Math.abs(StrictMath.sin(angles[i]) - sines[i]);
+        double cosDiff = Math.abs(StrictMath.cos(angles[i]) - cosines[i]);
+        sinTotal += sinDiff;
+        sinMax = Math.max(sinMax, sinDiff);
+        cosTotal += cosDiff;
+        cosMax = Math.max(cosMax, cosDiff);
+      }
+      accuracyResults[t][0] = sinTotal / accuracyIterations;
+      accuracyResults[t][1] = sinMax;
+      accuracyResults[t][2] = cosTotal / accuracyIterations;
+      accuracyResults[t][3] = cosMax;
+      accuracyResults[t][4] = lutTotal / accuracyIterations;
+      accuracyResults[t][5] = lutMax;
+    }
+
+    if (print) {
+      System.out.println("Batch accuracy results, displacement from StrictMath");
+      String header[] = { "Sin avg", "Sin max", "Cos avg", "Cos max", "sinLUT avg", "sinLUT max" };
+      printTable(header, tableNames(), accuracyResults);
+    }
+    return accuracyResults;
+  }
+
+  /**
+   * batch speed test, in angles per second over batches of batchSize angles in [0, 2pi), where
+   * the scalar table lookup is valid. returns double[tables][0-4 (batch sin, batch sinCos, scalar
+   * table sin, sinLUT, StrictMath)]
+   * 
+   * @return
+   */
+  public static final double[][] doBatchSpeedTest(boolean print) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batchSize must be positive, was " + batchSize);
+    }
+    System.out.println("\nDoing batch speed tests");
+    sink = 0;
+    double[][] speedResults = new double[numTables][5];
+    float[] angles = randomAngles(batchSize, 0);
+    float[] sines = new float[batchSize];
+    float[] cosines = new float[batchSize];
+    int batches = Math.max(1, speedIterations / batchSize);
+
+    SinCosTable.LERP_LOOKUP = true;
+    for (int t = 0; t < numTables; t++) {
+      SinCosTable table = tables[t];
+      long batchTime = 0, sinCosTime = 0, scalarTime = 0, lutTime = 0, mathTime = 0;
+      for (int trial = 0; trial < speedTrials; trial++) {
+        long start = System.nanoTime();
+        for (int b = 0; b < batches; b++) {
+          table.sin(angles, sines, batchSize);
+          sink += sines[b % batchSize];
+        }
+        batchTime += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int b = 0; b < batches; b++) {
+          table.sinCos(angles, sines, cosines, batchSize);
+          sink += sines[b % batchSize] + cosines[b % batchSize];
+        }
+        sinCosTime += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int b = 0; b < batches; b++) {
+          for (int i = 0; i < batchSize; i++) {
+            sines[i] = table.sin(angles[i]);
+          }
+          sink += sines[b % batchSize];
+        }
+        scalarTime += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int b = 0; b < batches; b++) {
+          for (int i = 0; i < batchSize; i++) {
+            sines[i] = MathUtils.sinLUT(angles[i]);
+          }
+          sink += sines[b % batchSize];
+        }
+        lutTime += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int b = 0; b < batches; b++) {
+          for (int i = 0; i < batchSize; i++) {
+            sines[i] = (float) StrictMath.sin(angles[i]);
+          }
+          sink += sines[b % batchSize];
+        }
+        mathTime += System.nanoTime() - start;
+      }
+      double angleCount = (double) batches * batchSize * speedTrials * 1000000000d;
+      speedResults[t][0] = angleCount / batchTime;
+      speedResults[t][1] = angleCount / sinCosTime;
+      speedResults[t][2] = angleCount / scalarTime;
+      speedResults[t][3] = angleCount / lutTime;
+      speedResults[t][4] = angleCount / mathTime;
+    }
+
+    if (print) {
+      System.out.println("Batch speed results, in angles per second (higher number means faster)");
+      String header[] = { "Batch sin", "Batch sinCos", "Table sin", "sinLUT", "StrictMath" };
+      printTable(header, tableNames(), speedResults);
+    }
+    // read back what every timed loop added, so none of them can be optimized away
+    System.out.println("Batch checksum: " + sink);
+    return speedResults;
+  }
+
+  /**
+   * random angles in [-argRange, argRange], or [0, 2pi) if the range is 0
+   */
+  private static float[] randomAngles(int count, float argRange) {
+    float[] angles = new float[count];
+    for (int i = 0; i < count; i++) {
+      angles[i] =
+          argRange == 0 ? (float) Math.random() * MathUtils.TWOPI
+              : (float) (Math.random() * 2 - 1) * argRange;
+    }
+    return angles;
+  }
+
+  private static String[] tableNames() {
+    String side[] = new String[numTables + 1];
+    side[0] = "Table precision";
+    for (int i = 0; i < tables.length; i++) {
+      side[i + 1] = formatDecimal(tables[i].precision, NUM_DECIMALS);
+    }
+    return side;
+  }
+
   private static double accuracyTest(SinCosTable table, int iterations) {
     double totalDiff = 0f, diff = 0f;
 